@@ -7,6 +7,9 @@ echo "CONF_DIR $CONF_DIR"
 echo "EAD_HEAP_SIZE: ${EAD_HEAP_SIZE}"
 echo "EAD_JAVA_OPTS: ${EAD_JAVA_OPTS}"
 echo "EAD_PORT: ${EAD_PORT}"
+echo "EAD_SYNC_ROLE: ${EAD_SYNC_ROLE}"
+echo "EAD_REPLICATION_PRIMARY: ${EAD_REPLICATION_PRIMARY}"
+echo "EAD_ZOOKEEPER_QUORUM: ${EAD_ZOOKEEPER_QUORUM}"
 echo "log4j directory: $EAD_LOG4J_DIR"
 echo "EAD USER: $EAD_USER" 
 echo "EAD Group: $EAD_GROUP "
@@ -0,0 +1,105 @@
+package com.krish.directory.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops calling a provider whose lookups keep failing. After the given number of failures
+ * in a row the circuit opens and the provider is not called until the probe interval
+ * elapsed. A single lookup then probes it: the circuit closes if it succeeds and opens
+ * again for another interval if it fails.
+ *
+ * @author krishdey
+ *
+ */
+public class CircuitBreaker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String name;
+
+  private final int failureThreshold;
+
+  private final long probeInterval;
+
+  private State state = State.CLOSED;
+
+  private int failures;
+
+  private long openedAt;
+
+  /**
+   * @param name of the provider, for the logs
+   * @param failureThreshold failures in a row opening the circuit, 0 to never open it
+   * @param probeInterval milliseconds before an open circuit is probed
+   */
+  public CircuitBreaker(String name, int failureThreshold, long probeInterval) {
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.probeInterval = probeInterval;
+  }
+
+  /**
+   * @return true if the provider can be called, the call being the probe of an open
+   *         circuit once the probe interval elapsed
+   */
+  public synchronized boolean allowRequest(long now) {
+    switch (state) {
+    case CLOSED:
+      return true;
+    case OPEN:
+      if (now - openedAt < probeInterval) {
+        return false;
+      }
+      state = State.HALF_OPEN;
+      LOG.info("Probing provider " + name + " after " + (now - openedAt) + " ms");
+      return true;
+    default:
+      // A probe is on its way
+      return false;
+    }
+  }
+
+  public synchronized void recordSuccess() {
+    if (state != State.CLOSED) {
+      LOG.info("Circuit of provider " + name + " closed");
+    }
+    state = State.CLOSED;
+    failures = 0;
+  }
+
+  public synchronized void recordFailure(long now) {
+    failures++;
+    if (state == State.HALF_OPEN
+        || (state == State.CLOSED && failureThreshold > 0 && failures >= failureThreshold)) {
+      state = State.OPEN;
+      openedAt = now;
+      LOG.warn("Circuit of provider " + name + " opened after " + failures
+          + " failures in a row, probing again in " + probeInterval + " ms");
+    }
+  }
+
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  public long getProbeInterval() {
+    return probeInterval;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return the milliseconds before an open circuit can be probed, 0 if it can be called
+   */
+  public synchronized long getRetryDelay(long now) {
+    return state == State.OPEN ? Math.max(0, openedAt + probeInterval - now) : 0;
+  }
+
+}
@@ -1,10 +1,19 @@
 package com.krish.directory.service;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.htrace.core.TraceScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,7 +29,66 @@ public class DefaultGroupMappingService implements GroupMappingService {
 
   private GroupsMappingBuilder groupServiceBuilder = new GroupsMappingBuilder();
   private EadSchemaService schemaService;
-  
+
+  /** Digest of the members last reconciled, per provider and group */
+  private final Map<String, String> digests = new ConcurrentHashMap<String, String>();
+
+  /** Configured groups which do not exist upstream */
+  private final NegativeGroupCache negativeCache = new NegativeGroupCache();
+
+  /** Last fetched members of every group, per provider */
+  private final Map<String, Map<String, MemberSet>> contributions =
+      new ConcurrentHashMap<String, Map<String, MemberSet>>();
+
+  /** Serializes the reconciliation of a group across the provider syncs */
+  private final ConcurrentHashMap<String, Object> groupLocks =
+      new ConcurrentHashMap<String, Object>();
+
+  private volatile GroupMembershipMerger.Policy mergePolicy =
+      GroupMembershipMerger.Policy.UNION;
+
+  /** Maximum number of member values added or removed by a single write of a group */
+  private static final int MEMBERS_PER_WRITE = 1000;
+
+  private SchemaWriter schemaWriter = new SchemaWriter(0, 1);
+
+  /** Providers by decreasing priority, for the PRIMARY merge policy */
+  private volatile List<String> providerPriority = new ArrayList<String>();
+
+  /** POSIX profile of the users and groups, null if it is off */
+  private PosixProfile posixProfile;
+
+  /** Members from which a group keeps them as membership entries, 0 to never */
+  private int largeGroupThreshold = GroupsMappingBuilder.LARGE_GROUP_THRESHOLD_DEFAULT;
+
+  /** Notified of every membership fetched from a provider */
+  private volatile MembershipListener membershipListener;
+
+  /** Journal of the fetched memberships, null until opened */
+  private volatile SyncJournal journal;
+
+  private long journalSyncInterval = GroupsMappingBuilder.JOURNAL_SYNC_INTERVAL_DEFAULT;
+  private int journalCompactRecords = GroupsMappingBuilder.JOURNAL_COMPACT_RECORDS_DEFAULT;
+
+  /** Membership snapshot published after the syncs, null for none */
+  private File snapshotFile;
+
+  /** Set when the memberships changed since the last snapshot */
+  private volatile boolean snapshotDirty = true;
+
+  /** Configuration the service was built with, or last reloaded from */
+  private Configuration groupMappingConf;
+
+  /** Settings only read at startup, a reload leaving them as they are */
+  private static final String[] RESTART_KEYS = { GroupsMappingBuilder.WRITER_THREADS_KEY,
+      GroupsMappingBuilder.WRITER_QUEUE_SIZE_KEY, GroupsMappingBuilder.JOURNAL_SYNC_INTERVAL_KEY,
+      GroupsMappingBuilder.JOURNAL_COMPACT_RECORDS_KEY,
+      GroupsMappingBuilder.POSIX_PROFILE_KEY, GroupsMappingBuilder.POSIX_UID_BASE_KEY,
+      GroupsMappingBuilder.POSIX_GID_BASE_KEY, GroupsMappingBuilder.POSIX_ID_SPAN_KEY,
+      GroupsMappingBuilder.POSIX_PRIMARY_GID_KEY, GroupsMappingBuilder.POSIX_HOME_KEY,
+      GroupsMappingBuilder.POSIX_SHELL_KEY, GroupsMappingBuilder.LARGE_GROUP_THRESHOLD_KEY,
+      GroupsMappingBuilder.SNAPSHOT_FILE_KEY };
+
   /**Logger for the class */
   private static final Logger LOG = LoggerFactory.getLogger(DefaultGroupMappingService.class);
   
@@ -28,6 +96,18 @@ public class DefaultGroupMappingService implements GroupMappingService {
   @Override
   public void setEadSchemaService(EadSchemaService schemaService) {
     this.schemaService = schemaService;
+    schemaService.setPosixProfile(posixProfile);
+    schemaService.setLargeGroupThreshold(largeGroupThreshold);
+  }
+
+  @Override
+  public void upgradeToPosix() throws Exception {
+    if (posixProfile == null) {
+      return;
+    }
+    if (schemaService != null) {
+      schemaService.upgradeToPosix();
+    }
   }
 
   /**
@@ -37,6 +117,196 @@ public class DefaultGroupMappingService implements GroupMappingService {
     Configuration conf = new Configuration();
     conf.addResource(groupMappingXml);
     groupServiceBuilder.buildCompositeGroupMappingProviders(conf);
+    groupMappingConf = conf;
+
+    loadMergeSettings(conf);
+    schemaWriter.close();
+    schemaWriter = new SchemaWriter(
+        conf.getInt(GroupsMappingBuilder.WRITER_THREADS_KEY,
+            GroupsMappingBuilder.WRITER_THREADS_DEFAULT),
+        conf.getInt(GroupsMappingBuilder.WRITER_QUEUE_SIZE_KEY,
+            GroupsMappingBuilder.WRITER_QUEUE_SIZE_DEFAULT));
+    journalSyncInterval = conf.getLong(GroupsMappingBuilder.JOURNAL_SYNC_INTERVAL_KEY,
+        GroupsMappingBuilder.JOURNAL_SYNC_INTERVAL_DEFAULT);
+    journalCompactRecords = conf.getInt(GroupsMappingBuilder.JOURNAL_COMPACT_RECORDS_KEY,
+        GroupsMappingBuilder.JOURNAL_COMPACT_RECORDS_DEFAULT);
+    if (conf.getBoolean(GroupsMappingBuilder.POSIX_PROFILE_KEY,
+        GroupsMappingBuilder.POSIX_PROFILE_DEFAULT)) {
+      long span = conf.getLong(GroupsMappingBuilder.POSIX_ID_SPAN_KEY,
+          GroupsMappingBuilder.POSIX_ID_SPAN_DEFAULT);
+      posixProfile = new PosixProfile(
+          new PosixIdAllocator(conf.getLong(GroupsMappingBuilder.POSIX_UID_BASE_KEY,
+              GroupsMappingBuilder.POSIX_UID_BASE_DEFAULT), span),
+          new PosixIdAllocator(conf.getLong(GroupsMappingBuilder.POSIX_GID_BASE_KEY,
+              GroupsMappingBuilder.POSIX_GID_BASE_DEFAULT), span),
+          conf.getLong(GroupsMappingBuilder.POSIX_PRIMARY_GID_KEY,
+              GroupsMappingBuilder.POSIX_PRIMARY_GID_DEFAULT),
+          conf.get(GroupsMappingBuilder.POSIX_HOME_KEY, GroupsMappingBuilder.POSIX_HOME_DEFAULT),
+          conf.get(GroupsMappingBuilder.POSIX_SHELL_KEY,
+              GroupsMappingBuilder.POSIX_SHELL_DEFAULT));
+      LOG.info("Users and groups are maintained with the POSIX profile");
+    }
+    largeGroupThreshold = conf.getInt(GroupsMappingBuilder.LARGE_GROUP_THRESHOLD_KEY,
+        GroupsMappingBuilder.LARGE_GROUP_THRESHOLD_DEFAULT);
+    if (schemaService != null) {
+      schemaService.setPosixProfile(posixProfile);
+      schemaService.setLargeGroupThreshold(largeGroupThreshold);
+    }
+    String snapshot = conf.get(GroupsMappingBuilder.SNAPSHOT_FILE_KEY,
+        GroupsMappingBuilder.SNAPSHOT_FILE_DEFAULT);
+    if (!snapshot.isEmpty()) {
+      snapshotFile = new File(snapshot);
+      LOG.info("Membership snapshots are published to " + snapshotFile);
+    }
+  }
+
+  private void loadMergeSettings(Configuration conf) {
+    GroupMembershipMerger.Policy policy =
+        GroupMembershipMerger.Policy.fromString(conf.get(GroupsMappingBuilder.MERGE_POLICY_KEY,
+            GroupsMappingBuilder.MERGE_POLICY_DEFAULT));
+    String[] priority = conf.getStrings(GroupsMappingBuilder.MERGE_PRIORITY_KEY);
+    if (priority == null) {
+      priority =
+          conf.getStrings(GroupsMappingBuilder.MAPPING_PROVIDERS_CONFIG_KEY, new String[] {});
+    }
+    providerPriority = Arrays.asList(priority);
+    mergePolicy = policy;
+    LOG.info("Groups found in several providers are merged with policy " + mergePolicy
+        + ", provider priority " + providerPriority);
+  }
+
+  /**
+   * Read the group mapping again. The providers whose settings changed are built again,
+   * the others keep their instance, and the providers, their groups and the merge policy
+   * are taken from the new configuration. The other settings need a restart.
+   */
+  @Override
+  public synchronized GroupsMappingBuilder.Reload reloadGroupMapping(Path groupMappingXml)
+      throws Exception {
+    Configuration conf = new Configuration();
+    conf.addResource(groupMappingXml);
+    GroupsMappingBuilder.Reload reload =
+        groupServiceBuilder.reloadCompositeGroupMappingProviders(conf);
+    Configuration previous = groupMappingConf;
+    groupMappingConf = conf;
+    for (String key : RESTART_KEYS) {
+      String value = conf.get(key);
+      if (value == null ? previous.get(key) != null : !value.equals(previous.get(key))) {
+        LOG.warn("Changed setting " + key + " is only applied on restart");
+      }
+    }
+    loadMergeSettings(conf);
+    return reload;
+  }
+
+  /**
+   * Drop the members the provider contributed to the groups, which are not configured for
+   * it anymore
+   */
+  @Override
+  public void removeGroups(String providerName, Collection<String> groups)
+      throws IOException {
+    for (String group : groups) {
+      negativeCache.clear(providerName + ":" + group);
+      applyMembership(providerName, new GroupMembership(group, (List<String>) null, null, false));
+    }
+  }
+
+  /**
+   * Open the journal and recover the memberships it holds. The applied ones are only
+   * restored in memory, the others are written to the directory.
+   */
+  @Override
+  public void openSyncJournal(File dir) throws IOException {
+    SyncJournal opened = new SyncJournal(dir, journalSyncInterval, journalCompactRecords);
+    List<SyncJournal.Entry> replay = new ArrayList<SyncJournal.Entry>();
+    for (SyncJournal.Entry entry : opened.getEntries()) {
+      String key = entry.getProvider() + ":" + entry.getGroup();
+      if (entry.getDigest() == null) {
+        contributionsOf(entry.getGroup()).remove(entry.getProvider());
+      } else {
+        contributionsOf(entry.getGroup()).put(entry.getProvider(),
+            MemberSet.of(NameDictionary.users(), entry.getUsers()));
+      }
+      if (entry.isApplied()) {
+        if (entry.getDigest() != null) {
+          digests.put(key, entry.getDigest());
+        }
+      } else {
+        replay.add(entry);
+      }
+    }
+
+    for (SyncJournal.Entry entry : replay) {
+      LOG.info("Replaying the journal record " + entry.getSeq() + " of group "
+          + entry.getGroup() + " from " + entry.getProvider());
+      if (doSchemaUpdateIfNecessary(entry.getGroup())) {
+        if (entry.getDigest() != null) {
+          digests.put(entry.getProvider() + ":" + entry.getGroup(), entry.getDigest());
+        }
+        opened.markApplied(entry.getSeq());
+      }
+    }
+    opened.sync();
+    journal = opened;
+    snapshotDirty = true;
+  }
+
+  /**
+   * Write the merged members of all the groups to the snapshot file, if they changed since
+   * the last one
+   */
+  @Override
+  public synchronized void publishSnapshot() throws IOException {
+    if (snapshotFile == null || !snapshotDirty) {
+      return;
+    }
+    // Cleared first, so that a change during the write triggers the next snapshot
+    snapshotDirty = false;
+    Map<String, String> names = new HashMap<String, String>();
+    for (MultiRegionGroups provider : getProviders()) {
+      for (String group : provider.getGroups()) {
+        names.put(group.toLowerCase(), group);
+      }
+    }
+    Map<String, List<String>> members = new HashMap<String, List<String>>();
+    for (Map.Entry<String, Map<String, MemberSet>> entry : contributions.entrySet()) {
+      List<String> merged = GroupMembershipMerger
+          .merge(mergeSources(entry.getValue()), new String[0]).getMerged();
+      if (!merged.isEmpty()) {
+        String name = names.get(entry.getKey());
+        members.put(name != null ? name : entry.getKey(), merged);
+      }
+    }
+    try {
+      long start = System.currentTimeMillis();
+      int users = MembershipSnapshot.write(snapshotFile, members);
+      LOG.info("Published the membership snapshot of " + users + " users in "
+          + members.size() + " groups in " + (System.currentTimeMillis() - start) + " ms");
+    } catch (IOException e) {
+      snapshotDirty = true;
+      throw e;
+    }
+  }
+
+  @Override
+  public Map<String, Long> getLastSynced(String providerName) {
+    SyncJournal current = journal;
+    return current == null ? new HashMap<String, Long>() : current.getSyncTimes(providerName);
+  }
+
+  @Override
+  public void close() throws IOException {
+    schemaWriter.close();
+    SyncJournal current = journal;
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  @Override
+  public List<MultiRegionGroups> getProviders() {
+    return groupServiceBuilder.getProvidersList();
   }
 
   /**
@@ -48,49 +318,377 @@ public class DefaultGroupMappingService implements GroupMappingService {
 
     List<MultiRegionGroups> groupProviders = groupServiceBuilder.getProvidersList();
     for (MultiRegionGroups groupProvider : groupProviders) {
-      List<String> groups = groupProvider.getGroups();
-      GroupMappingServiceProvider groupMappingProvider = groupProvider.getGroupServiceProvider();
+      try {
+        doSchemaUpdate(groupProvider);
+      } catch (IOException e) {
+        LOG.warn("Schema update failed for provider " + groupProvider.getProviderName() + ": "
+            + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * do schema update for a single provider
+   */
+  @Override
+  public void doSchemaUpdate(MultiRegionGroups groupProvider) throws IOException {
+    doSchemaUpdate(groupProvider, groupProvider.getGroups());
+  }
+
+  /**
+   * do schema update for some of the groups of a provider
+   */
+  @Override
+  public Collection<String> doSchemaUpdate(MultiRegionGroups groupProvider,
+      Collection<String> groups) throws IOException {
+    GroupMappingServiceProvider groupMappingProvider = groupProvider.getGroupServiceProvider();
+    groupMappingProvider.beginSync();
+    String providerName = groupProvider.getProviderName();
+    long syncStart = System.currentTimeMillis();
+    SyncBatch batch = new SyncBatch(groupProvider, groups.size(), syncStart);
+    TraceScope scope = EadTracing.get().newScope("DefaultGroupMappingService#doSchemaUpdate");
+    try {
+      scope.addKVAnnotation("provider", providerName);
+      scope.addKVAnnotation("groups", Integer.toString(groups.size()));
+      List<String> due = new ArrayList<String>(groups.size());
       for (String group : groups) {
-        try {
-          List<String> users = groupMappingProvider.getUsers(group);
-          LOG.info("The users for the group " + group + " are " + users);
-          // Call the update Schema here
-          doSchemaUpdateIfNecessary(group, users);
-        } catch (IOException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
+        if (negativeCache.isSuppressed(providerName + ":" + group, syncStart)) {
+          LOG.debug("Group " + group + " is known to be missing from " + providerName
+              + ", skipping");
+          batch.synced.add(group);
+          batch.attempted++;
+        } else {
+          due.add(group);
         }
       }
+      scope.addKVAnnotation("due", Integer.toString(due.size()));
+      groupMappingProvider.getMemberships(due, batch);
+      scope.addTimelineAnnotation("fetched");
+      SyncJournal current = journal;
+      if (current != null) {
+        current.markSynced(providerName, batch.synced, syncStart);
+        current.sync();
+        scope.addTimelineAnnotation("journaled");
+      }
+      scope.addKVAnnotation("synced", Integer.toString(batch.synced.size()));
+    } finally {
+      scope.close();
+    }
+    if (batch.synced.isEmpty() && batch.lastFailure != null) {
+      throw new IOException("No group could be fetched from provider " + providerName
+          + " (" + batch.attempted + " lookups failed)", batch.lastFailure);
     }
+    return batch.synced;
   }
 
-  private void doSchemaUpdateIfNecessary(String group, List<String> users) {
-    // Check if the group Exist
-    try {
-      if (!schemaService.checkIfGroupExist(group) && users.size() > 0) {
-        LOG.info("Created group " + group);
-        schemaService.createGroup(group);
+  /**
+   * Applies the memberships of a provider as they are fetched, within the sync cycle
+   * budget and as long as the circuit of the provider lets the lookups through
+   */
+  private class SyncBatch implements GroupMappingServiceProvider.MembershipCallback {
+    private final MultiRegionGroups groupProvider;
+    private final String providerName;
+    private final int groups;
+    private final CircuitBreaker breaker;
+    private final long budget;
+    private final long deadline;
+    private final List<String> synced = new ArrayList<String>();
+    private IOException lastFailure;
+    private int attempted;
+
+    SyncBatch(MultiRegionGroups groupProvider, int groups, long syncStart) {
+      this.groupProvider = groupProvider;
+      this.providerName = groupProvider.getProviderName();
+      this.groups = groups;
+      this.breaker = groupProvider.getCircuitBreaker();
+      this.budget = groupProvider.getSyncCycleBudget();
+      this.deadline = budget > 0 ? syncStart + budget : Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean beforeRequest(String group) {
+      long now = System.currentTimeMillis();
+      // The groups left are due first on the next sync
+      if (now >= deadline) {
+        LOG.warn("Sync budget of " + budget + " ms spent for provider " + providerName + ", "
+            + (groups - attempted) + " groups left for the next sync");
+        return false;
+      }
+      if (breaker != null && !breaker.allowRequest(now)) {
+        lastFailure = new IOException("Circuit of provider " + providerName
+            + " is open, probing again in " + breaker.getRetryDelay(now) + " ms");
+        LOG.warn(lastFailure.getMessage() + ", " + (groups - attempted)
+            + " groups left for the next sync");
+        return false;
       }
-    } catch (Exception e1) {
-      // TODO Auto-generated catch block
-      e1.printStackTrace();
+      attempted++;
+      return true;
     }
 
-    for (String user : users) {
+    @Override
+    public void fetched(GroupMembership membership) {
+      String group = membership.getGroup();
+      String key = providerName + ":" + group;
+      if (breaker != null) {
+        breaker.recordSuccess();
+      }
       try {
-        boolean ifUserExist = schemaService.checkIfUserExist(user);
-        if (!ifUserExist) {
-          schemaService.createUser(user, "password");
+        if (!membership.isFound()) {
+          long delay = negativeCache.recordMiss(key, System.currentTimeMillis(),
+              groupProvider.getNegativeTtl(), groupProvider.getMaxNegativeTtl());
+          LOG.info("Group " + group + " does not exist in " + providerName
+              + ", will search it again in " + delay + " ms");
+        } else {
+          negativeCache.clear(key);
+        }
+        applyMembership(providerName, membership);
+        MembershipListener listener = membershipListener;
+        if (listener != null) {
+          listener.membershipFetched(providerName, membership);
         }
-        if (!schemaService.checkIfUserMemberOfGroup(user, group)) {
-          schemaService.addUserToGroup(user, group);
+        synced.add(group);
+      } catch (IOException e) {
+        LOG.warn("Could not apply the users of group " + group + " from provider "
+            + providerName + ": " + e.getMessage());
+        lastFailure = e;
+      }
+    }
+
+    @Override
+    public void failed(String group, IOException e) {
+      LOG.warn("Could not get users of group " + group + " from provider " + providerName
+          + ": " + e.getMessage());
+      lastFailure = e;
+      if (breaker != null) {
+        breaker.recordFailure(System.currentTimeMillis());
+      }
+    }
+  }
+
+  /**
+   * Apply the membership of a group fetched from a provider
+   */
+  @Override
+  public boolean applyMembership(String providerName, GroupMembership membership)
+      throws IOException {
+    TraceScope scope = EadTracing.get().newScope("DefaultGroupMappingService#applyMembership");
+    try {
+      scope.addKVAnnotation("provider", providerName);
+      scope.addKVAnnotation("group", membership.getGroup());
+      return doApplyMembership(providerName, membership);
+    } finally {
+      scope.close();
+    }
+  }
+
+  private boolean doApplyMembership(String providerName, GroupMembership membership)
+      throws IOException {
+    String group = membership.getGroup();
+    String key = providerName + ":" + group;
+    if (!membership.isFound()) {
+      digests.remove(key);
+      if (contributionsOf(group).remove(providerName) != null) {
+        snapshotDirty = true;
+        long seq = journalAppend(providerName, group, null, null);
+        if (!doSchemaUpdateIfNecessary(group)) {
+          return false;
+        }
+        journalApplied(seq);
+      }
+      return true;
+    }
+    if (membership.getDigest().equals(digests.get(key))) {
+      LOG.debug("Group " + group + " is unchanged in " + providerName);
+      return true;
+    }
+    List<String> users = membership.getUsers();
+    LOG.info("The users for the group " + group + " in " + providerName + " are " + users);
+    contributionsOf(group).put(providerName, membership.getMembers());
+    snapshotDirty = true;
+    long seq = journalAppend(providerName, group, membership.getDigest(), users);
+    // Call the update Schema here
+    if (doSchemaUpdateIfNecessary(group)) {
+      digests.put(key, membership.getDigest());
+      journalApplied(seq);
+      return true;
+    }
+    digests.remove(key);
+    return false;
+  }
+
+  @Override
+  public void setMembershipListener(MembershipListener listener) {
+    this.membershipListener = listener;
+  }
+
+  private long journalAppend(String providerName, String group, String digest,
+      List<String> users) throws IOException {
+    SyncJournal current = journal;
+    return current == null ? 0 : current.append(providerName, group, digest, users);
+  }
+
+  private void journalApplied(long seq) throws IOException {
+    SyncJournal current = journal;
+    if (current != null) {
+      current.markApplied(seq);
+    }
+  }
+
+  private Map<String, MemberSet> contributionsOf(String group) {
+    String key = group.toLowerCase();
+    Map<String, MemberSet> byProvider = contributions.get(key);
+    if (byProvider == null) {
+      contributions.putIfAbsent(key, new ConcurrentHashMap<String, MemberSet>());
+      byProvider = contributions.get(key);
+    }
+    return byProvider;
+  }
+
+  /**
+   * The member lists of the group to merge according to the merge policy, by decreasing
+   * provider priority
+   */
+  private List<String[]> mergeSources(Map<String, MemberSet> byProvider) {
+    // Both replaced by a reload
+    List<String> priority = providerPriority;
+    GroupMembershipMerger.Policy policy = mergePolicy;
+    List<String[]> sources = new ArrayList<String[]>();
+    for (String provider : priority) {
+      MemberSet users = byProvider.get(provider);
+      if (users != null) {
+        if (policy == GroupMembershipMerger.Policy.PRIMARY) {
+          return Collections.singletonList(users.sortedNames());
         }
+        sources.add(users.sortedNames());
+      }
+    }
+    for (Map.Entry<String, MemberSet> entry : byProvider.entrySet()) {
+      if (!priority.contains(entry.getKey())) {
+        sources.add(entry.getValue().sortedNames());
+      }
+    }
+    if (policy == GroupMembershipMerger.Policy.PRIMARY && sources.size() > 1) {
+      return sources.subList(0, 1);
+    }
+    return sources;
+  }
 
+  /**
+   * Merge the members the group has in all the providers and bring the local group in
+   * line with the result, writing only the differences
+   * @return true if the local group is now in sync with the providers
+   */
+  private boolean doSchemaUpdateIfNecessary(String group) {
+    TraceScope scope = EadTracing.get().newScope("DefaultGroupMappingService#reconcile");
+    try {
+      scope.addKVAnnotation("group", group);
+      return reconcile(group, mergeSources(contributionsOf(group)));
+    } finally {
+      scope.close();
+    }
+  }
+
+  private boolean reconcile(String group, List<String[]> sources) {
+    Object lock = groupLocks.get(group.toLowerCase());
+    if (lock == null) {
+      groupLocks.putIfAbsent(group.toLowerCase(), new Object());
+      lock = groupLocks.get(group.toLowerCase());
+    }
+
+    synchronized (lock) {
+      GroupMembershipMerger.Result result;
+      try {
+        String[] local = GroupMembershipMerger.sorted(schemaService.getGroupMembers(group));
+        TraceScope merge = EadTracing.get().newScope("GroupMembershipMerger#merge");
+        try {
+          result = GroupMembershipMerger.merge(sources, local);
+        } finally {
+          merge.close();
+        }
       } catch (Exception e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        LOG.warn("Could not read the local members of group " + group + ": " + e.getMessage());
+        return false;
       }
+      if (result.isUnchanged()) {
+        return true;
+      }
+      LOG.info("Group " + group + ": adding " + result.getToAdd() + ", removing "
+          + result.getToRemove());
+
+      // Check if the group Exist
+      try {
+        if (!schemaService.checkIfGroupExist(group) && result.getToAdd().size() > 0) {
+          LOG.info("Created group " + group);
+          schemaService.createGroup(group);
+        }
+      } catch (Exception e1) {
+        LOG.warn("Could not create group " + group + ": " + e1.getMessage());
+        return false;
+      }
+
+      try {
+        return write(schemaService, group, result);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Hand the writes of the reconciliation of a group to the writer threads and wait for
+   * them. The users are written on the stripes of their Dn, the group on the stripe of
+   * its own Dn, in chunks of members.
+   */
+  private boolean write(final EadSchemaService target, final String group,
+      GroupMembershipMerger.Result result) throws InterruptedException {
+    TraceScope scope = EadTracing.get().newScope("DefaultGroupMappingService#write");
+    try {
+      scope.addKVAnnotation("added", Integer.toString(result.getToAdd().size()));
+      scope.addKVAnnotation("removed", Integer.toString(result.getToRemove().size()));
+      return submit(target, group, result);
+    } finally {
+      scope.close();
     }
+  }
 
+  private boolean submit(final EadSchemaService target, final String group,
+      GroupMembershipMerger.Result result) throws InterruptedException {
+    SchemaWriter.Batch batch = schemaWriter.newBatch();
+    for (final String user : result.getToAdd()) {
+      batch.submit(target.userDn(user), new SchemaWriter.WriteOp() {
+        @Override
+        public void write() throws Exception {
+          if (!target.checkIfUserExist(user)) {
+            target.createUser(user, "password");
+          }
+          target.addMemberOf(user, group);
+        }
+      });
+    }
+    for (final String user : result.getToRemove()) {
+      batch.submit(target.userDn(user), new SchemaWriter.WriteOp() {
+        @Override
+        public void write() throws Exception {
+          target.removeMemberOf(user, group);
+        }
+      });
+    }
+
+    List<String> toAdd = result.getToAdd();
+    List<String> toRemove = result.getToRemove();
+    for (int i = 0; i < Math.max(toAdd.size(), toRemove.size()); i += MEMBERS_PER_WRITE) {
+      final List<String> added = toAdd.subList(Math.min(i, toAdd.size()),
+          Math.min(i + MEMBERS_PER_WRITE, toAdd.size()));
+      final List<String> removed = toRemove.subList(Math.min(i, toRemove.size()),
+          Math.min(i + MEMBERS_PER_WRITE, toRemove.size()));
+      batch.submit(target.groupDn(group), new SchemaWriter.WriteOp() {
+        @Override
+        public void write() throws Exception {
+          target.modifyGroupMembers(group, added, removed);
+        }
+      });
+    }
+    return batch.await();
   }
 }
@@ -1,14 +1,30 @@
 package com.krish.directory.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapEntryAlreadyExistsException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
 import org.apache.directory.api.ldap.model.message.AddRequest;
 import org.apache.directory.api.ldap.model.message.AddRequestImpl;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.htrace.core.TraceScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 /**
@@ -21,27 +37,95 @@ public class EadSchemaService {
   /**Logger of the class */
   private static final Logger LOG = LoggerFactory.getLogger(EadSchemaService.class);
   
+  private static final String MEMBER_UID_AT = "memberUid";
+  private static final String UID_NUMBER_AT = "uidNumber";
+  private static final String GID_NUMBER_AT = "gidNumber";
+
+  /** Marks a group whose members are kept as membership entries below it */
+  public static final String LARGE_GROUP_OC = "eadLargeGroup";
+
+  /** Membership entry of a large group, named by the uid of the member */
+  public static final String MEMBERSHIP_OC = "eadMembership";
+
+  /** Suffix of the partition holding the merged groups */
+  public static final String JPMIS_SUFFIX = "dc=jpmis,dc=com";
+
   /** Directory service of the EAD Server */
   private DirectoryService directoryService;
 
+  /** Dn of the users and groups containers */
+  private final String usersDn;
+  private final String groupsDn;
+
+  /** POSIX profile of the entries, null if it is off */
+  private volatile PosixProfile posixProfile;
+
+  /** Members from which a group keeps them as membership entries, 0 to never */
+  private volatile int largeGroupThreshold;
+
   public EadSchemaService(DirectoryService directoryService) {
+    this(directoryService, JPMIS_SUFFIX);
+  }
+
+  /**
+   * @param directoryService
+   * @param suffix suffix of the partition holding the ou=users and ou=groups containers
+   */
+  public EadSchemaService(DirectoryService directoryService, String suffix) {
     this.directoryService = directoryService;
+    this.usersDn = "ou=users," + suffix;
+    this.groupsDn = "ou=groups," + suffix;
   }
 
   /**
-   * Add User
-   * 
-   * @param uid
-   * @param password
-   * @return Dn
-   * @throws Exception
+   * Maintain the posixAccount and posixGroup entries from now on, null to stop
    */
-  public Dn createUser(String uid, String password) throws Exception {
-    LOG.info("Creating user with Cn: " + uid);
-    Entry entry = new DefaultEntry(
+  public void setPosixProfile(PosixProfile posixProfile) {
+    this.posixProfile = posixProfile;
+  }
+
+  public PosixProfile getPosixProfile() {
+    return posixProfile;
+  }
+
+  /**
+   * Keep the members of the groups reaching the threshold as membership entries below
+   * the group, so that adding or removing one costs an entry instead of a rewrite of the
+   * group. The LargeGroupInterceptor presents them as the member attribute of the group.
+   *
+   * @param largeGroupThreshold members of the groups to convert, 0 to never convert one
+   */
+  public void setLargeGroupThreshold(int largeGroupThreshold) {
+    this.largeGroupThreshold = largeGroupThreshold;
+  }
+
+  public int getLargeGroupThreshold() {
+    return largeGroupThreshold;
+  }
+
+  /** Dn of a user of the partition */
+  public String userDn(String uid) {
+    return "cn=" + uid + "," + usersDn;
+  }
+
+  /** Dn of a group of the partition */
+  public String groupDn(String groupCn) {
+    return "cn=" + groupCn + "," + groupsDn;
+  }
+
+  /** Dn of the membership entry of a user in a large group */
+  public String membershipDn(String uid, String groupCn) {
+    return "uid=" + uid + "," + groupDn(groupCn);
+  }
+
+  /**
+   * @return the entry of a user, without its POSIX attributes
+   */
+  public Entry newUserEntry(String uid, String password) throws Exception {
+    return new DefaultEntry(
           //@formatter:off
           directoryService.getSchemaManager(),
-          "cn=" + uid + ",ou=users,dc=jpmis,dc=com",
+          userDn(uid),
           "uid", uid,
           "objectClass: user",
           "objectClass: person",
@@ -52,15 +136,54 @@ public class EadSchemaService {
           "sAMAccountName",uid,
           "userPassword", password);
           //@formatter:on
-    directoryService.getAdminSession().add(entry);
+  }
+
+  /**
+   * @return the entry of a group with the admin as its only unique member, without its
+   *         POSIX attributes
+   */
+  public Entry newGroupEntry(String groupName) throws Exception {
+    return new DefaultEntry(
+          //@formatter:off
+          directoryService.getSchemaManager(),
+          groupDn(groupName),
+          "objectClass: top",
+          "objectClass: groupOfUniqueNames",
+          "objectClass: group",
+          "uniqueMember: uid=admin, ou=system",
+          "cn", groupName );
+          //@formatter:on
+  }
+
+  /**
+   * Add User
+   * 
+   * @param uid
+   * @param password
+   * @return Dn
+   * @throws Exception
+   */
+  public Dn createUser(String uid, String password) throws Exception {
+    LOG.info("Creating user with Cn: " + uid);
+    Entry entry = newUserEntry(uid, password);
+    PosixProfile posix = posixProfile;
+    if (posix == null) {
+      add(entry);
+    } else {
+      // Allocating and adding at once, so that two users cannot take the same number
+      synchronized (posix.getUidNumbers()) {
+        addPosixAccount(entry, uid, posix);
+        add(entry);
+      }
+    }
 
     LOG.info("Created user in the EAD " + uid);
     return entry.getDn();
   }
 
   /**
-   * Creates a simple groupOfUniqueNames under the ou=groups,dc=jpmis,dc=com
-   * container. The admin user is always a member of this newly created group.
+   * Creates a simple groupOfUniqueNames under the ou=groups container. The admin
+   * user is always a member of this newly created group.
    *
    * @param groupName the name of the cgroup to create
    * @return the Dn of the group as a Name object
@@ -69,26 +192,25 @@ public class EadSchemaService {
   public Dn createGroup(String groupName) throws Exception {
     LOG.info("Creating Group with : " + groupName);
 
-    Dn groupDn = new Dn("cn=" + groupName + ",ou=groups,dc=jpmis,dc=com");
+    Dn groupDn = new Dn(groupDn(groupName));
 
-    Entry entry = new DefaultEntry(
-          //@formatter:off
-          directoryService.getSchemaManager(),
-          "cn=" + groupName + ",ou=groups,dc=jpmis,dc=com",
-          "objectClass: top",
-          "objectClass: groupOfUniqueNames",
-          "objectClass: group",
-          "uniqueMember: uid=admin, ou=system",
-          "cn", groupName );
-          //@formatter:on
-    directoryService.getAdminSession().add(entry);
+    Entry entry = newGroupEntry(groupName);
+    PosixProfile posix = posixProfile;
+    if (posix == null) {
+      add(entry);
+    } else {
+      synchronized (posix.getGidNumbers()) {
+        addPosixGroup(entry, groupName, posix);
+        add(entry);
+      }
+    }
 
     return groupDn;
   }
 
   /**
-   * Adds an existing user under ou=users,dc=jpmis,dc=com to an existing group
-   * under the ou=groups,dc=jpmis,dc=com container.
+   * Adds an existing user under ou=users to an existing group under the
+   * ou=groups container.
    *
    * @param userUid the uid of the user to add to the group
    * @param groupCn the cn of the group to add the user to
@@ -97,17 +219,95 @@ public class EadSchemaService {
   public void addUserToGroup(String userUid, String groupCn) throws Exception {
     LOG.info("Adding user with Cn: " + userUid + " to group " + groupCn);
 
+    if (isLargeGroup(groupCn, 1)) {
+      addMemberships(groupCn, Collections.singletonList(userUid));
+    } else {
+      ModifyRequest modReq = new ModifyRequestImpl();
+      modReq.setName(new Dn(directoryService.getSchemaManager(), groupDn(groupCn)));
+      modReq.add("member", userDn(userUid));
+      if (posixProfile != null) {
+        modReq.add(MEMBER_UID_AT, userUid);
+      }
+      modify(modReq);
+    }
+
     ModifyRequest modReq = new ModifyRequestImpl();
-    modReq.setName(new Dn(directoryService.getSchemaManager(), "cn=" + groupCn
-        + ",ou=groups,dc=jpmis,dc=com"));
-    modReq.add("member", "cn=" + userUid + ",ou=users,dc=jpmis,dc=com");
-    directoryService.getAdminSession().modify(modReq);
+    modReq.setName(new Dn(directoryService.getSchemaManager(), userDn(userUid)));
+    modReq.add("memberOf", groupDn(groupCn));
+    modify(modReq);
+  }
 
-    modReq = new ModifyRequestImpl();
-    modReq.setName(new Dn(directoryService.getSchemaManager(), "cn=" + userUid
-        + ",ou=users,dc=jpmis,dc=com"));
-    modReq.add("memberOf", "cn=" + groupCn + ",ou=groups,dc=jpmis,dc=com");
-    directoryService.getAdminSession().modify(modReq);
+  /**
+   * Adds and removes members of a group in a single modification, leaving the memberOf
+   * of the users unchanged.
+   *
+   * @param groupCn the cn of the group
+   * @param addedUids the uid of the users to add
+   * @param removedUids the uid of the users to remove
+   * @throws Exception if the group does not exist
+   */
+  public void modifyGroupMembers(String groupCn, Collection<String> addedUids,
+      Collection<String> removedUids) throws Exception {
+    if (isLargeGroup(groupCn, addedUids.size())) {
+      addMemberships(groupCn, addedUids);
+      for (String uid : removedUids) {
+        deleteMembership(groupCn, uid);
+      }
+      return;
+    }
+    ModifyRequest modReq = new ModifyRequestImpl();
+    modReq.setName(new Dn(directoryService.getSchemaManager(), groupDn(groupCn)));
+    boolean posix = posixProfile != null;
+    if (!addedUids.isEmpty()) {
+      modReq.add("member", userDns(addedUids));
+      if (posix) {
+        modReq.add(MEMBER_UID_AT, addedUids.toArray(new String[addedUids.size()]));
+      }
+    }
+    if (!removedUids.isEmpty()) {
+      modReq.remove("member", userDns(removedUids));
+      if (posix) {
+        modReq.remove(MEMBER_UID_AT, removedUids.toArray(new String[removedUids.size()]));
+      }
+    }
+    modify(modReq);
+  }
+
+  private String[] userDns(Collection<String> uids) {
+    String[] dns = new String[uids.size()];
+    int i = 0;
+    for (String uid : uids) {
+      dns[i++] = userDn(uid);
+    }
+    return dns;
+  }
+
+  /**
+   * Adds a group to the memberOf of a user, leaving the group unchanged.
+   *
+   * @param userUid the uid of the user
+   * @param groupCn the cn of the group
+   * @throws Exception if the user does not exist
+   */
+  public void addMemberOf(String userUid, String groupCn) throws Exception {
+    ModifyRequest modReq = new ModifyRequestImpl();
+    modReq.setName(new Dn(directoryService.getSchemaManager(), userDn(userUid)));
+    modReq.add("memberOf", groupDn(groupCn));
+    modify(modReq);
+  }
+
+  /**
+   * Removes a group from the memberOf of a user, leaving the group unchanged.
+   *
+   * @param userUid the uid of the user
+   * @param groupCn the cn of the group
+   * @throws Exception if the user does not exist
+   */
+  public void removeMemberOf(String userUid, String groupCn) throws Exception {
+    ModifyRequest modReq = new ModifyRequestImpl();
+    modReq.setName(new Dn(directoryService.getSchemaManager(), userDn(userUid)));
+    modReq.remove("memberOf", groupDn(groupCn));
+    modify(modReq);
   }
 
   /**
@@ -119,15 +319,22 @@ public class EadSchemaService {
    * @throws Exception if there are problems accessing the group
    */
   public void removeUserFromGroup(String userUid, String groupCn) throws Exception {
+    if (isLargeGroup(groupCn, 0)) {
+      deleteMembership(groupCn, userUid);
+    } else {
+      ModifyRequest modReq = new ModifyRequestImpl();
+      modReq.setName(new Dn(groupDn(groupCn)));
+      modReq.remove("member", userDn(userUid));
+      if (posixProfile != null) {
+        modReq.remove(MEMBER_UID_AT, userUid);
+      }
+      modify(modReq);
+    }
+
     ModifyRequest modReq = new ModifyRequestImpl();
-    modReq.setName(new Dn("cn=" + groupCn + ",ou=groups,dc=jpmis,dc=com"));
-    modReq.remove("member", "cn=" + userUid + ",ou=users,dc=jpmis,dc=com");
-    directoryService.getAdminSession().modify(modReq);
-    
-    modReq = new ModifyRequestImpl();
-    modReq.setName(new Dn("cn=" + userUid + ",ou=users,dc=jpmis,dc=com"));
-    modReq.remove("memberOf", "cn=" + groupCn + ",ou=groups,dc=jpmis,dc=com");
-    directoryService.getAdminSession().modify(modReq);
+    modReq.setName(new Dn(userDn(userUid)));
+    modReq.remove("memberOf", groupDn(groupCn));
+    modify(modReq);
   }
 
   /**
@@ -137,8 +344,8 @@ public class EadSchemaService {
    * @throws Exception
    */
   public boolean checkIfUserExist(String userUid) throws Exception {
-    Dn userDn = new Dn("cn=" + userUid + ",ou=users,dc=jpmis,dc=com");
-    return directoryService.getAdminSession().exists(userDn);
+    Dn userDn = new Dn(userDn(userUid));
+    return exists(userDn);
   }
 
   /**
@@ -148,8 +355,8 @@ public class EadSchemaService {
    * @throws Exception
    */
   public boolean checkIfGroupExist(String groupCn) throws Exception {
-    Dn groupDn = new Dn("cn=" + groupCn + ",ou=groups,dc=jpmis,dc=com");
-    return directoryService.getAdminSession().exists(groupDn);
+    Dn groupDn = new Dn(groupDn(groupCn));
+    return exists(groupDn);
   }
 
   /**
@@ -160,15 +367,306 @@ public class EadSchemaService {
    * @throws Exception
    */
   public boolean checkIfUserMemberOfGroup(String userUid, String groupCn) throws Exception {
-    Dn userDn = new Dn("cn=" + userUid + ",ou=users,dc=jpmis,dc=com");
-    Entry entry = directoryService.getAdminSession().lookup(userDn, "memberOf");
+    Dn userDn = new Dn(userDn(userUid));
+    Entry entry = lookup(userDn, "memberOf");
     Attribute attr = entry.get("memberOf");
     if (attr == null) {
       return false;
     }
-    return attr.contains("cn=" + groupCn + ",ou=groups,dc=jpmis,dc=com");
+    return attr.contains(groupDn(groupCn));
   }
   
+  /**
+   * Get the members of a group
+   * @param groupCn
+   * @return the cn of the members, empty if the group does not exist
+   * @throws Exception
+   */
+  public List<String> getGroupMembers(String groupCn) throws Exception {
+    Entry entry;
+    try {
+      entry = lookup(new Dn(directoryService.getSchemaManager(), groupDn(groupCn)),
+          "objectClass", "member");
+    } catch (LdapNoSuchObjectException e) {
+      entry = null;
+    }
+    if (entry == null) {
+      return new ArrayList<String>();
+    }
+    // The members of a large group are its membership entries
+    if (entry.hasObjectClass(LARGE_GROUP_OC)) {
+      return findNames(groupDn(groupCn), "(objectClass=" + MEMBERSHIP_OC + ")", "uid");
+    }
+    return leafNames(entry.get("member"));
+  }
+
+  /**
+   * @return the value of the leaf Rdn of the Dns of an attribute
+   */
+  private List<String> leafNames(Attribute dns) throws Exception {
+    List<String> names = new ArrayList<String>();
+    if (dns == null) {
+      return names;
+    }
+    for (Value<?> value : dns) {
+      LdapName memberDn = new LdapName(value.getString());
+      Rdn leaf = memberDn.getRdn(memberDn.size() - 1);
+      names.add(leaf.getValue().toString());
+    }
+    return names;
+  }
+
+  /**
+   * Tell if a group keeps its members as membership entries, converting it first if the
+   * members being added make it reach the threshold
+   *
+   * @param adding number of members about to be added
+   */
+  private boolean isLargeGroup(String groupCn, int adding) throws Exception {
+    Dn groupDn = new Dn(directoryService.getSchemaManager(), groupDn(groupCn));
+    int threshold = largeGroupThreshold;
+    boolean mayConvert = threshold > 0 && adding > 0;
+    // A single read of the group, with its members only if it may reach the threshold.
+    // Bounded by the threshold, as the larger groups are converted.
+    Entry entry = mayConvert ? lookup(groupDn, "objectClass", "member", MEMBER_UID_AT)
+        : lookup(groupDn, "objectClass");
+    if (entry.hasObjectClass(LARGE_GROUP_OC)) {
+      return true;
+    }
+    if (!mayConvert) {
+      return false;
+    }
+    Attribute member = entry.get("member");
+    if ((member == null ? 0 : member.size()) + adding < threshold) {
+      return false;
+    }
+
+    // Entries first, so that a conversion cut short is resumed by the next one
+    List<String> uids = leafNames(member);
+    addMemberships(groupCn, uids);
+    ModifyRequest modReq = new ModifyRequestImpl();
+    modReq.setName(groupDn);
+    modReq.add("objectClass", LARGE_GROUP_OC);
+    if (member != null) {
+      modReq.remove("member");
+    }
+    if (entry.get(MEMBER_UID_AT) != null) {
+      modReq.remove(MEMBER_UID_AT);
+    }
+    modify(modReq);
+    LOG.info("Moved the " + uids.size() + " members of group " + groupCn
+        + " to membership entries");
+    return true;
+  }
+
+  private void addMemberships(String groupCn, Collection<String> uids) throws Exception {
+    for (String uid : uids) {
+      Entry entry = new DefaultEntry(
+          //@formatter:off
+          directoryService.getSchemaManager(),
+          membershipDn(uid, groupCn),
+          "objectClass: top",
+          "objectClass: " + MEMBERSHIP_OC,
+          "uid", uid,
+          "member", userDn(uid));
+          //@formatter:on
+      try {
+        add(entry);
+      } catch (LdapEntryAlreadyExistsException e) {
+        LOG.debug("User " + uid + " already is a member of group " + groupCn);
+      }
+    }
+  }
+
+  private void deleteMembership(String groupCn, String uid) throws Exception {
+    try {
+      delete(new Dn(directoryService.getSchemaManager(), membershipDn(uid, groupCn)));
+    } catch (LdapNoSuchObjectException e) {
+      LOG.debug("User " + uid + " already is not a member of group " + groupCn);
+    }
+  }
+
+  private void addPosixAccount(Entry entry, String uid, PosixProfile posix)
+      throws Exception {
+    long uidNumber = posix.getUidNumbers().allocate(uid, new PosixIdAllocator.IdLookup() {
+      @Override
+      public String holderOf(long id) throws Exception {
+        return findHolder(usersDn, UID_NUMBER_AT, id, "uid");
+      }
+    });
+    entry.add("objectClass", "posixAccount");
+    entry.add(UID_NUMBER_AT, Long.toString(uidNumber));
+    entry.add(GID_NUMBER_AT, Long.toString(posix.getPrimaryGid()));
+    entry.add("homeDirectory", posix.getHomeDirectory(uid));
+    entry.add("loginShell", posix.getLoginShell());
+  }
+
+  private void addPosixGroup(Entry entry, String groupCn, PosixProfile posix)
+      throws Exception {
+    long gidNumber = posix.getGidNumbers().allocate(groupCn, new PosixIdAllocator.IdLookup() {
+      @Override
+      public String holderOf(long id) throws Exception {
+        return findHolder(groupsDn, GID_NUMBER_AT, id, "cn");
+      }
+    });
+    entry.add("objectClass", "posixGroup");
+    entry.add(GID_NUMBER_AT, Long.toString(gidNumber));
+  }
+
+  /**
+   * @return the name of the entry of the container holding the number, null if none does
+   */
+  private String findHolder(String containerDn, String numberAt, long id, String nameAt)
+      throws Exception {
+    String filter = "(" + numberAt + "=" + id + ")";
+    EntryFilteringCursor cursor = directoryService.getAdminSession().search(
+        new Dn(directoryService.getSchemaManager(), containerDn), SearchScope.ONELEVEL,
+        FilterParser.parse(directoryService.getSchemaManager(), filter),
+        AliasDerefMode.NEVER_DEREF_ALIASES, nameAt);
+    try {
+      if (cursor.next()) {
+        Attribute name = cursor.get().get(nameAt);
+        return name == null ? "" : name.getString();
+      }
+      return null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Turn the users and groups created without the POSIX profile into posixAccount and
+   * posixGroup entries, the memberUid of a group listing its current members.
+   *
+   * @return the number of entries upgraded
+   * @throws Exception
+   */
+  public int upgradeToPosix() throws Exception {
+    PosixProfile posix = posixProfile;
+    if (posix == null) {
+      return 0;
+    }
+    int upgraded = 0;
+    for (String uid : findNames(usersDn, "(!(objectClass=posixAccount))", "uid")) {
+      Entry posixAttributes = new DefaultEntry(directoryService.getSchemaManager());
+      synchronized (posix.getUidNumbers()) {
+        addPosixAccount(posixAttributes, uid, posix);
+        modifyAdding(userDn(uid), posixAttributes);
+      }
+      upgraded++;
+    }
+    for (String groupCn : findNames(groupsDn, "(!(objectClass=posixGroup))", "cn")) {
+      Entry posixAttributes = new DefaultEntry(directoryService.getSchemaManager());
+      // The memberUid of a large group is presented from its membership entries
+      List<String> members = isLargeGroup(groupCn, 0) ? Collections.<String>emptyList()
+          : getGroupMembers(groupCn);
+      if (!members.isEmpty()) {
+        posixAttributes.add(MEMBER_UID_AT, members.toArray(new String[members.size()]));
+      }
+      synchronized (posix.getGidNumbers()) {
+        addPosixGroup(posixAttributes, groupCn, posix);
+        modifyAdding(groupDn(groupCn), posixAttributes);
+      }
+      upgraded++;
+    }
+    if (upgraded > 0) {
+      LOG.info("Upgraded " + upgraded + " entries of " + usersDn + " and " + groupsDn
+          + " to the POSIX profile");
+    }
+    return upgraded;
+  }
+
+  private List<String> findNames(String containerDn, String filter, String nameAt)
+      throws Exception {
+    List<String> names = new ArrayList<String>();
+    TraceScope scope = EadTracing.get().newScope("EadSchemaService#search");
+    try {
+      scope.addKVAnnotation("dn", containerDn);
+      scope.addKVAnnotation("filter", filter);
+      EntryFilteringCursor cursor = directoryService.getAdminSession().search(
+          new Dn(directoryService.getSchemaManager(), containerDn), SearchScope.ONELEVEL,
+          FilterParser.parse(directoryService.getSchemaManager(), filter),
+          AliasDerefMode.NEVER_DEREF_ALIASES, nameAt);
+      try {
+        while (cursor.next()) {
+          Attribute name = cursor.get().get(nameAt);
+          if (name != null) {
+            names.add(name.getString());
+          }
+        }
+      } finally {
+        cursor.close();
+      }
+    } finally {
+      scope.close();
+    }
+    return names;
+  }
+
+  private void modifyAdding(String dn, Entry attributes) throws Exception {
+    ModifyRequest modReq = new ModifyRequestImpl();
+    modReq.setName(new Dn(directoryService.getSchemaManager(), dn));
+    for (Attribute attribute : attributes) {
+      modReq.add(attribute);
+    }
+    modify(modReq);
+  }
+
+  /*
+   * The operations on the directory, each traced in a span
+   */
+
+  private void add(Entry entry) throws Exception {
+    TraceScope scope = newScope("EadSchemaService#add", entry.getDn());
+    try {
+      directoryService.getAdminSession().add(entry);
+    } finally {
+      scope.close();
+    }
+  }
+
+  private void modify(ModifyRequest modReq) throws Exception {
+    TraceScope scope = newScope("EadSchemaService#modify", modReq.getName());
+    try {
+      directoryService.getAdminSession().modify(modReq);
+    } finally {
+      scope.close();
+    }
+  }
+
+  private void delete(Dn dn) throws Exception {
+    TraceScope scope = newScope("EadSchemaService#delete", dn);
+    try {
+      directoryService.getAdminSession().delete(dn);
+    } finally {
+      scope.close();
+    }
+  }
+
+  private boolean exists(Dn dn) throws Exception {
+    TraceScope scope = newScope("EadSchemaService#exists", dn);
+    try {
+      return directoryService.getAdminSession().exists(dn);
+    } finally {
+      scope.close();
+    }
+  }
+
+  private Entry lookup(Dn dn, String... attributes) throws Exception {
+    TraceScope scope = newScope("EadSchemaService#lookup", dn);
+    try {
+      return directoryService.getAdminSession().lookup(dn, attributes);
+    } finally {
+      scope.close();
+    }
+  }
+
+  private static TraceScope newScope(String description, Dn dn) {
+    TraceScope scope = EadTracing.get().newScope(description);
+    scope.addKVAnnotation("dn", dn.getName());
+    return scope;
+  }
+
   /**
    * @throws Exception
    */
@@ -0,0 +1,67 @@
+package com.krish.directory.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.htrace.core.HTraceConfiguration;
+import org.apache.htrace.core.SpanId;
+import org.apache.htrace.core.TraceScope;
+import org.apache.htrace.core.Tracer;
+import org.apache.htrace.core.TracerPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The HTrace tracer of the EAD, shared by the provider syncs, the writes to the directory
+ * and the LDAP requests. Until it is configured nothing is sampled and the scopes cost a
+ * thread local lookup.
+ *
+ * @author krishdey
+ *
+ */
+public class EadTracing {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EadTracing.class);
+
+  private static final String TRACER_NAME = "EAD";
+
+  private static volatile Tracer tracer = newTracer(new HashMap<String, String>());
+
+  private EadTracing() {
+  }
+
+  public static Tracer get() {
+    return tracer;
+  }
+
+  /**
+   * Replace the tracer with one built from the given HTrace settings, without their
+   * prefix, closing the receivers of the previous one.
+   */
+  public static synchronized void configure(Map<String, String> settings) {
+    Tracer previous = tracer;
+    tracer = newTracer(settings);
+    LOG.info("HTrace settings: " + settings);
+    previous.close();
+  }
+
+  /**
+   * Open a scope continuing, in another thread, the span of the operation it is part of.
+   * When that operation is not traced the scope is a null one, so that the nested scopes
+   * are not sampled on their own.
+   */
+  public static TraceScope newChildScope(String description, SpanId parent) {
+    return parent == null || !parent.isValid() ? tracer.newNullScope()
+        : tracer.newScope(description, parent);
+  }
+
+  /**
+   * Each tracer has a pool of its own, so that the receivers are not shared with the
+   * tracers of the Hadoop clients of the same JVM and are closed with the tracer
+   */
+  private static Tracer newTracer(Map<String, String> settings) {
+    return new Tracer.Builder(TRACER_NAME).conf(HTraceConfiguration.fromMap(settings))
+        .tracerPool(new TracerPool(TRACER_NAME)).build();
+  }
+
+}
@@ -0,0 +1,173 @@
+package com.krish.directory.service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+/**
+ * Keeps track of how often Hadoop clients query each group, as an exponentially decayed
+ * rate of queries per minute. The sync scheduler uses it to refresh hot groups more often
+ * than cold ones.
+ *
+ * @author krishdey
+ *
+ */
+public class GroupAccessTracker {
+
+  /** Length of a counting window */
+  public static final long WINDOW_MS = 60 * 1000;
+
+  /** Weight of the last window in the decayed rate */
+  private static final double DECAY = 0.5;
+
+  /** Rates under this value are dropped, the group is then considered unqueried */
+  private static final double MIN_RATE = 0.01;
+
+  private final ConcurrentHashMap<String, AtomicLong> window =
+      new ConcurrentHashMap<String, AtomicLong>();
+
+  private final ConcurrentHashMap<String, Double> rates = new ConcurrentHashMap<String, Double>();
+
+  private long windowStart = System.currentTimeMillis();
+
+  /**
+   * Record one query hitting the group
+   * @param group
+   */
+  public void recordAccess(String group) {
+    String key = group.toLowerCase();
+    AtomicLong count = window.get(key);
+    if (count == null) {
+      AtomicLong newCount = new AtomicLong();
+      count = window.putIfAbsent(key, newCount);
+      if (count == null) {
+        count = newCount;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  /**
+   * Record a query hitting the group with the given Dn. Dns which are not under
+   * ou=groups are ignored.
+   * @param dn
+   */
+  public void recordGroupDn(String dn) {
+    String group = groupNameOf(dn);
+    if (group != null) {
+      recordAccess(group);
+    }
+  }
+
+  /**
+   * Fold the current window into the decayed rates if the window is over
+   */
+  public synchronized void roll() {
+    long now = System.currentTimeMillis();
+    long elapsed = now - windowStart;
+    if (elapsed < WINDOW_MS) {
+      return;
+    }
+    windowStart = now;
+    double minutes = elapsed / 60000.0;
+
+    for (Iterator<Map.Entry<String, Double>> it = rates.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<String, Double> entry = it.next();
+      double rate = (1 - DECAY) * entry.getValue();
+      if (!window.containsKey(entry.getKey()) && rate < MIN_RATE) {
+        it.remove();
+      } else {
+        entry.setValue(rate);
+      }
+    }
+    for (Iterator<Map.Entry<String, AtomicLong>> it = window.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<String, AtomicLong> entry = it.next();
+      it.remove();
+      double windowRate = entry.getValue().get() / minutes;
+      Double previous = rates.get(entry.getKey());
+      rates.put(entry.getKey(), (previous == null ? 0 : previous) + DECAY * windowRate);
+    }
+  }
+
+  /**
+   * @param group
+   * @return the decayed number of queries per minute for the group
+   */
+  public double getRate(String group) {
+    Double rate = rates.get(group.toLowerCase());
+    return rate == null ? 0 : rate;
+  }
+
+  /**
+   * @param group
+   * @return true if the group has been queried recently
+   */
+  public boolean isQueried(String group) {
+    String key = group.toLowerCase();
+    return rates.containsKey(key) || window.containsKey(key);
+  }
+
+  /**
+   * Called for every entry and memberOf value returned to the clients, so the common Dns
+   * are read without building an LdapName.
+   *
+   * @param dn
+   * @return the cn of a group Dn of the form cn=X,ou=groups,..., null otherwise
+   */
+  static String groupNameOf(String dn) {
+    if (dn.indexOf('\\') >= 0 || dn.indexOf('"') >= 0) {
+      // Escaped values, let the Dn parser unescape them
+      return parsedGroupNameOf(dn);
+    }
+    int leafEnd = dn.indexOf(',');
+    if (leafEnd < 0) {
+      return null;
+    }
+    int parentEnd = dn.indexOf(',', leafEnd + 1);
+    String parent = parentEnd < 0 ? dn.substring(leafEnd + 1) : dn.substring(leafEnd + 1,
+        parentEnd);
+    if (!"groups".equalsIgnoreCase(valueOf(parent, "ou"))) {
+      return null;
+    }
+    return valueOf(dn.substring(0, leafEnd), "cn");
+  }
+
+  /**
+   * @return the value of a single valued Rdn of the given type, null for another Rdn
+   */
+  private static String valueOf(String rdn, String type) {
+    int equals = rdn.indexOf('=');
+    if (equals < 0 || rdn.indexOf('+') >= 0
+        || !rdn.substring(0, equals).trim().equalsIgnoreCase(type)) {
+      return null;
+    }
+    return rdn.substring(equals + 1).trim();
+  }
+
+  private static String parsedGroupNameOf(String dn) {
+    try {
+      LdapName name = new LdapName(dn);
+      int size = name.size();
+      if (size < 2) {
+        return null;
+      }
+      // Rdns are indexed from the right
+      Rdn parent = name.getRdn(size - 2);
+      Rdn leaf = name.getRdn(size - 1);
+      if (parent.getType().equalsIgnoreCase("ou")
+          && parent.getValue().toString().equalsIgnoreCase("groups")
+          && leaf.getType().equalsIgnoreCase("cn")) {
+        return leaf.getValue().toString();
+      }
+    } catch (InvalidNameException e) {
+      // Not a Dn, nothing to record
+    }
+    return null;
+  }
+
+}
@@ -1,13 +1,104 @@
 package com.krish.directory.service;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.hadoop.fs.Path;
 
+import com.krish.security.hadoop.impl.GroupsMappingBuilder;
+import com.krish.security.hadoop.impl.MultiRegionGroups;
+
 public interface GroupMappingService {
   
   public void setEadSchemaService(EadSchemaService schemaService);
+
+  /**
+   * Upgrade the users and groups created before the POSIX profile was turned on, if it is
+   * @throws Exception
+   */
+  public void upgradeToPosix() throws Exception;
   
   public void doSchemaUpdate();
+
+  /**
+   * Sync the groups of a single provider
+   * @param provider
+   * @throws IOException if none of the groups of the provider could be fetched
+   */
+  public void doSchemaUpdate(MultiRegionGroups provider) throws IOException;
+
+  /**
+   * Sync some of the groups of a single provider
+   * @param provider
+   * @param groups the groups to sync
+   * @return the groups which have been synced successfully
+   * @throws IOException if none of the groups could be fetched
+   */
+  public Collection<String> doSchemaUpdate(MultiRegionGroups provider, Collection<String> groups)
+      throws IOException;
+
+  public List<MultiRegionGroups> getProviders();
+
+  /**
+   * Apply the membership of a group, fetched from a provider by this server or another
+   * @param providerName
+   * @param membership
+   * @return true if the directory is in sync with the membership
+   * @throws IOException if the journal could not be written
+   */
+  public boolean applyMembership(String providerName, GroupMembership membership)
+      throws IOException;
+
+  /**
+   * Set the listener notified of the memberships fetched from the providers
+   */
+  public void setMembershipListener(MembershipListener listener);
+
+  /**
+   * Open the sync journal kept in a directory and replay the memberships which were
+   * fetched but not applied
+   * @param dir
+   * @throws IOException
+   */
+  public void openSyncJournal(File dir) throws IOException;
+
+  /**
+   * @param providerName
+   * @return the last sync time of the groups of the provider recorded in the journal
+   */
+  public Map<String, Long> getLastSynced(String providerName);
+
+  /**
+   * Publish the membership snapshot, if one is configured and the memberships changed
+   * @throws IOException
+   */
+  public void publishSnapshot() throws IOException;
+
+  /**
+   * Force the journal to disk and close it
+   * @throws IOException
+   */
+  public void close() throws IOException;
   
   public void buildGroupMapping(Path groupMappingXml) throws Exception;
 
+  /**
+   * Read the group mapping again, building again only the providers whose settings changed
+   * @param groupMappingXml
+   * @return the providers and groups added and removed
+   * @throws Exception if the configuration could not be loaded, the one in use being kept
+   */
+  public GroupsMappingBuilder.Reload reloadGroupMapping(Path groupMappingXml) throws Exception;
+
+  /**
+   * Drop the members a provider contributed to groups not configured for it anymore
+   * @param providerName
+   * @param groups
+   * @throws IOException if the journal could not be written
+   */
+  public void removeGroups(String providerName, Collection<String> groups) throws IOException;
+
 }
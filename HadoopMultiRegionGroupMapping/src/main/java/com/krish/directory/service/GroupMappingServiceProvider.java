@@ -2,6 +2,7 @@ package com.krish.directory.service;
 
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
@@ -24,5 +25,67 @@ public interface GroupMappingServiceProvider {
    */
   public List<String> getUsers(String group) throws IOException;
 
+  /**
+   * Get the members of a given group along with the digest of the member set.
+   * Providers able to tell a missing group from an empty one should override it.
+   * @param group
+   * @return membership of the group
+   * @throws IOException
+   */
+  public default GroupMembership getMembership(String group) throws IOException {
+    return GroupMembership.of(group, getUsers(group));
+  }
+
+  /**
+   * Receives the memberships of a batch of groups, in the order the provider gets them
+   */
+  public interface MembershipCallback {
+    /**
+     * Called before the lookup of a group is sent
+     * @return false to stop the batch, the groups left not being looked up
+     */
+    boolean beforeRequest(String group);
+
+    void fetched(GroupMembership membership);
+
+    void failed(String group, IOException e);
+  }
+
+  /**
+   * Get the members of a batch of groups. Providers able to have several lookups in
+   * flight should override it, the default looking the groups up one after the other.
+   * @param groups
+   * @param callback
+   */
+  public default void getMemberships(Collection<String> groups, MembershipCallback callback) {
+    for (String group : groups) {
+      if (!callback.beforeRequest(group)) {
+        return;
+      }
+      GroupMembership membership;
+      try {
+        membership = getMembership(group);
+      } catch (IOException e) {
+        callback.failed(group, e);
+        continue;
+      }
+      callback.fetched(membership);
+    }
+  }
+
+  /**
+   * Called at the start of every sync of the provider, before its groups are fetched.
+   * Providers caching data for the duration of a sync reset it here.
+   */
+  public default void beginSync() {
+  }
+
+  /**
+   * Called once the provider is replaced or removed by a reload of the configuration, and
+   * none of its syncs is running. Providers holding connections close them here.
+   */
+  public default void close() {
+  }
+
 }
 
@@ -0,0 +1,105 @@
+package com.krish.directory.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Members of a group as fetched from an upstream provider, with the digest of the member
+ * set. The members are held either as names or as a {@link MemberSet}, the other form being
+ * built when it is first asked for.
+ *
+ * @author krishdey
+ *
+ */
+public class GroupMembership {
+
+  private final String group;
+
+  private volatile List<String> users;
+
+  private volatile MemberSet members;
+
+  private final String digest;
+
+  private final boolean found;
+
+  /**
+   * @param group
+   * @param users
+   * @param digest digest of the users, see {@link MembershipDigest}
+   * @param found false if the group does not exist upstream
+   */
+  public GroupMembership(String group, List<String> users, String digest, boolean found) {
+    this.group = group;
+    this.users = users;
+    this.digest = digest;
+    this.found = found;
+  }
+
+  /**
+   * @param group
+   * @param members
+   * @param digest digest of the members, see {@link MembershipDigest}
+   * @param found false if the group does not exist upstream
+   */
+  public GroupMembership(String group, MemberSet members, String digest, boolean found) {
+    this.group = group;
+    this.members = members;
+    this.digest = digest;
+    this.found = found;
+  }
+
+  /**
+   * Build the membership of a group from an already fetched list of users. A user listed
+   * more than once, whatever the case, is kept once, as in a {@link MemberSet}.
+   */
+  public static GroupMembership of(String group, List<String> users) {
+    Set<String> seen = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    List<String> unique = new ArrayList<String>(users.size());
+    MembershipDigest digest = new MembershipDigest();
+    for (String user : users) {
+      if (seen.add(user)) {
+        unique.add(user);
+        digest.add(user);
+      }
+    }
+    return new GroupMembership(group, unique.size() == users.size() ? users : unique,
+        digest.getDigest(), true);
+  }
+
+  public String getGroup() {
+    return group;
+  }
+
+  public List<String> getUsers() {
+    List<String> names = users;
+    if (names == null) {
+      names = members.names();
+      users = names;
+    }
+    return names;
+  }
+
+  /**
+   * @return the members as ids of the names of {@link NameDictionary#users()}
+   */
+  public MemberSet getMembers() {
+    MemberSet set = members;
+    if (set == null) {
+      set = MemberSet.of(NameDictionary.users(), users);
+      members = set;
+    }
+    return set;
+  }
+
+  public String getDigest() {
+    return digest;
+  }
+
+  public boolean isFound() {
+    return found;
+  }
+
+}
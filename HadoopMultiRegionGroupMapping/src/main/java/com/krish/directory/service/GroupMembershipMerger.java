@@ -0,0 +1,154 @@
+package com.krish.directory.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the member lists a group has in several regions and diffs the result against the
+ * local members, in a single streaming pass over the sorted lists. Member names are
+ * compared case insensitively.
+ *
+ * @author krishdey
+ *
+ */
+public class GroupMembershipMerger {
+
+  /**
+   * How the member lists of a group found in several regions are combined
+   */
+  public enum Policy {
+    /** A user is a member if it is a member in any of the regions */
+    UNION,
+    /** The members are the ones of the highest priority region having the group */
+    PRIMARY;
+
+    public static Policy fromString(String policy) {
+      for (Policy value : values()) {
+        if (value.name().equalsIgnoreCase(policy)) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Unknown merge policy " + policy);
+    }
+  }
+
+  /**
+   * Outcome of a merge
+   */
+  public static class Result {
+    private final List<String> merged = new ArrayList<String>();
+    private final List<String> toAdd = new ArrayList<String>();
+    private final List<String> toRemove = new ArrayList<String>();
+
+    /** Sorted members of the group across the regions */
+    public List<String> getMerged() {
+      return merged;
+    }
+
+    /** Members missing from the local group */
+    public List<String> getToAdd() {
+      return toAdd;
+    }
+
+    /** Local members which are no longer members in any region */
+    public List<String> getToRemove() {
+      return toRemove;
+    }
+
+    public boolean isUnchanged() {
+      return toAdd.isEmpty() && toRemove.isEmpty();
+    }
+  }
+
+  /**
+   * Sort a member list the way {@link #merge(Collection, String[])} expects it
+   */
+  public static String[] sorted(Collection<String> users) {
+    String[] array = users.toArray(new String[users.size()]);
+    Arrays.sort(array, String.CASE_INSENSITIVE_ORDER);
+    return array;
+  }
+
+  /**
+   * Merge the sorted member lists of the regions and diff them against the sorted local
+   * members. Every list is consumed once, through a heap of cursors.
+   *
+   * @param sources sorted member lists of the regions
+   * @param local sorted local members
+   */
+  public static Result merge(Collection<String[]> sources, String[] local) {
+    Result result = new Result();
+    PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(sources.size() + 1);
+    int rank = 0;
+    for (String[] source : sources) {
+      if (source.length > 0) {
+        heap.add(new Cursor(source, rank));
+      }
+      rank++;
+    }
+    if (local.length > 0) {
+      heap.add(new Cursor(local, Cursor.LOCAL));
+    }
+
+    while (!heap.isEmpty()) {
+      String current = heap.peek().value();
+      boolean upstream = false;
+      boolean inLocal = false;
+      // Drain every cursor positioned on the current name, including duplicates
+      while (!heap.isEmpty()
+          && String.CASE_INSENSITIVE_ORDER.compare(heap.peek().value(), current) == 0) {
+        Cursor cursor = heap.poll();
+        if (cursor.rank == Cursor.LOCAL) {
+          inLocal = true;
+        } else {
+          upstream = true;
+        }
+        if (cursor.advance()) {
+          heap.add(cursor);
+        }
+      }
+      if (upstream) {
+        result.merged.add(current);
+        if (!inLocal) {
+          result.toAdd.add(current);
+        }
+      } else {
+        result.toRemove.add(current);
+      }
+    }
+    return result;
+  }
+
+  private static class Cursor implements Comparable<Cursor> {
+    static final int LOCAL = Integer.MAX_VALUE;
+
+    private final String[] values;
+    /** Position of the source, the local members coming last */
+    private final int rank;
+    private int position = 0;
+
+    Cursor(String[] values, int rank) {
+      this.values = values;
+      this.rank = rank;
+    }
+
+    String value() {
+      return values[position];
+    }
+
+    boolean advance() {
+      return ++position < values.length;
+    }
+
+    @Override
+    public int compareTo(Cursor other) {
+      int cmp = String.CASE_INSENSITIVE_ORDER.compare(value(), other.value());
+      // Earlier sources first, so the merged list keeps the spelling of the first source
+      return cmp != 0 ? cmp : Integer.compare(rank, other.rank);
+    }
+  }
+
+}
@@ -0,0 +1,34 @@
+package com.krish.directory.service;
+
+import java.io.IOException;
+
+import org.apache.htrace.core.HTraceConfiguration;
+import org.apache.htrace.core.Span;
+import org.apache.htrace.core.SpanReceiver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs every span as a line of json to the com.krish.directory.service.LogSpanReceiver
+ * logger, for inspecting the traces without a collector.
+ *
+ * @author krishdey
+ *
+ */
+public class LogSpanReceiver extends SpanReceiver {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LogSpanReceiver.class);
+
+  public LogSpanReceiver(HTraceConfiguration conf) {
+  }
+
+  @Override
+  public void receiveSpan(Span span) {
+    LOG.info(span.toJson());
+  }
+
+  @Override
+  public void close() throws IOException {
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.krish.directory.service;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Members of a group as the sorted ids of their names in a {@link NameDictionary}. A group
+ * of the sync cycle costs an int per member, the names being shared by all the groups and
+ * regions, and is only turned back into names when it changed.
+ *
+ * @author krishdey
+ *
+ */
+public class MemberSet {
+
+  private final NameDictionary dictionary;
+
+  private final int[] ids;
+
+  private MemberSet(NameDictionary dictionary, int[] ids) {
+    this.dictionary = dictionary;
+    this.ids = ids;
+  }
+
+  /**
+   * @return the set of the names, duplicates ignored
+   */
+  public static MemberSet of(NameDictionary dictionary, Collection<String> names) {
+    Builder builder = new Builder(dictionary);
+    for (String name : names) {
+      builder.add(name);
+    }
+    return builder.buildSet();
+  }
+
+  public int size() {
+    return ids.length;
+  }
+
+  public boolean contains(String name) {
+    int id = dictionary.idOf(name);
+    return id >= 0 && Arrays.binarySearch(ids, id) >= 0;
+  }
+
+  /**
+   * @return the names of the members, in the order of their ids
+   */
+  public List<String> names() {
+    return Arrays.asList(dictionary.names(ids, ids.length));
+  }
+
+  /**
+   * @return the names of the members sorted for {@link GroupMembershipMerger}
+   */
+  public String[] sortedNames() {
+    String[] names = dictionary.names(ids, ids.length);
+    Arrays.sort(names, String.CASE_INSENSITIVE_ORDER);
+    return names;
+  }
+
+  /**
+   * Collects the members of a group as they are streamed from a provider, with their
+   * digest. Duplicates are dropped through a bit set of the ids. A builder is reused for
+   * the groups of a sync, so that only the final id array of a group is allocated.
+   */
+  public static class Builder {
+    private final NameDictionary dictionary;
+    private final BitSet seen = new BitSet();
+    private int[] ids = new int[64];
+    private int size;
+    private MembershipDigest digest = new MembershipDigest();
+
+    public Builder(NameDictionary dictionary) {
+      this.dictionary = dictionary;
+    }
+
+    public void add(String name) {
+      addId(dictionary.intern(name));
+    }
+
+    /**
+     * Add the name made of the chars from start to end
+     */
+    public void add(CharSequence chars, int start, int end) {
+      addId(dictionary.intern(chars, start, end));
+    }
+
+    private void addId(int id) {
+      if (seen.get(id)) {
+        return;
+      }
+      seen.set(id);
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, 2 * size);
+      }
+      ids[size++] = id;
+      digest.add(dictionary.digestHigh(id), dictionary.digestLow(id));
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @return the members added so far, the builder being emptied
+     */
+    public MemberSet buildSet() {
+      int[] sorted = Arrays.copyOf(ids, size);
+      Arrays.sort(sorted);
+      clear();
+      return new MemberSet(dictionary, sorted);
+    }
+
+    /**
+     * @return the membership of the group made of the members added so far, the builder
+     *         being emptied
+     */
+    public GroupMembership build(String group, boolean found) {
+      String digested = digest.getDigest();
+      return new GroupMembership(group, buildSet(), digested, found);
+    }
+
+    public void clear() {
+      for (int i = 0; i < size; i++) {
+        seen.clear(ids[i]);
+      }
+      size = 0;
+      digest = new MembershipDigest();
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.krish.directory.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Digest of the member set of a group, computed while the members are streamed from the
+ * upstream server. Every member is hashed on its own and the hashes are combined with
+ * additions, so the digest does not depend on the order of the members and equals the
+ * digest of the sorted set without having to sort it. Member names are case insensitive,
+ * as they are in AD.
+ *
+ * @author krishdey
+ *
+ */
+public class MembershipDigest {
+
+  private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException("MD5 is not available", e);
+      }
+    }
+  };
+
+  private long count;
+  private long sumHigh;
+  private long sumLow;
+
+  /**
+   * Add a member to the digest. A member must be added only once.
+   * @param member
+   */
+  public void add(String member) {
+    long[] hash = hash(member);
+    add(hash[0], hash[1]);
+  }
+
+  /**
+   * Add a member by its hash, as computed by {@link #hash(String)}
+   */
+  public void add(long high, long low) {
+    sumHigh += high;
+    sumLow += low;
+    count++;
+  }
+
+  /**
+   * @return the two halves of the hash of a member, the same whatever the default locale
+   */
+  public static long[] hash(String member) {
+    byte[] hash =
+        MD5.get().digest(member.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    return new long[] { toLong(hash, 0), toLong(hash, 8) };
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the hex digest of the members added so far
+   */
+  public String getDigest() {
+    return String.format("%x-%016x%016x", count, sumHigh, sumLow);
+  }
+
+  private static long toLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      value = (value << 8) | (bytes[i] & 0xff);
+    }
+    return value;
+  }
+
+}
@@ -0,0 +1,17 @@
+package com.krish.directory.service;
+
+/**
+ * Notified of the memberships fetched from the providers
+ *
+ * @author krishdey
+ *
+ */
+public interface MembershipListener {
+
+  /**
+   * @param providerName the provider the membership was fetched from
+   * @param membership
+   */
+  void membershipFetched(String providerName, GroupMembership membership);
+
+}
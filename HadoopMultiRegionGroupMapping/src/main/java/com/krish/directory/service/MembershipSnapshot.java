@@ -0,0 +1,312 @@
+package com.krish.directory.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binary snapshot of the memberships of all the groups, for the hosts resolving the groups
+ * of a user without any LDAP call. The file is read in place through a read only mapping:
+ *
+ * <pre>
+ * header     magic, version, users, groups, edges (int), created (long)
+ * users      users + 1 offsets of the user names in the names (int)
+ * groups     groups + 1 offsets of the group names in the names (int)
+ * adjacency  users + 1 offsets of the groups of every user in the edges (int)
+ * edges      index of the group of every membership, user by user (int)
+ * names      UTF-16 chars of the user and group names
+ * </pre>
+ *
+ * The names are sorted ignoring case, like the member lists of the groups, and a user is
+ * found by a binary search comparing its chars in place, without allocating. A snapshot
+ * is written to a temporary file renamed over the previous one, so that a reader maps
+ * either of them whole.
+ *
+ * @author krishdey
+ *
+ */
+public class MembershipSnapshot {
+
+  /** "EADS" */
+  static final int MAGIC = 0x45414453;
+
+  static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 5 * 4 + 8;
+
+  private final ByteBuffer buffer;
+  private final int users;
+  private final int groups;
+  private final long created;
+
+  /** Positions of the sections in the buffer */
+  private final int userOffsets;
+  private final int groupOffsets;
+  private final int adjacency;
+  private final int edges;
+  private final int names;
+
+  /** Group names, decoded once so that the lookups hand out the same strings */
+  private final String[] groupNames;
+
+  private MembershipSnapshot(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a membership snapshot");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported membership snapshot version " + buffer.getInt(4));
+    }
+    users = buffer.getInt(8);
+    groups = buffer.getInt(12);
+    int edgeCount = buffer.getInt(16);
+    created = buffer.getLong(20);
+    if (users < 0 || groups < 0 || edgeCount < 0 || HEADER_SIZE
+        + 4L * (2 * (users + 1L) + groups + 1L + edgeCount) > buffer.capacity()) {
+      throw new IOException("Truncated membership snapshot");
+    }
+    userOffsets = HEADER_SIZE;
+    groupOffsets = userOffsets + 4 * (users + 1);
+    adjacency = groupOffsets + 4 * (groups + 1);
+    edges = adjacency + 4 * (users + 1);
+    names = edges + 4 * edgeCount;
+    if (names + 2L * buffer.getInt(groupOffsets + 4 * groups) != buffer.capacity()) {
+      throw new IOException("Truncated membership snapshot");
+    }
+    groupNames = new String[groups];
+    for (int group = 0; group < groups; group++) {
+      int start = buffer.getInt(groupOffsets + 4 * group);
+      int end = buffer.getInt(groupOffsets + 4 * group + 4);
+      char[] chars = new char[end - start];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = buffer.getChar(names + 2 * (start + i));
+      }
+      groupNames[group] = new String(chars);
+    }
+  }
+
+  /**
+   * Map a snapshot file. The mapping outlives the file, which can be replaced at once.
+   */
+  public static MembershipSnapshot open(File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Membership snapshot " + file + " is too large");
+      }
+      return new MembershipSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Write the snapshot of the groups and atomically replace the file with it
+   *
+   * @param file
+   * @param members members of every group
+   * @return the number of users of the snapshot
+   * @throws IOException
+   */
+  public static int write(File file, Map<String, ? extends Collection<String>> members)
+      throws IOException {
+    TreeMap<String, Collection<String>> sortedGroups =
+        new TreeMap<String, Collection<String>>(String.CASE_INSENSITIVE_ORDER);
+    for (Map.Entry<String, ? extends Collection<String>> entry : members.entrySet()) {
+      Collection<String> previous = sortedGroups.put(entry.getKey(), entry.getValue());
+      if (previous != null) {
+        List<String> both = new ArrayList<String>(previous);
+        both.addAll(entry.getValue());
+        sortedGroups.put(entry.getKey(), both);
+      }
+    }
+
+    // The groups of every user, in increasing order as the groups are visited sorted
+    TreeMap<String, List<Integer>> sortedUsers =
+        new TreeMap<String, List<Integer>>(String.CASE_INSENSITIVE_ORDER);
+    int group = 0;
+    int edgeCount = 0;
+    long chars = 0;
+    for (Map.Entry<String, Collection<String>> entry : sortedGroups.entrySet()) {
+      chars += entry.getKey().length();
+      for (String user : entry.getValue()) {
+        List<Integer> userGroups = sortedUsers.get(user);
+        if (userGroups == null) {
+          userGroups = new ArrayList<Integer>();
+          sortedUsers.put(user, userGroups);
+          chars += user.length();
+        }
+        if (userGroups.isEmpty() || userGroups.get(userGroups.size() - 1) != group) {
+          userGroups.add(group);
+          edgeCount++;
+        }
+      }
+      group++;
+    }
+    long size = HEADER_SIZE + 4L * (2 * (sortedUsers.size() + 1) + sortedGroups.size() + 1
+        + edgeCount) + 2 * chars;
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Membership snapshot of " + size + " bytes is too large");
+    }
+
+    File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    FileOutputStream fileOut = new FileOutputStream(tmp);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(sortedUsers.size());
+      out.writeInt(sortedGroups.size());
+      out.writeInt(edgeCount);
+      out.writeLong(System.currentTimeMillis());
+      int offset = 0;
+      for (String user : sortedUsers.keySet()) {
+        out.writeInt(offset);
+        offset += user.length();
+      }
+      out.writeInt(offset);
+      for (String groupName : sortedGroups.keySet()) {
+        out.writeInt(offset);
+        offset += groupName.length();
+      }
+      out.writeInt(offset);
+      int edge = 0;
+      for (List<Integer> userGroups : sortedUsers.values()) {
+        out.writeInt(edge);
+        edge += userGroups.size();
+      }
+      out.writeInt(edge);
+      for (List<Integer> userGroups : sortedUsers.values()) {
+        for (int userGroup : userGroups) {
+          out.writeInt(userGroup);
+        }
+      }
+      for (String user : sortedUsers.keySet()) {
+        out.writeChars(user);
+      }
+      for (String groupName : sortedGroups.keySet()) {
+        out.writeChars(groupName);
+      }
+      out.flush();
+      fileOut.getFD().sync();
+    } finally {
+      fileOut.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return sortedUsers.size();
+  }
+
+  /**
+   * @return the index of the user, -1 if the user is in none of the groups
+   */
+  public int indexOfUser(String user) {
+    int low = 0;
+    int high = users - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareUser(mid, user);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Compare a user name with a key the way {@link String#CASE_INSENSITIVE_ORDER} does
+   */
+  private int compareUser(int user, String key) {
+    int start = buffer.getInt(userOffsets + 4 * user);
+    int length = buffer.getInt(userOffsets + 4 * user + 4) - start;
+    int n = Math.min(length, key.length());
+    int position = names + 2 * start;
+    for (int i = 0; i < n; i++, position += 2) {
+      char c1 = buffer.getChar(position);
+      char c2 = key.charAt(i);
+      if (c1 != c2) {
+        c1 = Character.toUpperCase(c1);
+        c2 = Character.toUpperCase(c2);
+        if (c1 != c2) {
+          c1 = Character.toLowerCase(c1);
+          c2 = Character.toLowerCase(c2);
+          if (c1 != c2) {
+            return c1 - c2;
+          }
+        }
+      }
+    }
+    return length - key.length();
+  }
+
+  /**
+   * @param user index of a user
+   * @return the number of groups of the user
+   */
+  public int getGroupCount(int user) {
+    return buffer.getInt(adjacency + 4 * user + 4) - buffer.getInt(adjacency + 4 * user);
+  }
+
+  /**
+   * @param user index of a user
+   * @param i rank of the group among the groups of the user
+   * @return the index of the group
+   */
+  public int getGroup(int user, int i) {
+    return buffer.getInt(edges + 4 * (buffer.getInt(adjacency + 4 * user) + i));
+  }
+
+  public String getGroupName(int group) {
+    return groupNames[group];
+  }
+
+  /**
+   * @return the groups of the user, sorted, empty if the user is in none of them
+   */
+  public List<String> getGroups(String user) {
+    int index = indexOfUser(user);
+    if (index < 0) {
+      return Collections.emptyList();
+    }
+    int count = getGroupCount(index);
+    List<String> result = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(groupNames[getGroup(index, i)]);
+    }
+    return result;
+  }
+
+  public int getUserCount() {
+    return users;
+  }
+
+  public int getGroupCount() {
+    return groups;
+  }
+
+  /**
+   * @return the time the snapshot was written
+   */
+  public long getCreated() {
+    return created;
+  }
+
+}
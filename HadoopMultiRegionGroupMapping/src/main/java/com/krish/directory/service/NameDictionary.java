@@ -0,0 +1,169 @@
+package com.krish.directory.service;
+
+import java.util.Arrays;
+
+/**
+ * Interns the user names fetched from the providers, so that a name seen in every region
+ * and every sync is held by a single String and referred to by an int id. Names are case
+ * insensitive, the first spelling seen being kept. A name can be looked up from a range of
+ * a larger string, such as the Dn of a member, without extracting it first.
+ *
+ * The dictionary also keeps the {@link MembershipDigest} hash of every name, computed once
+ * when the name is first seen. Ids are never reused, the dictionary only grows with the
+ * user population.
+ *
+ * @author krishdey
+ *
+ */
+public class NameDictionary {
+
+  private static final NameDictionary USERS = new NameDictionary();
+
+  /** Open addressing table of the ids plus one, 0 for a free slot */
+  private int[] slots = new int[1024];
+
+  private String[] names = new String[512];
+
+  private int[] hashes = new int[512];
+
+  /** Two halves of the digest hash of every name */
+  private long[] digestHashes = new long[1024];
+
+  private int size;
+
+  /**
+   * @return the dictionary of the user names of the server
+   */
+  public static NameDictionary users() {
+    return USERS;
+  }
+
+  public int intern(String name) {
+    return intern(name, 0, name.length());
+  }
+
+  /**
+   * @return the id of the name made of the chars from start to end, added if it is new
+   */
+  public synchronized int intern(CharSequence chars, int start, int end) {
+    int hash = hash(chars, start, end);
+    int mask = slots.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int entry = slots[slot];
+      if (entry == 0) {
+        return add(chars.subSequence(start, end).toString(), hash, slot);
+      }
+      int id = entry - 1;
+      if (hashes[id] == hash && matches(names[id], chars, start, end)) {
+        return id;
+      }
+    }
+  }
+
+  /**
+   * @return the id of the name, -1 if it was never interned
+   */
+  public synchronized int idOf(String name) {
+    int hash = hash(name, 0, name.length());
+    int mask = slots.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int entry = slots[slot];
+      if (entry == 0) {
+        return -1;
+      }
+      if (hashes[entry - 1] == hash && matches(names[entry - 1], name, 0, name.length())) {
+        return entry - 1;
+      }
+    }
+  }
+
+  public synchronized String name(int id) {
+    return names[id];
+  }
+
+  /**
+   * @return the names of the first count ids
+   */
+  public synchronized String[] names(int[] ids, int count) {
+    String[] result = new String[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = names[ids[i]];
+    }
+    return result;
+  }
+
+  synchronized long digestHigh(int id) {
+    return digestHashes[2 * id];
+  }
+
+  synchronized long digestLow(int id) {
+    return digestHashes[2 * id + 1];
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  private int add(String name, int hash, int slot) {
+    int id = size++;
+    if (id == names.length) {
+      names = Arrays.copyOf(names, 2 * id);
+      hashes = Arrays.copyOf(hashes, 2 * id);
+      digestHashes = Arrays.copyOf(digestHashes, 4 * id);
+    }
+    names[id] = name;
+    hashes[id] = hash;
+    long[] digestHash = MembershipDigest.hash(name);
+    digestHashes[2 * id] = digestHash[0];
+    digestHashes[2 * id + 1] = digestHash[1];
+    slots[slot] = id + 1;
+    // Keep the table at most half full
+    if (2 * size > slots.length) {
+      rehash(2 * slots.length);
+    }
+    return id;
+  }
+
+  private void rehash(int capacity) {
+    int[] rehashed = new int[capacity];
+    int mask = capacity - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hashes[id] & mask;
+      while (rehashed[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      rehashed[slot] = id + 1;
+    }
+    slots = rehashed;
+  }
+
+  /**
+   * Case folding under which {@link String#CASE_INSENSITIVE_ORDER} finds two chars equal
+   */
+  private static char fold(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  private static int hash(CharSequence chars, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + fold(chars.charAt(i));
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean matches(String name, CharSequence chars, int start, int end) {
+    if (name.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char c1 = name.charAt(i);
+      char c2 = chars.charAt(start + i);
+      if (c1 != c2 && fold(c1) != fold(c2)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.krish.directory.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the configured groups which do not exist upstream, so that they are not
+ * searched on every sync. A missing group is checked again after a delay which doubles
+ * with every miss, up to a maximum.
+ *
+ * @author krishdey
+ *
+ */
+public class NegativeGroupCache {
+
+  private final ConcurrentHashMap<String, Miss> misses = new ConcurrentHashMap<String, Miss>();
+
+  /**
+   * @param key
+   * @param now
+   * @return true if the group is known to be missing and should not be searched yet
+   */
+  public boolean isSuppressed(String key, long now) {
+    Miss miss = misses.get(key);
+    return miss != null && now < miss.nextCheck;
+  }
+
+  /**
+   * Record that the group was not found upstream
+   * @param key
+   * @param now
+   * @param ttl delay before the first check
+   * @param maxTtl maximum delay between two checks
+   * @return the delay before the next check
+   */
+  public long recordMiss(String key, long now, long ttl, long maxTtl) {
+    Miss miss = misses.get(key);
+    int count = miss == null ? 0 : miss.count;
+    long delay = ttl << Math.min(count, 30);
+    if (delay <= 0 || delay > maxTtl) {
+      delay = Math.max(ttl, maxTtl);
+    }
+    misses.put(key, new Miss(count + 1, now + delay));
+    return delay;
+  }
+
+  /**
+   * The group has been found upstream
+   * @param key
+   */
+  public void clear(String key) {
+    misses.remove(key);
+  }
+
+  private static class Miss {
+    final int count;
+    final long nextCheck;
+
+    Miss(int count, long nextCheck) {
+      this.count = count;
+      this.nextCheck = nextCheck;
+    }
+  }
+
+}
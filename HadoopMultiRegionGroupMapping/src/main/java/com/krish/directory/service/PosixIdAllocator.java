@@ -0,0 +1,71 @@
+package com.krish.directory.service;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates the uidNumber and gidNumber of the POSIX profile. The number of a name is a
+ * hash of the name in a fixed range, so that every EAD server and every restart gives a
+ * name the same number without sharing any state. When the number is held by another
+ * name, the next free one of the range is taken.
+ *
+ * @author krishdey
+ *
+ */
+public class PosixIdAllocator {
+
+  /**
+   * Tells whether a number is already held, and by whom
+   */
+  public interface IdLookup {
+    /**
+     * @return the name holding the number, null if it is free
+     */
+    String holderOf(long id) throws Exception;
+  }
+
+  private final long base;
+  private final long span;
+
+  /**
+   * @param base first number of the range
+   * @param span size of the range
+   */
+  public PosixIdAllocator(long base, long span) {
+    if (span <= 0) {
+      throw new IllegalArgumentException("Empty id range");
+    }
+    this.base = base;
+    this.span = span;
+  }
+
+  /**
+   * @return the number the name hashes to
+   */
+  public long hash(String name) {
+    // FNV-1a, stable across JVMs unlike String.hashCode
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : name.toLowerCase().getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return base + ((hash % span) + span) % span;
+  }
+
+  /**
+   * @return the number of the name, the first one from its hash that is free or already
+   *         held by the name
+   * @throws IllegalStateException if the range is full
+   */
+  public long allocate(String name, IdLookup lookup) throws Exception {
+    long id = hash(name);
+    for (long probe = 0; probe < span; probe++) {
+      String holder = lookup.holderOf(id);
+      if (holder == null || holder.equalsIgnoreCase(name)) {
+        return id;
+      }
+      id = id + 1 == base + span ? base : id + 1;
+    }
+    throw new IllegalStateException("No free id in [" + base + ", " + (base + span) + ")");
+  }
+
+}
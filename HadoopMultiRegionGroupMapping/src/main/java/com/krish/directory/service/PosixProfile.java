@@ -0,0 +1,54 @@
+package com.krish.directory.service;
+
+/**
+ * Settings of the POSIX profile, under which the users are also posixAccount entries and
+ * the groups posixGroup entries listing their members by uid in memberUid.
+ *
+ * @author krishdey
+ *
+ */
+public class PosixProfile {
+
+  private final PosixIdAllocator uidNumbers;
+  private final PosixIdAllocator gidNumbers;
+  private final long primaryGid;
+  private final String homeDirectory;
+  private final String loginShell;
+
+  /**
+   * @param uidNumbers allocator of the uidNumber of the users
+   * @param gidNumbers allocator of the gidNumber of the groups
+   * @param primaryGid gidNumber of every user
+   * @param homeDirectory parent of the home directories
+   * @param loginShell login shell of every user
+   */
+  public PosixProfile(PosixIdAllocator uidNumbers, PosixIdAllocator gidNumbers,
+      long primaryGid, String homeDirectory, String loginShell) {
+    this.uidNumbers = uidNumbers;
+    this.gidNumbers = gidNumbers;
+    this.primaryGid = primaryGid;
+    this.homeDirectory = homeDirectory;
+    this.loginShell = loginShell;
+  }
+
+  public PosixIdAllocator getUidNumbers() {
+    return uidNumbers;
+  }
+
+  public PosixIdAllocator getGidNumbers() {
+    return gidNumbers;
+  }
+
+  public long getPrimaryGid() {
+    return primaryGid;
+  }
+
+  public String getHomeDirectory(String uid) {
+    return homeDirectory.endsWith("/") ? homeDirectory + uid : homeDirectory + "/" + uid;
+  }
+
+  public String getLoginShell() {
+    return loginShell;
+  }
+
+}
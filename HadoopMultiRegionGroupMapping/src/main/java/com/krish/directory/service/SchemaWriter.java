@@ -0,0 +1,199 @@
+package com.krish.directory.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.htrace.core.SpanId;
+import org.apache.htrace.core.TraceScope;
+import org.apache.htrace.core.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the writes of the reconciliation with a pool of writer threads. Every write is
+ * routed to a stripe by the Dn of the entry it modifies, each stripe having a single
+ * thread, so the writes to an entry are applied in the order they are submitted. The
+ * stripe queues are bounded and submitting to a full queue blocks, which slows down the
+ * provider syncs to the pace of the writers.
+ *
+ * @author krishdey
+ *
+ */
+public class SchemaWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SchemaWriter.class);
+
+  /**
+   * A write to a single entry
+   */
+  public interface WriteOp {
+    void write() throws Exception;
+  }
+
+  private final List<BlockingQueue<Task>> stripes = new ArrayList<BlockingQueue<Task>>();
+
+  private final List<Thread> writers = new ArrayList<Thread>();
+
+  private volatile boolean closed = false;
+
+  /**
+   * @param threads number of writer threads, 0 to write in the submitting thread
+   * @param queueSize capacity of the queue of every writer thread
+   */
+  public SchemaWriter(int threads, int queueSize) {
+    for (int i = 0; i < threads; i++) {
+      final BlockingQueue<Task> queue = new ArrayBlockingQueue<Task>(queueSize);
+      stripes.add(queue);
+      Thread writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (!closed) {
+              Task task = queue.take();
+              try {
+                task.run();
+              } catch (Error e) {
+                // The task reported its failure to its batch, the stripe goes on writing
+                LOG.error("Write to " + task.dn + " failed", e);
+              }
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }, "ead-writer-" + i);
+      writer.setDaemon(true);
+      writers.add(writer);
+      writer.start();
+    }
+  }
+
+  public int getThreads() {
+    return stripes.size();
+  }
+
+  /**
+   * Start a set of writes whose completion is awaited together
+   */
+  public Batch newBatch() {
+    return new Batch();
+  }
+
+  /**
+   * Stop the writer threads, once the batches submitted were awaited
+   */
+  public void close() {
+    closed = true;
+    for (Thread writer : writers) {
+      writer.interrupt();
+    }
+    for (Thread writer : writers) {
+      try {
+        writer.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  static int stripeOf(String dn, int stripes) {
+    return (dn.toLowerCase(Locale.ROOT).hashCode() & Integer.MAX_VALUE) % stripes;
+  }
+
+  /**
+   * Writes submitted together, typically the ones reconciling a group
+   */
+  public class Batch {
+    private int pending;
+    private int failures;
+
+    /**
+     * Queue a write, blocking while the queue of its stripe is full
+     * @param dn Dn of the entry written
+     * @param op
+     * @throws InterruptedException
+     */
+    public void submit(String dn, WriteOp op) throws InterruptedException {
+      if (closed) {
+        throw new IllegalStateException("The schema writer is closed");
+      }
+      Task task = new Task(this, dn, op);
+      if (stripes.isEmpty()) {
+        task.run();
+        return;
+      }
+      synchronized (this) {
+        pending++;
+      }
+      stripes.get(stripeOf(dn, stripes.size())).put(task);
+    }
+
+    private synchronized void done(boolean success) {
+      if (!success) {
+        failures++;
+      }
+      if (--pending == 0) {
+        notifyAll();
+      }
+    }
+
+    private synchronized void failedInline() {
+      failures++;
+    }
+
+    /**
+     * Wait for all the writes of the batch
+     * @return true if all of them succeeded
+     * @throws InterruptedException
+     */
+    public synchronized boolean await() throws InterruptedException {
+      while (pending > 0) {
+        wait();
+      }
+      return failures == 0;
+    }
+  }
+
+  private class Task {
+    private final Batch batch;
+    private final String dn;
+    private final WriteOp op;
+    /** Span of the submitting thread, the write is traced as its child */
+    private final SpanId parent;
+
+    Task(Batch batch, String dn, WriteOp op) {
+      this.batch = batch;
+      this.dn = dn;
+      this.op = op;
+      this.parent = Tracer.getCurrentSpanId();
+    }
+
+    void run() {
+      boolean success = false;
+      TraceScope scope = EadTracing.newChildScope("SchemaWriter#write", parent);
+      try {
+        scope.addKVAnnotation("dn", dn);
+        op.write();
+        success = true;
+      } catch (Exception e) {
+        LOG.warn("Write to " + dn + " failed: " + e.getMessage());
+        scope.addKVAnnotation("error", String.valueOf(e.getMessage()));
+      } finally {
+        scope.close();
+        // Also when the write threw an Error, so that the batch is not awaited forever
+        if (stripes.isEmpty()) {
+          if (!success) {
+            batch.failedInline();
+          }
+        } else {
+          batch.done(success);
+        }
+      }
+    }
+  }
+
+}
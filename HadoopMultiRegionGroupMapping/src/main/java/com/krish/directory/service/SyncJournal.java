@@ -0,0 +1,434 @@
+package com.krish.directory.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only journal of the memberships fetched from the providers and of whether they
+ * were applied to the directory. After a restart the last fetched membership of every
+ * group is known without asking the provider again, the ones which were not applied are
+ * replayed and the groups are not due before their last sync time plus their refresh
+ * interval.
+ *
+ * The records are tab separated lines:
+ * <pre>
+ * F seq time provider group digest user...   membership fetched
+ * M seq time provider group                  group missing upstream
+ * A seq                                      record seq applied
+ * S seq time provider group...               groups synced at time
+ * </pre>
+ * Every line ends with the CRC32 of the record, so that a record partially written when
+ * the process died is ignored, and cut off before the next records are appended. Appends are buffered and forced to disk at most every
+ * syncInterval, and by {@link #sync()}. Once enough records were appended the journal is
+ * compacted to the last state of every group.
+ *
+ * @author krishdey
+ *
+ */
+public class SyncJournal implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SyncJournal.class);
+
+  static final String JOURNAL_FILE = "journal.log";
+
+  private static final char SEPARATOR = '\t';
+
+  /**
+   * Last state of a group of a provider
+   */
+  public static class Entry {
+    private final long seq;
+    private final long time;
+    private final String provider;
+    private final String group;
+    private final String digest;
+    private final List<String> users;
+    private boolean applied;
+
+    Entry(long seq, long time, String provider, String group, String digest,
+        List<String> users) {
+      this.seq = seq;
+      this.time = time;
+      this.provider = provider;
+      this.group = group;
+      this.digest = digest;
+      this.users = users;
+    }
+
+    public long getSeq() {
+      return seq;
+    }
+
+    public long getTime() {
+      return time;
+    }
+
+    public String getProvider() {
+      return provider;
+    }
+
+    public String getGroup() {
+      return group;
+    }
+
+    /** Digest of the members, null if the group is missing upstream */
+    public String getDigest() {
+      return digest;
+    }
+
+    public List<String> getUsers() {
+      return users;
+    }
+
+    public boolean isApplied() {
+      return applied;
+    }
+  }
+
+  private final File file;
+  private final long syncInterval;
+  private final int compactRecords;
+
+  /** Last membership record of every provider:group */
+  private final Map<String, Entry> latest = new LinkedHashMap<String, Entry>();
+
+  /** Entries of latest not applied yet, by sequence number */
+  private final Map<Long, Entry> unapplied = new HashMap<Long, Entry>();
+
+  /** Last sync time of the groups, by provider */
+  private final Map<String, Map<String, Long>> syncTimes =
+      new HashMap<String, Map<String, Long>>();
+
+  private FileOutputStream out;
+  private Writer writer;
+  private long seq = 0;
+  private long lastSync = 0;
+  private boolean dirty = false;
+  private int records = 0;
+
+  /**
+   * Open the journal of the directory, loading its records
+   * @param dir
+   * @param syncInterval maximum delay in milliseconds before an append is on disk
+   * @param compactRecords number of records appended before the journal is compacted
+   * @throws IOException
+   */
+  public SyncJournal(File dir, long syncInterval, int compactRecords) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create the journal directory " + dir);
+    }
+    this.file = new File(dir, JOURNAL_FILE);
+    this.syncInterval = syncInterval;
+    this.compactRecords = compactRecords;
+    if (file.exists()) {
+      load();
+    }
+    open();
+  }
+
+  private void load() throws IOException {
+    // Bytes up to the end of the last valid record
+    long valid = 0;
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      long offset = 0;
+      int b;
+      while ((b = in.read()) != -1) {
+        offset++;
+        if (b != '\n') {
+          line.write(b);
+          continue;
+        }
+        if (loadRecord(new String(line.toByteArray(), StandardCharsets.UTF_8))) {
+          valid = offset;
+        }
+        line.reset();
+      }
+      if (line.size() > 0) {
+        LOG.warn("Ignoring the partially written journal record "
+            + new String(line.toByteArray(), StandardCharsets.UTF_8));
+      }
+    } finally {
+      in.close();
+    }
+    // The next append would be glued onto the partial record
+    if (valid < file.length()) {
+      LOG.warn("Truncating the journal from " + file.length() + " to " + valid + " bytes");
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(valid);
+      } finally {
+        raf.close();
+      }
+    }
+    LOG.info("Loaded " + records + " journal records, " + latest.size() + " groups, "
+        + unapplied.size() + " not applied");
+  }
+
+  /**
+   * @return false if the line is not a valid record
+   */
+  private boolean loadRecord(String line) {
+    try {
+      int end = line.lastIndexOf(SEPARATOR);
+      String record = line.substring(0, end);
+      if (!checksum(record).equals(line.substring(end + 1))) {
+        throw new IllegalArgumentException("bad checksum");
+      }
+      replay(record.split(String.valueOf(SEPARATOR), -1));
+      records++;
+      return true;
+    } catch (RuntimeException e) {
+      // The tail of the journal written when the process died
+      LOG.warn("Ignoring the journal record " + line + ": " + e);
+      return false;
+    }
+  }
+
+  private void replay(String[] fields) {
+    long recordSeq = Long.parseLong(fields[1]);
+    seq = Math.max(seq, recordSeq);
+    switch (fields[0]) {
+    case "F":
+      List<String> users = new ArrayList<String>();
+      for (int i = 6; i < fields.length; i++) {
+        users.add(fields[i]);
+      }
+      put(new Entry(recordSeq, Long.parseLong(fields[2]), fields[3], fields[4], fields[5],
+          users));
+      break;
+    case "M":
+      put(new Entry(recordSeq, Long.parseLong(fields[2]), fields[3], fields[4], null,
+          new ArrayList<String>()));
+      break;
+    case "A":
+      applied(recordSeq);
+      break;
+    case "S":
+      for (int i = 4; i < fields.length; i++) {
+        syncTimesOf(fields[3]).put(fields[i], Long.parseLong(fields[2]));
+      }
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown record type " + fields[0]);
+    }
+  }
+
+  private void put(Entry entry) {
+    Entry previous = latest.put(entry.provider + ":" + entry.group, entry);
+    if (previous != null) {
+      unapplied.remove(previous.seq);
+    }
+    unapplied.put(entry.seq, entry);
+  }
+
+  private void applied(long recordSeq) {
+    Entry entry = unapplied.remove(recordSeq);
+    if (entry != null) {
+      entry.applied = true;
+    }
+  }
+
+  private Map<String, Long> syncTimesOf(String provider) {
+    Map<String, Long> times = syncTimes.get(provider);
+    if (times == null) {
+      times = new HashMap<String, Long>();
+      syncTimes.put(provider, times);
+    }
+    return times;
+  }
+
+  private static String checksum(String record) {
+    CRC32 crc = new CRC32();
+    crc.update(record.getBytes(StandardCharsets.UTF_8));
+    return Long.toHexString(crc.getValue());
+  }
+
+  private static void writeRecord(Writer writer, String record) throws IOException {
+    writer.write(record);
+    writer.write(SEPARATOR);
+    writer.write(checksum(record));
+    writer.write('\n');
+  }
+
+  private void open() throws IOException {
+    out = new FileOutputStream(file, true);
+    writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Last state of every group, in journal order
+   */
+  public synchronized List<Entry> getEntries() {
+    return new ArrayList<Entry>(latest.values());
+  }
+
+  /**
+   * Last sync time of the groups of a provider
+   */
+  public synchronized Map<String, Long> getSyncTimes(String provider) {
+    return new HashMap<String, Long>(syncTimesOf(provider));
+  }
+
+  /**
+   * Record the members fetched for a group
+   * @param digest digest of the members, null if the group is missing upstream
+   * @return the sequence number of the record
+   */
+  public synchronized long append(String provider, String group, String digest,
+      Collection<String> users) throws IOException {
+    long recordSeq = ++seq;
+    long now = System.currentTimeMillis();
+    StringBuilder record = new StringBuilder();
+    if (digest == null) {
+      record.append('M').append(SEPARATOR).append(recordSeq).append(SEPARATOR).append(now)
+          .append(SEPARATOR).append(provider).append(SEPARATOR).append(group);
+      put(new Entry(recordSeq, now, provider, group, null, new ArrayList<String>()));
+    } else {
+      record.append('F').append(SEPARATOR).append(recordSeq).append(SEPARATOR).append(now)
+          .append(SEPARATOR).append(provider).append(SEPARATOR).append(group)
+          .append(SEPARATOR).append(digest);
+      for (String user : users) {
+        record.append(SEPARATOR).append(user);
+      }
+      put(new Entry(recordSeq, now, provider, group, digest, new ArrayList<String>(users)));
+    }
+    write(record.toString());
+    return recordSeq;
+  }
+
+  /**
+   * Record that the membership appended as seq is now in the directory
+   */
+  public synchronized void markApplied(long recordSeq) throws IOException {
+    applied(recordSeq);
+    write("A" + SEPARATOR + recordSeq);
+  }
+
+  /**
+   * Record the groups of a provider synced at a time
+   */
+  public synchronized void markSynced(String provider, Collection<String> groups, long time)
+      throws IOException {
+    if (groups.isEmpty()) {
+      return;
+    }
+    StringBuilder record = new StringBuilder("S");
+    record.append(SEPARATOR).append(++seq).append(SEPARATOR).append(time).append(SEPARATOR)
+        .append(provider);
+    Map<String, Long> times = syncTimesOf(provider);
+    for (String group : groups) {
+      record.append(SEPARATOR).append(group);
+      times.put(group, time);
+    }
+    write(record.toString());
+  }
+
+  private void write(String record) throws IOException {
+    writeRecord(writer, record);
+    records++;
+    dirty = true;
+    if (System.currentTimeMillis() - lastSync >= syncInterval) {
+      sync();
+    }
+  }
+
+  /**
+   * Force the appended records to disk, and compact the journal if it grew enough
+   */
+  public synchronized void sync() throws IOException {
+    if (dirty) {
+      writer.flush();
+      out.getFD().sync();
+      dirty = false;
+    }
+    lastSync = System.currentTimeMillis();
+    // Compact only when most of the records are superseded
+    if (records >= compactRecords && records > 2 * latest.size()) {
+      compact();
+    }
+  }
+
+  /**
+   * Rewrite the journal with the last state of every group and atomically replace it
+   */
+  public synchronized void compact() throws IOException {
+    File tmp = new File(file.getParentFile(), JOURNAL_FILE + ".tmp");
+    FileOutputStream tmpOut = new FileOutputStream(tmp);
+    Writer tmpWriter =
+        new BufferedWriter(new OutputStreamWriter(tmpOut, StandardCharsets.UTF_8));
+    int written = 0;
+    try {
+      for (Entry entry : latest.values()) {
+        StringBuilder record = new StringBuilder();
+        record.append(entry.digest == null ? 'M' : 'F').append(SEPARATOR).append(entry.seq)
+            .append(SEPARATOR).append(entry.time).append(SEPARATOR).append(entry.provider)
+            .append(SEPARATOR).append(entry.group);
+        if (entry.digest != null) {
+          record.append(SEPARATOR).append(entry.digest);
+          for (String user : entry.users) {
+            record.append(SEPARATOR).append(user);
+          }
+        }
+        writeRecord(tmpWriter, record.toString());
+        written++;
+        if (entry.applied) {
+          writeRecord(tmpWriter, "A" + SEPARATOR + entry.seq);
+          written++;
+        }
+      }
+      for (Map.Entry<String, Map<String, Long>> provider : syncTimes.entrySet()) {
+        for (Map.Entry<String, Long> group : provider.getValue().entrySet()) {
+          writeRecord(tmpWriter, "S" + SEPARATOR + seq + SEPARATOR + group.getValue()
+              + SEPARATOR + provider.getKey() + SEPARATOR + group.getKey());
+          written++;
+        }
+      }
+      tmpWriter.flush();
+      tmpOut.getFD().sync();
+    } finally {
+      tmpWriter.close();
+    }
+    // The appends go on to the old journal if it could not be replaced
+    try {
+      writer.close();
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      LOG.info("Compacted the sync journal from " + records + " to " + written + " records");
+      records = written;
+      dirty = false;
+    } finally {
+      open();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    sync();
+    writer.close();
+  }
+
+}
@@ -0,0 +1,327 @@
+package com.krish.ead.server;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which LDAP requests the server takes on. A request is admitted if its client,
+ * by source address and by bind Dn, is under its concurrency and rate limits, and if the
+ * requests in flight are under the server limit. The server limit adapts to the latency
+ * of the requests, growing by one every limit requests answered under the target
+ * latency and shrinking by a tenth when they are slower, at most once per target.
+ *
+ * A share of the server limit is reserved to the critical clients, such as the NameNode,
+ * which are not subject to the client limits either. Rejected requests are answered
+ * busy at once rather than queued.
+ *
+ * @author krishdey
+ *
+ */
+public class AdmissionController {
+
+  /** Why a request was rejected */
+  public enum Rejection {
+    CLIENT_RATE, USER_RATE, CLIENT_CONCURRENCY, USER_CONCURRENCY, OVERLOAD
+  }
+
+  /** Drop the state of the clients idle for that long */
+  private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final int clientConcurrency;
+  private final int userConcurrency;
+  private final double clientRate;
+  private final double userRate;
+  private final int minLimit;
+  private final int maxLimit;
+  private final long targetNanos;
+  private final double criticalReserve;
+  private final Set<String> criticalClients;
+  private final Set<String> criticalUsers;
+
+  private final ConcurrentHashMap<String, ClientState> clients =
+      new ConcurrentHashMap<String, ClientState>();
+  private final ConcurrentHashMap<String, ClientState> users =
+      new ConcurrentHashMap<String, ClientState>();
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong admitted = new AtomicLong();
+  private final AtomicLong[] rejected = new AtomicLong[Rejection.values().length];
+
+  /** Adaptive server limit, guarded by this */
+  private double limit;
+  private long lastDecrease;
+  private long nextSweep;
+
+  public AdmissionController(TransportSettings settings) {
+    this(settings.getAdmissionClientConcurrency(), settings.getAdmissionUserConcurrency(),
+        settings.getAdmissionClientRate(), settings.getAdmissionUserRate(),
+        settings.getAdmissionMinLimit(), settings.getAdmissionMaxLimit(),
+        settings.getAdmissionTargetLatency(), settings.getAdmissionCriticalReserve(),
+        settings.getAdmissionCriticalClients(), settings.getAdmissionCriticalUsers());
+  }
+
+  /**
+   * @param clientConcurrency requests in flight per source address, 0 for no limit
+   * @param userConcurrency requests in flight per bind Dn, 0 for no limit
+   * @param clientRate requests per second per source address, 0 for no limit
+   * @param userRate requests per second per bind Dn, 0 for no limit
+   * @param minLimit lowest server limit
+   * @param maxLimit highest server limit, the initial one
+   * @param targetLatency latency in milliseconds above which the server limit shrinks
+   * @param criticalReserve share of the server limit only the critical clients use
+   * @param criticalClients source addresses of the critical clients
+   * @param criticalUsers bind Dns of the critical clients, compared ignoring case
+   */
+  public AdmissionController(int clientConcurrency, int userConcurrency, double clientRate,
+      double userRate, int minLimit, int maxLimit, long targetLatency,
+      double criticalReserve, Collection<String> criticalClients,
+      Collection<String> criticalUsers) {
+    this.clientConcurrency = clientConcurrency;
+    this.userConcurrency = userConcurrency;
+    this.clientRate = clientRate;
+    this.userRate = userRate;
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+    this.criticalReserve = criticalReserve;
+    this.criticalClients = new HashSet<String>(criticalClients);
+    this.criticalUsers = new HashSet<String>();
+    for (String user : criticalUsers) {
+      this.criticalUsers.add(user.toLowerCase());
+    }
+    this.limit = this.maxLimit;
+    for (int i = 0; i < rejected.length; i++) {
+      rejected[i] = new AtomicLong();
+    }
+  }
+
+  /**
+   * A request admitted, to release once it is answered
+   */
+  public class Permit {
+    private final ClientState client;
+    private final ClientState user;
+    private final long start;
+    private boolean released;
+
+    Permit(ClientState client, ClientState user, long start) {
+      this.client = client;
+      this.user = user;
+      this.start = start;
+    }
+
+    public void release() {
+      release(System.nanoTime());
+    }
+
+    synchronized void release(long now) {
+      if (released) {
+        return;
+      }
+      released = true;
+      if (client != null) {
+        client.inFlight.decrementAndGet();
+      }
+      if (user != null) {
+        user.inFlight.decrementAndGet();
+      }
+      inFlight.decrementAndGet();
+      adapt(now - start, now);
+    }
+  }
+
+  /**
+   * @param address source address of the request
+   * @param user bind Dn of the connection, null if anonymous
+   * @return the permit of the request, null if it is rejected
+   */
+  public Permit tryAcquire(String address, String user) {
+    return tryAcquire(address, user, System.nanoTime());
+  }
+
+  Permit tryAcquire(String address, String user, long now) {
+    String userKey = user == null ? null : user.toLowerCase();
+    sweep(now);
+    if (criticalClients.contains(address)
+        || (userKey != null && criticalUsers.contains(userKey))) {
+      if (!acquireServer(getLimit())) {
+        return reject(Rejection.OVERLOAD);
+      }
+      admitted.incrementAndGet();
+      return new Permit(null, null, now);
+    }
+
+    ClientState client = state(clients, address, clientRate, now);
+    // The anonymous clients only have the limits of their address
+    ClientState userState = userKey == null ? null : state(users, userKey, userRate, now);
+    if (!client.takeToken(now)) {
+      return reject(Rejection.CLIENT_RATE);
+    }
+    if (userState != null && !userState.takeToken(now)) {
+      return reject(Rejection.USER_RATE);
+    }
+    if (!client.acquire(clientConcurrency)) {
+      return reject(Rejection.CLIENT_CONCURRENCY);
+    }
+    if (userState != null && !userState.acquire(userConcurrency)) {
+      client.inFlight.decrementAndGet();
+      return reject(Rejection.USER_CONCURRENCY);
+    }
+    if (!acquireServer((int) Math.max(1, getLimit() * (1 - criticalReserve)))) {
+      client.inFlight.decrementAndGet();
+      if (userState != null) {
+        userState.inFlight.decrementAndGet();
+      }
+      return reject(Rejection.OVERLOAD);
+    }
+    admitted.incrementAndGet();
+    return new Permit(client, userState, now);
+  }
+
+  private boolean acquireServer(int max) {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= max) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private Permit reject(Rejection reason) {
+    rejected[reason.ordinal()].incrementAndGet();
+    return null;
+  }
+
+  private ClientState state(ConcurrentHashMap<String, ClientState> states, String key,
+      double rate, long now) {
+    ClientState state = states.get(key);
+    if (state == null) {
+      state = new ClientState(rate, now);
+      ClientState previous = states.putIfAbsent(key, state);
+      if (previous != null) {
+        state = previous;
+      }
+    }
+    state.lastUsed = now;
+    return state;
+  }
+
+  private synchronized void adapt(long latency, long now) {
+    if (latency > targetNanos) {
+      if (now - lastDecrease > targetNanos) {
+        limit = Math.max(minLimit, limit * 0.9);
+        lastDecrease = now;
+      }
+    } else {
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+  }
+
+  /**
+   * Forget the idle clients, so that a storm of short lived clients leaves no state
+   */
+  private void sweep(long now) {
+    synchronized (this) {
+      if (now < nextSweep) {
+        return;
+      }
+      nextSweep = now + IDLE_NANOS;
+    }
+    sweep(clients, now);
+    sweep(users, now);
+  }
+
+  private static void sweep(Map<String, ClientState> states, long now) {
+    Iterator<ClientState> it = states.values().iterator();
+    while (it.hasNext()) {
+      ClientState state = it.next();
+      if (state.inFlight.get() == 0 && now - state.lastUsed > IDLE_NANOS) {
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public long getAdmitted() {
+    return admitted.get();
+  }
+
+  public long getRejected(Rejection reason) {
+    return rejected[reason.ordinal()].get();
+  }
+
+  public long getRejected() {
+    long total = 0;
+    for (AtomicLong count : rejected) {
+      total += count.get();
+    }
+    return total;
+  }
+
+  /**
+   * Requests in flight and token bucket of a source address or a bind Dn
+   */
+  static class ClientState {
+    final AtomicInteger inFlight = new AtomicInteger();
+    private final double rate;
+    private double tokens;
+    private long refilled;
+    volatile long lastUsed;
+
+    ClientState(double rate, long now) {
+      this.rate = rate;
+      this.tokens = rate;
+      this.refilled = now;
+    }
+
+    boolean acquire(int max) {
+      if (max <= 0) {
+        inFlight.incrementAndGet();
+        return true;
+      }
+      while (true) {
+        int current = inFlight.get();
+        if (current >= max) {
+          return false;
+        }
+        if (inFlight.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Take a token from a bucket holding a second of requests
+     */
+    synchronized boolean takeToken(long now) {
+      if (rate <= 0) {
+        return true;
+      }
+      tokens = Math.min(rate, tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+      refilled = now;
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+package com.krish.ead.server;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequest;
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admits the decoded LDAP requests through an {@link AdmissionController} before they
+ * reach the worker threads. A rejected request is answered busy from the I/O thread, an
+ * admitted one holds its permit until its final response is written, so that the permit
+ * covers all the entries of a search, or until the request is abandoned.
+ *
+ * Requests without a response (abandon, unbind) and the persistent and syncrepl searches
+ * of the replicas, which never end, are not subject to admission.
+ *
+ * @author krishdey
+ *
+ */
+public class AdmissionFilter extends IoFilterAdapter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AdmissionFilter.class);
+
+  /** Session attribute holding the permits of the requests in progress, by message id */
+  private static final String PERMITS = AdmissionFilter.class.getName() + ".permits";
+
+  private final AdmissionController controller;
+
+  private final LdapServer ldapServer;
+
+  public AdmissionFilter(AdmissionController controller, LdapServer ldapServer) {
+    this.controller = controller;
+    this.ldapServer = ldapServer;
+  }
+
+  @Override
+  public void messageReceived(NextFilter nextFilter, IoSession session, Object message)
+      throws Exception {
+    if (message instanceof AbandonRequest) {
+      // The abandoned request is not answered
+      AdmissionController.Permit permit =
+          permits(session).remove(((AbandonRequest) message).getAbandoned());
+      if (permit != null) {
+        permit.release();
+      }
+    }
+    if (!(message instanceof ResultResponseRequest)
+        || PersistentSearches.isPersistent((Message) message)) {
+      nextFilter.messageReceived(session, message);
+      return;
+    }
+    ResultResponseRequest request = (ResultResponseRequest) message;
+    AdmissionController.Permit permit =
+        controller.tryAcquire(address(session), user(ldapServer, session, request));
+    if (permit == null) {
+      ResultResponse response = request.getResultResponse();
+      response.getLdapResult().setResultCode(ResultCodeEnum.BUSY);
+      response.getLdapResult().setDiagnosticMessage("EAD server busy, retry later");
+      LOG.debug("Rejected request " + request.getMessageId() + " of "
+          + session.getRemoteAddress());
+      session.write(response);
+      return;
+    }
+    permits(session).put(request.getMessageId(), permit);
+    nextFilter.messageReceived(session, message);
+  }
+
+  @Override
+  public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest)
+      throws Exception {
+    Object message = writeRequest.getMessage();
+    if (message instanceof ResultResponse) {
+      AdmissionController.Permit permit =
+          permits(session).remove(((ResultResponse) message).getMessageId());
+      if (permit != null) {
+        permit.release();
+      }
+    }
+    nextFilter.filterWrite(session, writeRequest);
+  }
+
+  @Override
+  public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+    // The requests left are not answered
+    for (AdmissionController.Permit permit : permits(session).values()) {
+      permit.release();
+    }
+    permits(session).clear();
+    nextFilter.sessionClosed(session);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<Integer, AdmissionController.Permit> permits(IoSession session) {
+    Map<Integer, AdmissionController.Permit> permits =
+        (Map<Integer, AdmissionController.Permit>) session.getAttribute(PERMITS);
+    if (permits == null) {
+      permits = new ConcurrentHashMap<Integer, AdmissionController.Permit>();
+      Object previous = session.setAttributeIfAbsent(PERMITS, permits);
+      if (previous != null) {
+        permits = (Map<Integer, AdmissionController.Permit>) previous;
+      }
+    }
+    return permits;
+  }
+
+  static String address(IoSession session) {
+    SocketAddress address = session.getRemoteAddress();
+    if (address instanceof InetSocketAddress) {
+      return ((InetSocketAddress) address).getAddress().getHostAddress();
+    }
+    return String.valueOf(address);
+  }
+
+  /**
+   * @return the Dn the request is bound as, or binds as, null if anonymous
+   */
+  static String user(LdapServer ldapServer, IoSession session,
+      ResultResponseRequest request) {
+    if (request instanceof BindRequest) {
+      return ((BindRequest) request).getName();
+    }
+    LdapSession ldapSession = ldapServer.getLdapSessionManager().getLdapSession(session);
+    if (ldapSession == null || ldapSession.getCoreSession() == null
+        || ldapSession.getCoreSession().getEffectivePrincipal() == null) {
+      return null;
+    }
+    return ldapSession.getCoreSession().getEffectivePrincipal().getName();
+  }
+
+}
@@ -0,0 +1,179 @@
+package com.krish.ead.server;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The recently successful simple binds by Dn, so that the service accounts binding for every
+ * new connection are not authenticated again. The password of a bind is not kept, only a
+ * verifier of it: its SHA-256 hash salted with random bytes drawn for the entry.
+ *
+ * An entry expires after the time to live, and is removed as soon as the user entry is
+ * modified. A bind authenticated while an entry was removed is not cached, as it may have
+ * read the password before the modification.
+ *
+ * @param <P> the principal the bind was authenticated as
+ *
+ * @author krishdey
+ *
+ */
+public class BindCache<P> {
+
+  private static final int SALT_LENGTH = 16;
+
+  private final long ttlNanos;
+  private final int maxEntries;
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final ConcurrentHashMap<String, Verifier<P>> verifiers =
+      new ConcurrentHashMap<String, Verifier<P>>();
+
+  /** Incremented by every removal, for the binds authenticated meanwhile not to be cached */
+  private final AtomicLong generation = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public BindCache(TransportSettings settings) {
+    this(settings.getBindCacheTtl(), settings.getBindCacheSize());
+  }
+
+  /**
+   * @param ttl seconds a bind is cached
+   * @param maxEntries binds cached at most
+   */
+  public BindCache(long ttl, int maxEntries) {
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttl);
+    this.maxEntries = maxEntries;
+  }
+
+  private static class Verifier<P> {
+    private final byte[] salt;
+    private final byte[] hash;
+    private final P principal;
+    private final long expiry;
+
+    Verifier(byte[] salt, byte[] hash, P principal, long expiry) {
+      this.salt = salt;
+      this.hash = hash;
+      this.principal = principal;
+      this.expiry = expiry;
+    }
+  }
+
+  /**
+   * @return the principal of a cached bind of the Dn with these credentials, null if none
+   */
+  public P verify(String dn, byte[] credentials) {
+    return verify(dn, credentials, System.nanoTime());
+  }
+
+  P verify(String dn, byte[] credentials, long now) {
+    Verifier<P> verifier = verifiers.get(dn);
+    if (verifier == null || credentials == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    if (now - verifier.expiry >= 0) {
+      verifiers.remove(dn, verifier);
+      misses.incrementAndGet();
+      return null;
+    }
+    // Compared in a time independent of the bytes that differ
+    if (!MessageDigest.isEqual(verifier.hash, hash(verifier.salt, credentials))) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return verifier.principal;
+  }
+
+  /**
+   * @return the generation to pass to {@link #put(String, byte[], Object, long)} for a bind
+   *         about to be authenticated
+   */
+  public long generation() {
+    return generation.get();
+  }
+
+  /**
+   * Cache a bind authenticated, unless the cache was invalidated since the generation
+   */
+  public void put(String dn, byte[] credentials, P principal, long generation) {
+    put(dn, credentials, principal, generation, System.nanoTime());
+  }
+
+  void put(String dn, byte[] credentials, P principal, long generation, long now) {
+    if (ttlNanos <= 0 || maxEntries <= 0 || credentials == null) {
+      return;
+    }
+    if (verifiers.size() >= maxEntries && !verifiers.containsKey(dn)) {
+      evictExpired(now);
+      if (verifiers.size() >= maxEntries) {
+        return;
+      }
+    }
+    byte[] salt = new byte[SALT_LENGTH];
+    random.nextBytes(salt);
+    verifiers.put(dn,
+        new Verifier<P>(salt, hash(salt, credentials), principal, now + ttlNanos));
+    // Removed again if the entry was modified while the bind was authenticated
+    if (this.generation.get() != generation) {
+      verifiers.remove(dn);
+    }
+  }
+
+  /**
+   * Forget the bind of a Dn, whose entry is being modified
+   */
+  public void invalidate(String dn) {
+    generation.incrementAndGet();
+    verifiers.remove(dn);
+  }
+
+  public void clear() {
+    generation.incrementAndGet();
+    verifiers.clear();
+  }
+
+  private void evictExpired(long now) {
+    for (Iterator<Verifier<P>> it = verifiers.values().iterator(); it.hasNext();) {
+      if (now - it.next().expiry >= 0) {
+        it.remove();
+      }
+    }
+  }
+
+  private static byte[] hash(byte[] salt, byte[] credentials) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(salt);
+      return digest.digest(credentials);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  public boolean isEnabled() {
+    return ttlNanos > 0 && maxEntries > 0;
+  }
+
+  public int size() {
+    return verifiers.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+}
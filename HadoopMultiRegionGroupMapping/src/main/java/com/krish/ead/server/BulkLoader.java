@@ -0,0 +1,248 @@
+package com.krish.ead.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.krish.directory.service.EadSchemaService;
+
+/**
+ * Offline loader of the jpmis partition, writing the entries straight to the JDBM
+ * partition and its indices instead of through the interceptor chain. The entries are
+ * trusted: they are not checked against the schema nor the access controls, only given
+ * the operational attributes the chain would have added.
+ *
+ * Entries are written parents first. An entry read before its parent is held back until
+ * the parent is written. The partition is synced once at the end rather than on every
+ * write. The instance directory is then opened by EADServer with ead.instance.reset set
+ * to false.
+ *
+ * <pre>
+ * BulkLoader &lt;instance directory&gt; --ldif &lt;file&gt; [--append]
+ * BulkLoader &lt;instance directory&gt; --synthetic users=N,groups=N,members=N [--append]
+ * </pre>
+ *
+ * The instance is wiped first unless --append is given.
+ *
+ * @author krishdey
+ *
+ */
+public class BulkLoader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BulkLoader.class);
+
+  /** Entries between two progress reports */
+  private static final int REPORT_EVERY = 100000;
+
+  private final DirectoryService directoryService;
+
+  private final SchemaManager schemaManager;
+
+  private final CoreSession session;
+
+  private final Dn suffix;
+
+  private final Partition partition;
+
+  /** Last parent found, the entries of a container usually following each other */
+  private Dn foundParent;
+
+  /** Entries read before their parent */
+  private List<Entry> deferred = new ArrayList<Entry>();
+
+  private long loaded;
+
+  private long skipped;
+
+  private final long start = System.currentTimeMillis();
+
+  public BulkLoader(DirectoryService directoryService) throws Exception {
+    this.directoryService = directoryService;
+    this.schemaManager = directoryService.getSchemaManager();
+    this.session = directoryService.getAdminSession();
+    this.suffix = new Dn(schemaManager, EadSchemaService.JPMIS_SUFFIX);
+    this.partition = directoryService.getPartitionNexus().getPartition(suffix);
+    if (partition instanceof AbstractBTreePartition) {
+      // Synced once all the entries are written
+      ((AbstractBTreePartition) partition).setSyncOnWrite(false);
+    }
+  }
+
+  /**
+   * Write an entry of the jpmis partition, or hold it back until its parent is written
+   */
+  public void add(Entry entry) throws Exception {
+    Entry serverEntry =
+        entry.isSchemaAware() ? entry : new DefaultEntry(schemaManager, entry);
+    Dn dn = serverEntry.getDn();
+    if (!dn.equals(suffix) && !dn.isDescendantOf(suffix)) {
+      LOG.warn("Skipping " + dn + ", not in the " + suffix + " partition");
+      skipped++;
+      return;
+    }
+    // The suffix and the containers are created with the partition
+    if (dn.size() <= suffix.size() + 1 && exists(dn)) {
+      skipped++;
+      return;
+    }
+    Dn parent = dn.getParent();
+    if (!parent.equals(foundParent)) {
+      if (!exists(parent)) {
+        deferred.add(serverEntry);
+        return;
+      }
+      foundParent = parent;
+    }
+    write(serverEntry);
+  }
+
+  /**
+   * Write the entries of an LDIF file, change records being ignored
+   */
+  public void loadLdif(File file) throws Exception {
+    LdifReader reader = new LdifReader(new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16));
+    try {
+      for (LdifEntry ldifEntry : reader) {
+        if (ldifEntry.isEntry()) {
+          add(ldifEntry.getEntry());
+        } else {
+          skipped++;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Write the users, then the groups, of a generated directory, in sorted order
+   */
+  public void loadSynthetic(SyntheticDirectory directory) throws Exception {
+    EadSchemaService schemaService = new EadSchemaService(directoryService);
+    for (int user = 0; user < directory.getUsers(); user++) {
+      String uid = directory.userName(user);
+      Entry entry = schemaService.newUserEntry(uid, uid);
+      for (int group : directory.groupsOf(user)) {
+        entry.add("memberOf", schemaService.groupDn(directory.groupName(group)));
+      }
+      add(entry);
+    }
+    for (int group = 0; group < directory.getGroups(); group++) {
+      Entry entry = schemaService.newGroupEntry(directory.groupName(group));
+      for (int user : directory.membersOf(group)) {
+        entry.add("member", schemaService.userDn(directory.userName(user)));
+      }
+      add(entry);
+    }
+  }
+
+  /**
+   * Write the entries held back and sync the partition
+   *
+   * @return the number of entries written
+   */
+  public long finish() throws Exception {
+    while (!deferred.isEmpty()) {
+      List<Entry> pending = deferred;
+      deferred = new ArrayList<Entry>();
+      foundParent = null;
+      for (Entry entry : pending) {
+        add(entry);
+      }
+      if (deferred.size() == pending.size()) {
+        LOG.warn(deferred.size() + " entries have no parent, first " + deferred.get(0).getDn());
+        skipped += deferred.size();
+        break;
+      }
+    }
+    partition.sync();
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    LOG.info("Loaded " + loaded + " entries in " + elapsed + " ms, " + loaded * 1000 / elapsed
+        + " entries/s, " + skipped + " skipped");
+    return loaded;
+  }
+
+  public long getSkipped() {
+    return skipped;
+  }
+
+  private boolean exists(Dn dn) throws Exception {
+    return partition.hasEntry(new HasEntryOperationContext(session, dn));
+  }
+
+  private void write(Entry entry) throws Exception {
+    // Added by the operational attribute interceptor otherwise
+    if (!entry.containsAttribute(SchemaConstants.ENTRY_UUID_AT)) {
+      entry.add(SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString());
+    }
+    if (!entry.containsAttribute(SchemaConstants.ENTRY_CSN_AT)) {
+      entry.add(SchemaConstants.ENTRY_CSN_AT, directoryService.getCSN().toString());
+    }
+    if (!entry.containsAttribute(SchemaConstants.CREATORS_NAME_AT)) {
+      entry.add(SchemaConstants.CREATORS_NAME_AT, ServerDNConstants.ADMIN_SYSTEM_DN_NORMALIZED);
+    }
+    if (!entry.containsAttribute(SchemaConstants.CREATE_TIMESTAMP_AT)) {
+      entry.add(SchemaConstants.CREATE_TIMESTAMP_AT, DateUtils.getGeneralizedTime());
+    }
+    partition.add(new AddOperationContext(session, entry));
+    loaded++;
+    if (loaded % REPORT_EVERY == 0) {
+      long elapsed = Math.max(1, System.currentTimeMillis() - start);
+      LOG.info("Loaded " + loaded + " entries, " + loaded * 1000 / elapsed + " entries/s");
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3 || !("--ldif".equals(args[1]) || "--synthetic".equals(args[1]))) {
+      System.err.println("Usage: BulkLoader <instance directory> --ldif <file> [--append]");
+      System.err.println("       BulkLoader <instance directory> "
+          + "--synthetic users=N,groups=N,members=N [--append]");
+      System.exit(1);
+    }
+    boolean append = args.length > 3 && "--append".equals(args[3]);
+
+    EmbeddedADSVerM23 ads = new EmbeddedADSVerM23();
+    ads.setResetInstance(!append);
+    ads.openOffline(new InstanceLayout(args[0]));
+    try {
+      BulkLoader loader = new BulkLoader(ads.getDirectoryService());
+      if ("--ldif".equals(args[1])) {
+        loader.loadLdif(new File(args[2]));
+      } else {
+        loader.loadSynthetic(SyntheticDirectory.parse(args[2]));
+      }
+      long loaded = loader.finish();
+      long elapsed = System.currentTimeMillis() - loader.start;
+      System.out.println("Loaded " + loaded + " entries into " + args[0] + " in " + elapsed
+          + " ms, " + loaded * 1000 / Math.max(1, elapsed) + " entries/s, "
+          + loader.getSkipped() + " skipped");
+    } finally {
+      ads.getDirectoryService().shutdown();
+    }
+  }
+
+}
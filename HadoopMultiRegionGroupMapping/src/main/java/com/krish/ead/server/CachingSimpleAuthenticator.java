@@ -0,0 +1,63 @@
+package com.krish.ead.server;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
+import org.apache.directory.server.core.authn.SimpleAuthenticator;
+
+/**
+ * A simple authenticator skipping the authentication of the binds in the {@link BindCache},
+ * those of a Dn with the password it was last authenticated with. The authentication
+ * interceptor invalidates the caches of its authenticators when an entry is modified,
+ * deleted or renamed, so a changed userPassword is verified at the next bind. The binds
+ * of a Dn a password policy applies to are never cached.
+ *
+ * @author krishdey
+ *
+ */
+public class CachingSimpleAuthenticator extends SimpleAuthenticator {
+
+  private final BindCache<LdapPrincipal> cache;
+
+  public CachingSimpleAuthenticator(BindCache<LdapPrincipal> cache) {
+    this.cache = cache;
+  }
+
+  @Override
+  public LdapPrincipal authenticate(BindOperationContext bindContext) throws LdapException {
+    String dn = bindContext.getDn().getNormName();
+    byte[] credentials = bindContext.getCredentials();
+    LdapPrincipal principal = cache.verify(dn, credentials);
+    if (principal != null) {
+      return principal;
+    }
+    long generation = cache.generation();
+    principal = super.authenticate(bindContext);
+    if (!hasPasswordPolicy(bindContext.getEntry())) {
+      cache.put(dn, credentials, principal, generation);
+    }
+    return principal;
+  }
+
+  /**
+   * The expiry, grace and lockout of a password policy depend on the time of the bind,
+   * they are checked by every authentication
+   */
+  private boolean hasPasswordPolicy(Entry userEntry) throws LdapException {
+    DirectoryService directoryService = getDirectoryService();
+    if (!directoryService.isPwdPolicyEnabled()) {
+      return false;
+    }
+    return userEntry == null || directoryService.getPwdPolicy(userEntry) != null;
+  }
+
+  @Override
+  public void invalidateCache(Dn bindDn) {
+    super.invalidateCache(bindDn);
+    cache.invalidate(bindDn.getNormName());
+  }
+
+}
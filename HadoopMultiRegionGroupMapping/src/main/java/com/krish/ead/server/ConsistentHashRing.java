@@ -0,0 +1,68 @@
+package com.krish.ead.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns keys to nodes by consistent hashing. Every node is placed at several points of
+ * the ring, and a key belongs to the first node found clockwise from its hash, so that a
+ * node joining or leaving only moves the keys of its own ring segments.
+ *
+ * @author krishdey
+ *
+ */
+public class ConsistentHashRing {
+
+  /** Points of every node on the ring */
+  static final int VIRTUAL_NODES = 100;
+
+  private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+
+  public ConsistentHashRing(Collection<String> nodes) {
+    for (String node : nodes) {
+      for (int i = 0; i < VIRTUAL_NODES; i++) {
+        ring.put(hash(node + "#" + i), node);
+      }
+    }
+  }
+
+  /**
+   * @return the node owning the key, null if the ring is empty
+   */
+  public String ownerOf(String key) {
+    if (ring.isEmpty()) {
+      return null;
+    }
+    SortedMap<Long, String> tail = ring.tailMap(hash(key));
+    return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+  }
+
+  public boolean isEmpty() {
+    return ring.isEmpty();
+  }
+
+  static long hash(String key) {
+    try {
+      byte[] md5 =
+          MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+      long hash = 0;
+      for (int i = 0; i < 8; i++) {
+        hash = (hash << 8) | (md5[i] & 0xff);
+      }
+      return hash;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return new TreeSet<String>(ring.values()).toString();
+  }
+
+}
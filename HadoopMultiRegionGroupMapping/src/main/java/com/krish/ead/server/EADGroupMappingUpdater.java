@@ -1,90 +1,229 @@
 package com.krish.ead.server;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.krish.directory.service.DefaultGroupMappingService;
 import com.krish.directory.service.EadSchemaService;
+import com.krish.directory.service.GroupAccessTracker;
 import com.krish.directory.service.GroupMappingService;
+import com.krish.security.hadoop.impl.GroupsMappingBuilder;
 
 public final class EADGroupMappingUpdater {
 
   static EADGroupMappingUpdater eadGroupMappingUpdater;
   static EadSchemaService eadSchemaService;
   static GroupMappingService groupMappingService;
+  static GroupAccessTracker groupAccessTracker;
+  static ServerLifecycle lifecycle;
+  static String groupMappingPath;
 
   private static final Logger LOG = LoggerFactory.getLogger(EADGroupMappingUpdater.class);
 
-  private Thread thread;
-  
-  private static volatile boolean running = true;
+  /** Directory of the sync journal, under the instance directory */
+  private static final String SYNC_JOURNAL_DIR = "sync-journal";
+
+  private GroupMappingScheduler scheduler;
+
+  private CuratorFramework zookeeper;
+  private SyncCoordinator coordinator;
+
+  /** Reloads the group mapping file when it changes, null if not watched */
+  private volatile GroupMappingWatcher watcher;
+
+  /** Identifier of the server in the cluster */
+  static String nodeId;
 
   private EADGroupMappingUpdater() {
       //Do not allow it to instantiated default constructor
   }
 
-  public static EADGroupMappingUpdater getEADGroupMappingUpdaterInstance(EmbeddedADSVerM23 service,
-      String hadoopGroupMappingPath) throws Exception {
+  public static EADGroupMappingUpdater getEADGroupMappingUpdaterInstance(
+      final EmbeddedADSVerM23 service, final String hadoopGroupMappingPath) throws Exception {
 
     if (eadGroupMappingUpdater == null) {
       LOG.info("Initializing Updater class for Providers ....");
       eadGroupMappingUpdater = new EADGroupMappingUpdater();
       eadSchemaService = new EadSchemaService(service.getDirectoryService());
-      int RETRY_COUNT = 5;
-      while (!service.getDirectoryService().isStarted() && RETRY_COUNT!=0) {
-        System.out.println("Waiting for service to be started");
-        Thread.sleep(1000);
-        RETRY_COUNT--;
+      nodeId = InetAddress.getLocalHost().getCanonicalHostName() + ":" + service.getPort();
+      groupAccessTracker = service.getGroupAccessTracker();
+      lifecycle = service.getLifecycle();
+      groupMappingPath = hadoopGroupMappingPath;
+      // Only called once startServer returned
+      if (!service.getDirectoryService().isStarted()) {
+        throw new IllegalStateException("The directory service is not started");
       }
-      eadSchemaService.loadTestUser();
-
-      groupMappingService = new DefaultGroupMappingService();
-      groupMappingService.setEadSchemaService(eadSchemaService);
+      StartupPipeline startup = new StartupPipeline("Updater", service.getMetrics());
+      // The providers are read while the test user is checked
+      Future<?> testUser = startup.submit("TestUser", new StartupPipeline.Phase() {
+        @Override
+        public void run() throws Exception {
+          if (!eadSchemaService.checkIfUserExist("krishdey")) {
+            eadSchemaService.loadTestUser();
+          }
+        }
+      });
+      startup.run("Providers", new StartupPipeline.Phase() {
+        @Override
+        public void run() throws Exception {
+          groupMappingService = new DefaultGroupMappingService();
+          groupMappingService.setEadSchemaService(eadSchemaService);
+          groupMappingService.buildGroupMapping(new Path(hadoopGroupMappingPath));
+        }
+      });
+      StartupPipeline.await(testUser);
 
-      groupMappingService.buildGroupMapping(new Path(hadoopGroupMappingPath));
+      startup.run("PosixUpgrade", new StartupPipeline.Phase() {
+        @Override
+        public void run() throws Exception {
+          groupMappingService.upgradeToPosix();
+        }
+      });
+
+      startup.run("SyncJournal", new StartupPipeline.Phase() {
+        @Override
+        public void run() throws Exception {
+          // Resume from the memberships fetched before a restart
+          groupMappingService.openSyncJournal(new File(service.getDirectoryService()
+              .getInstanceLayout().getInstanceDirectory(), SYNC_JOURNAL_DIR));
+        }
+      });
+      startup.finish();
 
     }
     return eadGroupMappingUpdater;
 
   }
 
-  public void startUpdater() {
-    thread = new Thread(new GroupMappingUpdaterThread(60 * 1000, groupMappingService));
-    thread.start();
+  public synchronized void startUpdater() throws Exception {
+    scheduler = new GroupMappingScheduler(groupMappingService, groupAccessTracker);
+    scheduler.setLifecycle(lifecycle);
+    String quorum = System.getProperty(EADServerConstants.EAD_ZOOKEEPER_QUORUM);
+    if (quorum != null && !quorum.isEmpty()) {
+      startCoordinator(quorum);
+    }
+    scheduler.start();
+    if (Boolean.parseBoolean(System.getProperty(EADServerConstants.EAD_CONFIG_WATCH,
+        Boolean.toString(EADServerConstants.EAD_CONFIG_WATCH_DEFAULT)))) {
+      watcher = new GroupMappingWatcher(new File(groupMappingPath),
+          Long.getLong(EADServerConstants.EAD_CONFIG_WATCH_QUIET,
+              EADServerConstants.EAD_CONFIG_WATCH_QUIET_DEFAULT),
+          new GroupMappingWatcher.Listener() {
+            @Override
+            public void changed() throws Exception {
+              reloadGroupMapping();
+            }
+          });
+      watcher.start();
+    }
   }
 
-  public void stopUpdater() {
-    running = false;
-    thread.interrupt();
+  /**
+   * Apply a change of the group mapping file without a restart. The providers whose
+   * settings changed are built again, the others keep their connections and caches, the
+   * groups added are synced right away and the members of the groups removed are dropped.
+   */
+  synchronized void reloadGroupMapping() throws Exception {
+    if (scheduler == null) {
+      return;
+    }
+    GroupsMappingBuilder.Reload reload =
+        groupMappingService.reloadGroupMapping(new Path(groupMappingPath));
+    if (reload.isEmpty()) {
+      LOG.info("Reloaded " + groupMappingPath + ", no provider or group changed");
+      return;
+    }
+    LOG.info("Reloaded " + groupMappingPath + ": " + reload);
+    for (String providerName : reload.getAdded()) {
+      if (coordinator != null) {
+        coordinator.watchMemberships(providerName);
+      }
+    }
+    scheduler.reload(groupMappingService.getProviders());
+    for (Map.Entry<String, List<String>> removed : reload.getRemovedGroups().entrySet()) {
+      groupMappingService.removeGroups(removed.getKey(), removed.getValue());
+      if (coordinator != null) {
+        coordinator.forgetGroups(removed.getKey(), removed.getValue());
+      }
+    }
+    if (coordinator != null) {
+      for (String providerName : reload.getRemoved()) {
+        coordinator.forgetProvider(providerName);
+      }
+    }
   }
 
-  static class GroupMappingUpdaterThread implements Runnable {
-
-    private int interval;
+  /**
+   * Join the cluster, so that every group is fetched by a single server
+   */
+  private void startCoordinator(String quorum) throws Exception {
+    String path = System.getProperty(EADServerConstants.EAD_ZOOKEEPER_PATH,
+        EADServerConstants.EAD_ZOOKEEPER_PATH_DEFAULT);
+    SyncCoordinator.Mode mode = SyncCoordinator.Mode.fromString(System.getProperty(
+        EADServerConstants.EAD_SYNC_COORDINATION,
+        EADServerConstants.EAD_SYNC_COORDINATION_DEFAULT));
+    zookeeper = CuratorFrameworkFactory.newClient(quorum, new ExponentialBackoffRetry(1000, 3));
+    zookeeper.start();
+    coordinator = new SyncCoordinator(zookeeper, path, nodeId, mode, groupMappingService);
+    scheduler.setCoordinator(coordinator);
+    coordinator.start();
+    LOG.info("Joined the EAD cluster at " + quorum + path + " as " + nodeId + " in " + mode
+        + " mode");
+  }
 
-    public GroupMappingUpdaterThread(int interval, GroupMappingService grpMapService) {
-      this.interval = interval;
+  public void stopUpdater() {
+    // Closed first, as a reload in progress holds the updater
+    GroupMappingWatcher current = watcher;
+    if (current != null) {
+      try {
+        current.close();
+      } catch (IOException e) {
+        LOG.warn("Could not stop watching " + groupMappingPath + ": " + e.getMessage());
+      }
+      watcher = null;
     }
+    stopSyncs();
+  }
 
-    @Override
-    public void run() {
-
-      while (running) {
-        try {
-          LOG.info("Going to run schema update");
-          groupMappingService.doSchemaUpdate();
-          LOG.info("Schema update finishded");
-          Thread.sleep(interval);
-        } catch (InterruptedException e) {
-          LOG.info("Thread has been interrupted " + e);
-          groupMappingService = null;
-        }
-
+  private synchronized void stopSyncs() {
+    boolean stopped = true;
+    if (scheduler != null) {
+      stopped = scheduler.stop();
+      scheduler = null;
+    }
+    try {
+      if (coordinator != null) {
+        coordinator.close();
+        coordinator = null;
       }
-
+    } catch (IOException e) {
+      LOG.warn("Could not leave the EAD cluster: " + e.getMessage());
+    }
+    if (zookeeper != null) {
+      zookeeper.close();
+      zookeeper = null;
+    }
+    if (!stopped) {
+      // A sync still running writes to the journal and the cache
+      LOG.warn("Leaving the sync journal open, as provider syncs are still running");
+      return;
+    }
+    try {
+      groupMappingService.close();
+    } catch (IOException e) {
+      LOG.warn("Could not close the sync journal: " + e.getMessage());
     }
-
   }
 
 }
@@ -0,0 +1,150 @@
+package com.krish.ead.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of an EAD server, exposed as the read only attributes of a JMX bean named
+ * com.krish.ead:type=EADMetrics,port=&lt;ldap port&gt;. Every metric is a gauge read
+ * when the attribute is.
+ *
+ * @author krishdey
+ *
+ */
+public class EADMetrics implements DynamicMBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EADMetrics.class);
+
+  /**
+   * Current value of a metric
+   */
+  public interface Gauge {
+    Object getValue();
+  }
+
+  private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+
+  private ObjectName objectName;
+
+  /**
+   * Add or replace a metric
+   */
+  public void register(String name, Gauge gauge) {
+    gauges.put(name, gauge);
+  }
+
+  /**
+   * Add or replace a metric of constant value
+   */
+  public void set(String name, final Object value) {
+    register(name, new Gauge() {
+      @Override
+      public Object getValue() {
+        return value;
+      }
+    });
+  }
+
+  /**
+   * @return the current value of a metric, null if there is no such metric
+   */
+  public Object getValue(String name) {
+    Gauge gauge = gauges.get(name);
+    return gauge == null ? null : gauge.getValue();
+  }
+
+  /**
+   * Register the bean with the platform MBean server
+   */
+  public synchronized void start(int port) {
+    try {
+      objectName = new ObjectName("com.krish.ead:type=EADMetrics,port=" + port);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(this, objectName);
+    } catch (Exception e) {
+      LOG.warn("Could not register the EAD metrics: " + e.getMessage());
+    }
+  }
+
+  public synchronized void stop() {
+    if (objectName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (Exception e) {
+      LOG.warn("Could not unregister the EAD metrics: " + e.getMessage());
+    }
+    objectName = null;
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Gauge gauge = gauges.get(attribute);
+    if (gauge == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return gauge.getValue();
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("The EAD metrics are read only");
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList list = new AttributeList();
+    for (String name : attributes) {
+      Gauge gauge = gauges.get(name);
+      if (gauge != null) {
+        list.add(new Attribute(name, gauge.getValue()));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) {
+    throw new UnsupportedOperationException(actionName);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+      Object value = gauge.getValue().getValue();
+      String type = value == null ? String.class.getName() : value.getClass().getName();
+      attributes.add(new MBeanAttributeInfo(gauge.getKey(), type, gauge.getKey(), true,
+          false, false));
+    }
+    return new MBeanInfo(getClass().getName(), "EAD server metrics",
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+        new MBeanOperationInfo[0], null);
+  }
+
+}
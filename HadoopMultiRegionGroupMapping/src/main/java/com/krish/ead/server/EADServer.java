@@ -1,12 +1,18 @@
 package com.krish.ead.server;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.directory.server.core.api.InstanceLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.krish.directory.service.EadTracing;
+
 /**
  * EAD Server
  * 
@@ -24,6 +30,20 @@ public class EADServer {
 
   private static final int DEFAULT_STARTUP_PORT = 10389;
 
+  /** Set to false to keep the directory and the sync journal across restarts */
+  private static final String EAD_INSTANCE_RESET = "ead.instance.reset";
+
+  /** primary (default) to sync from the providers, replica to replicate a primary */
+  private static final String EAD_SYNC_ROLE = "ead.sync.role";
+
+  /** host:port of the primary, for a replica */
+  private static final String EAD_REPLICATION_PRIMARY = "ead.replication.primary";
+
+  /** Identifier of the server, unique in the cluster */
+  private static final String EAD_REPLICA_ID = "ead.replica.id";
+
+  private static SyncRole syncRole = SyncRole.PRIMARY;
+
   private static final String HADOOP_GROUP_MAPPING_XML = "hadoop-group-mapping";
 
   private static String hadoopGroupMappingPath;
@@ -55,11 +75,17 @@ public class EADServer {
     }
     
 
+    syncRole = SyncRole.fromString(System.getProperty(EAD_SYNC_ROLE, "primary"));
+
     switch (action) {
     case START:
       startShutdownHook();
       instance.start(instanceDirectory, port);
-      instance.startGroupMappingUpdater();
+      if (syncRole == SyncRole.PRIMARY) {
+        instance.startGroupMappingUpdater();
+      } else {
+        LOG.info("Replica server, the groups are replicated from the primary");
+      }
 
       break;
 
@@ -106,6 +132,32 @@ public class EADServer {
 
     // Creating EAD service
     service = new EmbeddedADSVerM23();
+    service.setSyncRole(syncRole);
+    if (System.getProperty(EAD_REPLICA_ID) != null) {
+      service.setReplicaId(Integer.parseInt(System.getProperty(EAD_REPLICA_ID)));
+    }
+    service.setReplicationHeartbeat(
+        Boolean.parseBoolean(System.getProperty(EADServerConstants.EAD_REPLICATION_HEARTBEAT,
+            Boolean.toString(EADServerConstants.EAD_REPLICATION_HEARTBEAT_DEFAULT))));
+    if (syncRole == SyncRole.REPLICA) {
+      String primary = System.getProperty(EAD_REPLICATION_PRIMARY);
+      if (StringUtils.isEmpty(primary) || !primary.contains(":")) {
+        throw new IllegalArgumentException(EAD_REPLICATION_PRIMARY
+            + " must be set to the host:port of the primary");
+      }
+      int colon = primary.lastIndexOf(':');
+      service.setPrimary(primary.substring(0, colon),
+          Integer.parseInt(primary.substring(colon + 1)));
+      service.setReplicationCredentials(
+          System.getProperty(EADServerConstants.EAD_REPLICATION_BIND_DN,
+              EADServerConstants.EAD_REPLICATION_BIND_DN_DEFAULT),
+          replicationPassword());
+    }
+    TransportSettings settings = TransportSettings.load();
+    service.setTransportSettings(settings);
+    EadTracing.configure(settings.getTracingSettings());
+    service.setResetInstance(
+        Boolean.parseBoolean(System.getProperty(EAD_INSTANCE_RESET, "true")));
 
     // Initializing the service
     try {
@@ -119,7 +171,31 @@ public class EADServer {
     }
   }
 
+  /**
+   * @return the password of the replication bind Dn, from its file or else from the
+   *         environment
+   */
+  private static byte[] replicationPassword() throws IOException {
+    String file = System.getProperty(EADServerConstants.EAD_REPLICATION_PASSWORD_FILE);
+    String password;
+    if (!StringUtils.isEmpty(file)) {
+      password = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8).trim();
+    } else {
+      password = System.getenv(EADServerConstants.EAD_REPLICATION_PASSWORD_ENV);
+    }
+    if (StringUtils.isEmpty(password)) {
+      throw new IllegalArgumentException(EADServerConstants.EAD_REPLICATION_PASSWORD_FILE
+          + " or " + EADServerConstants.EAD_REPLICATION_PASSWORD_ENV
+          + " must give the password of the replication bind Dn");
+    }
+    return password.getBytes(StandardCharsets.UTF_8);
+  }
+
   private static void shutdown() {
+    if (syncRole == SyncRole.REPLICA) {
+      stop();
+      return;
+    }
     try {
       EADGroupMappingUpdater.getEADGroupMappingUpdaterInstance(getEADService(),
           hadoopGroupMappingPath).stopUpdater();
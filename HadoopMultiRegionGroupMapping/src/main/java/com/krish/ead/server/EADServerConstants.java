@@ -1,5 +1,44 @@
 package com.krish.ead.server;
 
+/**
+ * System properties of the EAD server
+ *
+ * @author krishdey
+ *
+ */
 public class EADServerConstants {
 
+  /** ZooKeeper connect string of the cluster, unset for a server syncing on its own */
+  public static final String EAD_ZOOKEEPER_QUORUM = "ead.zookeeper.quorum";
+
+  /** Root znode of the cluster */
+  public static final String EAD_ZOOKEEPER_PATH = "ead.zookeeper.path";
+  public static final String EAD_ZOOKEEPER_PATH_DEFAULT = "/ead";
+
+  /** leader to have the leader fetch all the groups, partitioned to split them */
+  public static final String EAD_SYNC_COORDINATION = "ead.sync.coordination";
+  public static final String EAD_SYNC_COORDINATION_DEFAULT = "leader";
+
+  /** Dn a replica binds to the primary as */
+  public static final String EAD_REPLICATION_BIND_DN = "ead.replication.bind.dn";
+  public static final String EAD_REPLICATION_BIND_DN_DEFAULT = "uid=admin,ou=system";
+
+  /** File holding the password of the replication bind Dn */
+  public static final String EAD_REPLICATION_PASSWORD_FILE = "ead.replication.password.file";
+
+  /** Environment variable of the replication password without a file, off the command line */
+  public static final String EAD_REPLICATION_PASSWORD_ENV = "EAD_REPLICATION_PASSWORD";
+
+  /** Set to true on a primary consumed by replicas, to write the heartbeat they read */
+  public static final String EAD_REPLICATION_HEARTBEAT = "ead.replication.heartbeat";
+  public static final boolean EAD_REPLICATION_HEARTBEAT_DEFAULT = false;
+
+  /** Set to false not to reload the group mapping file when it changes */
+  public static final String EAD_CONFIG_WATCH = "ead.config.watch";
+  public static final boolean EAD_CONFIG_WATCH_DEFAULT = true;
+
+  /** Milliseconds the group mapping file must stay unwritten before it is reloaded */
+  public static final String EAD_CONFIG_WATCH_QUIET = "ead.config.watch.quiet";
+  public static final long EAD_CONFIG_WATCH_QUIET_DEFAULT = 2000;
+
 }
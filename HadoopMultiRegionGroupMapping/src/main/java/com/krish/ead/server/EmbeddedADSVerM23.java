@@ -1,17 +1,26 @@
 package com.krish.ead.server;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.directory.api.ldap.extras.controls.ppolicy.PasswordPolicy;
 import org.apache.directory.api.ldap.extras.controls.ppolicy.PasswordPolicyImpl;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.message.AddRequest;
 import org.apache.directory.api.ldap.model.message.AddRequestImpl;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
@@ -32,23 +41,37 @@ import org.apache.directory.api.util.exception.Exceptions;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.DefaultDirectoryService;
 import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.authn.AnonymousAuthenticator;
+import org.apache.directory.server.core.authn.AuthenticationInterceptor;
+import org.apache.directory.server.core.authn.Authenticator;
+import org.apache.directory.server.core.authn.StrongAuthenticator;
 import org.apache.directory.server.core.factory.JdbmPartitionFactory;
 import org.apache.directory.server.core.factory.PartitionFactory;
 import org.apache.directory.server.core.partition.ldif.LdifPartition;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapServer;
-import org.apache.directory.server.protocol.shared.store.LdifFileLoader;
-import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
+import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumerImpl;
+import org.apache.directory.server.ldap.replication.provider.SyncReplRequestHandler;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.krish.directory.service.EadSchemaService;
+import com.krish.directory.service.GroupAccessTracker;
 
 /**
  * A simple example exposing how to embed Apache Directory Server version M23
@@ -64,6 +87,13 @@ public class EmbeddedADSVerM23 {
    */
   private static final Logger LOG = LoggerFactory.getLogger(EmbeddedADSVerM23.class);
 
+  /** Attributes indexed in the jpmis and region partitions for the POSIX profile */
+  private static final String[] POSIX_INDICES =
+      { "uid", "cn", "uidNumber", "gidNumber", "memberUid" };
+
+  /** Interval of the replication heartbeat in milliseconds */
+  private static final long HEARTBEAT_INTERVAL = 5000;
+
   /** The directory service */
   private DirectoryService directoryService;
 
@@ -72,6 +102,52 @@ public class EmbeddedADSVerM23 {
 
   private PartitionFactory partitionFactory;
 
+  /** Wipe the instance directory on startup, false to restart on the previous data */
+  private boolean resetInstance = true;
+
+  /** Whether the server syncs from the providers or replicates a primary */
+  private SyncRole syncRole = SyncRole.PRIMARY;
+
+  /** Host and port of the primary a replica consumes */
+  private String primaryHost;
+  private int primaryPort;
+
+  /** Identifier of the server among the replicas, unique in the cluster */
+  private int replicaId = 1;
+
+  /** Dn and password a replica binds to the primary with */
+  private String replicationBindDn;
+  private byte[] replicationPassword;
+
+  /** Whether a primary writes the replication heartbeat, only read by replicas */
+  private boolean replicationHeartbeat = false;
+
+  private final EADMetrics metrics = new EADMetrics();
+
+  private final ServerLifecycle lifecycle = new ServerLifecycle();
+
+  private int port;
+
+  /** Settings of the LDAP and LDAPS listeners */
+  private TransportSettings transportSettings = new TransportSettings(new Properties());
+
+  /** Threads running the LDAP operations of every listener */
+  private UnorderedThreadPoolExecutor workers;
+
+  /** Admission of the client requests, null if disabled */
+  private AdmissionController admissionController;
+
+  /** Latency of the client searches by filter shape, null if disabled */
+  private QueryStats queryStats;
+
+  /** Recently successful simple binds, authenticated again once expired */
+  private BindCache<LdapPrincipal> bindCache;
+
+  private ReplicationHeartbeat heartbeat;
+
+  /** Query frequency of the groups, fed by the LDAP search path */
+  private final GroupAccessTracker groupAccessTracker = new GroupAccessTracker();
+
   /**
    * Inits the system partition.
    *
@@ -146,23 +222,45 @@ public class EmbeddedADSVerM23 {
     }
   }
 
-  private void loadJpmisSchema() throws IOException {
-
-    String ldifData =
-        IOUtils.toString(getClass().getClassLoader().getResourceAsStream("krish.schema"));
-
-    File ldifFile = File.createTempFile("ldif", ".tmp");
-    ldifFile.deleteOnExit();
-
-    FileOutputStream out = new FileOutputStream(ldifFile);
-    IOUtils.write(ldifData, out);
-    IOUtils.closeQuietly(out);
-
-    LdifFileLoader loader =
-        new LdifFileLoader(directoryService.getAdminSession(), ldifFile.getAbsolutePath());
-    int count = loader.execute();
-    LOG.info("Krish schema has been loaded with count " + count);
+  private void loadJpmisSchema() throws Exception {
+    loadSchema("microsoft", "krish.schema");
+    // posixAccount and posixGroup, always loaded so that the POSIX profile can be turned
+    // on without a schema change
+    loadSchema("rfc2307bis", "posix.schema");
+    // eadServerState of the root DSE and the membership entries of the large groups
+    loadSchema("ead", "ead.schema");
+  }
 
+  /**
+   * Load a schema from an LDIF file of the classpath. The entries already loaded are
+   * skipped, so that the elements added to a schema since the instance was created are
+   * loaded on the next start.
+   */
+  private void loadSchema(String schemaName, String resource) throws Exception {
+    // Streamed from the classpath, the entries are added as they are read
+    CoreSession session = directoryService.getAdminSession();
+    SchemaManager schemaManager = directoryService.getSchemaManager();
+    InputStream in = getClass().getClassLoader().getResourceAsStream(resource);
+    if (in == null) {
+      throw new IOException("Schema " + resource + " is not in the classpath");
+    }
+    LdifReader reader = new LdifReader(new InputStreamReader(in, "UTF-8"));
+    int count = 0;
+    try {
+      for (LdifEntry ldifEntry : reader) {
+        if (!session.exists(ldifEntry.getDn())) {
+          session.add(new DefaultEntry(schemaManager, ldifEntry.getEntry()));
+          count++;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    if (count == 0) {
+      LOG.info("Schema " + schemaName + " is already loaded");
+    } else {
+      LOG.info("Schema " + schemaName + " has been loaded with count " + count);
+    }
   }
 
   /**
@@ -192,8 +290,41 @@ public class EmbeddedADSVerM23 {
 
     // Disable the ChangeLog system
     directoryService.getChangeLog().setEnabled(false);
+    directoryService.setReplicaId(replicaId);
     directoryService.setDenormalizeOpAttrsEnabled(true);
     directoryService.setAccessControlEnabled(true);
+
+    // Count the group reads of the clients, first in the chain so that it only sees the
+    // entries the other interceptors let through
+    List<Interceptor> interceptors = directoryService.getInterceptors();
+    interceptors.add(0, new GroupAccessInterceptor(groupAccessTracker));
+    interceptors.add(0, new ServerStateInterceptor(lifecycle));
+    // Reads the filter as the partition ran it and counts the entries the clients get
+    interceptors.add(0, new QueryStatsInterceptor());
+    // Matches the normalized filters, so placed right after the normalization
+    for (int i = 0; i < interceptors.size(); i++) {
+      if (interceptors.get(i).getName()
+          .equals(InterceptorEnum.NORMALIZATION_INTERCEPTOR.getName())) {
+        interceptors.add(i + 1, new LargeGroupInterceptor());
+        break;
+      }
+    }
+    // The service accounts bind for every new connection, their binds are cached
+    bindCache = new BindCache<LdapPrincipal>(transportSettings);
+    if (bindCache.isEnabled()) {
+      for (Interceptor interceptor : interceptors) {
+        if (interceptor instanceof AuthenticationInterceptor) {
+          Set<Authenticator> authenticators = new HashSet<Authenticator>();
+          authenticators.add(new AnonymousAuthenticator());
+          authenticators.add(new CachingSimpleAuthenticator(bindCache));
+          authenticators.add(new StrongAuthenticator());
+          ((AuthenticationInterceptor) interceptor).setAuthenticators(authenticators);
+        }
+      }
+      registerBindCacheMetrics();
+    }
+    directoryService.setInterceptors(interceptors);
+
     directoryService.startup();
   }
 
@@ -202,7 +333,7 @@ public class EmbeddedADSVerM23 {
    */
   private void buildInstanceDirectory(InstanceLayout instanceLayout) throws IOException {
 
-    if (instanceLayout.getInstanceDirectory().exists()) {
+    if (resetInstance && instanceLayout.getInstanceDirectory().exists()) {
       try {
         FileUtils.deleteDirectory(instanceLayout.getInstanceDirectory());
       } catch (IOException e) {
@@ -217,23 +348,45 @@ public class EmbeddedADSVerM23 {
 
   // Add jpmis partition
   private void addJpmisPartition() throws Exception {
-    Partition jpmisPartition =
-        partitionFactory.createPartition(directoryService.getSchemaManager(), directoryService
-            .getDnFactory(), "jpmis", "dc=jpmis,dc=com", 500, new File(directoryService
-            .getInstanceLayout().getPartitionsDirectory(), "jpmis"));
-    jpmisPartition.setSchemaManager(directoryService.getSchemaManager());
+    addPartition("jpmis", EadSchemaService.JPMIS_SUFFIX);
+  }
 
-    partitionFactory.addIndex(jpmisPartition, SchemaConstants.OBJECT_CLASS_AT, 100);
-    directoryService.addPartition(jpmisPartition);
+  /**
+   * Add a partition with its ou=groups and ou=users containers, kept from the previous run
+   * if it exists. ApacheDS does not nest partitions, the suffix cannot be under another one.
+   *
+   * @param partitionId name of the directory of the partition files
+   * @param suffix
+   * @throws Exception
+   */
+  public void addPartition(String partitionId, String suffix) throws Exception {
+    Partition partition =
+        partitionFactory.createPartition(directoryService.getSchemaManager(), directoryService
+            .getDnFactory(), partitionId, suffix, 500, new File(directoryService
+            .getInstanceLayout().getPartitionsDirectory(), partitionId));
+    partition.setSchemaManager(directoryService.getSchemaManager());
+
+    partitionFactory.addIndex(partition, SchemaConstants.OBJECT_CLASS_AT, 100);
+    // Groups of a member, including the large groups through their membership entries
+    partitionFactory.addIndex(partition, SchemaConstants.MEMBER_AT, 100);
+    // Single read lookups of the POSIX profile, by name, number or member uid
+    for (String attribute : POSIX_INDICES) {
+      partitionFactory.addIndex(partition, attribute, 100);
+    }
+    directoryService.addPartition(partition);
 
-    Dn suffixDn = new Dn(directoryService.getSchemaManager(), "dc=jpmis,dc=com");
+    Dn suffixDn = new Dn(directoryService.getSchemaManager(), suffix);
+    if (directoryService.getAdminSession().exists(suffixDn)) {
+      // Kept from the previous run
+      return;
+    }
 
-    Entry jpmisEntry = directoryService.newEntry(suffixDn);
-    jpmisEntry.add("objectClass", "top", "domain", "extensibleObject");
-    directoryService.getAdminSession().add(jpmisEntry);
+    Entry suffixEntry = directoryService.newEntry(suffixDn);
+    suffixEntry.add("objectClass", "top", "domain", "extensibleObject");
+    directoryService.getAdminSession().add(suffixEntry);
 
     // Add OU=Groups
-    Dn groupDn = new Dn(directoryService.getSchemaManager(), "ou=groups,dc=jpmis,dc=com");
+    Dn groupDn = new Dn(directoryService.getSchemaManager(), "ou=groups," + suffix);
 
     Entry groupEntry = new DefaultEntry(directoryService.getSchemaManager(), groupDn);
 
@@ -247,7 +400,7 @@ public class EmbeddedADSVerM23 {
 
     directoryService.getAdminSession().add(groupEntry);
 
-    Dn userDn = new Dn(directoryService.getSchemaManager(), "ou=users,dc=jpmis,dc=com");
+    Dn userDn = new Dn(directoryService.getSchemaManager(), "ou=users," + suffix);
 
     Entry usersEntry = new DefaultEntry(directoryService.getSchemaManager(), userDn);
 
@@ -292,17 +445,243 @@ public class EmbeddedADSVerM23 {
    * 
    * @throws Exception
    */
-  public void startServer(InstanceLayout layout, int serverPort) throws Exception {
+  public void startServer(final InstanceLayout layout, final int serverPort) throws Exception {
+    if (syncRole == SyncRole.REPLICA
+        && (replicationBindDn == null || replicationPassword == null)) {
+      throw new IllegalStateException("The replication bind Dn and password are not set");
+    }
+    port = serverPort;
+    // Registered first so that the durations of the startup phases can be watched
+    lifecycle.register(metrics);
+    metrics.start(serverPort);
+    StartupPipeline startup = new StartupPipeline("Server", metrics);
+    startup.run("Directory", new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        initDirectoryService(layout);
+      }
+    });
+    Future<?> schema = startup.submit("Schema", new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        // Add JPMIS related attributes to schemaManager
+        loadJpmisSchema();
+      }
+    });
+    Future<?> password = startup.submit("AdminPassword", new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        changePassword(new Dn("uid=admin, ou=system"), "secret", "krish".getBytes());
+      }
+    });
+    Future<?> transports = startup.submit("Transports", new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        server = new LdapServer();
+        server.setDirectoryService(directoryService);
+        configureTransports(serverPort);
+        if (syncRole == SyncRole.PRIMARY) {
+          // Serve the syncrepl requests of the replicas
+          server.setReplicationReqHandler(new SyncReplRequestHandler());
+        } else {
+          server.setReplicationConsumers(
+              Collections.<ReplicationConsumer>singletonList(newReplicationConsumer()));
+        }
+      }
+    });
+    // The posix indices of the partition need the attribute types of the schema
+    Future<?> partitions = startup.submit("Partitions", new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        addJpmisPartition();
+        addSearchEnableUser(EadSchemaService.JPMIS_SUFFIX);
+      }
+    }, schema);
+    startup.submit("Listener", new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        startListener();
+      }
+    }, partitions, transports, password);
+    startup.finish();
+    // Clients are answered from the data of the previous run while the providers sync
+    lifecycle.listening();
+    if (syncRole == SyncRole.REPLICA) {
+      // Fresh as far as the replication heartbeat tells
+      lifecycle.expect(Collections.<String>emptyList());
+    }
+
+    metrics.set("SyncRole", syncRole.name());
+    if (syncRole == SyncRole.REPLICA || replicationHeartbeat) {
+      heartbeat = new ReplicationHeartbeat(directoryService, syncRole, HEARTBEAT_INTERVAL);
+      heartbeat.start(metrics);
+    } else {
+      LOG.info("No replica consumes this server, the replication heartbeat is not written");
+    }
+  }
+
+  /**
+   * Open the directory with its schema and the jpmis partition, without the LDAP listener,
+   * for the tools writing an instance offline. Close it by shutting the directory service
+   * down.
+   */
+  public void openOffline(InstanceLayout layout) throws Exception {
     initDirectoryService(layout);
-    // Add JPMIS related attributes to schemaManager
     loadJpmisSchema();
-    changePassword(new Dn("uid=admin, ou=system"), "secret", "krish".getBytes());
     addJpmisPartition();
-    addSearchEnableUser();
-    server = new LdapServer();
-    server.setTransports(new TcpTransport(serverPort));
-    server.setDirectoryService(directoryService);
+    addSearchEnableUser(EadSchemaService.JPMIS_SUFFIX);
+  }
+
+  /**
+   * Start the LDAP server, then hand its sessions to the workers and the admission control,
+   * the workers tracing the requests
+   */
+  private void startListener() throws Exception {
     server.start();
+    workers = new UnorderedThreadPoolExecutor(transportSettings.getWorkerThreads());
+    AdmissionFilter admission = null;
+    if (transportSettings.isAdmissionEnabled()) {
+      admissionController = new AdmissionController(transportSettings);
+      admission = new AdmissionFilter(admissionController, server);
+      registerAdmissionMetrics();
+    }
+    TracingFilter tracing = new TracingFilter();
+    QueryStatsFilter statsFilter = null;
+    if (transportSettings.isQueryStatsEnabled()) {
+      queryStats = new QueryStats(transportSettings);
+      statsFilter = new QueryStatsFilter(queryStats, server);
+      registerQueryStatsMetrics();
+    }
+    for (Transport transport : server.getTransports()) {
+      ((TunedTcpTransport) transport).setWorkers(workers);
+      if (admission != null) {
+        ((TunedTcpTransport) transport).setAdmission(admission);
+      }
+      ((TunedTcpTransport) transport).setTracing(tracing);
+      if (statsFilter != null) {
+        ((TunedTcpTransport) transport).setQueryStats(statsFilter);
+      }
+    }
+    metrics.register("LdapWorkersActive", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return workers.getActiveCount();
+      }
+    });
+  }
+
+  /**
+   * Set the LDAP listener, and the LDAPS listener and StartTLS when enabled
+   */
+  private void configureTransports(int serverPort) throws Exception {
+    LOG.info("LDAP transport: " + transportSettings);
+    List<Transport> transports = new ArrayList<Transport>();
+    transports.add(new TunedTcpTransport(serverPort, transportSettings));
+    if (transportSettings.getLdapsPort() > 0) {
+      TunedTcpTransport ldaps =
+          new TunedTcpTransport(transportSettings.getLdapsPort(), transportSettings);
+      ldaps.enableSSL(true);
+      transports.add(ldaps);
+    }
+    server.setTransports(transports.toArray(new Transport[transports.size()]));
+    if (transportSettings.getMaxPduSize() > 0) {
+      server.setMaxPDUSize(transportSettings.getMaxPduSize());
+    }
+
+    if (transportSettings.getLdapsPort() > 0 || transportSettings.isStartTls()) {
+      if (transportSettings.getTlsKeystore() != null) {
+        server.setKeystoreFile(transportSettings.getTlsKeystore());
+        server.setCertificatePassword(transportSettings.getTlsKeystorePassword());
+      }
+      // Read when the JSSE session contexts are created, sessions are then resumed from it
+      if (System.getProperty("javax.net.ssl.sessionCacheSize") == null) {
+        System.setProperty("javax.net.ssl.sessionCacheSize",
+            Integer.toString(transportSettings.getTlsSessionCacheSize()));
+      }
+    }
+    if (transportSettings.isStartTls()) {
+      server.addExtendedOperationHandler(new StartTlsHandler());
+    }
+  }
+
+  private void registerQueryStatsMetrics() {
+    metrics.register("QueryShapes", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return queryStats.report();
+      }
+    });
+    metrics.register("SlowSearches", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return queryStats.getSlowSearches();
+      }
+    });
+  }
+
+  private void registerBindCacheMetrics() {
+    metrics.register("BindCacheHits", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return bindCache.getHits();
+      }
+    });
+    metrics.register("BindCacheMisses", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return bindCache.getMisses();
+      }
+    });
+  }
+
+  private void registerAdmissionMetrics() {
+    metrics.register("AdmissionLimit", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return admissionController.getLimit();
+      }
+    });
+    metrics.register("AdmissionInFlight", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return admissionController.getInFlight();
+      }
+    });
+    metrics.register("AdmissionAdmitted", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return admissionController.getAdmitted();
+      }
+    });
+    for (final AdmissionController.Rejection reason : AdmissionController.Rejection
+        .values()) {
+      metrics.register("AdmissionRejected" + reason, new EADMetrics.Gauge() {
+        @Override
+        public Object getValue() {
+          return admissionController.getRejected(reason);
+        }
+      });
+    }
+  }
+
+  /**
+   * Consumer of the jpmis partition of the primary, in refreshAndPersist mode
+   */
+  private ReplicationConsumer newReplicationConsumer() {
+    SyncReplConfiguration config = new SyncReplConfiguration();
+    config.setRemoteHost(primaryHost);
+    config.setRemotePort(primaryPort);
+    config.setReplUserDn(replicationBindDn);
+    config.setReplUserPassword(replicationPassword);
+    config.setBaseDn(EadSchemaService.JPMIS_SUFFIX);
+    config.setRefreshNPersist(true);
+    config.setReplicaId(replicaId);
+    LOG.info("Replicating " + EadSchemaService.JPMIS_SUFFIX + " from " + primaryHost + ":"
+        + primaryPort);
+
+    ReplicationConsumerImpl consumer = new ReplicationConsumerImpl();
+    consumer.setConfig(config);
+    return consumer;
   }
 
   /**
@@ -311,8 +690,16 @@ public class EmbeddedADSVerM23 {
    * @throws Exception
    */
   public void stopServer() throws Exception {
+    if (heartbeat != null) {
+      heartbeat.stop();
+    }
+    metrics.stop();
     directoryService.shutdown();
     server.stop();
+    if (workers != null) {
+      workers.shutdown();
+      workers.awaitTermination(5, TimeUnit.SECONDS);
+    }
   }
 
   private void changePassword(Dn userDn, String oldPassword, byte[] newPassword) throws Exception {
@@ -325,14 +712,18 @@ public class EmbeddedADSVerM23 {
   }
 
   
-  private void addSearchEnableUser() throws Exception {
+  private void addSearchEnableUser(String suffix) throws Exception {
+    if (directoryService.getAdminSession().exists(
+        new Dn("cn=directoryManagerReadOnlyAccessACI," + suffix))) {
+      return;
+    }
     ModifyRequest modReq = new ModifyRequestImpl();
-    modReq.setName( new Dn("dc=jpmis,dc=com"));
+    modReq.setName( new Dn(suffix));
     modReq.add( "administrativeRole", "accessControlSpecificArea" );
     directoryService.getAdminSession().modify( modReq );
     
     //@formatter:off
-    addPrescriptiveACI(
+    addPrescriptiveACI(suffix,
         "{ " +
             "  identificationTag \"directoryManagerReadOnlyAccessACI\", " +
             "  precedence 11, " +
@@ -352,9 +743,9 @@ public class EmbeddedADSVerM23 {
      //@formatter:on
   }
 
-  private void addPrescriptiveACI(String aciItem) throws Exception {
+  private void addPrescriptiveACI(String suffix, String aciItem) throws Exception {
     Entry subEntry = new DefaultEntry(
-        "cn=" + "directoryManagerReadOnlyAccessACI" + ",dc=jpmis,dc=com",
+        "cn=" + "directoryManagerReadOnlyAccessACI" + "," + suffix,
         "objectClass: top",
         "objectClass: subentry",
         "objectClass: accessControlSubentry",
@@ -370,6 +761,81 @@ public class EmbeddedADSVerM23 {
     return directoryService;
   }
 
+  public void setSyncRole(SyncRole syncRole) {
+    this.syncRole = syncRole;
+  }
+
+  public SyncRole getSyncRole() {
+    return syncRole;
+  }
+
+  /**
+   * Set the primary a replica consumes
+   */
+  public void setPrimary(String host, int port) {
+    this.primaryHost = host;
+    this.primaryPort = port;
+  }
+
+  public void setReplicaId(int replicaId) {
+    this.replicaId = replicaId;
+  }
+
+  /**
+   * Set the Dn and password a replica binds to the primary with
+   */
+  public void setReplicationCredentials(String bindDn, byte[] password) {
+    this.replicationBindDn = bindDn;
+    this.replicationPassword = password;
+  }
+
+  /**
+   * Have a primary write the heartbeat the replicas measure their lag with
+   */
+  public void setReplicationHeartbeat(boolean replicationHeartbeat) {
+    this.replicationHeartbeat = replicationHeartbeat;
+  }
+
+  public void setTransportSettings(TransportSettings transportSettings) {
+    this.transportSettings = transportSettings;
+  }
+
+  public QueryStats getQueryStats() {
+    return queryStats;
+  }
+
+  public BindCache<LdapPrincipal> getBindCache() {
+    return bindCache;
+  }
+
+  public AdmissionController getAdmissionController() {
+    return admissionController;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public EADMetrics getMetrics() {
+    return metrics;
+  }
+
+  public ReplicationHeartbeat getHeartbeat() {
+    return heartbeat;
+  }
+
+  public void setResetInstance(boolean resetInstance) {
+    this.resetInstance = resetInstance;
+  }
+
+  public ServerLifecycle getLifecycle() {
+    return lifecycle;
+  }
+
+  public GroupAccessTracker getGroupAccessTracker() {
+    return groupAccessTracker;
+  }
+
   /**
    * 
    * This is for testing purpose. DO NOT REMOVE
@@ -0,0 +1,111 @@
+package com.krish.ead.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+
+/**
+ * The shape of a search filter: its values replaced by ?, the attribute names lower cased
+ * and the terms of the and and or sorted, so that the searches differing only by their
+ * values, such as (&(objectClass=user)(sAMAccountName=krish)), share a shape,
+ * (&(objectclass=?)(samaccountname=?)).
+ *
+ * @author krishdey
+ *
+ */
+public final class FilterShape {
+
+  private FilterShape() {
+  }
+
+  public static String of(ExprNode node) {
+    if (node == null) {
+      return "(objectclass=*)";
+    }
+    if (node instanceof BranchNode) {
+      List<String> children = new ArrayList<String>();
+      for (ExprNode child : ((BranchNode) node).getChildren()) {
+        children.add(of(child));
+      }
+      String operator;
+      if (node instanceof AndNode) {
+        operator = "&";
+      } else if (node instanceof OrNode) {
+        operator = "|";
+      } else if (node instanceof NotNode) {
+        operator = "!";
+      } else {
+        operator = "?";
+      }
+      if (!(node instanceof NotNode)) {
+        Collections.sort(children);
+      }
+      StringBuilder shape = new StringBuilder("(").append(operator);
+      for (String child : children) {
+        shape.append(child);
+      }
+      return shape.append(')').toString();
+    }
+    if (!(node instanceof LeafNode)) {
+      return "(?)";
+    }
+    String attribute = ((LeafNode) node).getAttribute();
+    attribute = attribute == null ? "" : attribute.toLowerCase();
+    // Approximate is a kind of equality
+    if (node instanceof ApproximateNode) {
+      return "(" + attribute + "~=?)";
+    }
+    if (node instanceof EqualityNode) {
+      return "(" + attribute + "=?)";
+    }
+    if (node instanceof PresenceNode) {
+      return "(" + attribute + "=*)";
+    }
+    if (node instanceof SubstringNode) {
+      SubstringNode substring = (SubstringNode) node;
+      StringBuilder shape = new StringBuilder("(").append(attribute).append('=');
+      if (substring.getInitial() != null) {
+        shape.append('?');
+      }
+      shape.append('*');
+      if (substring.getAny() != null) {
+        for (int i = 0; i < substring.getAny().size(); i++) {
+          shape.append("?*");
+        }
+      }
+      if (substring.getFinal() != null) {
+        shape.append('?');
+      }
+      return shape.append(')').toString();
+    }
+    if (node instanceof GreaterEqNode) {
+      return "(" + attribute + ">=?)";
+    }
+    if (node instanceof LessEqNode) {
+      return "(" + attribute + "<=?)";
+    }
+    if (node instanceof ExtensibleNode) {
+      ExtensibleNode extensible = (ExtensibleNode) node;
+      return "(" + attribute + (extensible.hasDnAttributes() ? ":dn" : "")
+          + (extensible.getMatchingRuleId() == null ? ""
+              : ":" + extensible.getMatchingRuleId().toLowerCase())
+          + ":=?)";
+    }
+    return "(" + attribute + "?)";
+  }
+
+}
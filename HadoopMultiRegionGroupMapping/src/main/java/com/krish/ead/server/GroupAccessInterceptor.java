@@ -0,0 +1,81 @@
+package com.krish.ead.server;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+
+import com.krish.directory.service.GroupAccessTracker;
+
+/**
+ * Records which groups the LDAP clients are reading, either as group entries or through
+ * the memberOf attribute of user entries. Operations issued by the EAD itself through the
+ * admin session are not counted.
+ *
+ * @author krishdey
+ *
+ */
+public class GroupAccessInterceptor extends BaseInterceptor {
+
+  private static final String MEMBER_OF_AT = "memberOf";
+
+  private final GroupAccessTracker tracker;
+
+  public GroupAccessInterceptor(GroupAccessTracker tracker) {
+    super("groupAccessInterceptor");
+    this.tracker = tracker;
+  }
+
+  @Override
+  public EntryFilteringCursor search(SearchOperationContext searchContext) throws LdapException {
+    EntryFilteringCursor cursor = next(searchContext);
+    if (isClientOperation(searchContext)) {
+      cursor.addEntryFilter(new AccessRecordingFilter());
+    }
+    return cursor;
+  }
+
+  @Override
+  public Entry lookup(LookupOperationContext lookupContext) throws LdapException {
+    Entry entry = next(lookupContext);
+    if (entry != null && isClientOperation(lookupContext)) {
+      record(entry);
+    }
+    return entry;
+  }
+
+  private boolean isClientOperation(OperationContext opContext) {
+    return opContext.getSession() != directoryService.getAdminSession();
+  }
+
+  private void record(Entry entry) {
+    tracker.recordGroupDn(entry.getDn().getName());
+    Attribute memberOf = entry.get(MEMBER_OF_AT);
+    if (memberOf != null) {
+      for (Value<?> value : memberOf) {
+        tracker.recordGroupDn(value.getString());
+      }
+    }
+  }
+
+  private class AccessRecordingFilter implements EntryFilter {
+
+    @Override
+    public boolean accept(SearchOperationContext operation, Entry entry) throws LdapException {
+      record(entry);
+      return true;
+    }
+
+    @Override
+    public String toString(String tabs) {
+      return tabs + "AccessRecordingFilter";
+    }
+  }
+
+}
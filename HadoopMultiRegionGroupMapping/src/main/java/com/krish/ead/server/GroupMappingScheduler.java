@@ -0,0 +1,534 @@
+package com.krish.ead.server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.krish.directory.service.GroupAccessTracker;
+import com.krish.directory.service.GroupMappingService;
+import com.krish.directory.service.GroupMappingServiceProvider;
+import com.krish.security.hadoop.impl.MultiRegionGroups;
+
+/**
+ * Schedules the sync of every provider on its own cadence. A provider is rescheduled only
+ * once its previous sync finished, so syncs of the same provider never overlap, and a
+ * provider that keeps failing is retried with an exponential backoff.
+ *
+ * Within a provider, the groups the clients query most are refreshed on every sync, the
+ * rarely queried ones every cold interval and the unqueried ones only on the full resync.
+ *
+ * @author krishdey
+ *
+ */
+public class GroupMappingScheduler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GroupMappingScheduler.class);
+
+  private static final long STOP_TIMEOUT_MS = 30 * 1000;
+
+  private final GroupMappingService groupMappingService;
+
+  private final GroupAccessTracker accessTracker;
+
+  private final ScheduledThreadPoolExecutor executor;
+
+  private final List<ProviderTask> tasks = new ArrayList<ProviderTask>();
+
+  private volatile boolean stopped = false;
+
+  /** Decides which groups this server fetches, null to fetch all of them */
+  private volatile SyncCoordinator coordinator;
+
+  /** Told the outcome of every sync, null if there is none to tell */
+  private volatile ServerLifecycle lifecycle;
+
+  public GroupMappingScheduler(GroupMappingService groupMappingService) {
+    this(groupMappingService, null);
+  }
+
+  /**
+   * @param groupMappingService
+   * @param accessTracker query frequency of the groups, null to refresh all the groups on
+   *          every sync
+   */
+  public GroupMappingScheduler(GroupMappingService groupMappingService,
+      GroupAccessTracker accessTracker) {
+    this.groupMappingService = groupMappingService;
+    this.accessTracker = accessTracker;
+    int threads = Math.max(1, groupMappingService.getProviders().size());
+    ScheduledThreadPoolExecutor pool =
+        new ScheduledThreadPoolExecutor(threads, new SyncThreadFactory());
+    pool.setRemoveOnCancelPolicy(true);
+    this.executor = pool;
+  }
+
+  /**
+   * Schedule the first sync of every provider
+   */
+  public synchronized void start() {
+    ServerLifecycle current = lifecycle;
+    if (current != null) {
+      List<String> names = new ArrayList<String>();
+      for (MultiRegionGroups provider : groupMappingService.getProviders()) {
+        names.add(provider.getProviderName());
+      }
+      current.expect(names);
+    }
+    for (MultiRegionGroups provider : groupMappingService.getProviders()) {
+      ProviderTask task = new ProviderTask(provider);
+      tasks.add(task);
+      task.schedule(jitter(provider));
+      LOG.info("Scheduled provider " + provider.getProviderName() + " every "
+          + provider.getSyncInterval() + " ms");
+    }
+  }
+
+  /**
+   * Take the providers of a reloaded configuration. A provider keeping its name keeps its
+   * schedule and its sync times, so only its new groups, never synced, are due; it is run
+   * now if it has any. The instances replaced or removed are closed once their running
+   * sync, if any, finished.
+   */
+  public synchronized void reload(List<MultiRegionGroups> providers) {
+    if (stopped) {
+      return;
+    }
+    Map<String, MultiRegionGroups> byName = new HashMap<String, MultiRegionGroups>();
+    for (MultiRegionGroups provider : providers) {
+      byName.put(provider.getProviderName(), provider);
+    }
+    Map<String, ProviderTask> kept = new HashMap<String, ProviderTask>();
+    for (Iterator<ProviderTask> it = tasks.iterator(); it.hasNext();) {
+      ProviderTask task = it.next();
+      MultiRegionGroups provider = byName.get(task.provider.getProviderName());
+      if (provider == null) {
+        it.remove();
+        task.remove();
+        LOG.info("Unscheduled provider " + task.provider.getProviderName());
+        if (lifecycle != null) {
+          lifecycle.forget(task.provider.getProviderName());
+        }
+      } else {
+        kept.put(provider.getProviderName(), task);
+      }
+    }
+    executor.setCorePoolSize(Math.max(1, providers.size()));
+    List<String> added = new ArrayList<String>();
+    for (MultiRegionGroups provider : providers) {
+      ProviderTask task = kept.get(provider.getProviderName());
+      if (task != null) {
+        if (task.update(provider)) {
+          task.schedule(jitter(provider));
+        }
+        continue;
+      }
+      task = new ProviderTask(provider);
+      tasks.add(task);
+      added.add(provider.getProviderName());
+      task.schedule(jitter(provider));
+      LOG.info("Scheduled provider " + provider.getProviderName() + " every "
+          + provider.getSyncInterval() + " ms");
+    }
+    if (lifecycle != null && !added.isEmpty()) {
+      lifecycle.expect(added);
+    }
+  }
+
+  /**
+   * Share the groups with the other servers of the cluster. The groups this server gets
+   * on a rebalance are synced right away.
+   */
+  public void setCoordinator(SyncCoordinator coordinator) {
+    this.coordinator = coordinator;
+    coordinator.addRebalanceListener(new Runnable() {
+      @Override
+      public void run() {
+        syncNow();
+      }
+    });
+  }
+
+  /**
+   * Report the outcome of the syncs to the lifecycle of the server
+   */
+  public void setLifecycle(ServerLifecycle lifecycle) {
+    this.lifecycle = lifecycle;
+  }
+
+  /**
+   * Run the sync of every provider now, instead of at its next scheduled time
+   */
+  public synchronized void syncNow() {
+    for (ProviderTask task : tasks) {
+      // Kept until a sync starts, for a running sync to be followed by another now
+      task.syncRequested = true;
+      task.schedule(jitter(task.provider));
+    }
+  }
+
+  /**
+   * Cancel all pending syncs and wait for the running ones to finish. The running syncs are
+   * interrupted only once they did not finish in time.
+   *
+   * @return true if no sync is running anymore
+   */
+  public synchronized boolean stop() {
+    stopped = true;
+    for (ProviderTask task : tasks) {
+      task.cancel();
+    }
+    executor.shutdown();
+    boolean terminated = false;
+    try {
+      terminated = executor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      if (!terminated) {
+        LOG.warn("Provider syncs did not finish within " + STOP_TIMEOUT_MS
+            + " ms, interrupting them");
+        executor.shutdownNow();
+        terminated = executor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    if (terminated) {
+      LOG.info("Group mapping scheduler stopped");
+    } else {
+      LOG.warn("Provider syncs are still running after being interrupted");
+    }
+    return terminated;
+  }
+
+  /**
+   * @return the bytes allocated so far by the current thread, -1 if the JVM does not tell
+   */
+  static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported()
+          && sunThreads.isThreadAllocatedMemoryEnabled()) {
+        return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  static long jitter(MultiRegionGroups provider) {
+    return provider.getSyncJitter() > 0 ? ThreadLocalRandom.current().nextLong(
+        provider.getSyncJitter() + 1) : 0;
+  }
+
+  /**
+   * Delay before the next sync of a provider which failed the given number of times in a row
+   */
+  static long nextDelay(MultiRegionGroups provider, int consecutiveFailures) {
+    long interval = provider.getSyncInterval();
+    if (consecutiveFailures == 0) {
+      return interval;
+    }
+    long maxBackoff = Math.max(interval, provider.getMaxBackoff());
+    int shift = Math.min(consecutiveFailures, 30);
+    long backoff = interval << shift;
+    return backoff <= 0 || backoff > maxBackoff ? maxBackoff : backoff;
+  }
+
+  /**
+   * Groups of the provider due for a refresh, hottest and stalest first, within the
+   * provider's budget
+   */
+  static List<String> selectDueGroups(MultiRegionGroups provider,
+      final GroupAccessTracker tracker, final Map<String, Long> lastSynced, boolean fullResync,
+      long now) {
+    return selectDueGroups(provider, provider.getGroups(), tracker, lastSynced, fullResync,
+        now);
+  }
+
+  /**
+   * Same as {@link #selectDueGroups(MultiRegionGroups, GroupAccessTracker, Map, boolean,
+   * long)} among some of the groups of the provider
+   */
+  static List<String> selectDueGroups(MultiRegionGroups provider, Collection<String> groups,
+      final GroupAccessTracker tracker, final Map<String, Long> lastSynced, boolean fullResync,
+      long now) {
+    List<String> due = new ArrayList<String>();
+    for (String group : groups) {
+      Long last = lastSynced.get(group);
+      if (fullResync || last == null || tracker == null) {
+        due.add(group);
+      } else if (now - last >= refreshInterval(provider, tracker, group)) {
+        due.add(group);
+      }
+    }
+
+    if (tracker != null) {
+      Collections.sort(due, new Comparator<String>() {
+        @Override
+        public int compare(String g1, String g2) {
+          Long last1 = lastSynced.get(g1);
+          Long last2 = lastSynced.get(g2);
+          if (last1 == null || last2 == null) {
+            return last1 == null ? (last2 == null ? 0 : -1) : 1;
+          }
+          int byRate = Double.compare(tracker.getRate(g2), tracker.getRate(g1));
+          return byRate != 0 ? byRate : Long.compare(last1, last2);
+        }
+      });
+    }
+
+    int budget = provider.getSyncBudget();
+    if (budget > 0 && due.size() > budget) {
+      return new ArrayList<String>(due.subList(0, budget));
+    }
+    return due;
+  }
+
+  static long refreshInterval(MultiRegionGroups provider, GroupAccessTracker tracker,
+      String group) {
+    if (!tracker.isQueried(group)) {
+      return provider.getFullSyncInterval();
+    }
+    if (tracker.getRate(group) >= provider.getHotThreshold()) {
+      return provider.getSyncInterval();
+    }
+    return provider.getColdSyncInterval();
+  }
+
+  private class ProviderTask implements Runnable {
+
+    /** Replaced by a reload, read once per sync */
+    private volatile MultiRegionGroups provider;
+
+    /** Set once the provider is not configured anymore */
+    private volatile boolean removed = false;
+
+    /** Provider instances replaced, closed once no sync is running */
+    private final Queue<GroupMappingServiceProvider> retired =
+        new ConcurrentLinkedQueue<GroupMappingServiceProvider>();
+
+    /** Set by a reload adding groups, for a running sync to be followed by another now */
+    private volatile boolean groupsAdded = false;
+
+    /** Set by {@link GroupMappingScheduler#syncNow()}, likewise */
+    private volatile boolean syncRequested = false;
+
+    /** Groups removed by a reload, whose sync times are dropped by the next sync */
+    private final Queue<String> forgotten = new ConcurrentLinkedQueue<String>();
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private int consecutiveFailures = 0;
+
+    private volatile ScheduledFuture<?> future;
+
+    private final Map<String, Long> lastSynced = new HashMap<String, Long>();
+
+    private long lastFullSync = 0;
+
+    ProviderTask(MultiRegionGroups provider) {
+      this.provider = provider;
+      // Resume from the sync times recorded before the restart
+      lastSynced.putAll(groupMappingService.getLastSynced(provider.getProviderName()));
+      if (lastSynced.keySet().containsAll(provider.getGroups())) {
+        lastFullSync = lastSynced.isEmpty() ? 0 : Collections.min(lastSynced.values());
+      }
+    }
+
+    /**
+     * Take the provider of a reloaded configuration
+     * @return true if it has groups never synced
+     */
+    boolean update(MultiRegionGroups updated) {
+      MultiRegionGroups previous = provider;
+      provider = updated;
+      if (previous.getGroupServiceProvider() != updated.getGroupServiceProvider()) {
+        retired.add(previous.getGroupServiceProvider());
+        closeRetired();
+      }
+      Set<String> groups = new HashSet<String>(updated.getGroups());
+      for (String group : previous.getGroups()) {
+        if (!groups.remove(group)) {
+          forgotten.add(group);
+        }
+      }
+      if (groups.isEmpty()) {
+        return false;
+      }
+      groupsAdded = true;
+      return true;
+    }
+
+    /**
+     * Stop syncing the provider, and close it once its running sync finished
+     */
+    void remove() {
+      removed = true;
+      cancel();
+      retired.add(provider.getGroupServiceProvider());
+      closeRetired();
+    }
+
+    /**
+     * Close the provider instances replaced, unless a sync is running, in which case the
+     * sync closes them when it finishes. A sync starting meanwhile reads the provider once
+     * running, so it uses the instance which replaced them.
+     */
+    private void closeRetired() {
+      if (running.get()) {
+        return;
+      }
+      GroupMappingServiceProvider instance;
+      while ((instance = retired.poll()) != null) {
+        instance.close();
+      }
+    }
+
+    @Override
+    public void run() {
+      if (removed) {
+        return;
+      }
+      if (!running.compareAndSet(false, true)) {
+        LOG.info("Sync of " + provider.getProviderName() + " is still running, skipping");
+        return;
+      }
+      // Cleared before the provider and the owned groups are read, for a reload or a
+      // rebalance in between to be seen at the end
+      groupsAdded = false;
+      syncRequested = false;
+      MultiRegionGroups provider = this.provider;
+      long allocated = allocatedBytes();
+      try {
+        // The groups removed by a reload are synced right away if they are added back
+        String removedGroup;
+        while ((removedGroup = forgotten.poll()) != null) {
+          lastSynced.remove(removedGroup);
+        }
+        long now = System.currentTimeMillis();
+        if (accessTracker != null) {
+          accessTracker.roll();
+        }
+        boolean fullResync = now - lastFullSync >= provider.getFullSyncInterval();
+        List<String> due = selectDueGroups(provider, ownedGroups(provider), accessTracker,
+            lastSynced, fullResync, now);
+        LOG.info("Going to run " + (fullResync ? "full " : "") + "schema update for "
+            + provider.getProviderName() + " on " + due.size() + " of "
+            + provider.getGroups().size() + " groups");
+        if (!due.isEmpty()) {
+          for (String group : groupMappingService.doSchemaUpdate(provider, due)) {
+            lastSynced.put(group, now);
+          }
+        }
+        if (fullResync) {
+          lastFullSync = now;
+        }
+        consecutiveFailures = 0;
+        if (lifecycle != null) {
+          lifecycle.synced(provider.getProviderName());
+        }
+        LOG.info("Schema update finished for " + provider.getProviderName()
+            + (allocated < 0 ? "" : ", allocated "
+                + (allocatedBytes() - allocated) / 1024 + " KB on the sync thread"));
+      } catch (Exception e) {
+        consecutiveFailures++;
+        LOG.warn("Schema update failed for " + provider.getProviderName() + " ("
+            + consecutiveFailures + " in a row): " + e.getMessage());
+        if (lifecycle != null) {
+          lifecycle.failed(provider.getProviderName());
+        }
+      } finally {
+        running.set(false);
+        closeRetired();
+      }
+      try {
+        // Also publishes the memberships fetched by the other servers of the cluster
+        groupMappingService.publishSnapshot();
+      } catch (IOException e) {
+        LOG.warn("Could not publish the membership snapshot: " + e.getMessage());
+      }
+      if (!Thread.currentThread().isInterrupted()) {
+        // The groups added or owned while the sync ran are synced right away
+        MultiRegionGroups next = this.provider;
+        schedule(groupsAdded || syncRequested ? jitter(next)
+            : nextDelay(next, consecutiveFailures) + jitter(next));
+      }
+    }
+
+    /**
+     * Groups of the provider fetched by this server
+     */
+    private List<String> ownedGroups(MultiRegionGroups provider) {
+      SyncCoordinator current = coordinator;
+      if (current == null) {
+        return provider.getGroups();
+      }
+      List<String> owned = new ArrayList<String>();
+      for (String group : provider.getGroups()) {
+        if (current.owns(provider.getProviderName(), group)) {
+          owned.add(group);
+        }
+      }
+      return owned;
+    }
+
+    /**
+     * Schedule the next run, replacing the pending one if any
+     */
+    synchronized void schedule(long delay) {
+      if (stopped || removed) {
+        return;
+      }
+      ScheduledFuture<?> pending = future;
+      if (pending != null) {
+        pending.cancel(false);
+      }
+      try {
+        future = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // The scheduler is shutting down
+      }
+    }
+
+    void cancel() {
+      ScheduledFuture<?> current = future;
+      if (current != null) {
+        current.cancel(false);
+      }
+    }
+  }
+
+  private static class SyncThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "ead-sync-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}
@@ -0,0 +1,194 @@
+package com.krish.ead.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the group mapping file and tells a listener when its content changed. The
+ * directory of the file is watched, as Cloudera Manager and most editors replace the file
+ * rather than write it in place, and the listener is only told once the file was not
+ * written for a quiet period, a change being written in several steps. A file written
+ * again with the same content is not a change. A change the listener failed to apply is
+ * retried, first after the quiet period and then backing off, until it is applied or the
+ * file changes again.
+ *
+ * @author krishdey
+ *
+ */
+public class GroupMappingWatcher implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GroupMappingWatcher.class);
+
+  /** Longest delay between two attempts to apply a change */
+  private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+  /**
+   * Told the changes of the file, from the thread of the watcher
+   */
+  public interface Listener {
+    void changed() throws Exception;
+  }
+
+  private final File file;
+  private final long quietPeriod;
+  private final Listener listener;
+
+  private WatchService watchService;
+  private Thread thread;
+  private volatile boolean closed = false;
+
+  /** Digest of the content last applied, only used by the thread of the watcher */
+  private byte[] digest;
+
+  /**
+   * @param file the group mapping file
+   * @param quietPeriod milliseconds the file must stay unwritten before it is read
+   * @param listener
+   */
+  public GroupMappingWatcher(File file, long quietPeriod, Listener listener) {
+    this.file = file.getAbsoluteFile();
+    this.quietPeriod = quietPeriod;
+    this.listener = listener;
+  }
+
+  public synchronized void start() throws IOException {
+    digest = digest(file);
+    watchService = FileSystems.getDefault().newWatchService();
+    file.getParentFile().toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch();
+      }
+    }, "ead-config-watcher");
+    thread.setDaemon(true);
+    thread.start();
+    LOG.info("Watching " + file + " for changes");
+  }
+
+  private void watch() {
+    long retryAt = -1;
+    long retryDelay = Math.max(quietPeriod, 1);
+    try {
+      while (!closed) {
+        WatchKey key;
+        if (retryAt < 0) {
+          key = watchService.take();
+        } else {
+          long wait = retryAt - System.currentTimeMillis();
+          key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+        }
+        if (key != null) {
+          if (!isWritten(key)) {
+            continue;
+          }
+          // Until the writes settle
+          while ((key = watchService.poll(quietPeriod, TimeUnit.MILLISECONDS)) != null) {
+            isWritten(key);
+          }
+          retryDelay = Math.max(quietPeriod, 1);
+        }
+        if (check()) {
+          retryAt = -1;
+          retryDelay = Math.max(quietPeriod, 1);
+        } else {
+          LOG.info("Retrying to apply " + file + " in " + retryDelay + " ms");
+          retryAt = System.currentTimeMillis() + retryDelay;
+          retryDelay = Math.min(2 * retryDelay, MAX_RETRY_DELAY_MS);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException e) {
+      // Closed
+    }
+  }
+
+  /**
+   * @return true if the events of the key tell the file may have been written
+   */
+  private boolean isWritten(WatchKey key) {
+    boolean written = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW
+          || file.getName().equals(((Path) event.context()).toString())) {
+        written = true;
+      }
+    }
+    key.reset();
+    return written;
+  }
+
+  /**
+   * Tell the listener if the content of the file changed
+   *
+   * @return false if the change could not be applied and must be retried
+   */
+  private boolean check() {
+    if (!file.exists()) {
+      LOG.warn(file + " is missing, keeping the group mapping in use");
+      return true;
+    }
+    byte[] current;
+    try {
+      current = digest(file);
+    } catch (IOException e) {
+      LOG.warn("Could not read " + file + ": " + e.getMessage());
+      return false;
+    }
+    if (Arrays.equals(current, digest)) {
+      LOG.debug(file + " was written with the same content");
+      return true;
+    }
+    LOG.info(file + " changed, reloading the group mapping");
+    try {
+      listener.changed();
+    } catch (Exception e) {
+      LOG.error("Could not reload " + file + ", keeping the group mapping in use", e);
+      return false;
+    }
+    digest = current;
+    return true;
+  }
+
+  private static byte[] digest(File file) throws IOException {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (watchService != null) {
+      watchService.close();
+    }
+    if (thread != null) {
+      try {
+        thread.join(quietPeriod + 1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+}
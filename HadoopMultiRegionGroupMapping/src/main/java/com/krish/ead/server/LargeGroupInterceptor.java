@@ -0,0 +1,309 @@
+package com.krish.ead.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.StringValue;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.FilteringOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.krish.directory.service.EadSchemaService;
+
+/**
+ * Presents to the clients the members of the large groups, kept as eadMembership entries
+ * below the group, as the member attribute of the group, and as its memberUid when it is
+ * a posixGroup. A client filter asserting a member or a memberUid also matches the large
+ * groups holding it, and the membership entries themselves are hidden from the clients.
+ * The EAD reads the groups as stored.
+ *
+ * @author krishdey
+ *
+ */
+public class LargeGroupInterceptor extends BaseInterceptor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LargeGroupInterceptor.class);
+
+  private static final String MEMBER_UID_AT = "memberUid";
+
+  private static final String POSIX_GROUP_OC = "posixGroup";
+
+  public LargeGroupInterceptor() {
+    super("largeGroupInterceptor");
+  }
+
+  @Override
+  public EntryFilteringCursor search(SearchOperationContext searchContext) throws LdapException {
+    if (!isClientOperation(searchContext)
+        || searchContext.hasRequestControl(SyncRequestValue.OID)) {
+      // The EAD and the replicas, which copy the entries as stored, read the membership
+      // entries themselves
+      return next(searchContext);
+    }
+    searchContext.setFilter(rewrite(searchContext.getFilter(), searchContext.getDn()));
+    boolean member = requested(searchContext, SchemaConstants.MEMBER_AT);
+    boolean memberUid = requested(searchContext, MEMBER_UID_AT);
+    // Tells the membership entries and the large groups
+    boolean objectClass = returnObjectClass(searchContext);
+    EntryFilteringCursor cursor = next(searchContext);
+    cursor.addEntryFilter(new LargeGroupFilter(member, memberUid, objectClass));
+    return cursor;
+  }
+
+  @Override
+  public Entry lookup(LookupOperationContext lookupContext) throws LdapException {
+    // The EAD reads the membership entries itself
+    if (!isClientOperation(lookupContext)) {
+      return next(lookupContext);
+    }
+    boolean member = requested(lookupContext, SchemaConstants.MEMBER_AT);
+    boolean memberUid = requested(lookupContext, MEMBER_UID_AT);
+    boolean objectClass = (member || memberUid) && returnObjectClass(lookupContext);
+    Entry entry = next(lookupContext);
+    if (entry != null) {
+      addMembers(entry, member, memberUid);
+      if (objectClass) {
+        entry.removeAttributes(SchemaConstants.OBJECT_CLASS_AT);
+      }
+    }
+    return entry;
+  }
+
+  private boolean isClientOperation(OperationContext opContext) {
+    return opContext.getSession() != directoryService.getAdminSession();
+  }
+
+  private boolean requested(FilteringOperationContext opContext, String attribute) {
+    return opContext.isAllUserAttributes() || opContext.contains(schemaManager, attribute);
+  }
+
+  /**
+   * Have the entries read with their objectClass if the client did not ask for it, rather
+   * than looking every entry up again
+   *
+   * @return true if the objectClass was added, to be removed from the entries returned
+   */
+  private boolean returnObjectClass(FilteringOperationContext opContext) {
+    if (requested(opContext, SchemaConstants.OBJECT_CLASS_AT)) {
+      return false;
+    }
+    List<String> attributes = new ArrayList<String>();
+    String[] returning = opContext.getReturningAttributesString();
+    if (returning != null) {
+      for (String attribute : returning) {
+        if (!SchemaConstants.NO_ATTRIBUTE.equals(attribute)) {
+          attributes.add(attribute);
+        }
+      }
+    }
+    attributes.add(SchemaConstants.OBJECT_CLASS_AT);
+    opContext.setReturningAttributes(attributes.toArray(new String[attributes.size()]));
+    return true;
+  }
+
+  /**
+   * Add the members of a large group to its entry, as asked for
+   */
+  private void addMembers(Entry entry, boolean member, boolean memberUid)
+      throws LdapException {
+    if (!member && !memberUid) {
+      return;
+    }
+    Attribute objectClasses = entry.get(SchemaConstants.OBJECT_CLASS_AT);
+    if (objectClasses == null || !objectClasses.contains(EadSchemaService.LARGE_GROUP_OC)) {
+      return;
+    }
+    memberUid &= objectClasses.contains(POSIX_GROUP_OC);
+    AttributeType memberAt = schemaManager.lookupAttributeTypeRegistry(SchemaConstants.MEMBER_AT);
+    AttributeType uidAt = schemaManager.lookupAttributeTypeRegistry(SchemaConstants.UID_AT);
+    ExprNode filter = membershipsFilter(null);
+    EntryFilteringCursor cursor = directoryService.getAdminSession().search(entry.getDn(),
+        SearchScope.ONELEVEL, filter, AliasDerefMode.NEVER_DEREF_ALIASES,
+        SchemaConstants.MEMBER_AT, SchemaConstants.UID_AT);
+    try {
+      while (cursor.next()) {
+        Entry membership = cursor.get();
+        if (member) {
+          copyValues(membership.get(memberAt), entry, SchemaConstants.MEMBER_AT);
+        }
+        if (memberUid) {
+          copyValues(membership.get(uidAt), entry, MEMBER_UID_AT);
+        }
+      }
+    } catch (LdapException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new LdapOtherException("Could not read the members of " + entry.getDn() + ": "
+          + e.getMessage(), e);
+    } finally {
+      close(cursor);
+    }
+  }
+
+  private void copyValues(Attribute from, Entry entry, String attribute) throws LdapException {
+    if (from != null) {
+      for (Value<?> value : from) {
+        entry.add(attribute, value.getString());
+      }
+    }
+  }
+
+  /**
+   * Let the member and memberUid assertions of a filter also match the large groups
+   * having a membership entry for the value, by their entryUUID
+   */
+  private ExprNode rewrite(ExprNode node, Dn base) throws LdapException {
+    if (node instanceof BranchNode) {
+      List<ExprNode> children = ((BranchNode) node).getChildren();
+      for (int i = 0; i < children.size(); i++) {
+        children.set(i, rewrite(children.get(i), base));
+      }
+      return node;
+    }
+    if (!(node instanceof EqualityNode)) {
+      return node;
+    }
+    EqualityNode<?> equality = (EqualityNode<?>) node;
+    AttributeType attributeType = equality.getAttributeType();
+    if (attributeType == null) {
+      return node;
+    }
+    ExprNode assertion;
+    if (attributeType.equals(schemaManager.getAttributeType(SchemaConstants.MEMBER_AT))) {
+      // The optimizer annotates the nodes of the search it runs
+      assertion = equality.clone();
+    } else if (attributeType.equals(schemaManager.getAttributeType(MEMBER_UID_AT))) {
+      AttributeType uidAt = schemaManager.lookupAttributeTypeRegistry(SchemaConstants.UID_AT);
+      assertion =
+          new EqualityNode<String>(uidAt, new StringValue(uidAt, equality.getValue().getString()));
+    } else {
+      return node;
+    }
+    Set<String> uuids = largeGroupsMatching(assertion, base);
+    if (uuids.isEmpty()) {
+      return node;
+    }
+    AttributeType uuidAt = schemaManager.lookupAttributeTypeRegistry(SchemaConstants.ENTRY_UUID_AT);
+    OrNode or = new OrNode(node);
+    for (String uuid : uuids) {
+      or.addNode(new EqualityNode<String>(uuidAt, new StringValue(uuidAt, uuid)));
+    }
+    return or;
+  }
+
+  /**
+   * @return the entryUUID of the large groups below the base with a membership entry
+   *         matching the assertion
+   */
+  private Set<String> largeGroupsMatching(ExprNode assertion, Dn base) throws LdapException {
+    CoreSession session = directoryService.getAdminSession();
+    Set<Dn> groups = new LinkedHashSet<Dn>();
+    EntryFilteringCursor cursor = session.search(base, SearchScope.SUBTREE,
+        membershipsFilter(assertion), AliasDerefMode.NEVER_DEREF_ALIASES,
+        SchemaConstants.NO_ATTRIBUTE);
+    try {
+      while (cursor.next()) {
+        groups.add(cursor.get().getDn().getParent());
+      }
+    } catch (LdapException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new LdapOtherException("Could not search the membership entries of " + base + ": "
+          + e.getMessage(), e);
+    } finally {
+      close(cursor);
+    }
+    Set<String> uuids = new LinkedHashSet<String>();
+    for (Dn group : groups) {
+      Entry entry = session.lookup(group, SchemaConstants.ENTRY_UUID_AT);
+      if (entry != null && entry.get(SchemaConstants.ENTRY_UUID_AT) != null) {
+        uuids.add(entry.get(SchemaConstants.ENTRY_UUID_AT).getString());
+      }
+    }
+    return uuids;
+  }
+
+  /**
+   * @return (objectClass=eadMembership), and'ed with the assertion if there is one
+   */
+  private ExprNode membershipsFilter(ExprNode assertion) throws LdapException {
+    AttributeType objectClassAt =
+        schemaManager.lookupAttributeTypeRegistry(SchemaConstants.OBJECT_CLASS_AT);
+    ExprNode memberships = new EqualityNode<String>(objectClassAt,
+        new StringValue(objectClassAt, EadSchemaService.MEMBERSHIP_OC));
+    return assertion == null ? memberships : new AndNode(memberships, assertion);
+  }
+
+  private boolean isMembership(Entry entry) throws LdapException {
+    // Only the membership entries are named by uid in the partitions of the EAD
+    if (!SchemaConstants.UID_AT_OID.equals(entry.getDn().getRdn().getNormType())) {
+      return false;
+    }
+    Attribute objectClasses = entry.get(SchemaConstants.OBJECT_CLASS_AT);
+    return objectClasses != null && objectClasses.contains(EadSchemaService.MEMBERSHIP_OC);
+  }
+
+  private void close(EntryFilteringCursor cursor) {
+    try {
+      cursor.close();
+    } catch (Exception e) {
+      LOG.debug("Could not close a cursor: " + e.getMessage());
+    }
+  }
+
+  private class LargeGroupFilter implements EntryFilter {
+    private final boolean member;
+    private final boolean memberUid;
+    /** Whether the objectClass was only read for the filter */
+    private final boolean objectClass;
+
+    LargeGroupFilter(boolean member, boolean memberUid, boolean objectClass) {
+      this.member = member;
+      this.memberUid = memberUid;
+      this.objectClass = objectClass;
+    }
+
+    @Override
+    public boolean accept(SearchOperationContext operation, Entry entry) throws LdapException {
+      if (isMembership(entry)) {
+        return false;
+      }
+      addMembers(entry, member, memberUid);
+      if (objectClass) {
+        entry.removeAttributes(SchemaConstants.OBJECT_CLASS_AT);
+      }
+      return true;
+    }
+
+    @Override
+    public String toString(String tabs) {
+      return tabs + "LargeGroupFilter";
+    }
+  }
+
+}
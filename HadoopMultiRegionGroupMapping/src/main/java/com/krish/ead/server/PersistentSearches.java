@@ -0,0 +1,26 @@
+package com.krish.ead.server;
+
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.controls.PersistentSearch;
+
+/**
+ * Tells the persistent and syncrepl searches of the replicas, which never end, from the
+ * requests of the clients
+ *
+ * @author krishdey
+ *
+ */
+final class PersistentSearches {
+
+  private PersistentSearches() {
+  }
+
+  /**
+   * @return true if the request is a persistent or a syncrepl search
+   */
+  static boolean isPersistent(Message message) {
+    return message.hasControl(PersistentSearch.OID) || message.hasControl(SyncRequestValue.OID);
+  }
+
+}
@@ -0,0 +1,316 @@
+package com.krish.ead.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency histograms and result sizes of the client searches by filter shape, the filter
+ * with its values replaced by ?, and a log of the slow searches limited to a number of
+ * lines per second.
+ *
+ * A search is described by the {@link QueryStatsFilter} handling the request, which makes
+ * it the current search of the worker thread so that the {@link QueryStatsInterceptor}
+ * adds how the partition ran it.
+ *
+ * @author krishdey
+ *
+ */
+public class QueryStats {
+
+  private static final Logger LOG = LoggerFactory.getLogger(QueryStats.class);
+
+  /** Upper bounds in milliseconds of the latency buckets, the last bucket is unbounded */
+  static final long[] BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+  /** Shape under which the searches are counted once the shapes are all taken */
+  static final String OTHER_SHAPES = "(other shapes)";
+
+  private static final ThreadLocal<Search> CURRENT = new ThreadLocal<Search>();
+
+  private final int maxShapes;
+  private final long slowNanos;
+  private final int slowLogRate;
+
+  private final ConcurrentHashMap<String, ShapeStats> shapes =
+      new ConcurrentHashMap<String, ShapeStats>();
+
+  private final AtomicLong slowSearches = new AtomicLong();
+  private final AtomicLong slowSearchesLogged = new AtomicLong();
+
+  /** Rate limit of the slow search log, guarded by this */
+  private long logSecond;
+  private int loggedInSecond;
+  private long notLogged;
+
+  public QueryStats(TransportSettings settings) {
+    this(settings.getQueryStatsMaxShapes(), settings.getSlowOpThreshold(),
+        settings.getSlowOpLogRate());
+  }
+
+  /**
+   * @param maxShapes shapes kept apart
+   * @param slowThreshold latency in milliseconds above which a search is logged, 0 for none
+   * @param slowLogRate slow searches logged per second at most
+   */
+  public QueryStats(int maxShapes, long slowThreshold, int slowLogRate) {
+    this.maxShapes = maxShapes;
+    this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+    this.slowLogRate = slowLogRate;
+  }
+
+  /**
+   * A client search being handled
+   */
+  public static class Search {
+    private final String shape;
+    private final String base;
+    private final String scope;
+    private final String client;
+    private final String user;
+    private final long start = System.nanoTime();
+    private boolean claimed;
+    private Boolean indexed;
+    private long candidates = -1;
+    private int entries;
+
+    /**
+     * @param user bind Dn, null if anonymous
+     */
+    public Search(String shape, String base, String scope, String client, String user) {
+      this.shape = shape;
+      this.base = base;
+      this.scope = scope;
+      this.client = client;
+      this.user = user;
+    }
+
+    /**
+     * @return true the first time, for the search of the client, false for the searches
+     *         the interceptors run on its behalf
+     */
+    public boolean claim() {
+      if (claimed) {
+        return false;
+      }
+      claimed = true;
+      return true;
+    }
+
+    /**
+     * @param indexed whether the candidates came from an index rather than a scan of the
+     *          scope
+     * @param candidates estimate of the entries evaluated, -1 if unknown
+     */
+    public void setIndexUse(boolean indexed, long candidates) {
+      this.indexed = indexed;
+      this.candidates = candidates;
+    }
+
+    public void entryReturned() {
+      entries++;
+    }
+
+    public String getShape() {
+      return shape;
+    }
+
+    public int getEntries() {
+      return entries;
+    }
+
+    String describeIndexUse() {
+      if (indexed == null) {
+        return "index use unknown";
+      }
+      if (!indexed) {
+        return "no index, scope scanned";
+      }
+      return "index used, " + (candidates < 0 ? "?" : Long.toString(candidates))
+          + " candidates";
+    }
+  }
+
+  /**
+   * Make a search the current one of the thread, null to clear it
+   */
+  public static void setCurrent(Search search) {
+    if (search == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(search);
+    }
+  }
+
+  /**
+   * @return the client search handled by the thread, null if none
+   */
+  public static Search current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Account for a search once its last entry was written
+   */
+  public void record(Search search) {
+    record(search, System.nanoTime() - search.start, System.currentTimeMillis());
+  }
+
+  void record(Search search, long nanos, long now) {
+    shapeStats(search.shape).add(nanos, search.entries);
+    if (slowNanos > 0 && nanos >= slowNanos) {
+      slowSearches.incrementAndGet();
+      logSlow(search, nanos, now);
+    }
+  }
+
+  private ShapeStats shapeStats(String shape) {
+    ShapeStats stats = shapes.get(shape);
+    if (stats != null) {
+      return stats;
+    }
+    // Bounded, the shapes are not dropped once taken
+    if (shapes.size() >= maxShapes) {
+      shape = OTHER_SHAPES;
+    }
+    shapes.putIfAbsent(shape, new ShapeStats());
+    return shapes.get(shape);
+  }
+
+  private void logSlow(Search search, long nanos, long now) {
+    long skipped;
+    synchronized (this) {
+      long second = now / 1000;
+      if (second != logSecond) {
+        logSecond = second;
+        loggedInSecond = 0;
+      }
+      if (loggedInSecond >= slowLogRate) {
+        notLogged++;
+        return;
+      }
+      loggedInSecond++;
+      slowSearchesLogged.incrementAndGet();
+      skipped = notLogged;
+      notLogged = 0;
+    }
+    LOG.warn("Slow search of " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms from "
+        + search.client + " bound as " + (search.user == null ? "anonymous" : search.user)
+        + ": base " + search.base + ", scope " + search.scope + ", filter " + search.shape
+        + ", " + search.entries + " entries, " + search.describeIndexUse()
+        + (skipped > 0 ? " (" + skipped + " slow searches not logged before)" : ""));
+  }
+
+  public long getSlowSearches() {
+    return slowSearches.get();
+  }
+
+  public long getSlowSearchesLogged() {
+    return slowSearchesLogged.get();
+  }
+
+  /**
+   * @return the searches of a shape so far
+   */
+  public long getSearches(String shape) {
+    ShapeStats stats = shapes.get(shape);
+    return stats == null ? 0 : stats.count();
+  }
+
+  /**
+   * @return a line per shape, the shapes taking the most time first
+   */
+  public String[] report() {
+    List<Map.Entry<String, ShapeStats>> entries =
+        new ArrayList<Map.Entry<String, ShapeStats>>(shapes.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, ShapeStats>>() {
+      @Override
+      public int compare(Map.Entry<String, ShapeStats> a, Map.Entry<String, ShapeStats> b) {
+        return Long.compare(b.getValue().totalNanos(), a.getValue().totalNanos());
+      }
+    });
+    String[] lines = new String[entries.size()];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = entries.get(i).getKey() + " " + entries.get(i).getValue();
+    }
+    return lines;
+  }
+
+  /**
+   * Latency histogram and result sizes of the searches of a shape
+   */
+  static class ShapeStats {
+    private final long[] buckets = new long[BUCKETS.length + 1];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long totalEntries;
+    private long maxEntries;
+
+    synchronized void add(long nanos, int entries) {
+      long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+      int bucket = 0;
+      while (bucket < BUCKETS.length && millis >= BUCKETS[bucket]) {
+        bucket++;
+      }
+      buckets[bucket]++;
+      count++;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+      totalEntries += entries;
+      maxEntries = Math.max(maxEntries, entries);
+    }
+
+    synchronized long count() {
+      return count;
+    }
+
+    synchronized long totalNanos() {
+      return totalNanos;
+    }
+
+    /**
+     * @return the upper bound in milliseconds of the bucket holding the quantile, the
+     *         largest latency for the last bucket
+     */
+    synchronized long percentile(double quantile) {
+      long rank = (long) Math.ceil(quantile * count);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank) {
+          return BUCKETS[i];
+        }
+      }
+      return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+    }
+
+    @Override
+    public synchronized String toString() {
+      if (count == 0) {
+        return "count 0";
+      }
+      StringBuilder histogram = new StringBuilder();
+      for (int i = 0; i < buckets.length; i++) {
+        if (buckets[i] > 0) {
+          histogram.append(histogram.length() == 0 ? "" : " ")
+              .append(i < BUCKETS.length ? "<" + BUCKETS[i] : ">=" + BUCKETS[i - 1])
+              .append("ms:").append(buckets[i]);
+        }
+      }
+      return "count " + count + ", mean " + TimeUnit.NANOSECONDS.toMicros(totalNanos / count)
+          + " us, p50 " + percentile(0.5) + " ms, p99 " + percentile(0.99) + " ms, max "
+          + TimeUnit.NANOSECONDS.toMillis(maxNanos) + " ms, entries mean "
+          + totalEntries / count + " max " + maxEntries + ", [" + histogram + "]";
+    }
+  }
+
+}
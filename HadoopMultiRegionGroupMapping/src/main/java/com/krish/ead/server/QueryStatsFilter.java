@@ -0,0 +1,51 @@
+package com.krish.ead.server;
+
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Accounts for the client searches in the {@link QueryStats}. Sitting after the executor
+ * filter, a search is handled in the worker thread within
+ * {@link #messageReceived(NextFilter, IoSession, Object)}, its entries being written
+ * before its handler returns, which is when its latency is taken.
+ *
+ * The persistent and syncrepl searches of the replicas, which never end, are not counted.
+ *
+ * @author krishdey
+ *
+ */
+public class QueryStatsFilter extends IoFilterAdapter {
+
+  private final QueryStats stats;
+
+  private final LdapServer ldapServer;
+
+  public QueryStatsFilter(QueryStats stats, LdapServer ldapServer) {
+    this.stats = stats;
+    this.ldapServer = ldapServer;
+  }
+
+  @Override
+  public void messageReceived(NextFilter nextFilter, IoSession session, Object message)
+      throws Exception {
+    if (!(message instanceof SearchRequest)
+        || PersistentSearches.isPersistent((SearchRequest) message)) {
+      nextFilter.messageReceived(session, message);
+      return;
+    }
+    SearchRequest request = (SearchRequest) message;
+    QueryStats.Search search = new QueryStats.Search(FilterShape.of(request.getFilter()),
+        String.valueOf(request.getBase()), String.valueOf(request.getScope()),
+        AdmissionFilter.address(session), AdmissionFilter.user(ldapServer, session, request));
+    QueryStats.setCurrent(search);
+    try {
+      nextFilter.messageReceived(session, message);
+    } finally {
+      QueryStats.setCurrent(null);
+      stats.record(search);
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.krish.ead.server;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+
+/**
+ * Adds to the current {@link QueryStats.Search} of the thread whether the partition took
+ * its candidates from an index, and how many, and counts the entries returned. First in
+ * the chain, so that the filter it reads was annotated by the optimizer of the partition
+ * and the entries it counts went through the filters of the other interceptors.
+ *
+ * @author krishdey
+ *
+ */
+public class QueryStatsInterceptor extends BaseInterceptor {
+
+  /** Annotation of the optimizer giving the candidates of a filter node */
+  private static final String COUNT_ANNOTATION = "count";
+
+  public QueryStatsInterceptor() {
+    super("queryStatsInterceptor");
+  }
+
+  @Override
+  public EntryFilteringCursor search(SearchOperationContext searchContext) throws LdapException {
+    final QueryStats.Search search = QueryStats.current();
+    // The searches the other interceptors run for the client are not its own
+    if (search == null || !search.claim()) {
+      return next(searchContext);
+    }
+    EntryFilteringCursor cursor = next(searchContext);
+    if (searchContext.getScope() == SearchScope.OBJECT) {
+      search.setIndexUse(true, 1);
+    } else if (searchContext.getFilter() != null) {
+      Object count = searchContext.getFilter().get(COUNT_ANNOTATION);
+      if (count instanceof Long) {
+        // The optimizer counts the nodes it has no index for as all the entries
+        boolean indexed = (Long) count < Long.MAX_VALUE;
+        search.setIndexUse(indexed, indexed ? (Long) count : -1);
+      }
+    }
+    cursor.addEntryFilter(new EntryFilter() {
+      @Override
+      public boolean accept(SearchOperationContext operation, Entry entry) {
+        search.entryReturned();
+        return true;
+      }
+
+      @Override
+      public String toString(String tabs) {
+        return tabs + "QueryStatsEntryCounter";
+      }
+    });
+    return cursor;
+  }
+
+}
@@ -0,0 +1,152 @@
+package com.krish.ead.server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.krish.directory.service.EadSchemaService;
+
+/**
+ * Measures the replication lag of the replicas. The primary writes its clock in a
+ * heartbeat entry at a fixed interval, the entry is replicated like the groups, and a
+ * replica reads it back and reports how old it is. The lag is therefore exact to the
+ * heartbeat interval, plus the clock skew between the nodes. A primary only beats when
+ * replicas consume it, see {@link EADServerConstants#EAD_REPLICATION_HEARTBEAT}.
+ *
+ * @author krishdey
+ *
+ */
+public class ReplicationHeartbeat {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReplicationHeartbeat.class);
+
+  /**
+   * organizationalRole entry whose description holds the clock of the primary in
+   * milliseconds. It sits under the jpmis suffix to be replicated, so subtree searches of
+   * the suffix return it too.
+   */
+  static final String HEARTBEAT_DN = "cn=heartbeat," + EadSchemaService.JPMIS_SUFFIX;
+
+  private static final String TIME_AT = "description";
+
+  private final DirectoryService directoryService;
+  private final SyncRole role;
+  private final long interval;
+
+  private ScheduledExecutorService executor;
+
+  /** Primary clock read in the last replicated heartbeat, 0 until there is one */
+  private volatile long lastHeartbeat = 0;
+
+  public ReplicationHeartbeat(DirectoryService directoryService, SyncRole role,
+      long interval) {
+    this.directoryService = directoryService;
+    this.role = role;
+    this.interval = interval;
+  }
+
+  /**
+   * Start beating or watching the heartbeat, and publish the lag
+   */
+  public synchronized void start(EADMetrics metrics) {
+    metrics.register("ReplicationLagMillis", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return getLag();
+      }
+    });
+    metrics.register("LastHeartbeat", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return lastHeartbeat;
+      }
+    });
+
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "ead-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (role == SyncRole.PRIMARY) {
+            beat();
+          } else {
+            read();
+          }
+        } catch (Exception e) {
+          LOG.warn("Heartbeat failed: " + e.getMessage());
+        }
+      }
+    }, 0, interval, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * @return the age in milliseconds of the last heartbeat seen, 0 on the primary and -1
+   *         if a replica has not received any
+   */
+  public long getLag() {
+    if (role == SyncRole.PRIMARY) {
+      return 0;
+    }
+    long last = lastHeartbeat;
+    return last == 0 ? -1 : Math.max(0, System.currentTimeMillis() - last);
+  }
+
+  private void beat() throws Exception {
+    String now = Long.toString(System.currentTimeMillis());
+    Dn dn = new Dn(directoryService.getSchemaManager(), HEARTBEAT_DN);
+    if (!directoryService.getAdminSession().exists(dn)) {
+      Entry entry = new DefaultEntry(
+          //@formatter:off
+          directoryService.getSchemaManager(),
+          HEARTBEAT_DN,
+          "objectClass: top",
+          "objectClass: organizationalRole",
+          "cn: heartbeat",
+          TIME_AT, now);
+          //@formatter:on
+      directoryService.getAdminSession().add(entry);
+    } else {
+      ModifyRequest modReq = new ModifyRequestImpl();
+      modReq.setName(dn);
+      modReq.replace(TIME_AT, now);
+      directoryService.getAdminSession().modify(modReq);
+    }
+    lastHeartbeat = Long.parseLong(now);
+  }
+
+  private void read() throws Exception {
+    Dn dn = new Dn(directoryService.getSchemaManager(), HEARTBEAT_DN);
+    if (!directoryService.getAdminSession().exists(dn)) {
+      return;
+    }
+    Entry entry = directoryService.getAdminSession().lookup(dn, TIME_AT);
+    if (entry != null && entry.get(TIME_AT) != null) {
+      lastHeartbeat = Long.parseLong(entry.get(TIME_AT).getString());
+    }
+  }
+
+}
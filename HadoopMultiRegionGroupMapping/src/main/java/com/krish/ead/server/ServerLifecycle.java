@@ -0,0 +1,148 @@
+package com.krish.ead.server;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lifecycle state of the server, as seen by its clients. The server answers from the data
+ * persisted by the previous run as soon as its listener is up, while the providers are
+ * synced in the background:
+ *
+ * <pre>
+ * STARTING       the listener is not up yet
+ * SERVING_STALE  answering from the persisted data, some providers not synced since start
+ * SYNCED         every provider synced since start and none failing
+ * DEGRADED       the last sync of some provider failed, the data may be stale
+ * </pre>
+ *
+ * The state is published as the eadServerState attribute of the root DSE and as the
+ * ServerState metric.
+ *
+ * @author krishdey
+ *
+ */
+public class ServerLifecycle {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ServerLifecycle.class);
+
+  public enum State {
+    STARTING, SERVING_STALE, SYNCED, DEGRADED
+  }
+
+  private volatile State state = State.STARTING;
+
+  private volatile long since = System.currentTimeMillis();
+
+  private boolean listening;
+
+  /** Whether the providers to sync are known yet */
+  private boolean expecting;
+
+  /** Providers to sync before the server is SYNCED */
+  private final Set<String> expected = new HashSet<String>();
+
+  /** Providers synced at least once since start */
+  private final Set<String> synced = new HashSet<String>();
+
+  /** Providers whose last sync failed */
+  private final Set<String> failing = new HashSet<String>();
+
+  /**
+   * Publish the state, and the time it was entered, as metrics
+   */
+  public void register(EADMetrics metrics) {
+    metrics.register("ServerState", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return state.name();
+      }
+    });
+    metrics.register("ServerStateSince", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        return since;
+      }
+    });
+    metrics.register("ProvidersFailing", new EADMetrics.Gauge() {
+      @Override
+      public Object getValue() {
+        synchronized (ServerLifecycle.this) {
+          return failing.size();
+        }
+      }
+    });
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * @return the time the current state was entered
+   */
+  public long getSince() {
+    return since;
+  }
+
+  /**
+   * The listener is up, clients are answered from the persisted data
+   */
+  public synchronized void listening() {
+    listening = true;
+    update();
+  }
+
+  /**
+   * Set the providers the server syncs, none for a replica
+   */
+  public synchronized void expect(Collection<String> providers) {
+    expecting = true;
+    expected.addAll(providers);
+    update();
+  }
+
+  /**
+   * Stop expecting a provider removed from the configuration
+   */
+  public synchronized void forget(String provider) {
+    expected.remove(provider);
+    synced.remove(provider);
+    failing.remove(provider);
+    update();
+  }
+
+  public synchronized void synced(String provider) {
+    synced.add(provider);
+    failing.remove(provider);
+    update();
+  }
+
+  public synchronized void failed(String provider) {
+    failing.add(provider);
+    update();
+  }
+
+  private void update() {
+    State next;
+    if (!listening) {
+      next = State.STARTING;
+    } else if (!failing.isEmpty()) {
+      next = State.DEGRADED;
+    } else if (expecting && synced.containsAll(expected)) {
+      next = State.SYNCED;
+    } else {
+      next = State.SERVING_STALE;
+    }
+    if (next != state) {
+      LOG.info("Server state " + state + " -> " + next
+          + (failing.isEmpty() ? "" : ", failing providers " + failing));
+      state = next;
+      since = System.currentTimeMillis();
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.krish.ead.server;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+
+/**
+ * Adds the lifecycle state of the server to the root DSE, as the eadServerState
+ * operational attribute. Like the other attributes of the root DSE it is only returned
+ * when asked for, by name or with "+".
+ *
+ * @author krishdey
+ *
+ */
+public class ServerStateInterceptor extends BaseInterceptor {
+
+  static final String SERVER_STATE_AT = "eadServerState";
+
+  private final ServerLifecycle lifecycle;
+
+  public ServerStateInterceptor(ServerLifecycle lifecycle) {
+    super("serverStateInterceptor");
+    this.lifecycle = lifecycle;
+  }
+
+  @Override
+  public EntryFilteringCursor search(SearchOperationContext searchContext) throws LdapException {
+    EntryFilteringCursor cursor = next(searchContext);
+    if (searchContext.getDn().isEmpty() && searchContext.getScope() == SearchScope.OBJECT
+        && (searchContext.isAllOperationalAttributes()
+            || searchContext.contains(schemaManager, SERVER_STATE_AT))) {
+      cursor.addEntryFilter(new StateFilter());
+    }
+    return cursor;
+  }
+
+  private class StateFilter implements EntryFilter {
+
+    @Override
+    public boolean accept(SearchOperationContext operation, Entry entry) throws LdapException {
+      entry.put(SERVER_STATE_AT, lifecycle.getState().name());
+      return true;
+    }
+
+    @Override
+    public String toString(String tabs) {
+      return tabs + "StateFilter";
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+package com.krish.ead.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the phases of the startup of the server, a phase starting as soon as the phases it
+ * depends on are done, so that the independent ones run concurrently. The duration of
+ * every phase is logged and published as the Startup&lt;phase&gt;Millis metric.
+ *
+ * @author krishdey
+ *
+ */
+public class StartupPipeline {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StartupPipeline.class);
+
+  /**
+   * A step of the startup
+   */
+  public interface Phase {
+    void run() throws Exception;
+  }
+
+  private final String name;
+
+  private final EADMetrics metrics;
+
+  private final ExecutorService executor;
+
+  /** Duration of the phases done, in the order they finished */
+  private final Map<String, Long> durations =
+      Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+  private final List<Future<?>> submitted = new ArrayList<Future<?>>();
+
+  private final long start = System.currentTimeMillis();
+
+  /**
+   * @param name of the pipeline, prefixing its threads
+   * @param metrics where the durations are published
+   */
+  public StartupPipeline(String name, EADMetrics metrics) {
+    this.name = name;
+    this.metrics = metrics;
+    this.executor = Executors.newCachedThreadPool(new PhaseThreadFactory(name));
+  }
+
+  /**
+   * Run a phase in the current thread
+   */
+  public void run(String phaseName, Phase phase) throws Exception {
+    long phaseStart = System.currentTimeMillis();
+    phase.run();
+    done(phaseName, phaseStart);
+  }
+
+  /**
+   * Run a phase in the background once the given phases are done. A phase whose
+   * dependency failed fails with the same error.
+   */
+  public synchronized Future<?> submit(final String phaseName, final Phase phase,
+      final Future<?>... after) {
+    Future<?> future = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        await(after);
+        run(phaseName, phase);
+        return null;
+      }
+    });
+    submitted.add(future);
+    return future;
+  }
+
+  /**
+   * Wait for phases, rethrowing the error of the first that failed
+   */
+  public static void await(Future<?>... phases) throws Exception {
+    for (Future<?> phase : phases) {
+      try {
+        phase.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Wait for all the phases submitted and stop the pipeline threads
+   *
+   * @return the duration of the whole pipeline in milliseconds
+   */
+  public long finish() throws Exception {
+    try {
+      List<Future<?>> phases;
+      synchronized (this) {
+        phases = new ArrayList<Future<?>>(submitted);
+      }
+      await(phases.toArray(new Future<?>[phases.size()]));
+    } finally {
+      executor.shutdownNow();
+    }
+    long total = System.currentTimeMillis() - start;
+    metrics.set("Startup" + name + "Millis", total);
+    LOG.info(name + " startup took " + total + " ms: " + getDurations());
+    return total;
+  }
+
+  /**
+   * @return the duration in milliseconds of the phases done, in the order they finished
+   */
+  public Map<String, Long> getDurations() {
+    synchronized (durations) {
+      return new LinkedHashMap<String, Long>(durations);
+    }
+  }
+
+  private void done(String phaseName, long phaseStart) {
+    long duration = System.currentTimeMillis() - phaseStart;
+    durations.put(phaseName, duration);
+    metrics.set("Startup" + phaseName + "Millis", duration);
+    LOG.info("Startup phase " + phaseName + " took " + duration + " ms");
+  }
+
+  private static class PhaseThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    PhaseThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "ead-startup-" + name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+}
@@ -0,0 +1,355 @@
+package com.krish.ead.server;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.LeaderLatchListener;
+import org.apache.curator.framework.recipes.nodes.PersistentEphemeralNode;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.krish.directory.service.GroupMappingService;
+import com.krish.directory.service.GroupMembership;
+import com.krish.directory.service.MembershipListener;
+import com.krish.security.hadoop.impl.MultiRegionGroups;
+
+/**
+ * Coordinates the EAD servers of a cluster through ZooKeeper so that every group is
+ * fetched from its provider by a single server. In LEADER mode the server holding the
+ * leader latch fetches all the groups; in PARTITIONED mode the groups are split across
+ * the live servers by consistent hashing, and move when a server joins or leaves.
+ *
+ * The fetching server publishes every changed membership under
+ * &lt;path&gt;/memberships/&lt;provider&gt;/&lt;group&gt;, and the other servers apply it
+ * to their own directory, so every server still holds all the groups. The membership is
+ * gzipped, a znode holding at most 1MB by default. The memberships of the groups and
+ * providers removed from the group mapping are deleted.
+ *
+ * @author krishdey
+ *
+ */
+public class SyncCoordinator implements MembershipListener, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SyncCoordinator.class);
+
+  public enum Mode {
+    LEADER, PARTITIONED;
+
+    public static Mode fromString(String mode) {
+      for (Mode value : values()) {
+        if (value.name().equalsIgnoreCase(mode)) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Unknown coordination mode " + mode);
+    }
+  }
+
+  private final CuratorFramework client;
+  private final String basePath;
+  private final String nodeId;
+  private final Mode mode;
+  private final GroupMappingService groupMappingService;
+
+  private LeaderLatch leaderLatch;
+  private PersistentEphemeralNode member;
+  private PathChildrenCache members;
+
+  /** Caches of the memberships of the watched providers */
+  private final Map<String, PathChildrenCache> membershipCaches =
+      new ConcurrentHashMap<String, PathChildrenCache>();
+
+  private volatile ConsistentHashRing ring = new ConsistentHashRing(new ArrayList<String>());
+
+  /** Digest last published per provider:group */
+  private final Map<String, String> published = new ConcurrentHashMap<String, String>();
+
+  /** Called when this server may own groups it did not own before */
+  private final List<Runnable> rebalanceListeners = new CopyOnWriteArrayList<Runnable>();
+
+  /**
+   * @param client a started client
+   * @param basePath root znode of the cluster
+   * @param nodeId identifier of this server, unique in the cluster
+   * @param mode
+   * @param groupMappingService
+   */
+  public SyncCoordinator(CuratorFramework client, String basePath, String nodeId, Mode mode,
+      GroupMappingService groupMappingService) {
+    this.client = client;
+    this.basePath = basePath;
+    this.nodeId = nodeId;
+    this.mode = mode;
+    this.groupMappingService = groupMappingService;
+  }
+
+  public void start() throws Exception {
+    member = new PersistentEphemeralNode(client, PersistentEphemeralNode.Mode.EPHEMERAL,
+        ZKPaths.makePath(basePath + "/members", nodeId), nodeId.getBytes(StandardCharsets.UTF_8));
+    member.start();
+
+    members = new PathChildrenCache(client, basePath + "/members", false);
+    members.getListenable().addListener(new PathChildrenCacheListener() {
+      @Override
+      public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) {
+        switch (event.getType()) {
+        case CHILD_ADDED:
+        case CHILD_REMOVED:
+        case INITIALIZED:
+          rebuildRing();
+          break;
+        default:
+          break;
+        }
+      }
+    });
+    members.start(PathChildrenCache.StartMode.POST_INITIALIZED_EVENT);
+
+    leaderLatch = new LeaderLatch(client, basePath + "/leader", nodeId);
+    leaderLatch.addListener(new LeaderLatchListener() {
+      @Override
+      public void isLeader() {
+        LOG.info(nodeId + " is now the sync leader");
+        if (mode == Mode.LEADER) {
+          fireRebalance();
+        }
+      }
+
+      @Override
+      public void notLeader() {
+        LOG.info(nodeId + " is no longer the sync leader");
+      }
+    });
+    leaderLatch.start();
+
+    for (MultiRegionGroups provider : groupMappingService.getProviders()) {
+      watchMemberships(provider.getProviderName());
+    }
+    groupMappingService.setMembershipListener(this);
+  }
+
+  /**
+   * Apply the memberships the other servers fetch from a provider, if not already done
+   */
+  public synchronized void watchMemberships(final String providerName) throws Exception {
+    if (membershipCaches.containsKey(providerName)) {
+      return;
+    }
+    PathChildrenCache cache = new PathChildrenCache(client, membershipsPath(providerName), true);
+    cache.getListenable().addListener(new PathChildrenCacheListener() {
+      @Override
+      public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) {
+        switch (event.getType()) {
+        case CHILD_ADDED:
+        case CHILD_UPDATED:
+          apply(providerName, event.getData());
+          break;
+        default:
+          break;
+        }
+      }
+    });
+    cache.start(PathChildrenCache.StartMode.NORMAL);
+    membershipCaches.put(providerName, cache);
+  }
+
+  /**
+   * Delete the published memberships of groups no longer synced from a provider, so that
+   * a server joining later does not apply them. Every server removing the groups does it.
+   */
+  public void forgetGroups(String providerName, Collection<String> groups) {
+    for (String group : groups) {
+      published.remove(providerName + ":" + group);
+      try {
+        client.delete().forPath(ZKPaths.makePath(membershipsPath(providerName),
+            URLEncoder.encode(group, "UTF-8")));
+      } catch (KeeperException.NoNodeException e) {
+        // Never published, or deleted by another server
+      } catch (Exception e) {
+        LOG.warn("Could not delete the membership of " + providerName + ":" + group + ": "
+            + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Stop watching a removed provider and delete its published memberships
+   */
+  public synchronized void forgetProvider(String providerName) {
+    PathChildrenCache cache = membershipCaches.remove(providerName);
+    if (cache != null) {
+      try {
+        cache.close();
+      } catch (IOException e) {
+        LOG.warn("Could not close the memberships cache of " + providerName + ": "
+            + e.getMessage());
+      }
+    }
+    Iterator<String> keys = published.keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().startsWith(providerName + ":")) {
+        keys.remove();
+      }
+    }
+    try {
+      client.delete().deletingChildrenIfNeeded().forPath(membershipsPath(providerName));
+    } catch (KeeperException.NoNodeException e) {
+      // Never published, or deleted by another server
+    } catch (Exception e) {
+      LOG.warn("Could not delete the memberships of " + providerName + ": " + e.getMessage());
+    }
+  }
+
+  private void rebuildRing() {
+    List<String> live = new ArrayList<String>();
+    for (ChildData child : members.getCurrentData()) {
+      live.add(ZKPaths.getNodeFromPath(child.getPath()));
+    }
+    ring = new ConsistentHashRing(live);
+    LOG.info("Live EAD servers " + ring);
+    if (mode == Mode.PARTITIONED) {
+      fireRebalance();
+    }
+  }
+
+  public void addRebalanceListener(Runnable listener) {
+    rebalanceListeners.add(listener);
+  }
+
+  private void fireRebalance() {
+    for (Runnable listener : rebalanceListeners) {
+      listener.run();
+    }
+  }
+
+  /**
+   * @return true if this server fetches the group from the provider
+   */
+  public boolean owns(String providerName, String group) {
+    if (mode == Mode.LEADER) {
+      return leaderLatch.hasLeadership();
+    }
+    String owner = ring.ownerOf(providerName + ":" + group);
+    // Until the members are known, every server fetches everything
+    return owner == null || owner.equals(nodeId);
+  }
+
+  /**
+   * Publish a fetched membership, if it changed since it was last published
+   */
+  @Override
+  public void membershipFetched(String providerName, GroupMembership membership) {
+    String key = providerName + ":" + membership.getGroup();
+    String digest = membership.isFound() ? membership.getDigest() : "";
+    if (digest.equals(published.get(key))) {
+      return;
+    }
+    try {
+      String path = ZKPaths.makePath(membershipsPath(providerName),
+          URLEncoder.encode(membership.getGroup(), "UTF-8"));
+      byte[] data = encode(membership);
+      if (client.checkExists().forPath(path) == null) {
+        client.create().creatingParentsIfNeeded().forPath(path, data);
+      } else {
+        client.setData().forPath(path, data);
+      }
+      published.put(key, digest);
+    } catch (Exception e) {
+      LOG.warn("Could not publish the membership of " + key + ": " + e.getMessage());
+    }
+  }
+
+  private void apply(String providerName, ChildData data) {
+    try {
+      String group = URLDecoder.decode(ZKPaths.getNodeFromPath(data.getPath()), "UTF-8");
+      String[] publisher = new String[1];
+      GroupMembership membership = decode(group, data.getData(), publisher);
+      if (nodeId.equals(publisher[0])) {
+        return;
+      }
+      published.put(providerName + ":" + group,
+          membership.isFound() ? membership.getDigest() : "");
+      groupMappingService.applyMembership(providerName, membership);
+    } catch (Exception e) {
+      LOG.warn("Could not apply the membership " + data.getPath() + ": " + e.getMessage());
+    }
+  }
+
+  private String membershipsPath(String providerName) {
+    return ZKPaths.makePath(basePath + "/memberships", providerName);
+  }
+
+  private byte[] encode(GroupMembership membership) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8);
+    writer.write(nodeId + "\n" + membership.isFound() + "\n" + membership.getDigest() + "\n");
+    for (String user : membership.getUsers()) {
+      writer.write(user + "\n");
+    }
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  static GroupMembership decode(String group, byte[] data, String[] publisher)
+      throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(new ByteArrayInputStream(data)), StandardCharsets.UTF_8));
+    try {
+      publisher[0] = reader.readLine();
+      boolean found = Boolean.parseBoolean(reader.readLine());
+      String digest = reader.readLine();
+      List<String> users = new ArrayList<String>();
+      String user;
+      while ((user = reader.readLine()) != null) {
+        users.add(user);
+      }
+      return new GroupMembership(group, users, digest, found);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    groupMappingService.setMembershipListener(null);
+    for (PathChildrenCache cache : membershipCaches.values()) {
+      cache.close();
+    }
+    if (members != null) {
+      members.close();
+    }
+    if (leaderLatch != null) {
+      leaderLatch.close();
+    }
+    if (member != null) {
+      member.close();
+    }
+  }
+
+}
@@ -0,0 +1,23 @@
+package com.krish.ead.server;
+
+/**
+ * Role of an EAD server in a cluster
+ *
+ * @author krishdey
+ *
+ */
+public enum SyncRole {
+  /** Syncs the groups from the providers and serves them to the replicas */
+  PRIMARY,
+  /** Never asks the providers, gets the groups from a primary through syncrepl */
+  REPLICA;
+
+  public static SyncRole fromString(String role) {
+    for (SyncRole value : values()) {
+      if (value.name().equalsIgnoreCase(role)) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Unknown sync role " + role);
+  }
+}
@@ -0,0 +1,113 @@
+package com.krish.ead.server;
+
+/**
+ * Users and groups of a generated directory, for load tests. The members of the groups
+ * are laid out as consecutive slots, slot t holding user t % users in group t / members,
+ * so that every user is in about the same number of groups and both sides of a membership
+ * are computed without keeping the memberships.
+ *
+ * Names are zero padded, so that they are generated in sorted order.
+ *
+ * @author krishdey
+ *
+ */
+public class SyntheticDirectory {
+
+  private final int users;
+  private final int groups;
+  private final int members;
+
+  private final String userFormat;
+  private final String groupFormat;
+
+  /**
+   * @param users number of users
+   * @param groups number of groups
+   * @param members number of members of every group, at most the number of users
+   */
+  public SyntheticDirectory(int users, int groups, int members) {
+    if (users <= 0 || groups < 0 || members < 0) {
+      throw new IllegalArgumentException("Invalid synthetic directory of " + users
+          + " users and " + groups + " groups of " + members + " members");
+    }
+    this.users = users;
+    this.groups = groups;
+    this.members = Math.min(members, users);
+    this.userFormat = "user%0" + Integer.toString(users - 1).length() + "d";
+    this.groupFormat = "group%0" + Integer.toString(Math.max(0, groups - 1)).length() + "d";
+  }
+
+  /**
+   * @param spec users=N,groups=N,members=N
+   */
+  public static SyntheticDirectory parse(String spec) {
+    int users = 0;
+    int groups = 0;
+    int members = 0;
+    for (String property : spec.split(",")) {
+      String[] keyValue = property.trim().split("=");
+      if (keyValue.length != 2) {
+        throw new IllegalArgumentException("Invalid synthetic directory property " + property);
+      }
+      int value = Integer.parseInt(keyValue[1].trim());
+      String key = keyValue[0].trim();
+      if ("users".equals(key)) {
+        users = value;
+      } else if ("groups".equals(key)) {
+        groups = value;
+      } else if ("members".equals(key)) {
+        members = value;
+      } else {
+        throw new IllegalArgumentException("Unknown synthetic directory property " + key);
+      }
+    }
+    return new SyntheticDirectory(users, groups, members);
+  }
+
+  public int getUsers() {
+    return users;
+  }
+
+  public int getGroups() {
+    return groups;
+  }
+
+  public int getMembers() {
+    return members;
+  }
+
+  public String userName(int user) {
+    return String.format(userFormat, user);
+  }
+
+  public String groupName(int group) {
+    return String.format(groupFormat, group);
+  }
+
+  /**
+   * @return the groups of the user, in increasing order
+   */
+  public int[] groupsOf(int user) {
+    long slots = (long) groups * members;
+    int count = user < slots ? (int) ((slots - 1 - user) / users + 1) : 0;
+    int[] result = new int[count];
+    // Slots of a user are users apart, no less than a group, so in distinct groups
+    for (int i = 0; i < count; i++) {
+      result[i] = (int) ((user + (long) i * users) / members);
+    }
+    return result;
+  }
+
+  /**
+   * @return the members of the group
+   */
+  public int[] membersOf(int group) {
+    int[] result = new int[members];
+    long first = (long) group * members;
+    for (int i = 0; i < members; i++) {
+      result[i] = (int) ((first + i) % users);
+    }
+    return result;
+  }
+
+}
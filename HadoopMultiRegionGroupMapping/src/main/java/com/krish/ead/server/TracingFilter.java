@@ -0,0 +1,43 @@
+package com.krish.ead.server;
+
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
+import org.apache.htrace.core.TraceScope;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+
+import com.krish.directory.service.EadTracing;
+
+/**
+ * Traces the handling of every LDAP request in a span. Sitting after the executor filter,
+ * the request is handled in the worker thread within the span, the entries of a search
+ * being written before its handler returns.
+ *
+ * Requests without a response (abandon, unbind) and the persistent and syncrepl searches
+ * of the replicas, which never end, are not traced.
+ *
+ * @author krishdey
+ *
+ */
+public class TracingFilter extends IoFilterAdapter {
+
+  @Override
+  public void messageReceived(NextFilter nextFilter, IoSession session, Object message)
+      throws Exception {
+    if (!(message instanceof ResultResponseRequest)
+        || PersistentSearches.isPersistent((Message) message)) {
+      nextFilter.messageReceived(session, message);
+      return;
+    }
+    Message request = (Message) message;
+    TraceScope scope = EadTracing.get().newScope("LDAP " + request.getType());
+    try {
+      scope.addKVAnnotation("client", String.valueOf(session.getRemoteAddress()));
+      scope.addKVAnnotation("messageId", Integer.toString(request.getMessageId()));
+      nextFilter.messageReceived(session, message);
+    } finally {
+      scope.close();
+    }
+  }
+
+}
@@ -0,0 +1,359 @@
+package com.krish.ead.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Settings of the LDAP listeners, read from the ead.properties file of the classpath. A
+ * system property of the same name, as passed by ead.sh, overrides the file.
+ *
+ * @author krishdey
+ *
+ */
+public class TransportSettings {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TransportSettings.class);
+
+  public static final String EAD_PROPERTIES = "ead.properties";
+
+  /** MINA I/O processors decoding the requests, 0 for one per core */
+  public static final String IO_THREADS = "ead.transport.io.threads";
+  public static final int IO_THREADS_DEFAULT = 0;
+
+  /** Threads running the LDAP operations, 0 to share the I/O processor count */
+  public static final String WORKER_THREADS = "ead.transport.worker.threads";
+  public static final int WORKER_THREADS_DEFAULT = 32;
+
+  /** Connections waiting in the accept queue */
+  public static final String BACKLOG = "ead.transport.backlog";
+  public static final int BACKLOG_DEFAULT = 1024;
+
+  /** Largest request accepted in bytes, 0 for the ApacheDS default */
+  public static final String MAX_PDU_SIZE = "ead.transport.max.pdu.size";
+  public static final int MAX_PDU_SIZE_DEFAULT = 0;
+
+  public static final String TCP_KEEPALIVE = "ead.transport.tcp.keepalive";
+  public static final boolean TCP_KEEPALIVE_DEFAULT = true;
+
+  /** Socket buffer sizes in bytes, 0 for the OS default */
+  public static final String TCP_RECEIVE_BUFFER = "ead.transport.tcp.receive.buffer";
+  public static final String TCP_SEND_BUFFER = "ead.transport.tcp.send.buffer";
+  public static final int TCP_BUFFER_DEFAULT = 0;
+
+  /** Port of the LDAPS listener, 0 for no LDAPS */
+  public static final String LDAPS_PORT = "ead.ldaps.port";
+  public static final int LDAPS_PORT_DEFAULT = 0;
+
+  /** Enable the StartTLS extended operation on the LDAP port */
+  public static final String START_TLS = "ead.start.tls";
+  public static final boolean START_TLS_DEFAULT = false;
+
+  /** Keystore of the server certificate, unset for a self signed one */
+  public static final String TLS_KEYSTORE = "ead.tls.keystore";
+  public static final String TLS_KEYSTORE_PASSWORD = "ead.tls.keystore.password";
+
+  /** Environment variable of the keystore password, kept off the command line */
+  public static final String TLS_KEYSTORE_PASSWORD_ENV = "EAD_TLS_KEYSTORE_PASSWORD";
+
+  /** TLS sessions kept for resumption */
+  public static final String TLS_SESSION_CACHE_SIZE = "ead.tls.session.cache.size";
+  public static final int TLS_SESSION_CACHE_SIZE_DEFAULT = 20480;
+
+  /** Admit the requests through the AdmissionController */
+  public static final String ADMISSION_ENABLED = "ead.admission.enabled";
+  public static final boolean ADMISSION_ENABLED_DEFAULT = false;
+
+  /** Requests in flight per source address and per bind Dn, 0 for no limit */
+  public static final String ADMISSION_CLIENT_CONCURRENCY = "ead.admission.client.concurrency";
+  public static final int ADMISSION_CLIENT_CONCURRENCY_DEFAULT = 16;
+  public static final String ADMISSION_USER_CONCURRENCY = "ead.admission.user.concurrency";
+  public static final int ADMISSION_USER_CONCURRENCY_DEFAULT = 0;
+
+  /** Requests per second per source address and per bind Dn, 0 for no limit */
+  public static final String ADMISSION_CLIENT_RATE = "ead.admission.client.rate";
+  public static final double ADMISSION_CLIENT_RATE_DEFAULT = 200;
+  public static final String ADMISSION_USER_RATE = "ead.admission.user.rate";
+  public static final double ADMISSION_USER_RATE_DEFAULT = 0;
+
+  /** Bounds of the adaptive limit of the requests in flight on the server */
+  public static final String ADMISSION_MIN_LIMIT = "ead.admission.limit.min";
+  public static final int ADMISSION_MIN_LIMIT_DEFAULT = 8;
+  public static final String ADMISSION_MAX_LIMIT = "ead.admission.limit.max";
+  public static final int ADMISSION_MAX_LIMIT_DEFAULT = 256;
+
+  /** Latency in milliseconds above which the server limit shrinks */
+  public static final String ADMISSION_TARGET_LATENCY = "ead.admission.target.latency";
+  public static final long ADMISSION_TARGET_LATENCY_DEFAULT = 50;
+
+  /** Share of the server limit reserved to the critical clients */
+  public static final String ADMISSION_CRITICAL_RESERVE = "ead.admission.critical.reserve";
+  public static final double ADMISSION_CRITICAL_RESERVE_DEFAULT = 0.2;
+
+  /** Comma separated hosts, and semicolon separated bind Dns, of the critical clients */
+  public static final String ADMISSION_CRITICAL_CLIENTS = "ead.admission.critical.clients";
+  public static final String ADMISSION_CRITICAL_USERS = "ead.admission.critical.users";
+
+  /** Latency and result size statistics of the searches by filter shape */
+  public static final String QUERY_STATS_ENABLED = "ead.query.stats.enabled";
+  public static final boolean QUERY_STATS_ENABLED_DEFAULT = true;
+
+  /** Shapes kept apart, the searches of the other shapes are counted together */
+  public static final String QUERY_STATS_MAX_SHAPES = "ead.query.stats.max.shapes";
+  public static final int QUERY_STATS_MAX_SHAPES_DEFAULT = 1000;
+
+  /** Latency in milliseconds above which a search is logged as slow, 0 for none */
+  public static final String SLOW_OP_THRESHOLD = "ead.slow.op.threshold";
+  public static final long SLOW_OP_THRESHOLD_DEFAULT = 500;
+
+  /** Slow searches logged per second at most */
+  public static final String SLOW_OP_LOG_RATE = "ead.slow.op.log.rate";
+  public static final int SLOW_OP_LOG_RATE_DEFAULT = 10;
+
+  /** Seconds a successful simple bind is cached, 0 to authenticate every bind */
+  public static final String BIND_CACHE_TTL = "ead.bind.cache.ttl";
+  public static final long BIND_CACHE_TTL_DEFAULT = 0;
+
+  /** Binds cached at most */
+  public static final String BIND_CACHE_SIZE = "ead.bind.cache.size";
+  public static final int BIND_CACHE_SIZE_DEFAULT = 1000;
+
+  /** Prefix of the HTrace settings, e.g. ead.htrace.sampler.classes */
+  public static final String HTRACE_PREFIX = "ead.htrace.";
+
+  private final Properties properties;
+
+  public TransportSettings(Properties properties) {
+    this.properties = properties;
+  }
+
+  /**
+   * @return the settings of ead.properties, overridden by the system properties
+   */
+  public static TransportSettings load() {
+    Properties properties = new Properties();
+    InputStream in = TransportSettings.class.getClassLoader().getResourceAsStream(EAD_PROPERTIES);
+    if (in != null) {
+      try {
+        properties.load(in);
+      } catch (IOException e) {
+        LOG.warn("Could not read " + EAD_PROPERTIES + ": " + e.getMessage());
+      } finally {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+    for (String name : System.getProperties().stringPropertyNames()) {
+      String value = System.getProperty(name);
+      // ead.sh passes an empty value for the parameters left unset in the CSD
+      if (name.startsWith("ead.") && !value.isEmpty()) {
+        properties.setProperty(name, value);
+      }
+    }
+    return new TransportSettings(properties);
+  }
+
+  private String get(String name) {
+    String value = properties.getProperty(name);
+    return value == null || value.trim().isEmpty() ? null : value.trim();
+  }
+
+  private int getInt(String name, int defaultValue) {
+    String value = get(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  private double getDouble(String name, double defaultValue) {
+    String value = get(name);
+    return value == null ? defaultValue : Double.parseDouble(value);
+  }
+
+  private List<String> getList(String name, String separator) {
+    List<String> values = new ArrayList<String>();
+    String value = get(name);
+    if (value != null) {
+      for (String item : value.split(separator)) {
+        if (!item.trim().isEmpty()) {
+          values.add(item.trim());
+        }
+      }
+    }
+    return values;
+  }
+
+  private boolean getBoolean(String name, boolean defaultValue) {
+    String value = get(name);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+
+  /**
+   * @return the HTrace settings, without their prefix
+   */
+  public Map<String, String> getTracingSettings() {
+    Map<String, String> settings = new HashMap<String, String>();
+    for (String name : properties.stringPropertyNames()) {
+      String value = get(name);
+      if (name.startsWith(HTRACE_PREFIX) && value != null) {
+        settings.put(name.substring(HTRACE_PREFIX.length()), value);
+      }
+    }
+    return settings;
+  }
+
+  public int getIoThreads() {
+    int threads = getInt(IO_THREADS, IO_THREADS_DEFAULT);
+    return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+  }
+
+  public int getWorkerThreads() {
+    int threads = getInt(WORKER_THREADS, WORKER_THREADS_DEFAULT);
+    return threads > 0 ? threads : getIoThreads();
+  }
+
+  public int getBacklog() {
+    return getInt(BACKLOG, BACKLOG_DEFAULT);
+  }
+
+  public int getMaxPduSize() {
+    return getInt(MAX_PDU_SIZE, MAX_PDU_SIZE_DEFAULT);
+  }
+
+  public boolean isTcpKeepAlive() {
+    return getBoolean(TCP_KEEPALIVE, TCP_KEEPALIVE_DEFAULT);
+  }
+
+  public int getTcpReceiveBuffer() {
+    return getInt(TCP_RECEIVE_BUFFER, TCP_BUFFER_DEFAULT);
+  }
+
+  public int getTcpSendBuffer() {
+    return getInt(TCP_SEND_BUFFER, TCP_BUFFER_DEFAULT);
+  }
+
+  public int getLdapsPort() {
+    return getInt(LDAPS_PORT, LDAPS_PORT_DEFAULT);
+  }
+
+  public boolean isStartTls() {
+    return getBoolean(START_TLS, START_TLS_DEFAULT);
+  }
+
+  public String getTlsKeystore() {
+    return get(TLS_KEYSTORE);
+  }
+
+  public String getTlsKeystorePassword() {
+    String password = get(TLS_KEYSTORE_PASSWORD);
+    return password != null ? password : System.getenv(TLS_KEYSTORE_PASSWORD_ENV);
+  }
+
+  public int getTlsSessionCacheSize() {
+    return getInt(TLS_SESSION_CACHE_SIZE, TLS_SESSION_CACHE_SIZE_DEFAULT);
+  }
+
+  public boolean isAdmissionEnabled() {
+    return getBoolean(ADMISSION_ENABLED, ADMISSION_ENABLED_DEFAULT);
+  }
+
+  public int getAdmissionClientConcurrency() {
+    return getInt(ADMISSION_CLIENT_CONCURRENCY, ADMISSION_CLIENT_CONCURRENCY_DEFAULT);
+  }
+
+  public int getAdmissionUserConcurrency() {
+    return getInt(ADMISSION_USER_CONCURRENCY, ADMISSION_USER_CONCURRENCY_DEFAULT);
+  }
+
+  public double getAdmissionClientRate() {
+    return getDouble(ADMISSION_CLIENT_RATE, ADMISSION_CLIENT_RATE_DEFAULT);
+  }
+
+  public double getAdmissionUserRate() {
+    return getDouble(ADMISSION_USER_RATE, ADMISSION_USER_RATE_DEFAULT);
+  }
+
+  public int getAdmissionMinLimit() {
+    return getInt(ADMISSION_MIN_LIMIT, ADMISSION_MIN_LIMIT_DEFAULT);
+  }
+
+  public int getAdmissionMaxLimit() {
+    return getInt(ADMISSION_MAX_LIMIT, ADMISSION_MAX_LIMIT_DEFAULT);
+  }
+
+  public long getAdmissionTargetLatency() {
+    String value = get(ADMISSION_TARGET_LATENCY);
+    return value == null ? ADMISSION_TARGET_LATENCY_DEFAULT : Long.parseLong(value);
+  }
+
+  public double getAdmissionCriticalReserve() {
+    return getDouble(ADMISSION_CRITICAL_RESERVE, ADMISSION_CRITICAL_RESERVE_DEFAULT);
+  }
+
+  /**
+   * @return the addresses of the critical hosts, a host being kept as is if it does not
+   *         resolve
+   */
+  public List<String> getAdmissionCriticalClients() {
+    List<String> addresses = new ArrayList<String>();
+    for (String host : getList(ADMISSION_CRITICAL_CLIENTS, ",")) {
+      try {
+        for (InetAddress address : InetAddress.getAllByName(host)) {
+          addresses.add(address.getHostAddress());
+        }
+      } catch (UnknownHostException e) {
+        LOG.warn("Critical client " + host + " does not resolve");
+        addresses.add(host);
+      }
+    }
+    return addresses;
+  }
+
+  public List<String> getAdmissionCriticalUsers() {
+    return getList(ADMISSION_CRITICAL_USERS, ";");
+  }
+
+  public boolean isQueryStatsEnabled() {
+    return getBoolean(QUERY_STATS_ENABLED, QUERY_STATS_ENABLED_DEFAULT);
+  }
+
+  public int getQueryStatsMaxShapes() {
+    return getInt(QUERY_STATS_MAX_SHAPES, QUERY_STATS_MAX_SHAPES_DEFAULT);
+  }
+
+  public long getSlowOpThreshold() {
+    String value = get(SLOW_OP_THRESHOLD);
+    return value == null ? SLOW_OP_THRESHOLD_DEFAULT : Long.parseLong(value);
+  }
+
+  public int getSlowOpLogRate() {
+    return getInt(SLOW_OP_LOG_RATE, SLOW_OP_LOG_RATE_DEFAULT);
+  }
+
+  public long getBindCacheTtl() {
+    String value = get(BIND_CACHE_TTL);
+    return value == null ? BIND_CACHE_TTL_DEFAULT : Long.parseLong(value);
+  }
+
+  public int getBindCacheSize() {
+    return getInt(BIND_CACHE_SIZE, BIND_CACHE_SIZE_DEFAULT);
+  }
+
+  @Override
+  public String toString() {
+    return "io threads " + getIoThreads() + ", worker threads " + getWorkerThreads()
+        + ", backlog " + getBacklog() + ", max PDU " + getMaxPduSize() + ", keepalive "
+        + isTcpKeepAlive() + ", ldaps port " + getLdapsPort() + ", StartTLS " + isStartTls();
+  }
+
+}
@@ -0,0 +1,116 @@
+package com.krish.ead.server;
+
+import java.util.concurrent.Executor;
+
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.core.service.IoAcceptor;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.transport.socket.SocketAcceptor;
+import org.apache.mina.transport.socket.SocketSessionConfig;
+
+/**
+ * TCP transport applying the {@link TransportSettings}. The I/O processor count and the
+ * accept backlog are used when the acceptor is created, the socket options once it is.
+ *
+ * @author krishdey
+ *
+ */
+public class TunedTcpTransport extends TcpTransport {
+
+  /** Name LdapServer gives to the executor filter of the chain */
+  private static final String EXECUTOR_FILTER = "executor";
+
+  private static final String ADMISSION_FILTER = "admission";
+
+  private static final String TRACING_FILTER = "tracing";
+
+  private static final String QUERY_STATS_FILTER = "queryStats";
+
+  private final TransportSettings settings;
+
+  public TunedTcpTransport(int port, TransportSettings settings) {
+    super(port);
+    this.settings = settings;
+    setNbThreads(settings.getIoThreads());
+    setBackLog(settings.getBacklog());
+  }
+
+  @Override
+  public void init() {
+    super.init();
+    SocketSessionConfig config = ((SocketAcceptor) getAcceptor()).getSessionConfig();
+    config.setKeepAlive(settings.isTcpKeepAlive());
+    if (settings.getTcpReceiveBuffer() > 0) {
+      config.setReceiveBufferSize(settings.getTcpReceiveBuffer());
+    }
+    if (settings.getTcpSendBuffer() > 0) {
+      config.setSendBufferSize(settings.getTcpSendBuffer());
+    }
+  }
+
+  /**
+   * Run the LDAP operations of the sessions on the given executor instead of the pool
+   * LdapServer sizes after the I/O processor count. To call once the server started, the
+   * sessions already open keep their pool.
+   */
+  public void setWorkers(Executor workers) {
+    DefaultIoFilterChainBuilder chain = getChain();
+    if (chain == null) {
+      return;
+    }
+    ExecutorFilter filter = new ExecutorFilter(workers, IoEventType.MESSAGE_RECEIVED);
+    if (chain.contains(EXECUTOR_FILTER)) {
+      chain.replace(EXECUTOR_FILTER, filter);
+    } else {
+      chain.addLast(EXECUTOR_FILTER, filter);
+    }
+  }
+
+  /**
+   * Admit the decoded requests before they are handed to the worker threads. To call
+   * after {@link #setWorkers(Executor)}.
+   */
+  public void setAdmission(AdmissionFilter admission) {
+    DefaultIoFilterChainBuilder chain = getChain();
+    if (chain == null || chain.contains(ADMISSION_FILTER)) {
+      return;
+    }
+    chain.addBefore(EXECUTOR_FILTER, ADMISSION_FILTER, admission);
+  }
+
+  /**
+   * Trace the requests in the worker threads handling them. To call after
+   * {@link #setWorkers(Executor)}.
+   */
+  public void setTracing(TracingFilter tracing) {
+    DefaultIoFilterChainBuilder chain = getChain();
+    if (chain == null || chain.contains(TRACING_FILTER)) {
+      return;
+    }
+    chain.addAfter(EXECUTOR_FILTER, TRACING_FILTER, tracing);
+  }
+
+  /**
+   * Account for the searches in the worker threads handling them. To call after
+   * {@link #setWorkers(Executor)}.
+   */
+  public void setQueryStats(QueryStatsFilter queryStats) {
+    DefaultIoFilterChainBuilder chain = getChain();
+    if (chain == null || chain.contains(QUERY_STATS_FILTER)) {
+      return;
+    }
+    chain.addAfter(EXECUTOR_FILTER, QUERY_STATS_FILTER, queryStats);
+  }
+
+  private DefaultIoFilterChainBuilder getChain() {
+    IoAcceptor acceptor = getAcceptor();
+    if (acceptor == null
+        || !(acceptor.getFilterChainBuilder() instanceof DefaultIoFilterChainBuilder)) {
+      return null;
+    }
+    return (DefaultIoFilterChainBuilder) acceptor.getFilterChainBuilder();
+  }
+
+}
@@ -0,0 +1,513 @@
+package com.krish.security.hadoop.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
+import org.apache.directory.api.ldap.model.filter.FilterEncoder;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.url.LdapUrl;
+import org.apache.directory.ldap.client.api.LdapConnectionConfig;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.ldap.client.api.future.SearchFuture;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.htrace.core.SpanId;
+import org.apache.htrace.core.TraceScope;
+import org.apache.htrace.core.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.krish.directory.service.EadTracing;
+import com.krish.directory.service.GroupMappingServiceProvider;
+import com.krish.directory.service.GroupMembership;
+import com.krish.directory.service.MemberSet;
+import com.krish.directory.service.NameDictionary;
+
+/**
+ * Provider fetching the members of the groups with the asynchronous searches of the
+ * Apache LDAP API instead of JNDI. The searches of a sync are pipelined over a few
+ * connections: up to async.window searches are in flight on every connection, the
+ * responses being read in the order the searches were sent while the later ones are
+ * queued by the connections as they arrive.
+ *
+ * It takes the ldap settings of {@link LdapGroupsMapping}, except the nested group
+ * hierarchy which is not expanded.
+ *
+ * @author krishdey
+ *
+ */
+public class AsyncLdapGroupsMapping implements GroupMappingServiceProvider, Configurable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncLdapGroupsMapping.class);
+
+  /*
+   * Connections to the LDAP server the searches are spread over
+   */
+  public static final String ASYNC_CONNECTIONS_KEY = LdapGroupsMapping.LDAP_CONFIG_PREFIX
+      + ".async.connections";
+  public static final int ASYNC_CONNECTIONS_DEFAULT = 2;
+
+  /*
+   * Searches in flight on every connection
+   */
+  public static final String ASYNC_WINDOW_KEY = LdapGroupsMapping.LDAP_CONFIG_PREFIX
+      + ".async.window";
+  public static final int ASYNC_WINDOW_DEFAULT = 32;
+
+  private Configuration conf;
+
+  private String providerName;
+  private String ldapUrl;
+  private String host;
+  private int port;
+  private boolean useSsl;
+  private String bindUser;
+  private String bindPassword;
+  private Dn baseDn;
+  private String groupSearchFilter;
+  private String[] groupMemberAttrs;
+  private String groupNameAttr;
+  private int searchTimeout;
+  private int connectionTimeout;
+  private int readTimeout;
+  private int window;
+
+  private LdapNetworkConnection[] connections;
+
+  /** Bumped when a connection is closed, failing the searches left on it at once */
+  private int[] generations;
+
+  private int nextConnection;
+
+  private final MemberSet.Builder members = new MemberSet.Builder(NameDictionary.users());
+
+  /** Guards the connections, closed by the reader of a batch while searches are sent */
+  private final Object connectionLock = new Object();
+
+  /**
+   * A search sent and not read yet
+   */
+  private static class PendingSearch {
+    private final String group;
+    private final int connection;
+    private final int generation;
+    private final SearchFuture future;
+    private final long sentNanos = System.nanoTime();
+
+    /** Set once read, one or the other */
+    private GroupMembership membership;
+    private IOException failure;
+
+    PendingSearch(String group, int connection, int generation, SearchFuture future) {
+      this.group = group;
+      this.connection = connection;
+      this.generation = generation;
+      this.future = future;
+    }
+  }
+
+  /** Ends the searches read by the reader of a batch */
+  private static final PendingSearch END = new PendingSearch(null, -1, -1, null);
+
+  @Override
+  public List<String> getUsers(String group) throws IOException {
+    return getMembership(group).getUsers();
+  }
+
+  @Override
+  public synchronized GroupMembership getMembership(String group) throws IOException {
+    return receive(send(group));
+  }
+
+  /**
+   * The responses are read by a thread of the batch while the memberships read are given
+   * to the callback by the calling thread, so that a slow apply of a membership does not
+   * leave the responses of the searches in flight unread until they time out
+   */
+  @Override
+  public synchronized void getMemberships(Collection<String> groups,
+      MembershipCallback callback) {
+    long start = System.currentTimeMillis();
+    int maxInFlight = window * connections.length;
+    final BlockingQueue<PendingSearch> inFlight = new LinkedBlockingQueue<PendingSearch>();
+    final BlockingQueue<PendingSearch> read = new LinkedBlockingQueue<PendingSearch>();
+    final SpanId parent = Tracer.getCurrentSpanId();
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readAll(inFlight, read, parent);
+      }
+    }, "ead-async-ldap-" + providerName);
+    reader.setDaemon(true);
+    reader.start();
+
+    Iterator<String> toSend = groups.iterator();
+    boolean stopped = false;
+    // Sent and not given to the callback yet
+    int outstanding = 0;
+    int fetched = 0;
+    try {
+      while (true) {
+        while (!stopped && outstanding < maxInFlight && toSend.hasNext()) {
+          String group = toSend.next();
+          if (!callback.beforeRequest(group)) {
+            // The searches in flight are still read
+            stopped = true;
+            break;
+          }
+          try {
+            inFlight.add(send(group));
+            outstanding++;
+          } catch (IOException e) {
+            callback.failed(group, e);
+          }
+        }
+        if (outstanding == 0) {
+          break;
+        }
+        PendingSearch search = read.take();
+        outstanding--;
+        if (search.failure != null) {
+          callback.failed(search.group, search.failure);
+        } else {
+          fetched++;
+          callback.fetched(search.membership);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      // The searches left are cancelled by the reader
+      reader.interrupt();
+    } finally {
+      inFlight.add(END);
+      try {
+        reader.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    LOG.info("Fetched " + fetched + " groups from " + providerName + " in "
+        + (System.currentTimeMillis() - start) + " ms over " + connections.length
+        + " connections");
+  }
+
+  /**
+   * Read the searches in the order they were sent, until the end of the batch
+   */
+  private void readAll(BlockingQueue<PendingSearch> inFlight,
+      BlockingQueue<PendingSearch> read, SpanId parent) {
+    TraceScope scope = EadTracing.newChildScope("AsyncLdapGroupsMapping#readAll", parent);
+    try {
+      while (true) {
+        PendingSearch search = inFlight.take();
+        if (search == END) {
+          return;
+        }
+        try {
+          search.membership = receive(search);
+        } catch (IOException e) {
+          search.failure = e;
+        }
+        read.add(search);
+      }
+    } catch (InterruptedException e) {
+      // The batch was interrupted
+      for (PendingSearch search : inFlight) {
+        if (search != END) {
+          search.future.cancel(true);
+        }
+      }
+    } finally {
+      scope.close();
+    }
+  }
+
+  private PendingSearch send(String group) throws IOException {
+    int index = nextConnection;
+    nextConnection = (nextConnection + 1) % connections.length;
+
+    SearchRequest request = new SearchRequestImpl();
+    try {
+      request.setBase(baseDn);
+      request.setFilter("(&" + groupSearchFilter + "(" + groupNameAttr + "="
+          + FilterEncoder.encodeFilterValue(group) + "))");
+    } catch (LdapException e) {
+      throw new IOException("Invalid search of group " + group + " for " + providerName
+          + ": " + e.getMessage(), e);
+    }
+    request.setScope(SearchScope.SUBTREE);
+    request.addAttributes(groupMemberAttrs);
+    // In seconds in the protocol
+    request.setTimeLimit(Math.max(1, (searchTimeout + 999) / 1000));
+
+    synchronized (connectionLock) {
+      LdapNetworkConnection connection = getConnection(index);
+      try {
+        return new PendingSearch(group, index, generations[index],
+            connection.searchAsync(request));
+      } catch (LdapException e) {
+        closeConnection(index);
+        throw new IOException("Could not search group " + group + " in " + providerName
+            + " LDAP URL: " + ldapUrl + ": " + e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Read the responses of a search until it is done, in a span covering the reading. The
+   * time since the search was sent is annotated, most of it spent behind the other
+   * searches in flight.
+   */
+  private GroupMembership receive(PendingSearch search) throws IOException {
+    TraceScope scope = EadTracing.get().newScope("AsyncLdapGroupsMapping#receive");
+    try {
+      scope.addKVAnnotation("provider", String.valueOf(providerName));
+      scope.addKVAnnotation("group", search.group);
+      scope.addKVAnnotation("inFlightMicros",
+          Long.toString((System.nanoTime() - search.sentNanos) / 1000));
+      GroupMembership membership = read(search);
+      scope.addKVAnnotation("members", Integer.toString(membership.getMembers().size()));
+      return membership;
+    } finally {
+      scope.close();
+    }
+  }
+
+  private GroupMembership read(PendingSearch search) throws IOException {
+    members.clear();
+    boolean found = false;
+    while (true) {
+      if (search.future.isCancelled() || isClosed(search)) {
+        // Abandoned with its connection
+        throw new IOException("Connection to " + providerName + " LDAP URL: " + ldapUrl
+            + " closed before group " + search.group + " was read");
+      }
+      Response response;
+      try {
+        response = search.future.get(readTimeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        search.future.cancel(true);
+        throw new IOException("Interrupted reading group " + search.group + " from "
+            + providerName, e);
+      } catch (ExecutionException e) {
+        closeConnection(search.connection);
+        throw new IOException("Could not read group " + search.group + " from "
+            + providerName + ": " + e.getMessage(), e);
+      } catch (TimeoutException e) {
+        response = null;
+      }
+      if (response == null) {
+        // Timed out or the connection closed, the search is abandoned
+        if (!search.future.isCancelled()) {
+          search.future.cancel(true);
+        }
+        closeConnection(search.connection);
+        throw new IOException("No response for group " + search.group + " from "
+            + providerName + " LDAP URL: " + ldapUrl + " in " + readTimeout + " ms");
+      }
+      if (response instanceof SearchResultEntry) {
+        found = true;
+        addMembers(((SearchResultEntry) response).getEntry());
+      } else if (response instanceof SearchResultDone) {
+        LdapResult result = ((SearchResultDone) response).getLdapResult();
+        if (result.getResultCode() != ResultCodeEnum.SUCCESS) {
+          throw new IOException("Search of group " + search.group + " failed in "
+              + providerName + ": " + result.getResultCode() + " "
+              + result.getDiagnosticMessage());
+        }
+        return members.build(search.group, found);
+      }
+      // Referrals are not followed, as with JNDI by default
+    }
+  }
+
+  private boolean isClosed(PendingSearch search) {
+    synchronized (connectionLock) {
+      return generations[search.connection] != search.generation;
+    }
+  }
+
+  private void addMembers(Entry entry) {
+    for (String attributeId : groupMemberAttrs) {
+      Attribute attribute = entry.get(attributeId);
+      if (attribute == null) {
+        continue;
+      }
+      for (Value<?> value : attribute) {
+        NestedGroupExpander.addCnOf(value.getString(), members);
+      }
+    }
+  }
+
+  private LdapNetworkConnection getConnection(int index) throws IOException {
+    LdapNetworkConnection connection = connections[index];
+    if (connection != null && connection.isConnected()) {
+      return connection;
+    }
+    closeConnection(index);
+
+    LdapConnectionConfig config = new LdapConnectionConfig();
+    config.setLdapHost(host);
+    config.setLdapPort(port);
+    config.setUseSsl(useSsl);
+    config.setTimeout(Math.max(connectionTimeout, readTimeout));
+    connection = new LdapNetworkConnection(config);
+    try {
+      if (!connection.connect()) {
+        throw new IOException("Could not connect to " + providerName + " LDAP URL: "
+            + ldapUrl);
+      }
+      if (bindUser.isEmpty()) {
+        connection.anonymousBind();
+      } else {
+        connection.bind(bindUser, bindPassword);
+      }
+    } catch (LdapException e) {
+      close(connection);
+      throw new IOException("Could not bind to " + providerName + " LDAP URL: " + ldapUrl
+          + ": " + e.getMessage(), e);
+    } catch (IOException e) {
+      close(connection);
+      throw e;
+    }
+    connections[index] = connection;
+    return connection;
+  }
+
+  @Override
+  public synchronized void close() {
+    for (int i = 0; i < connections.length; i++) {
+      closeConnection(i);
+    }
+  }
+
+  private void closeConnection(int index) {
+    synchronized (connectionLock) {
+      if (connections[index] != null) {
+        close(connections[index]);
+        connections[index] = null;
+        generations[index]++;
+      }
+    }
+  }
+
+  private void close(LdapNetworkConnection connection) {
+    try {
+      connection.close();
+    } catch (IOException e) {
+      LOG.debug("Could not close the connection to " + ldapUrl + ": " + e.getMessage());
+    }
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public synchronized void setConf(Configuration conf) {
+    this.conf = conf;
+    providerName = conf.get(GroupsMappingBuilder.MAPPING_PROVIDER_CONFIG_PREFIX);
+    ldapUrl = conf.get(LdapGroupsMapping.LDAP_URL_KEY, LdapGroupsMapping.LDAP_URL_DEFAULT);
+    if (ldapUrl == null || ldapUrl.isEmpty()) {
+      throw new RuntimeException("LDAP URL is not configured");
+    }
+    LdapUrl url;
+    try {
+      url = new LdapUrl(ldapUrl);
+    } catch (LdapURLEncodingException e) {
+      throw new RuntimeException("Invalid LDAP URL " + ldapUrl, e);
+    }
+    useSsl = conf.getBoolean(LdapGroupsMapping.LDAP_USE_SSL_KEY,
+        LdapGroupsMapping.LDAP_USE_SSL_DEFAULT) || LdapUrl.LDAPS_SCHEME.equals(url.getScheme());
+    host = url.getHost() != null ? url.getHost() : "localhost";
+    port = url.getPort() > 0 ? url.getPort() : (useSsl ? 636 : 389);
+    if (useSsl) {
+      String keystore =
+          conf.get(LdapGroupsMapping.LDAP_KEYSTORE_KEY, LdapGroupsMapping.LDAP_KEYSTORE_DEFAULT);
+      String keystorePass = LdapGroupsMapping.getPassword(conf,
+          LdapGroupsMapping.LDAP_KEYSTORE_PASSWORD_KEY,
+          LdapGroupsMapping.LDAP_KEYSTORE_PASSWORD_DEFAULT);
+      if (keystorePass.isEmpty()) {
+        keystorePass = LdapGroupsMapping.extractPassword(conf.get(
+            LdapGroupsMapping.LDAP_KEYSTORE_PASSWORD_FILE_KEY,
+            LdapGroupsMapping.LDAP_KEYSTORE_PASSWORD_FILE_DEFAULT));
+      }
+      System.setProperty("javax.net.ssl.keyStore", keystore);
+      System.setProperty("javax.net.ssl.keyStorePassword", keystorePass);
+    }
+
+    bindUser = conf.get(LdapGroupsMapping.BIND_USER_KEY, LdapGroupsMapping.BIND_USER_DEFAULT);
+    bindPassword = LdapGroupsMapping.getPassword(conf, LdapGroupsMapping.BIND_PASSWORD_KEY,
+        LdapGroupsMapping.BIND_PASSWORD_DEFAULT);
+    if (bindPassword.isEmpty()) {
+      bindPassword = LdapGroupsMapping.extractPassword(conf.get(
+          LdapGroupsMapping.BIND_PASSWORD_FILE_KEY, LdapGroupsMapping.BIND_PASSWORD_FILE_DEFAULT));
+    }
+
+    String base = conf.get(LdapGroupsMapping.BASE_DN_KEY, LdapGroupsMapping.BASE_DN_DEFAULT);
+    try {
+      baseDn = new Dn(base);
+    } catch (LdapException e) {
+      throw new RuntimeException("Invalid LDAP base " + base, e);
+    }
+    groupSearchFilter = conf.get(LdapGroupsMapping.GROUP_SEARCH_FILTER_KEY,
+        LdapGroupsMapping.GROUP_SEARCH_FILTER_DEFAULT);
+    groupMemberAttrs = conf.get(LdapGroupsMapping.GROUP_MEMBERSHIP_ATTR_KEY,
+        LdapGroupsMapping.GROUP_MEMBERSHIP_ATTR_DEFAULT).split(",");
+    groupNameAttr = conf.get(LdapGroupsMapping.GROUP_NAME_ATTR_KEY,
+        LdapGroupsMapping.GROUP_NAME_ATTR_DEFAULT);
+    if (conf.getInt(LdapGroupsMapping.GROUP_HIERARCHY_LEVELS_KEY,
+        LdapGroupsMapping.GROUP_HIERARCHY_LEVELS_DEFAULT) > 0) {
+      throw new RuntimeException("Nested groups are not expanded by " + getClass().getName()
+          + ", use " + LdapGroupsMapping.class.getName() + " for provider " + providerName);
+    }
+    searchTimeout = conf.getInt(LdapGroupsMapping.DIRECTORY_SEARCH_TIMEOUT,
+        LdapGroupsMapping.DIRECTORY_SEARCH_TIMEOUT_DEFAULT);
+    connectionTimeout = conf.getInt(LdapGroupsMapping.CONNECTION_TIMEOUT,
+        LdapGroupsMapping.CONNECTION_TIMEOUT_DEFAULT);
+    readTimeout = conf.getInt(LdapGroupsMapping.READ_TIMEOUT,
+        LdapGroupsMapping.READ_TIMEOUT_DEFAULT);
+    window = Math.max(1, conf.getInt(ASYNC_WINDOW_KEY, ASYNC_WINDOW_DEFAULT));
+
+    // Connect again with the new settings
+    if (connections != null) {
+      for (int i = 0; i < connections.length; i++) {
+        closeConnection(i);
+      }
+    }
+    connections = new LdapNetworkConnection[Math.max(1,
+        conf.getInt(ASYNC_CONNECTIONS_KEY, ASYNC_CONNECTIONS_DEFAULT))];
+    generations = new int[connections.length];
+    nextConnection = 0;
+  }
+
+  // For testing
+  public static void main(String[] args) throws IOException {
+    AsyncLdapGroupsMapping mapping = new AsyncLdapGroupsMapping();
+    mapping.setConf(new Configuration());
+    System.out.println(mapping.getUsers(args.length > 0 ? args[0] : "ND-POC-ENG"));
+  }
+
+}
@@ -2,15 +2,22 @@ package com.krish.security.hadoop.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.krish.directory.service.CircuitBreaker;
 import com.krish.directory.service.GroupMappingServiceProvider;
 
 public class GroupsMappingBuilder {
@@ -23,17 +30,277 @@ public class GroupsMappingBuilder {
   public static final String MAPPING_PROVIDER_CONFIG_PREFIX = GROUP_MAPPING_CONFIG_PREFIX
       + ".provider";
 
+  /*
+   * Interval between two syncs of a provider in milliseconds. Can be set globally as
+   * "hadoop.security.group.mapping.sync.interval" or per provider as
+   * "hadoop.security.group.mapping.provider.PROVIDER-X.sync.interval"
+   */
+  public static final String SYNC_INTERVAL_KEY = ".sync.interval";
+  public static final long SYNC_INTERVAL_DEFAULT = 60 * 1000;
+
+  /*
+   * Upper bound of the random delay added to every scheduled sync, so that the regions do
+   * not all hit their AD servers at the same moment
+   */
+  public static final String SYNC_JITTER_KEY = ".sync.jitter";
+  public static final long SYNC_JITTER_DEFAULT = 5 * 1000;
+
+  /*
+   * Upper bound of the exponential backoff applied to a provider that keeps failing
+   */
+  public static final String SYNC_MAX_BACKOFF_KEY = ".sync.backoff.max";
+  public static final long SYNC_MAX_BACKOFF_DEFAULT = 15 * 60 * 1000;
+
+  /*
+   * Groups queried by the clients less than the hot threshold are only refreshed every
+   * cold interval, and groups nobody queries only on the full resync
+   */
+  public static final String SYNC_COLD_INTERVAL_KEY = ".sync.interval.cold";
+  public static final long SYNC_COLD_INTERVAL_DEFAULT = 10 * 60 * 1000;
+
+  public static final String SYNC_FULL_INTERVAL_KEY = ".sync.interval.full";
+  public static final long SYNC_FULL_INTERVAL_DEFAULT = 60 * 60 * 1000;
+
+  /*
+   * Number of client queries per minute from which a group is refreshed every sync interval
+   */
+  public static final String SYNC_HOT_THRESHOLD_KEY = ".sync.hot.threshold";
+  public static final float SYNC_HOT_THRESHOLD_DEFAULT = 10;
+
+  /*
+   * Maximum number of groups fetched from the provider per sync, 0 for no limit
+   */
+  public static final String SYNC_BUDGET_KEY = ".sync.budget";
+  public static final int SYNC_BUDGET_DEFAULT = 0;
+
+  /*
+   * A configured group which does not exist upstream is searched again after the negative
+   * ttl, which doubles on every miss up to the max
+   */
+  public static final String SYNC_NEGATIVE_TTL_KEY = ".sync.negative.ttl";
+  public static final long SYNC_NEGATIVE_TTL_DEFAULT = 5 * 60 * 1000;
+
+  public static final String SYNC_NEGATIVE_TTL_MAX_KEY = ".sync.negative.ttl.max";
+  public static final long SYNC_NEGATIVE_TTL_MAX_DEFAULT = 6 * 60 * 60 * 1000;
+
+  /*
+   * Milliseconds a sync of a provider may spend fetching groups, the groups left being
+   * fetched first by the next sync. 0 for no limit.
+   */
+  public static final String SYNC_CYCLE_BUDGET_KEY = ".sync.cycle.budget";
+  public static final long SYNC_CYCLE_BUDGET_DEFAULT = 10 * 60 * 1000;
+
+  /*
+   * Number of group lookups failing in a row after which the provider is not called
+   * anymore, 0 to always call it, and delay before a single lookup probes it again
+   */
+  public static final String CIRCUIT_FAILURES_KEY = ".circuit.failures";
+  public static final int CIRCUIT_FAILURES_DEFAULT = 5;
+
+  public static final String CIRCUIT_PROBE_INTERVAL_KEY = ".circuit.probe.interval";
+  public static final long CIRCUIT_PROBE_INTERVAL_DEFAULT = 60 * 1000;
+
+  /*
+   * How the members of a group listed by several providers are merged, "union" or
+   * "primary". With "primary" the group takes the members of the first provider of
+   * the priority list having it, the priority list defaulting to the providers order.
+   */
+  public static final String MERGE_POLICY_KEY = GROUP_MAPPING_CONFIG_PREFIX + ".merge.policy";
+  public static final String MERGE_POLICY_DEFAULT = "union";
+
+  /*
+   * Number of threads applying the writes of the syncs, 0 to write in the sync threads,
+   * and capacity of the queue of every writer thread. The syncs block while the queue
+   * they write to is full.
+   */
+  public static final String WRITER_THREADS_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".writer.threads";
+  public static final int WRITER_THREADS_DEFAULT = 4;
+
+  public static final String WRITER_QUEUE_SIZE_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".writer.queue.size";
+  public static final int WRITER_QUEUE_SIZE_DEFAULT = 1000;
+
+  /*
+   * Maximum delay before a record of the sync journal is forced to disk, and number of
+   * records after which the journal is compacted
+   */
+  public static final String JOURNAL_SYNC_INTERVAL_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".journal.sync.interval";
+  public static final long JOURNAL_SYNC_INTERVAL_DEFAULT = 1000;
+
+  public static final String JOURNAL_COMPACT_RECORDS_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".journal.compact.records";
+  public static final int JOURNAL_COMPACT_RECORDS_DEFAULT = 10000;
+
+  public static final String MERGE_PRIORITY_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".merge.priority";
+
+  /*
+   * Also maintain the users as posixAccount and the groups as posixGroup entries, with the
+   * members listed by uid in memberUid, so that nss clients resolve a group in one read.
+   * The uidNumber and gidNumber are hashed from the names in their ranges.
+   */
+  public static final String POSIX_PROFILE_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".posix.profile";
+  public static final boolean POSIX_PROFILE_DEFAULT = false;
+
+  public static final String POSIX_UID_BASE_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".posix.uid.base";
+  public static final long POSIX_UID_BASE_DEFAULT = 1000000;
+
+  public static final String POSIX_GID_BASE_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".posix.gid.base";
+  public static final long POSIX_GID_BASE_DEFAULT = 1000000;
+
+  /* Size of the uid and gid ranges, large enough for hash collisions to be rare */
+  public static final String POSIX_ID_SPAN_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".posix.id.span";
+  public static final long POSIX_ID_SPAN_DEFAULT = 1000000000;
+
+  public static final String POSIX_PRIMARY_GID_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".posix.primary.gid";
+  public static final long POSIX_PRIMARY_GID_DEFAULT = 100;
+
+  public static final String POSIX_HOME_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".posix.home";
+  public static final String POSIX_HOME_DEFAULT = "/home";
+
+  public static final String POSIX_SHELL_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".posix.shell";
+  public static final String POSIX_SHELL_DEFAULT = "/bin/bash";
+
+  /*
+   * Members from which a group keeps them as membership entries below it instead of in its
+   * member attribute, 0 to keep every group in its member attribute
+   */
+  public static final String LARGE_GROUP_THRESHOLD_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".large.group.threshold";
+  public static final int LARGE_GROUP_THRESHOLD_DEFAULT = 5000;
+
+  /*
+   * Binary membership snapshot the EAD server publishes after every sync, and that
+   * SnapshotGroupsMapping reads on the hosts. Unset for no snapshot.
+   */
+  public static final String SNAPSHOT_FILE_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".snapshot.file";
+  public static final String SNAPSHOT_FILE_DEFAULT = "";
+
+  /*
+   * Milliseconds between two checks of SnapshotGroupsMapping for a new snapshot
+   */
+  public static final String SNAPSHOT_RELOAD_INTERVAL_KEY = GROUP_MAPPING_CONFIG_PREFIX
+      + ".snapshot.reload.interval";
+  public static final long SNAPSHOT_RELOAD_INTERVAL_DEFAULT = 10 * 1000;
+
   private static final Logger LOG = LoggerFactory.getLogger(GroupsMappingBuilder.class);
 
-  private List<MultiRegionGroups> providersList = new ArrayList<MultiRegionGroups>();
+  /** Replaced as a whole by a reload */
+  private volatile List<MultiRegionGroups> providersList = new ArrayList<MultiRegionGroups>();
+
+  /** Settings every provider instance was built with, by provider name */
+  private Map<String, Map<String, String>> providerSettings =
+      new HashMap<String, Map<String, String>>();
+
+  /**
+   * What a reload of the configuration changed. The providers of the other names kept
+   * their instance.
+   */
+  public static class Reload {
+    private final List<String> added = new ArrayList<String>();
+    private final List<String> rebuilt = new ArrayList<String>();
+    private final List<String> removed = new ArrayList<String>();
+    private final Map<String, List<String>> addedGroups = new LinkedHashMap<String, List<String>>();
+    private final Map<String, List<String>> removedGroups =
+        new LinkedHashMap<String, List<String>>();
+
+    /** Providers which were not configured */
+    public List<String> getAdded() {
+      return added;
+    }
+
+    /** Providers built again as their settings changed */
+    public List<String> getRebuilt() {
+      return rebuilt;
+    }
+
+    /** Providers which are not configured anymore */
+    public List<String> getRemoved() {
+      return removed;
+    }
+
+    /** Groups newly configured, by provider, those of the added providers included */
+    public Map<String, List<String>> getAddedGroups() {
+      return addedGroups;
+    }
+
+    /** Groups not configured anymore, by provider, those of the removed ones included */
+    public Map<String, List<String>> getRemovedGroups() {
+      return removedGroups;
+    }
+
+    public boolean isEmpty() {
+      return added.isEmpty() && rebuilt.isEmpty() && removed.isEmpty() && addedGroups.isEmpty()
+          && removedGroups.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return "providers added " + added + ", rebuilt " + rebuilt + ", removed " + removed
+          + ", groups added " + addedGroups + ", removed " + removedGroups;
+    }
+  }
 
   static {
     Configuration.addDefaultResource("hadoop-group-mapping.xml");
   }
 
-  public void buildCompositeGroupMappingProviders(Configuration conf) throws Exception {
+  public synchronized void buildCompositeGroupMappingProviders(Configuration conf)
+      throws Exception {
     this.conf = conf;
-    loadMappingProviders();
+    providerSettings = new HashMap<String, Map<String, String>>();
+    providersList = loadMappingProviders(Collections.<String, MultiRegionGroups>emptyMap(),
+        Collections.<String, Map<String, String>>emptyMap(), new Reload());
+  }
+
+  /**
+   * Build the providers of a changed configuration. A provider whose settings did not change
+   * keeps its instance, and so its connections and caches, its groups and sync settings
+   * being taken from the new configuration. The configuration in use is kept if the new
+   * one cannot be loaded.
+   *
+   * @return what changed
+   */
+  public synchronized Reload reloadCompositeGroupMappingProviders(Configuration newConf)
+      throws Exception {
+    Map<String, MultiRegionGroups> previous = new LinkedHashMap<String, MultiRegionGroups>();
+    for (MultiRegionGroups provider : providersList) {
+      previous.put(provider.getProviderName(), provider);
+    }
+    Map<String, Map<String, String>> previousSettings = providerSettings;
+    Configuration previousConf = conf;
+    conf = newConf;
+    providerSettings = new HashMap<String, Map<String, String>>();
+    Reload reload = new Reload();
+    List<MultiRegionGroups> loaded;
+    try {
+      loaded = loadMappingProviders(previous, previousSettings, reload);
+    } catch (Exception e) {
+      conf = previousConf;
+      providerSettings = previousSettings;
+      throw e;
+    }
+    for (MultiRegionGroups provider : loaded) {
+      previous.remove(provider.getProviderName());
+    }
+    for (MultiRegionGroups provider : previous.values()) {
+      reload.removed.add(provider.getProviderName());
+      if (!provider.getGroups().isEmpty()) {
+        reload.removedGroups.put(provider.getProviderName(), provider.getGroups());
+      }
+    }
+    providersList = loaded;
+    return reload;
   }
 
   public List<MultiRegionGroups> getProvidersList() {
@@ -48,10 +315,18 @@ public class GroupsMappingBuilder {
     return conf;
   }
 
-  private void loadMappingProviders() throws ClassNotFoundException {
+  /**
+   * @param previous providers in use, by name, reused when their settings did not change
+   * @param previousSettings settings of the providers in use
+   * @param reload told the providers added and rebuilt, and the groups added and removed
+   */
+  private List<MultiRegionGroups> loadMappingProviders(Map<String, MultiRegionGroups> previous,
+      Map<String, Map<String, String>> previousSettings, Reload reload)
+      throws ClassNotFoundException {
     LOG.info("Loading mapping providers configuration");
     String[] providerNames = conf.getStrings(MAPPING_PROVIDERS_CONFIG_KEY, new String[] {});
 
+    List<MultiRegionGroups> providers = new ArrayList<MultiRegionGroups>();
     String providerKey;
     for (String name : providerNames) {
       providerKey = MAPPING_PROVIDER_CONFIG_PREFIX + "." + name;
@@ -61,25 +336,113 @@ public class GroupsMappingBuilder {
       if (providerClass == null) {
         LOG.error("The mapping provider, " + name + " does not have a valid class");
       } else {
-        addMappingProvider(name, providerClass);
+        providers.add(addMappingProvider(name, providerClass, previous.get(name),
+            previousSettings.get(name), reload));
       }
     }
+    return providers;
   }
 
-  private void addMappingProvider(String providerName, Class<?> providerClass) {
-    Configuration newConf = prepareConf(providerName);
-    //This will be helpful for logging
-    newConf.set(MAPPING_PROVIDER_CONFIG_PREFIX, providerName);
-    GroupMappingServiceProvider provider =
-        (GroupMappingServiceProvider) ReflectionUtils.newInstance(providerClass, newConf);
+  private MultiRegionGroups addMappingProvider(String providerName, Class<?> providerClass,
+      MultiRegionGroups previous, Map<String, String> previousSettings, Reload reload) {
+    Map<String, String> entries = providerEntries(providerName);
+    Map<String, String> settings = new TreeMap<String, String>();
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      if (!isScheduleKey(entry.getKey())) {
+        settings.put(entry.getKey(), entry.getValue());
+      }
+    }
+    settings.put(MAPPING_PROVIDER_CONFIG_PREFIX, providerClass.getName());
+    providerSettings.put(providerName, settings);
+
+    GroupMappingServiceProvider provider;
+    if (previous != null && settings.equals(previousSettings)) {
+      // Keeps its connections and caches
+      provider = previous.getGroupServiceProvider();
+    } else {
+      Configuration newConf = new Configuration();
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        newConf.set(entry.getKey(), entry.getValue());
+      }
+      //This will be helpful for logging
+      newConf.set(MAPPING_PROVIDER_CONFIG_PREFIX, providerName);
+      provider = (GroupMappingServiceProvider) ReflectionUtils.newInstance(providerClass,
+          newConf);
+      (previous == null ? reload.added : reload.rebuilt).add(providerName);
+    }
 
     MultiRegionGroups multiRegionGroup = new MultiRegionGroups();
+    multiRegionGroup.setProviderName(providerName);
     multiRegionGroup.setGroupServiceProvider(provider);
-    multiRegionGroup.setGroups(Arrays.asList(conf.getStrings(MAPPING_PROVIDER_CONFIG_PREFIX + "."
-        + providerName + ".ldap.groups")));
+    multiRegionGroup.setSyncInterval(getProviderLong(providerName, SYNC_INTERVAL_KEY,
+        SYNC_INTERVAL_DEFAULT));
+    multiRegionGroup.setSyncJitter(getProviderLong(providerName, SYNC_JITTER_KEY,
+        SYNC_JITTER_DEFAULT));
+    multiRegionGroup.setMaxBackoff(getProviderLong(providerName, SYNC_MAX_BACKOFF_KEY,
+        SYNC_MAX_BACKOFF_DEFAULT));
+    multiRegionGroup.setColdSyncInterval(getProviderLong(providerName, SYNC_COLD_INTERVAL_KEY,
+        SYNC_COLD_INTERVAL_DEFAULT));
+    multiRegionGroup.setFullSyncInterval(getProviderLong(providerName, SYNC_FULL_INTERVAL_KEY,
+        SYNC_FULL_INTERVAL_DEFAULT));
+    multiRegionGroup.setHotThreshold(conf.getFloat(MAPPING_PROVIDER_CONFIG_PREFIX + "."
+        + providerName + SYNC_HOT_THRESHOLD_KEY, conf.getFloat(GROUP_MAPPING_CONFIG_PREFIX
+        + SYNC_HOT_THRESHOLD_KEY, SYNC_HOT_THRESHOLD_DEFAULT)));
+    multiRegionGroup.setSyncBudget((int) getProviderLong(providerName, SYNC_BUDGET_KEY,
+        SYNC_BUDGET_DEFAULT));
+    multiRegionGroup.setNegativeTtl(getProviderLong(providerName, SYNC_NEGATIVE_TTL_KEY,
+        SYNC_NEGATIVE_TTL_DEFAULT));
+    multiRegionGroup.setMaxNegativeTtl(getProviderLong(providerName, SYNC_NEGATIVE_TTL_MAX_KEY,
+        SYNC_NEGATIVE_TTL_MAX_DEFAULT));
+    multiRegionGroup.setSyncCycleBudget(getProviderLong(providerName, SYNC_CYCLE_BUDGET_KEY,
+        SYNC_CYCLE_BUDGET_DEFAULT));
+    int failures =
+        (int) getProviderLong(providerName, CIRCUIT_FAILURES_KEY, CIRCUIT_FAILURES_DEFAULT);
+    long probeInterval = getProviderLong(providerName, CIRCUIT_PROBE_INTERVAL_KEY,
+        CIRCUIT_PROBE_INTERVAL_DEFAULT);
+    CircuitBreaker breaker = previous == null ? null : previous.getCircuitBreaker();
+    // An open circuit stays open while the provider is the same
+    if (breaker == null || provider != previous.getGroupServiceProvider()
+        || breaker.getFailureThreshold() != failures
+        || breaker.getProbeInterval() != probeInterval) {
+      breaker = new CircuitBreaker(providerName, failures, probeInterval);
+    }
+    multiRegionGroup.setCircuitBreaker(breaker);
+    String[] groups = conf.getStrings(MAPPING_PROVIDER_CONFIG_PREFIX + "." + providerName
+        + ".ldap.groups", new String[] {});
+    multiRegionGroup.setGroups(Arrays.asList(groups));
+
+    Set<String> added = new LinkedHashSet<String>(multiRegionGroup.getGroups());
+    if (previous != null) {
+      Set<String> removed = new LinkedHashSet<String>(previous.getGroups());
+      removed.removeAll(added);
+      added.removeAll(previous.getGroups());
+      if (!removed.isEmpty()) {
+        reload.removedGroups.put(providerName, new ArrayList<String>(removed));
+      }
+    }
+    if (!added.isEmpty()) {
+      reload.addedGroups.put(providerName, new ArrayList<String>(added));
+    }
+    return multiRegionGroup;
+  }
 
-    providersList.add(multiRegionGroup);
+  /*
+   * Settings changing the schedule of a provider, not the provider itself
+   */
+  private static boolean isScheduleKey(String key) {
+    return key.equals(GROUP_MAPPING_CONFIG_PREFIX + ".ldap.groups")
+        || key.startsWith(GROUP_MAPPING_CONFIG_PREFIX + ".sync.")
+        || key.startsWith(GROUP_MAPPING_CONFIG_PREFIX + ".circuit.");
+  }
 
+  /*
+   * Provider specific value of a setting, falling back to the global
+   * "hadoop.security.group.mapping" one and then to the default
+   */
+  private long getProviderLong(String providerName, String keySuffix, long defaultValue) {
+    long globalValue = conf.getLong(GROUP_MAPPING_CONFIG_PREFIX + keySuffix, defaultValue);
+    return conf.getLong(MAPPING_PROVIDER_CONFIG_PREFIX + "." + providerName + keySuffix,
+        globalValue);
   }
 
   /*
@@ -89,20 +452,20 @@ public class GroupsMappingBuilder {
    * so that a provider such as LdapGroupsMapping can be used to composite a
    * complex one with other providers.
    */
-  private Configuration prepareConf(String providerName) {
-    Configuration newConf = new Configuration();
+  private Map<String, String> providerEntries(String providerName) {
+    Map<String, String> newEntries = new TreeMap<String, String>();
     Iterator<Map.Entry<String, String>> entries = conf.iterator();
     String providerKey = MAPPING_PROVIDER_CONFIG_PREFIX + "." + providerName;
     while (entries.hasNext()) {
       Map.Entry<String, String> entry = entries.next();
       String key = entry.getKey();
 
-      if (key.startsWith(providerKey) && !key.equals(providerKey)) {
+      if (key.startsWith(providerKey + ".")) {
         key = key.replace(".provider." + providerName, "");
-        newConf.set(key, entry.getValue());
+        newEntries.put(key, entry.getValue());
       }
     }
-    return newConf;
+    return newEntries;
   }
 
 }
@@ -6,7 +6,9 @@ import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.naming.CommunicationException;
 import javax.naming.Context;
@@ -18,15 +20,20 @@ import javax.naming.directory.DirContext;
 import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
-import javax.naming.ldap.LdapName;
-import javax.naming.ldap.Rdn;
 
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.htrace.core.Span;
+import org.apache.htrace.core.TraceScope;
+import org.apache.htrace.core.Tracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.krish.directory.service.EadTracing;
 import com.krish.directory.service.GroupMappingServiceProvider;
+import com.krish.directory.service.GroupMembership;
+import com.krish.directory.service.MemberSet;
+import com.krish.directory.service.NameDictionary;
 
 public class LdapGroupsMapping implements GroupMappingServiceProvider, Configurable {
 
@@ -100,12 +107,6 @@ public class LdapGroupsMapping implements GroupMappingServiceProvider, Configura
   public static final String GROUP_MEMBERSHIP_ATTR_KEY = LDAP_CONFIG_PREFIX + ".search.attr.member";
   public static final String GROUP_MEMBERSHIP_ATTR_DEFAULT = "member";
 
-  /*
-   * LDAP attribute to use for determining group membership
-   */
-  public static final String MEMBEROF_ATTR_KEY = LDAP_CONFIG_PREFIX + ".search.attr.memberof";
-  public static final String MEMBEROF_ATTR_DEFAULT = "";
-
   /*
    * LDAP attribute to use for identifying a group's name
    */
@@ -120,9 +121,43 @@ public class LdapGroupsMapping implements GroupMappingServiceProvider, Configura
       + ".directory.search.timeout";
   public static final int DIRECTORY_SEARCH_TIMEOUT_DEFAULT = 10000; // 10s
 
-  private static final Logger LOG = LoggerFactory.getLogger(LdapGroupsMapping.class);
+  /*
+   * Milliseconds to wait for the connection to the LDAP server, and for a response to a
+   * request once connected, before giving up on the provider
+   */
+  public static final String CONNECTION_TIMEOUT = LDAP_CONFIG_PREFIX
+      + ".connection.timeout.ms";
+  public static final int CONNECTION_TIMEOUT_DEFAULT = 10000;
+
+  public static final String READ_TIMEOUT = LDAP_CONFIG_PREFIX + ".read.timeout.ms";
+  public static final int READ_TIMEOUT_DEFAULT = 30000;
+
+  /*
+   * Number of levels of nested groups to expand, 0 to take the members as they are
+   */
+  public static final String GROUP_HIERARCHY_LEVELS_KEY = LDAP_CONFIG_PREFIX
+      + ".search.group.hierarchy.levels";
+  public static final int GROUP_HIERARCHY_LEVELS_DEFAULT = 0;
+
+  /*
+   * Let AD expand the nested groups with LDAP_MATCHING_RULE_IN_CHAIN instead of expanding
+   * them level by level. The depth is then not limited.
+   */
+  public static final String GROUP_HIERARCHY_IN_CHAIN_KEY = LDAP_CONFIG_PREFIX
+      + ".search.group.hierarchy.in.chain";
+  public static final boolean GROUP_HIERARCHY_IN_CHAIN_DEFAULT = false;
+
+  /*
+   * Filter of the user entries returned by the in chain search
+   */
+  public static final String NESTED_USER_SEARCH_FILTER_KEY = LDAP_CONFIG_PREFIX
+      + ".search.filter.nested.user";
+  public static final String NESTED_USER_SEARCH_FILTER_DEFAULT = "(objectClass=user)";
 
-  private static final SearchControls SEARCH_CONTROLS = new SearchControls();
+  /** OID of the AD LDAP_MATCHING_RULE_IN_CHAIN */
+  private static final String MATCHING_RULE_IN_CHAIN = "1.2.840.113556.1.4.1941";
+
+  private static final Logger LOG = LoggerFactory.getLogger(LdapGroupsMapping.class);
 
   public static int RECONNECT_RETRY_COUNT = 3;
 
@@ -138,29 +173,58 @@ public class LdapGroupsMapping implements GroupMappingServiceProvider, Configura
   private String bindPassword;
   private String baseDN;
   private String groupSearchFilter;
-  private String memberOfAttr;
   private String groupMemberAttr;
   private String groupNameAttr;
-  private boolean useOneQuery;
   private String providerName;
+  private int groupHierarchyLevels;
+  private boolean useInChain;
+  private String nestedUserSearchFilter;
+  private NestedGroupExpander nestedGroupExpander;
+  private int searchTimeout;
+  private int connectionTimeout;
+  private int readTimeout;
+
+  /** Member sets of the groups being fetched, one per sync thread */
+  private final ThreadLocal<MemberSet.Builder> memberBuilders =
+      new ThreadLocal<MemberSet.Builder>() {
+        @Override
+        protected MemberSet.Builder initialValue() {
+          return new MemberSet.Builder(NameDictionary.users());
+        }
+      };
 
-  static {
-    SEARCH_CONTROLS.setSearchScope(SearchControls.SUBTREE_SCOPE);
+  @Override
+  public List<String> getUsers(String group) throws IOException {
+    return getMembership(group).getUsers();
   }
 
   @Override
-  public List<String> getUsers(String group) throws IOException {
+  public GroupMembership getMembership(String group) throws IOException {
+    TraceScope scope = EadTracing.get().newScope("LdapGroupsMapping#getMembership");
+    try {
+      scope.addKVAnnotation("provider", String.valueOf(providerName));
+      scope.addKVAnnotation("group", group);
+      GroupMembership membership = fetchMembership(group);
+      scope.addKVAnnotation("members", Integer.toString(membership.getMembers().size()));
+      return membership;
+    } finally {
+      scope.close();
+    }
+  }
+
+  private GroupMembership fetchMembership(String group) throws IOException {
     LOG.info("Trying to get users for group " + group + " for " + providerName);
-    List<String> emptyResults = new ArrayList<String>();
 
     try {
       return doGetUsersOfGroup(group);
     } catch (CommunicationException e) {
       LOG.warn("Connection is closed, will try to reconnect for " + providerName + " LDAP URL: " +ldapUrl);
+      closeDirContext();
     } catch (NamingException e) {
-      LOG.warn("Exception trying to get groups for user " + group + ": " + "for " + providerName
-          + e.getMessage());
-      return emptyResults;
+      // A timed out connection cannot be used anymore
+      closeDirContext();
+      throw new IOException("Exception trying to get users of group " + group + " for "
+          + providerName + ": " + e.getMessage(), e);
     }
 
     int retryCount = 0;
@@ -171,25 +235,43 @@ public class LdapGroupsMapping implements GroupMappingServiceProvider, Configura
       } catch (CommunicationException e) {
         LOG.warn("Connection being closed, reconnecting failed, retryCount = " + retryCount);
       } catch (NamingException e) {
-        LOG.warn("Exception trying to get groups for user " + group + ":" + e.getMessage());
-        return emptyResults;
+        closeDirContext();
+        throw new IOException("Exception trying to get users of group " + group + " for "
+            + providerName + ": " + e.getMessage(), e);
       }
       // reset ctx so that new DirContext can be created with new connection
-      ctx =null;
+      closeDirContext();
     }
 
-    return emptyResults;
+    // Let the caller know the region is unreachable instead of pretending the group is empty
+    throw new IOException("Could not reach " + providerName + " LDAP URL: " + ldapUrl
+        + " after " + RECONNECT_RETRY_COUNT + " retries");
+
+  }
 
+  @Override
+  public void beginSync() {
+    if (nestedGroupExpander != null) {
+      nestedGroupExpander.clear();
+    }
   }
 
   @SuppressWarnings("rawtypes")
-  List<String> doGetUsersOfGroup(String group) throws NamingException {
-    List<String> groups = new ArrayList<String>();
+  GroupMembership doGetUsersOfGroup(String group) throws NamingException {
+    if (groupHierarchyLevels > 0 && useInChain) {
+      return doGetUsersInChain(group);
+    }
+
+    // Intern and digest the members as they are streamed from the server
+    MemberSet.Builder members = memberBuilders.get();
+    members.clear();
+    boolean found = false;
 
     DirContext ctx = getDirContext();
 
     SearchControls searchCtrls = new SearchControls();
     searchCtrls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+    searchCtrls.setTimeLimit(searchTimeout);
     String[] attributes = groupMemberAttr.split(",");
 
     searchCtrls.setReturningAttributes(attributes);
@@ -197,28 +279,36 @@ public class LdapGroupsMapping implements GroupMappingServiceProvider, Configura
     String filter = "(&" + groupSearchFilter + "(" + groupNameAttr + "={0}))";
 
     NamingEnumeration values = ctx.search(baseDN, filter, new Object[] { group }, searchCtrls);
+    // Time spent extracting the cn of the member Dns, only measured when traced
+    Span span = Tracer.getCurrentSpan();
+    long parseNanos = 0;
+    if (span != null) {
+      span.addTimelineAnnotation("searched");
+    }
 
     while (values.hasMoreElements()) {
       SearchResult sr = (SearchResult) values.next();
+      found = true;
       Attributes attrs = sr.getAttributes();
 
-      if (null != attrs) {
+      if (groupHierarchyLevels > 0) {
+        // Members may be groups themselves, expand them before taking their cn
+        Set<String> memberDns =
+            nestedGroupExpander.expand(ctx, sr.getNameInNamespace(),
+                NestedGroupExpander.memberDnsOf(attrs), groupHierarchyLevels);
+        addUsers(memberDns, members);
+      } else if (null != attrs) {
         for (NamingEnumeration ae = attrs.getAll(); ae.hasMoreElements();) {
           Attribute atr = (Attribute) ae.next();
           String attributeID = atr.getID();
           Enumeration vals = atr.getAll();
 
+          long parseStart = span == null ? 0 : System.nanoTime();
           while (vals.hasMoreElements()) {
-            String username = (String) vals.nextElement();
-            LdapName ln = new LdapName(username);
-            for (Rdn rdn : ln.getRdns()) {
-              if (rdn.getType().equalsIgnoreCase("cn")) {
-                LOG.debug("CN is: " + rdn.getValue());
-                groups.add(rdn.getValue().toString());
-                break;
-              }
-            }
-
+            NestedGroupExpander.addCnOf((String) vals.nextElement(), members);
+          }
+          if (span != null) {
+            parseNanos += System.nanoTime() - parseStart;
           }
         }
       } else {
@@ -226,17 +316,70 @@ public class LdapGroupsMapping implements GroupMappingServiceProvider, Configura
       }
     }
 
-    return groups;
+    if (span != null) {
+      span.addKVAnnotation("parseMicros", Long.toString(parseNanos / 1000));
+    }
+    return members.build(group, found);
   }
 
+  /**
+   * Get the direct and nested members of a group in one search, letting AD walk the
+   * hierarchy with LDAP_MATCHING_RULE_IN_CHAIN
+   */
+  GroupMembership doGetUsersInChain(String group) throws NamingException {
+    DirContext ctx = getDirContext();
+
+    SearchControls searchCtrls = new SearchControls();
+    searchCtrls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+    searchCtrls.setTimeLimit(searchTimeout);
+    // Only the Dns are needed
+    searchCtrls.setReturningAttributes(new String[0]);
+
+    List<String> groupDns = new ArrayList<String>();
+    String filter = "(&" + groupSearchFilter + "(" + groupNameAttr + "={0}))";
+    NamingEnumeration<SearchResult> groupResults =
+        ctx.search(baseDN, filter, new Object[] { group }, searchCtrls);
+    while (groupResults.hasMoreElements()) {
+      groupDns.add(groupResults.nextElement().getNameInNamespace());
+    }
+
+    Set<String> memberDns = new LinkedHashSet<String>();
+    String userFilter =
+        "(&" + nestedUserSearchFilter + "(memberOf:" + MATCHING_RULE_IN_CHAIN + ":={0}))";
+    for (String groupDn : groupDns) {
+      NamingEnumeration<SearchResult> userResults =
+          ctx.search(baseDN, userFilter, new Object[] { groupDn }, searchCtrls);
+      while (userResults.hasMoreElements()) {
+        memberDns.add(userResults.nextElement().getNameInNamespace());
+      }
+    }
+
+    MemberSet.Builder members = memberBuilders.get();
+    members.clear();
+    addUsers(memberDns, members);
+    return members.build(group, !groupDns.isEmpty());
+  }
+
+  private void addUsers(Set<String> memberDns, MemberSet.Builder members) {
+    for (String memberDn : memberDns) {
+      NestedGroupExpander.addCnOf(memberDn, members);
+    }
+  }
+
+  /**
+   * Package private for the tests to search a stub directory
+   */
   @SuppressWarnings("restriction")
-  private DirContext getDirContext() throws NamingException {
+  DirContext getDirContext() throws NamingException {
     if (ctx == null) {
       // Set up the initial environment for LDAP connectivity
       Hashtable<String, String> env = new Hashtable<String, String>();
       env.put(Context.INITIAL_CONTEXT_FACTORY, com.sun.jndi.ldap.LdapCtxFactory.class.getName());
       env.put(Context.PROVIDER_URL, ldapUrl);
       env.put(Context.SECURITY_AUTHENTICATION, "simple");
+      // Bound the wait of a hung region, the other providers sync on
+      env.put("com.sun.jndi.ldap.connect.timeout", Integer.toString(connectionTimeout));
+      env.put("com.sun.jndi.ldap.read.timeout", Integer.toString(readTimeout));
       // Set up SSL security, if necessary
       if (useSsl) {
         env.put(Context.SECURITY_PROTOCOL, "ssl");
@@ -252,6 +395,22 @@ public class LdapGroupsMapping implements GroupMappingServiceProvider, Configura
     return ctx;
   }
 
+  @Override
+  public void close() {
+    closeDirContext();
+  }
+
+  private void closeDirContext() {
+    if (ctx != null) {
+      try {
+        ctx.close();
+      } catch (NamingException e) {
+        LOG.debug("Could not close the connection to " + ldapUrl + ": " + e.getMessage());
+      }
+      ctx = null;
+    }
+  }
+
   @Override
   public Configuration getConf() {
     // TODO Auto-generated method stub
@@ -286,27 +445,23 @@ public class LdapGroupsMapping implements GroupMappingServiceProvider, Configura
     baseDN = conf.get(BASE_DN_KEY, BASE_DN_DEFAULT);
     groupSearchFilter = conf.get(GROUP_SEARCH_FILTER_KEY, GROUP_SEARCH_FILTER_DEFAULT);
 
-    memberOfAttr = conf.get(MEMBEROF_ATTR_KEY, MEMBEROF_ATTR_DEFAULT);
-
-    useOneQuery = !memberOfAttr.isEmpty();
     groupMemberAttr = conf.get(GROUP_MEMBERSHIP_ATTR_KEY, GROUP_MEMBERSHIP_ATTR_DEFAULT);
     groupNameAttr = conf.get(GROUP_NAME_ATTR_KEY, GROUP_NAME_ATTR_DEFAULT);
 
-    int dirSearchTimeout = conf.getInt(DIRECTORY_SEARCH_TIMEOUT, DIRECTORY_SEARCH_TIMEOUT_DEFAULT);
-    SEARCH_CONTROLS.setTimeLimit(dirSearchTimeout);
-    // Limit the attributes returned to only those required to speed up the
-    // search.
-    // See HADOOP-10626 and HADOOP-12001 for more details.
-    String[] returningAttributes;
-    if (useOneQuery) {
-      returningAttributes = new String[] { groupNameAttr, memberOfAttr };
-    } else {
-      returningAttributes = new String[] { groupNameAttr };
-    }
-    SEARCH_CONTROLS.setReturningAttributes(returningAttributes);
+    groupHierarchyLevels = conf.getInt(GROUP_HIERARCHY_LEVELS_KEY, GROUP_HIERARCHY_LEVELS_DEFAULT);
+    useInChain = conf.getBoolean(GROUP_HIERARCHY_IN_CHAIN_KEY, GROUP_HIERARCHY_IN_CHAIN_DEFAULT);
+    nestedUserSearchFilter =
+        conf.get(NESTED_USER_SEARCH_FILTER_KEY, NESTED_USER_SEARCH_FILTER_DEFAULT);
+    searchTimeout = conf.getInt(DIRECTORY_SEARCH_TIMEOUT, DIRECTORY_SEARCH_TIMEOUT_DEFAULT);
+    connectionTimeout = conf.getInt(CONNECTION_TIMEOUT, CONNECTION_TIMEOUT_DEFAULT);
+    readTimeout = conf.getInt(READ_TIMEOUT, READ_TIMEOUT_DEFAULT);
+    nestedGroupExpander =
+        new NestedGroupExpander(baseDN, groupSearchFilter, groupMemberAttr, searchTimeout);
+    // Connect again with the new settings
+    closeDirContext();
   }
 
-  String getPassword(Configuration conf, String alias, String defaultPass) {
+  static String getPassword(Configuration conf, String alias, String defaultPass) {
     String password = null;
     try {
       char[] passchars = conf.getPassword(alias);
@@ -321,7 +476,7 @@ public class LdapGroupsMapping implements GroupMappingServiceProvider, Configura
     return password;
   }
 
-  String extractPassword(String pwFile) {
+  static String extractPassword(String pwFile) {
     if (pwFile.isEmpty()) {
       // If there is no password file defined, we'll assume that we should do
       // an anonymous bind
@@ -2,15 +2,52 @@ package com.krish.security.hadoop.impl;
 
 import java.util.List;
 
+import com.krish.directory.service.CircuitBreaker;
 import com.krish.directory.service.GroupMappingServiceProvider;
 
 
 public class MultiRegionGroups {
-  
+
   public GroupMappingServiceProvider groupServiceProvider;
-  
+
   public List<String> groups;
 
+  /** Name of the provider (region) as configured, e.g. NAEAST */
+  public String providerName;
+
+  /** Interval between two syncs of this provider in milliseconds */
+  public long syncInterval;
+
+  /** Upper bound of the random delay added to every scheduled sync */
+  public long syncJitter;
+
+  /** Upper bound of the delay between syncs while the provider keeps failing */
+  public long maxBackoff;
+
+  /** Refresh interval of the groups which are queried, but not often enough to be hot */
+  public long coldSyncInterval;
+
+  /** Interval of the full resync, the only one refreshing the groups nobody queries */
+  public long fullSyncInterval;
+
+  /** Queries per minute from which a group is refreshed every syncInterval */
+  public double hotThreshold;
+
+  /** Maximum number of groups fetched upstream per sync, 0 for no limit */
+  public int syncBudget;
+
+  /** Delay before searching again a group which does not exist upstream */
+  public long negativeTtl;
+
+  /** Maximum delay between two searches of a group which does not exist upstream */
+  public long maxNegativeTtl;
+
+  /** Milliseconds a sync may spend fetching groups, 0 for no limit */
+  public long syncCycleBudget;
+
+  /** Stops calling the provider while its lookups keep failing */
+  public CircuitBreaker circuitBreaker;
+
   public GroupMappingServiceProvider getGroupServiceProvider() {
     return groupServiceProvider;
   }
@@ -26,6 +63,102 @@ public class MultiRegionGroups {
   public void setGroups(List<String> groups) {
     this.groups = groups;
   }
-  
-  
+
+  public String getProviderName() {
+    return providerName;
+  }
+
+  public void setProviderName(String providerName) {
+    this.providerName = providerName;
+  }
+
+  public long getSyncInterval() {
+    return syncInterval;
+  }
+
+  public void setSyncInterval(long syncInterval) {
+    this.syncInterval = syncInterval;
+  }
+
+  public long getSyncJitter() {
+    return syncJitter;
+  }
+
+  public void setSyncJitter(long syncJitter) {
+    this.syncJitter = syncJitter;
+  }
+
+  public long getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  public void setMaxBackoff(long maxBackoff) {
+    this.maxBackoff = maxBackoff;
+  }
+
+  public long getColdSyncInterval() {
+    return coldSyncInterval;
+  }
+
+  public void setColdSyncInterval(long coldSyncInterval) {
+    this.coldSyncInterval = coldSyncInterval;
+  }
+
+  public long getFullSyncInterval() {
+    return fullSyncInterval;
+  }
+
+  public void setFullSyncInterval(long fullSyncInterval) {
+    this.fullSyncInterval = fullSyncInterval;
+  }
+
+  public double getHotThreshold() {
+    return hotThreshold;
+  }
+
+  public void setHotThreshold(double hotThreshold) {
+    this.hotThreshold = hotThreshold;
+  }
+
+  public int getSyncBudget() {
+    return syncBudget;
+  }
+
+  public void setSyncBudget(int syncBudget) {
+    this.syncBudget = syncBudget;
+  }
+
+  public long getNegativeTtl() {
+    return negativeTtl;
+  }
+
+  public void setNegativeTtl(long negativeTtl) {
+    this.negativeTtl = negativeTtl;
+  }
+
+  public long getMaxNegativeTtl() {
+    return maxNegativeTtl;
+  }
+
+  public void setMaxNegativeTtl(long maxNegativeTtl) {
+    this.maxNegativeTtl = maxNegativeTtl;
+  }
+
+  public long getSyncCycleBudget() {
+    return syncCycleBudget;
+  }
+
+  public void setSyncCycleBudget(long syncCycleBudget) {
+    this.syncCycleBudget = syncCycleBudget;
+  }
+
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+
 }
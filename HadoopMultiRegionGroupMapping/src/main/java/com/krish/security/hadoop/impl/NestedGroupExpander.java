@@ -0,0 +1,254 @@
+package com.krish.security.hadoop.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.krish.directory.service.MemberSet;
+
+/**
+ * Expands the members of a group through its nested groups, breadth first and up to a
+ * depth limit. The member Dns of a level are classified with batched searches, and the
+ * member list of every subgroup is memoized until the next {@link #clear()}, so that a
+ * subgroup shared by several groups is fetched only once per sync.
+ *
+ * @author krishdey
+ *
+ */
+class NestedGroupExpander {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NestedGroupExpander.class);
+
+  /** Number of Dns classified by a single search */
+  static final int BATCH_SIZE = 50;
+
+  private final String baseDN;
+  private final String groupSearchFilter;
+  private final String[] memberAttrs;
+  private final int searchTimeLimit;
+
+  /** Member Dns of the subgroups, by normalized Dn */
+  private final Map<String, List<String>> subgroups = new HashMap<String, List<String>>();
+
+  /** Normalized Dns known not to be groups */
+  private final Set<String> leaves = new HashSet<String>();
+
+  /**
+   * @param searchTimeLimit time limit of every search in milliseconds, 0 for none
+   */
+  NestedGroupExpander(String baseDN, String groupSearchFilter, String groupMemberAttr,
+      int searchTimeLimit) {
+    this.baseDN = baseDN;
+    this.groupSearchFilter = groupSearchFilter;
+    this.memberAttrs = groupMemberAttr.split(",");
+    this.searchTimeLimit = searchTimeLimit;
+  }
+
+  /**
+   * Forget the memoized subgroups, called at the start of every sync
+   */
+  synchronized void clear() {
+    subgroups.clear();
+    leaves.clear();
+  }
+
+  /**
+   * @param ctx
+   * @param groupDn Dn of the group being expanded
+   * @param memberDns direct members of the group
+   * @param maxDepth number of nested levels to expand
+   * @return the Dns of the non group members, direct or nested
+   * @throws NamingException
+   */
+  synchronized Set<String> expand(DirContext ctx, String groupDn, List<String> memberDns,
+      int maxDepth) throws NamingException {
+    Set<String> users = new LinkedHashSet<String>();
+    Set<String> visited = new HashSet<String>();
+    visited.add(normalize(groupDn));
+
+    List<String> level = memberDns;
+    for (int depth = 0; !level.isEmpty(); depth++) {
+      classify(ctx, level);
+      List<String> next = new ArrayList<String>();
+      for (String dn : level) {
+        String key = normalize(dn);
+        if (!visited.add(key)) {
+          // Already seen through another path, or a cycle back to an enclosing group
+          continue;
+        }
+        List<String> nested = subgroups.get(key);
+        if (nested == null) {
+          users.add(dn);
+        } else if (depth < maxDepth) {
+          next.addAll(nested);
+        } else {
+          LOG.warn("Depth limit " + maxDepth + " reached at " + dn + " while expanding "
+              + groupDn);
+        }
+      }
+      level = next;
+    }
+    return users;
+  }
+
+  /**
+   * Find out which of the Dns are groups, searching only the ones not memoized yet
+   */
+  private void classify(DirContext ctx, List<String> dns) throws NamingException {
+    Map<String, String> unknown = new HashMap<String, String>();
+    for (String dn : dns) {
+      String key = normalize(dn);
+      if (!subgroups.containsKey(key) && !leaves.contains(key)) {
+        String cn = cnOf(dn);
+        if (cn == null) {
+          leaves.add(key);
+        } else {
+          unknown.put(key, cn);
+        }
+      }
+    }
+
+    List<String> keys = new ArrayList<String>(unknown.keySet());
+    for (int start = 0; start < keys.size(); start += BATCH_SIZE) {
+      List<String> batch = keys.subList(start, Math.min(keys.size(), start + BATCH_SIZE));
+      searchBatch(ctx, batch, unknown);
+    }
+  }
+
+  private void searchBatch(DirContext ctx, List<String> batch, Map<String, String> cns)
+      throws NamingException {
+    StringBuilder filter = new StringBuilder("(&").append(groupSearchFilter).append("(|");
+    Object[] args = new Object[batch.size()];
+    for (int i = 0; i < batch.size(); i++) {
+      filter.append("(cn={").append(i).append("})");
+      args[i] = cns.get(batch.get(i));
+    }
+    filter.append("))");
+
+    SearchControls searchCtrls = new SearchControls();
+    searchCtrls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+    searchCtrls.setReturningAttributes(memberAttrs);
+    searchCtrls.setTimeLimit(searchTimeLimit);
+
+    Set<String> wanted = new HashSet<String>(batch);
+    NamingEnumeration<SearchResult> results =
+        ctx.search(baseDN, filter.toString(), args, searchCtrls);
+    while (results.hasMoreElements()) {
+      SearchResult sr = results.nextElement();
+      String key = normalize(sr.getNameInNamespace());
+      // The cn is not unique, only the entries whose Dn is a member count
+      if (wanted.remove(key)) {
+        subgroups.put(key, memberDnsOf(sr.getAttributes()));
+      }
+    }
+    leaves.addAll(wanted);
+  }
+
+  static List<String> memberDnsOf(Attributes attrs) throws NamingException {
+    List<String> dns = new ArrayList<String>();
+    if (attrs == null) {
+      return dns;
+    }
+    for (NamingEnumeration<? extends Attribute> ae = attrs.getAll(); ae.hasMoreElements();) {
+      Attribute atr = ae.next();
+      for (NamingEnumeration<?> vals = atr.getAll(); vals.hasMoreElements();) {
+        dns.add(vals.nextElement().toString());
+      }
+    }
+    return dns;
+  }
+
+  /**
+   * @return the value of the leaf cn of the Dn, null if it does not start with a cn
+   */
+  static String cnOf(String dn) {
+    try {
+      LdapName ln = new LdapName(dn);
+      if (ln.size() == 0) {
+        return null;
+      }
+      Rdn leaf = ln.getRdn(ln.size() - 1);
+      return leaf.getType().equalsIgnoreCase("cn") ? leaf.getValue().toString() : null;
+    } catch (NamingException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Add the value of the leaf cn of a member Dn to a member set, as {@link #cnOf(String)}
+   * would find it. The value is interned straight from the Dn, which is only parsed when
+   * the value is escaped, quoted or part of a multi valued Rdn.
+   *
+   * @return false if the leaf Rdn is not a cn
+   */
+  static boolean addCnOf(String dn, MemberSet.Builder members) {
+    int i = skipSpaces(dn, 0);
+    if (!dn.regionMatches(true, i, "cn", 0, 2)) {
+      return false;
+    }
+    i = skipSpaces(dn, i + 2);
+    if (i == dn.length() || dn.charAt(i) != '=') {
+      return false;
+    }
+    int start = skipSpaces(dn, i + 1);
+    int end = start;
+    while (end < dn.length() && dn.charAt(end) != ',' && dn.charAt(end) != ';') {
+      char c = dn.charAt(end);
+      if (c == '\\' || c == '"' || c == '+' || (c == '#' && end == start)) {
+        String user = cnOf(dn);
+        if (user == null) {
+          return false;
+        }
+        members.add(user);
+        return true;
+      }
+      end++;
+    }
+    while (end > start && dn.charAt(end - 1) == ' ') {
+      end--;
+    }
+    members.add(dn, start, end);
+    return true;
+  }
+
+  private static int skipSpaces(String dn, int i) {
+    while (i < dn.length() && dn.charAt(i) == ' ') {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Case and spacing insensitive form of a Dn
+   */
+  static String normalize(String dn) {
+    try {
+      StringBuilder sb = new StringBuilder();
+      for (Rdn rdn : new LdapName(dn).getRdns()) {
+        sb.append(rdn.getType().toLowerCase()).append('=')
+            .append(rdn.getValue().toString().toLowerCase()).append(',');
+      }
+      return sb.toString();
+    } catch (NamingException e) {
+      return dn.toLowerCase();
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+package com.krish.security.hadoop.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.GroupMappingServiceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.krish.directory.service.MembershipSnapshot;
+
+/**
+ * Hadoop group mapping resolving the groups of a user from the membership snapshot
+ * published by the EAD server, without any LDAP call. The snapshot is mapped in memory and
+ * mapped again when the server replaced the file, checked at most every reload interval.
+ *
+ * Set hadoop.security.group.mapping to this class and
+ * hadoop.security.group.mapping.snapshot.file to the snapshot of the server.
+ *
+ * @author krishdey
+ *
+ */
+public class SnapshotGroupsMapping implements GroupMappingServiceProvider, Configurable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotGroupsMapping.class);
+
+  private Configuration conf;
+
+  private File file;
+
+  private long reloadInterval;
+
+  private volatile MembershipSnapshot snapshot;
+
+  /** Modification time and size of the file mapped */
+  private long mappedModified;
+  private long mappedLength;
+
+  private volatile long nextCheck;
+
+  @Override
+  public List<String> getGroups(String user) throws IOException {
+    long now = System.currentTimeMillis();
+    if (now >= nextCheck) {
+      reloadIfChanged(now);
+    }
+    MembershipSnapshot current = snapshot;
+    if (current == null) {
+      throw new IOException("No membership snapshot at " + file);
+    }
+    return current.getGroups(user);
+  }
+
+  /**
+   * Map the file again, in case it was replaced within the same millisecond
+   */
+  @Override
+  public synchronized void cacheGroupsRefresh() throws IOException {
+    mappedModified = 0;
+    mappedLength = 0;
+    nextCheck = 0;
+    reloadIfChanged(System.currentTimeMillis());
+  }
+
+  @Override
+  public void cacheGroupsAdd(List<String> groups) throws IOException {
+    // The snapshot holds all the groups
+  }
+
+  private synchronized void reloadIfChanged(long now) {
+    if (now < nextCheck) {
+      return;
+    }
+    nextCheck = now + reloadInterval;
+    long modified = file.lastModified();
+    long length = file.length();
+    if (modified == mappedModified && length == mappedLength && snapshot != null) {
+      return;
+    }
+    try {
+      MembershipSnapshot loaded = MembershipSnapshot.open(file);
+      snapshot = loaded;
+      mappedModified = modified;
+      mappedLength = length;
+      LOG.info("Mapped membership snapshot " + file + " of " + loaded.getUserCount()
+          + " users in " + loaded.getGroupCount() + " groups, written at "
+          + loaded.getCreated());
+    } catch (IOException e) {
+      // Keep serving the previous snapshot
+      LOG.warn("Could not map membership snapshot " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return the snapshot mapped, null if none could be
+   */
+  public MembershipSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public synchronized void setConf(Configuration conf) {
+    this.conf = conf;
+    String path = conf.get(GroupsMappingBuilder.SNAPSHOT_FILE_KEY,
+        GroupsMappingBuilder.SNAPSHOT_FILE_DEFAULT);
+    if (path == null || path.isEmpty()) {
+      throw new RuntimeException("Membership snapshot file is not configured");
+    }
+    file = new File(path);
+    reloadInterval = conf.getLong(GroupsMappingBuilder.SNAPSHOT_RELOAD_INTERVAL_KEY,
+        GroupsMappingBuilder.SNAPSHOT_RELOAD_INTERVAL_DEFAULT);
+    snapshot = null;
+    nextCheck = 0;
+    reloadIfChanged(System.currentTimeMillis());
+  }
+
+}
@@ -92,6 +92,32 @@ elif [ "$EAD_ACTION" = "run" ]; then
      $EAD_JAVA_OPTS \
      -Dlog4j.configuration="\"file:$EAD_HOME/log4j.properties\"" \
      -Dead.server.port=$EAD_PORT \
+     -Dead.instance.reset=${EAD_INSTANCE_RESET:-false} \
+     -Dead.sync.role=${EAD_SYNC_ROLE:-primary} \
+     -Dead.replication.primary=$EAD_REPLICATION_PRIMARY \
+     -Dead.replica.id=${EAD_REPLICA_ID:-1} \
+     -Dead.replication.bind.dn="\"${EAD_REPLICATION_BIND_DN:-uid=admin,ou=system}\"" \
+     -Dead.replication.heartbeat=${EAD_REPLICATION_HEARTBEAT:-false} \
+     -Dead.zookeeper.quorum=$EAD_ZOOKEEPER_QUORUM \
+     -Dead.sync.coordination=${EAD_SYNC_COORDINATION:-leader} \
+     -Dead.transport.io.threads=$EAD_IO_THREADS \
+     -Dead.transport.worker.threads=$EAD_WORKER_THREADS \
+     -Dead.transport.backlog=$EAD_ACCEPT_BACKLOG \
+     -Dead.transport.max.pdu.size=$EAD_MAX_PDU_SIZE \
+     -Dead.ldaps.port=$EAD_LDAPS_PORT \
+     -Dead.start.tls=$EAD_START_TLS \
+     -Dead.tls.keystore=$EAD_TLS_KEYSTORE \
+     -Dead.admission.enabled=$EAD_ADMISSION_ENABLED \
+     -Dead.admission.client.concurrency=$EAD_ADMISSION_CLIENT_CONCURRENCY \
+     -Dead.admission.client.rate=$EAD_ADMISSION_CLIENT_RATE \
+     -Dead.admission.critical.clients="\"$EAD_ADMISSION_CRITICAL_CLIENTS\"" \
+     -Dead.admission.critical.users="\"$EAD_ADMISSION_CRITICAL_USERS\"" \
+     -Dead.htrace.sampler.classes=$EAD_HTRACE_SAMPLER \
+     -Dead.htrace.sampler.fraction=$EAD_HTRACE_SAMPLER_FRACTION \
+     -Dead.htrace.span.receiver.classes=$EAD_HTRACE_SPAN_RECEIVERS \
+     -Dead.slow.op.threshold=$EAD_SLOW_OP_THRESHOLD \
+     -Dead.bind.cache.ttl=$EAD_BIND_CACHE_TTL \
+     -Dead.config.watch=${EAD_CONFIG_WATCH:-true} \
      -Dhadoop-group-mapping=$EAD_XML_PATH \
      -classpath "\"$CLASSPATH\"" \
     com.krish.ead.server.EADServer "\"$EAD_INSTANCE\""
@@ -0,0 +1,49 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+  @Test
+  public void testOpensAndProbes() {
+    CircuitBreaker breaker = new CircuitBreaker("NA", 3, 1000);
+    breaker.recordFailure(0);
+    breaker.recordFailure(10);
+    assertTrue(breaker.allowRequest(20));
+    // A success resets the count
+    breaker.recordSuccess();
+    breaker.recordFailure(30);
+    breaker.recordFailure(40);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    breaker.recordFailure(50);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest(500));
+    assertEquals(550, breaker.getRetryDelay(500));
+
+    // A single probe once the interval elapsed
+    assertTrue(breaker.allowRequest(1050));
+    assertFalse(breaker.allowRequest(1060));
+    breaker.recordFailure(1100);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest(2000));
+
+    assertTrue(breaker.allowRequest(2100));
+    breaker.recordSuccess();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest(2110));
+  }
+
+  @Test
+  public void testNeverOpens() {
+    CircuitBreaker breaker = new CircuitBreaker("NA", 0, 1000);
+    for (int i = 0; i < 100; i++) {
+      breaker.recordFailure(i);
+    }
+    assertTrue(breaker.allowRequest(100));
+  }
+
+}
@@ -0,0 +1,35 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GroupAccessTrackerTest {
+
+  @Test
+  public void testGroupNameOf() {
+    assertEquals("ND-POC-ENG", GroupAccessTracker.groupNameOf("cn=ND-POC-ENG,ou=groups,o=ead"));
+    assertEquals("ND-POC-ENG",
+        GroupAccessTracker.groupNameOf("CN = ND-POC-ENG , OU=Groups,o=ead"));
+    assertEquals("ND-POC-ENG", GroupAccessTracker.groupNameOf("cn=ND-POC-ENG,ou=groups"));
+    assertEquals("ND,POC", GroupAccessTracker.groupNameOf("cn=ND\\,POC,ou=groups,o=ead"));
+    assertNull(GroupAccessTracker.groupNameOf("uid=krish,ou=users,o=ead"));
+    assertNull(GroupAccessTracker.groupNameOf("cn=ND-POC-ENG,ou=users,o=ead"));
+    assertNull(GroupAccessTracker.groupNameOf("cn=ND-POC-ENG+sn=x,ou=groups,o=ead"));
+    assertNull(GroupAccessTracker.groupNameOf("ou=groups,o=ead"));
+    assertNull(GroupAccessTracker.groupNameOf("krish"));
+  }
+
+  @Test
+  public void testRecordGroupDn() {
+    GroupAccessTracker tracker = new GroupAccessTracker();
+    tracker.recordGroupDn("cn=ND-POC-ENG,ou=groups,o=ead");
+    tracker.recordGroupDn("uid=krish,ou=users,o=ead");
+    assertTrue(tracker.isQueried("nd-poc-eng"));
+    assertFalse(tracker.isQueried("krish"));
+  }
+
+}
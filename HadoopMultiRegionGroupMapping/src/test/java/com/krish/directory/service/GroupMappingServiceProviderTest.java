@@ -0,0 +1,47 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GroupMappingServiceProviderTest {
+
+  @Test
+  public void testDefaultBatchStopsWhenAsked() {
+    GroupMappingServiceProvider provider = new GroupMappingServiceProvider() {
+      @Override
+      public List<String> getUsers(String group) throws IOException {
+        if (group.equals("broken")) {
+          throw new IOException("unreachable");
+        }
+        return Collections.singletonList(group + "-user");
+      }
+    };
+    final List<String> events = new ArrayList<String>();
+    provider.getMemberships(Arrays.asList("a", "broken", "b", "c"),
+        new GroupMappingServiceProvider.MembershipCallback() {
+          @Override
+          public boolean beforeRequest(String group) {
+            return !group.equals("c");
+          }
+
+          @Override
+          public void fetched(GroupMembership membership) {
+            events.add("fetched " + membership.getUsers().get(0));
+          }
+
+          @Override
+          public void failed(String group, IOException e) {
+            events.add("failed " + group);
+          }
+        });
+    assertEquals(Arrays.asList("fetched a-user", "failed broken", "fetched b-user"), events);
+  }
+
+}
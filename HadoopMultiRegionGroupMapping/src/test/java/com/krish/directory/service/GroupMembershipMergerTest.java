@@ -0,0 +1,45 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class GroupMembershipMergerTest {
+
+  private static String[] sorted(String... users) {
+    return GroupMembershipMerger.sorted(Arrays.asList(users));
+  }
+
+  @Test
+  public void testMergeUnionAndDiff() {
+    String[] east = sorted("krish", "jim", "chris");
+    String[] west = sorted("Jim", "anna");
+    String[] local = sorted("krish", "bob");
+
+    GroupMembershipMerger.Result result =
+        GroupMembershipMerger.merge(Arrays.asList(east, west), local);
+    assertEquals(Arrays.asList("anna", "chris", "jim", "krish"), result.getMerged());
+    assertEquals(Arrays.asList("anna", "chris", "jim"), result.getToAdd());
+    assertEquals(Arrays.asList("bob"), result.getToRemove());
+  }
+
+  @Test
+  public void testMergeUnchanged() {
+    GroupMembershipMerger.Result result = GroupMembershipMerger.merge(
+        Collections.singletonList(sorted("krish", "jim")), sorted("JIM", "Krish"));
+    assertTrue(result.isUnchanged());
+  }
+
+  @Test
+  public void testMergeWithoutSources() {
+    GroupMembershipMerger.Result result = GroupMembershipMerger
+        .merge(Collections.<String[]>emptyList(), sorted("krish", "jim"));
+    assertTrue(result.getMerged().isEmpty());
+    assertEquals(Arrays.asList("jim", "krish"), result.getToRemove());
+  }
+
+}
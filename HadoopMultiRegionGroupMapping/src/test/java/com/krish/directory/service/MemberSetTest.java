@@ -0,0 +1,57 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MemberSetTest {
+
+  @Test
+  public void testDictionaryInternsIgnoringCase() {
+    NameDictionary dictionary = new NameDictionary();
+    int krish = dictionary.intern("Krish");
+    assertEquals(krish, dictionary.intern("KRISH"));
+    assertEquals(krish, dictionary.intern("CN=krish,OU=Users", 3, 8));
+    assertEquals("Krish", dictionary.name(krish));
+    assertEquals(-1, dictionary.idOf("jim"));
+
+    // Beyond the initial capacity
+    for (int i = 0; i < 5000; i++) {
+      dictionary.intern("user" + i);
+    }
+    assertEquals(5001, dictionary.size());
+    assertEquals(krish, dictionary.idOf("krish"));
+    assertEquals("user4321", dictionary.name(dictionary.idOf("USER4321")));
+  }
+
+  @Test
+  public void testBuilderMatchesDigestOfNames() {
+    NameDictionary dictionary = new NameDictionary();
+    MemberSet.Builder builder = new MemberSet.Builder(dictionary);
+    builder.add("krish");
+    builder.add("CN=Jim,OU=Users", 3, 6);
+    builder.add("KRISH");
+    GroupMembership membership = builder.build("ND-POC-ENG", true);
+
+    assertEquals(GroupMembership.of("ND-POC-ENG", Arrays.asList("jim", "krish")).getDigest(),
+        membership.getDigest());
+    assertEquals(2, membership.getMembers().size());
+    assertArrayEquals(new String[] { "Jim", "krish" },
+        membership.getMembers().sortedNames());
+    assertTrue(membership.getMembers().contains("JIM"));
+    assertFalse(membership.getMembers().contains("anna"));
+
+    // The builder is emptied for the next group
+    builder.add("krish");
+    MemberSet next = builder.buildSet();
+    assertEquals(Arrays.asList("krish"), next.names());
+    assertSame(membership.getUsers().get(0), dictionary.name(dictionary.idOf("krish")));
+  }
+
+}
@@ -0,0 +1,58 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class MembershipDigestTest {
+
+  @Test
+  public void testDigestIgnoresOrderAndCase() {
+    GroupMembership first =
+        GroupMembership.of("ND-POC-ENG", Arrays.asList("krish", "jim", "chris"));
+    GroupMembership second =
+        GroupMembership.of("ND-POC-ENG", Arrays.asList("Chris", "KRISH", "jim"));
+    assertEquals(first.getDigest(), second.getDigest());
+  }
+
+  @Test
+  public void testDuplicateMembersAreCountedOnce() {
+    List<String> users = Arrays.asList("krish", "jim", "KRISH", "krish");
+    GroupMembership first = GroupMembership.of("ND-POC-ENG", Arrays.asList("krish", "jim"));
+    GroupMembership second = GroupMembership.of("ND-POC-ENG", users);
+    assertEquals(first.getDigest(), second.getDigest());
+    assertEquals(Arrays.asList("krish", "jim"), second.getUsers());
+    // As digested when streamed from a provider
+    MemberSet.Builder builder = new MemberSet.Builder(NameDictionary.users());
+    for (String user : users) {
+      builder.add(user);
+    }
+    assertEquals(builder.build("ND-POC-ENG", true).getDigest(), second.getDigest());
+  }
+
+  @Test
+  public void testDigestDoesNotDependOnTheLocale() {
+    String digest = GroupMembership.of("ND-POC-ENG", Arrays.asList("KIM")).getDigest();
+    Locale locale = Locale.getDefault();
+    try {
+      Locale.setDefault(new Locale("tr", "TR"));
+      assertEquals(digest, GroupMembership.of("ND-POC-ENG", Arrays.asList("KIM")).getDigest());
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test
+  public void testDigestChangesWithMembers() {
+    GroupMembership first = GroupMembership.of("ND-POC-ENG", Arrays.asList("krish", "jim"));
+    GroupMembership second = GroupMembership.of("ND-POC-ENG", Arrays.asList("krish", "chris"));
+    GroupMembership third = GroupMembership.of("ND-POC-ENG", Arrays.asList("krish"));
+    assertNotEquals(first.getDigest(), second.getDigest());
+    assertNotEquals(first.getDigest(), third.getDigest());
+  }
+}
@@ -0,0 +1,81 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MembershipSnapshotTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("membership-snapshot").toFile();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void testGroupsOfUsers() throws Exception {
+    Map<String, List<String>> members = new HashMap<String, List<String>>();
+    members.put("ND-POC-ENG", Arrays.asList("krish", "jim", "Anna"));
+    members.put("ND-DEY-ENG", Arrays.asList("krish", "KRISH"));
+    members.put("ND-EMPTY", Collections.<String>emptyList());
+    File file = new File(dir, "groups.snapshot");
+    assertEquals(3, MembershipSnapshot.write(file, members));
+
+    MembershipSnapshot snapshot = MembershipSnapshot.open(file);
+    assertEquals(3, snapshot.getUserCount());
+    assertEquals(3, snapshot.getGroupCount());
+    assertEquals(Arrays.asList("ND-DEY-ENG", "ND-POC-ENG"), snapshot.getGroups("krish"));
+    assertEquals(Arrays.asList("ND-DEY-ENG", "ND-POC-ENG"), snapshot.getGroups("Krish"));
+    assertEquals(Arrays.asList("ND-POC-ENG"), snapshot.getGroups("anna"));
+    assertTrue(snapshot.getGroups("nobody").isEmpty());
+    assertTrue(snapshot.getGroups("").isEmpty());
+    assertEquals(-1, snapshot.indexOfUser("zz"));
+  }
+
+  @Test
+  public void testReplacedSnapshotKeepsMappingValid() throws Exception {
+    File file = new File(dir, "groups.snapshot");
+    MembershipSnapshot.write(file,
+        Collections.singletonMap("ND-POC-ENG", Arrays.asList("krish")));
+    MembershipSnapshot first = MembershipSnapshot.open(file);
+    MembershipSnapshot.write(file,
+        Collections.singletonMap("ND-DEY-ENG", Arrays.asList("jim")));
+    assertEquals(Arrays.asList("ND-POC-ENG"), first.getGroups("krish"));
+    assertEquals(Arrays.asList("ND-DEY-ENG"), MembershipSnapshot.open(file).getGroups("jim"));
+    assertEquals(1, dir.list().length);
+  }
+
+  @Test(expected = java.io.IOException.class)
+  public void testTruncatedSnapshot() throws Exception {
+    File file = new File(dir, "groups.snapshot");
+    MembershipSnapshot.write(file,
+        Collections.singletonMap("ND-POC-ENG", Arrays.asList("krish", "jim")));
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() - 2);
+    } finally {
+      raf.close();
+    }
+    MembershipSnapshot.open(file);
+  }
+
+}
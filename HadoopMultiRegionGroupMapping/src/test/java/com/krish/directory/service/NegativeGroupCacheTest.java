@@ -0,0 +1,61 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NegativeGroupCacheTest {
+
+  @Test
+  public void testNegativeCacheBacksOff() {
+    NegativeGroupCache cache = new NegativeGroupCache();
+    assertFalse(cache.isSuppressed("NAEAST:ND-POC-ENG", 0));
+    assertEquals(100, cache.recordMiss("NAEAST:ND-POC-ENG", 0, 100, 300));
+    assertTrue(cache.isSuppressed("NAEAST:ND-POC-ENG", 99));
+    assertFalse(cache.isSuppressed("NAEAST:ND-POC-ENG", 100));
+    assertEquals(200, cache.recordMiss("NAEAST:ND-POC-ENG", 100, 100, 300));
+    assertEquals(300, cache.recordMiss("NAEAST:ND-POC-ENG", 300, 100, 300));
+    cache.clear("NAEAST:ND-POC-ENG");
+    assertFalse(cache.isSuppressed("NAEAST:ND-POC-ENG", 301));
+  }
+
+  @Test
+  public void testMissExpires() {
+    NegativeGroupCache cache = new NegativeGroupCache();
+    cache.recordMiss("NAEAST:ND-POC-ENG", 1000, 100, 300);
+    assertTrue(cache.isSuppressed("NAEAST:ND-POC-ENG", 1000));
+    assertTrue(cache.isSuppressed("NAEAST:ND-POC-ENG", 1099));
+    assertFalse(cache.isSuppressed("NAEAST:ND-POC-ENG", 1100));
+    // Other groups and providers are not suppressed
+    assertFalse(cache.isSuppressed("NAEAST:ND-DEY-ENG", 1000));
+    assertFalse(cache.isSuppressed("NAWEST:ND-POC-ENG", 1000));
+  }
+
+  @Test
+  public void testReloadedGroupIsSearchedRightAway() {
+    NegativeGroupCache cache = new NegativeGroupCache();
+    cache.recordMiss("NAEAST:ND-POC-ENG", 0, 100, 300);
+    cache.recordMiss("NAEAST:ND-POC-ENG", 100, 100, 300);
+    assertTrue(cache.isSuppressed("NAEAST:ND-POC-ENG", 150));
+    // Removed from and added back to the group mapping
+    cache.clear("NAEAST:ND-POC-ENG");
+    assertFalse(cache.isSuppressed("NAEAST:ND-POC-ENG", 150));
+  }
+
+  @Test
+  public void testGroupFoundAgainStartsOverItsBackoff() {
+    NegativeGroupCache cache = new NegativeGroupCache();
+    cache.recordMiss("NAEAST:ND-POC-ENG", 0, 100, 1000);
+    cache.recordMiss("NAEAST:ND-POC-ENG", 100, 100, 1000);
+    cache.recordMiss("NAEAST:ND-POC-ENG", 300, 100, 1000);
+    // Found upstream again
+    cache.clear("NAEAST:ND-POC-ENG");
+    assertFalse(cache.isSuppressed("NAEAST:ND-POC-ENG", 700));
+    // Missing again, checked after the first delay rather than the backed off one
+    assertEquals(100, cache.recordMiss("NAEAST:ND-POC-ENG", 700, 100, 1000));
+    assertFalse(cache.isSuppressed("NAEAST:ND-POC-ENG", 800));
+  }
+
+}
@@ -0,0 +1,63 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PosixIdAllocatorTest {
+
+  /**
+   * Numbers held in a map, as they would be in the directory
+   */
+  private static class MapLookup implements PosixIdAllocator.IdLookup {
+    final Map<Long, String> holders = new HashMap<Long, String>();
+
+    @Override
+    public String holderOf(long id) {
+      return holders.get(id);
+    }
+
+    long allocate(PosixIdAllocator allocator, String name) throws Exception {
+      long id = allocator.allocate(name, this);
+      holders.put(id, name);
+      return id;
+    }
+  }
+
+  @Test
+  public void testNumbersAreStableAndInRange() throws Exception {
+    PosixIdAllocator allocator = new PosixIdAllocator(1000000, 1000000000);
+    long krish = allocator.hash("krishdey");
+    assertEquals(krish, new PosixIdAllocator(1000000, 1000000000).hash("KrishDey"));
+    assertTrue(krish >= 1000000 && krish < 1001000000);
+    assertEquals(krish, new MapLookup().allocate(allocator, "krishdey"));
+  }
+
+  @Test
+  public void testCollisionsProbeTheNextFreeNumber() throws Exception {
+    // A range of 3 numbers for 3 names
+    PosixIdAllocator allocator = new PosixIdAllocator(500, 3);
+    MapLookup lookup = new MapLookup();
+    long a = lookup.allocate(allocator, "a");
+    long b = lookup.allocate(allocator, "b");
+    long c = lookup.allocate(allocator, "c");
+    assertEquals(3, lookup.holders.size());
+    assertTrue(a != b && b != c && a != c);
+    // A name keeps the number it holds
+    assertEquals(b, allocator.allocate("b", lookup));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFullRange() throws Exception {
+    PosixIdAllocator allocator = new PosixIdAllocator(500, 2);
+    MapLookup lookup = new MapLookup();
+    lookup.allocate(allocator, "a");
+    lookup.allocate(allocator, "b");
+    lookup.allocate(allocator, "c");
+  }
+
+}
@@ -0,0 +1,154 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.htrace.core.POJOSpanReceiver;
+import org.apache.htrace.core.Span;
+import org.apache.htrace.core.SpanId;
+import org.apache.htrace.core.TraceScope;
+import org.apache.htrace.core.Tracer;
+import org.junit.Test;
+
+public class SchemaWriterTest {
+
+  @Test
+  public void testWritesToAnEntryStayOrdered() throws Exception {
+    SchemaWriter writer = new SchemaWriter(4, 2);
+    final List<Integer> writes = Collections.synchronizedList(new ArrayList<Integer>());
+    SchemaWriter.Batch batch = writer.newBatch();
+    for (int i = 0; i < 100; i++) {
+      final int value = i;
+      batch.submit("cn=krish,ou=users,dc=jpmis,dc=com", new SchemaWriter.WriteOp() {
+        @Override
+        public void write() throws Exception {
+          writes.add(value);
+        }
+      });
+    }
+    assertTrue(batch.await());
+    assertEquals(100, writes.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, writes.get(i).intValue());
+    }
+  }
+
+  @Test
+  public void testBatchReportsFailures() throws Exception {
+    for (int threads : new int[] { 0, 2 }) {
+      SchemaWriter writer = new SchemaWriter(threads, 10);
+      SchemaWriter.Batch batch = writer.newBatch();
+      batch.submit("cn=jim,ou=users,dc=jpmis,dc=com", new SchemaWriter.WriteOp() {
+        @Override
+        public void write() throws Exception {
+        }
+      });
+      batch.submit("cn=chris,ou=users,dc=jpmis,dc=com", new SchemaWriter.WriteOp() {
+        @Override
+        public void write() throws Exception {
+          throw new Exception("no such entry");
+        }
+      });
+      assertFalse(batch.await());
+    }
+  }
+
+  @Test
+  public void testErrorFailsTheWriteAndKeepsTheStripe() throws Exception {
+    SchemaWriter writer = new SchemaWriter(1, 1);
+    try {
+      SchemaWriter.Batch batch = writer.newBatch();
+      batch.submit("cn=krish,ou=users,dc=jpmis,dc=com", new SchemaWriter.WriteOp() {
+        @Override
+        public void write() throws Exception {
+          throw new LinkageError("store is gone");
+        }
+      });
+      assertFalse(batch.await());
+
+      batch = writer.newBatch();
+      batch.submit("cn=krish,ou=users,dc=jpmis,dc=com", new SchemaWriter.WriteOp() {
+        @Override
+        public void write() throws Exception {
+        }
+      });
+      assertTrue(batch.await());
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testCloseStopsTheWriters() throws Exception {
+    Set<Thread> before = new HashSet<Thread>(Thread.getAllStackTraces().keySet());
+    SchemaWriter writer = new SchemaWriter(2, 10);
+    writer.close();
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      assertFalse(thread.getName().startsWith("ead-writer-") && !before.contains(thread));
+    }
+    try {
+      writer.newBatch().submit("cn=krish,ou=users,dc=jpmis,dc=com",
+          new SchemaWriter.WriteOp() {
+            @Override
+            public void write() throws Exception {
+            }
+          });
+      fail("Submitted to a closed writer");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testStripeIgnoresCase() {
+    assertEquals(SchemaWriter.stripeOf("cn=Krish,ou=users,dc=jpmis,dc=com", 8),
+        SchemaWriter.stripeOf("CN=krish,OU=users,dc=jpmis,dc=com", 8));
+  }
+
+  @Test
+  public void testWritesAreTracedInTheSpanOfTheSubmitter() throws Exception {
+    Map<String, String> settings = new HashMap<String, String>();
+    settings.put(Tracer.SAMPLER_CLASSES_KEY, "AlwaysSampler");
+    settings.put(Tracer.SPAN_RECEIVER_CLASSES_KEY, POJOSpanReceiver.class.getName());
+    EadTracing.configure(settings);
+    try {
+      POJOSpanReceiver receiver =
+          (POJOSpanReceiver) EadTracing.get().getTracerPool().getReceivers()[0];
+      SchemaWriter writer = new SchemaWriter(2, 10);
+      SpanId sync;
+      TraceScope scope = EadTracing.get().newScope("sync");
+      try {
+        sync = scope.getSpanId();
+        SchemaWriter.Batch batch = writer.newBatch();
+        batch.submit("cn=krish,ou=users,dc=jpmis,dc=com", new SchemaWriter.WriteOp() {
+          @Override
+          public void write() throws Exception {
+          }
+        });
+        assertTrue(batch.await());
+      } finally {
+        scope.close();
+      }
+      Map<String, Span> spans = new HashMap<String, Span>();
+      for (Span span : receiver.getSpans()) {
+        spans.put(span.getDescription(), span);
+      }
+      assertEquals(sync, spans.get("SchemaWriter#write").getParents()[0]);
+      assertEquals("cn=krish,ou=users,dc=jpmis,dc=com",
+          spans.get("SchemaWriter#write").getKVAnnotations().get("dn"));
+    } finally {
+      EadTracing.configure(new HashMap<String, String>());
+    }
+  }
+
+}
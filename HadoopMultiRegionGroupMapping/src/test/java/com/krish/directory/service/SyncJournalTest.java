@@ -0,0 +1,119 @@
+package com.krish.directory.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SyncJournalTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("sync-journal").toFile();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void testReopenKeepsLastStateOfEveryGroup() throws Exception {
+    SyncJournal journal = new SyncJournal(dir, 0, 1000);
+    long first = journal.append("NAEAST", "ND-POC-ENG", "d1", Arrays.asList("krish"));
+    journal.markApplied(first);
+    journal.append("NAEAST", "ND-POC-ENG", "d2", Arrays.asList("krish", "jim"));
+    long missing = journal.append("NAWEST", "ND-DEY-ENG", null, null);
+    journal.markApplied(missing);
+    journal.markSynced("NAEAST", Arrays.asList("ND-POC-ENG"), 42L);
+    journal.close();
+
+    journal = new SyncJournal(dir, 0, 1000);
+    List<SyncJournal.Entry> entries = journal.getEntries();
+    assertEquals(2, entries.size());
+    assertEquals("d2", entries.get(0).getDigest());
+    assertEquals(Arrays.asList("krish", "jim"), entries.get(0).getUsers());
+    assertFalse(entries.get(0).isApplied());
+    assertNull(entries.get(1).getDigest());
+    assertTrue(entries.get(1).isApplied());
+    assertEquals(Long.valueOf(42L), journal.getSyncTimes("NAEAST").get("ND-POC-ENG"));
+    journal.close();
+  }
+
+  @Test
+  public void testPartialRecordIsIgnored() throws Exception {
+    SyncJournal journal = new SyncJournal(dir, 0, 1000);
+    journal.append("NAEAST", "ND-POC-ENG", "d1", Arrays.asList("krish"));
+    journal.close();
+
+    FileWriter out = new FileWriter(new File(dir, SyncJournal.JOURNAL_FILE), true);
+    out.write("F\t2\t0\tNAEAST\tND-POC-ENG\td2\tkri");
+    out.close();
+
+    journal = new SyncJournal(dir, 0, 1000);
+    assertEquals("d1", journal.getEntries().get(0).getDigest());
+    // Not glued onto the partial record
+    journal.append("NAEAST", "ND-POC-ENG", "d3", Arrays.asList("krish"));
+    journal.close();
+
+    journal = new SyncJournal(dir, 0, 1000);
+    assertEquals("d3", journal.getEntries().get(0).getDigest());
+    journal.close();
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    SyncJournal journal = new SyncJournal(dir, 0, 10);
+    for (int i = 0; i < 20; i++) {
+      long seq = journal.append("NAEAST", "ND-POC-ENG", "d" + i, Arrays.asList("krish"));
+      journal.markApplied(seq);
+    }
+    journal.sync();
+    journal.close();
+
+    assertTrue(FileUtils.readLines(new File(dir, SyncJournal.JOURNAL_FILE)).size() < 10);
+    journal = new SyncJournal(dir, 0, 10);
+    SyncJournal.Entry entry = journal.getEntries().get(0);
+    assertEquals("d19", entry.getDigest());
+    assertTrue(entry.isApplied());
+    long next = journal.append("NAEAST", "ND-POC-ENG", "d20", Arrays.asList("krish"));
+    assertTrue(next > entry.getSeq());
+    journal.close();
+  }
+
+  @Test
+  public void testFailedCompactionKeepsAppending() throws Exception {
+    SyncJournal journal = new SyncJournal(dir, 0, 1000);
+    journal.append("NAEAST", "ND-POC-ENG", "d1", Arrays.asList("krish"));
+    // The compacted journal cannot be written
+    assertTrue(new File(dir, SyncJournal.JOURNAL_FILE + ".tmp").mkdir());
+    try {
+      journal.compact();
+      fail("The compacted journal was written");
+    } catch (IOException e) {
+      // Expected
+    }
+    journal.append("NAEAST", "ND-POC-ENG", "d2", Arrays.asList("krish"));
+    journal.close();
+
+    journal = new SyncJournal(dir, 0, 1000);
+    assertEquals("d2", journal.getEntries().get(0).getDigest());
+    journal.close();
+  }
+
+}
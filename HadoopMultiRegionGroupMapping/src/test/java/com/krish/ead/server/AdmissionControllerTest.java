@@ -0,0 +1,90 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testClientConcurrencyAndRate() {
+    AdmissionController controller = new AdmissionController(2, 0, 3, 0, 8, 100, 50, 0,
+        Collections.<String>emptyList(), Collections.<String>emptyList());
+    long now = 1000 * MS;
+    AdmissionController.Permit first = controller.tryAcquire("10.0.0.1", "cn=hdfs", now);
+    assertNotNull(first);
+    assertNotNull(controller.tryAcquire("10.0.0.1", "cn=hdfs", now));
+    assertNull(controller.tryAcquire("10.0.0.1", "cn=hdfs", now));
+    assertEquals(1,
+        controller.getRejected(AdmissionController.Rejection.CLIENT_CONCURRENCY));
+    // Another client is not affected
+    assertNotNull(controller.tryAcquire("10.0.0.2", "cn=hdfs", now));
+
+    first.release(now + MS);
+    // The three tokens of the second are spent
+    assertNull(controller.tryAcquire("10.0.0.1", "cn=hdfs", now + MS));
+    assertEquals(1, controller.getRejected(AdmissionController.Rejection.CLIENT_RATE));
+    assertNotNull(controller.tryAcquire("10.0.0.1", "cn=hdfs", now + 500 * MS));
+  }
+
+  @Test
+  public void testAnonymousClientsOnlyHaveClientLimits() {
+    AdmissionController controller = new AdmissionController(0, 1, 0, 1, 8, 100, 50, 0,
+        Collections.<String>emptyList(), Collections.<String>emptyList());
+    long now = 1000 * MS;
+    assertNotNull(controller.tryAcquire("10.0.0.1", null, now));
+    assertNotNull(controller.tryAcquire("10.0.0.2", null, now));
+    assertNotNull(controller.tryAcquire("10.0.0.1", null, now));
+    // A bound user has its limits
+    assertNotNull(controller.tryAcquire("10.0.0.1", "cn=hdfs", now));
+    assertNull(controller.tryAcquire("10.0.0.2", "cn=hdfs", now));
+  }
+
+  @Test
+  public void testCriticalReserve() {
+    AdmissionController controller = new AdmissionController(0, 0, 0, 0, 10, 10, 50, 0.2,
+        Arrays.asList("10.0.0.9"), Arrays.asList("CN=NameNode,OU=Users"));
+    long now = 1000 * MS;
+    for (int i = 0; i < 8; i++) {
+      assertNotNull(controller.tryAcquire("10.0.0." + i, null, now));
+    }
+    assertNull(controller.tryAcquire("10.0.0.1", null, now));
+    assertEquals(1, controller.getRejected(AdmissionController.Rejection.OVERLOAD));
+    assertNotNull(controller.tryAcquire("10.0.0.9", null, now));
+    assertNotNull(controller.tryAcquire("10.0.0.1", "cn=namenode,ou=users", now));
+    assertNull(controller.tryAcquire("10.0.0.9", null, now));
+    assertEquals(10, controller.getInFlight());
+  }
+
+  @Test
+  public void testLimitAdaptsToLatency() {
+    AdmissionController controller = new AdmissionController(0, 0, 0, 0, 10, 100, 50, 0,
+        Collections.<String>emptyList(), Collections.<String>emptyList());
+    long now = 1000 * MS;
+    // Slow responses shrink the limit by a tenth, once per target latency
+    controller.tryAcquire("10.0.0.1", null, now).release(now + 200 * MS);
+    controller.tryAcquire("10.0.0.1", null, now).release(now + 210 * MS);
+    assertEquals(90, controller.getLimit());
+    for (int i = 0; i < 30; i++) {
+      now += 100 * MS;
+      controller.tryAcquire("10.0.0.1", null, now).release(now + 100 * MS);
+    }
+    assertEquals(10, controller.getLimit());
+
+    // Fast responses grow it back
+    for (int i = 0; i < 200; i++) {
+      controller.tryAcquire("10.0.0.1", null, now).release(now + MS);
+    }
+    assertTrue(controller.getLimit() > 20);
+  }
+
+}
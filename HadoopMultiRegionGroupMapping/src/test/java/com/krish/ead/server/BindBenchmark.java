@@ -0,0 +1,133 @@
+package com.krish.ead.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.naming.Context;
+import javax.naming.ldap.InitialLdapContext;
+
+import org.apache.directory.server.core.api.InstanceLayout;
+
+import com.krish.directory.service.EadSchemaService;
+
+/**
+ * Measures the latency of connecting and binding under connection churn, the clients
+ * binding as a few service accounts on a new connection every time, with every bind
+ * authenticated and with the binds cached.
+ *
+ * Usage: BindBenchmark [clients] [seconds per run]
+ *
+ * @author krishdey
+ *
+ */
+public class BindBenchmark {
+
+  private static final int PORT = 10991;
+
+  private static final String[] ACCOUNTS = { "hdfs", "yarn", "hive", "hbase" };
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    run("no bind cache", "0", clients, seconds);
+    run("bind cache", "60", clients, seconds);
+  }
+
+  private static void run(String name, String ttl, int clients, int seconds)
+      throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(TransportSettings.BIND_CACHE_TTL, ttl);
+    EmbeddedADSVerM23 ads = new EmbeddedADSVerM23();
+    ads.setTransportSettings(new TransportSettings(properties));
+    ads.startServer(new InstanceLayout("/tmp/krish-bind-bench"), PORT);
+    try {
+      EadSchemaService schema = new EadSchemaService(ads.getDirectoryService());
+      String[] dns = new String[ACCOUNTS.length];
+      for (int i = 0; i < ACCOUNTS.length; i++) {
+        schema.createUser(ACCOUNTS[i], ACCOUNTS[i] + "-secret");
+        dns[i] = schema.userDn(ACCOUNTS[i]);
+      }
+      long[] latencies = churn("ldap://localhost:" + PORT, dns, clients, seconds * 1000L);
+      report(name, latencies, seconds, ads.getBindCache());
+    } finally {
+      ads.stopServer();
+    }
+  }
+
+  /**
+   * Every client connects, binds as one of the accounts and disconnects, in a loop
+   * @return the latencies in microseconds of the binds that succeeded
+   */
+  private static long[] churn(final String url, final String[] dns, int clients,
+      final long duration) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    final long end = System.currentTimeMillis() + duration;
+    List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>();
+    for (int i = 0; i < clients; i++) {
+      final int client = i;
+      futures.add(executor.submit(new Callable<List<Long>>() {
+        @Override
+        public List<Long> call() {
+          List<Long> latencies = new ArrayList<Long>();
+          for (int n = client; System.currentTimeMillis() < end; n++) {
+            String dn = dns[n % dns.length];
+            long start = System.nanoTime();
+            try {
+              bind(url, dn, ACCOUNTS[n % dns.length] + "-secret");
+              latencies.add((System.nanoTime() - start) / 1000);
+            } catch (Exception e) {
+              // Counted by their absence
+            }
+          }
+          return latencies;
+        }
+      }));
+    }
+    List<Long> all = new ArrayList<Long>();
+    for (Future<List<Long>> future : futures) {
+      all.addAll(future.get());
+    }
+    executor.shutdown();
+    long[] latencies = new long[all.size()];
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = all.get(i);
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  private static void bind(String url, String dn, String password) throws Exception {
+    Hashtable<String, String> env = new Hashtable<String, String>();
+    env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+    env.put(Context.PROVIDER_URL, url);
+    env.put(Context.SECURITY_AUTHENTICATION, "simple");
+    env.put(Context.SECURITY_PRINCIPAL, dn);
+    env.put(Context.SECURITY_CREDENTIALS, password);
+    // Connects and binds
+    new InitialLdapContext(env, null).close();
+  }
+
+  private static void report(String name, long[] latencies, int seconds,
+      BindCache<?> cache) {
+    if (latencies.length == 0) {
+      System.out.println(name + ": no bind succeeded");
+      return;
+    }
+    long total = 0;
+    for (long latency : latencies) {
+      total += latency;
+    }
+    System.out.println(name + ": " + latencies.length / seconds + " binds/s, mean "
+        + total / latencies.length + " us, p50 " + latencies[latencies.length / 2]
+        + " us, p99 " + latencies[(int) (latencies.length * 0.99)] + " us, cache hits "
+        + cache.getHits() + ", misses " + cache.getMisses());
+  }
+
+}
@@ -0,0 +1,77 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BindCacheTest {
+
+  private static final String DN = "uid=hdfs,ou=users,dc=jpmis,dc=com";
+
+  private static final byte[] PASSWORD = "secret".getBytes();
+
+  @Test
+  public void testOnlyTheSamePasswordIsVerified() {
+    BindCache<String> cache = new BindCache<String>(60, 10);
+    cache.put(DN, PASSWORD, "hdfs", cache.generation(), 0);
+    assertEquals("hdfs", cache.verify(DN, "secret".getBytes(), 1));
+    assertNull(cache.verify(DN, "Secret".getBytes(), 1));
+    assertNull(cache.verify(DN, new byte[0], 1));
+    assertNull(cache.verify("uid=yarn,ou=users,dc=jpmis,dc=com", PASSWORD, 1));
+    assertEquals(1, cache.getHits());
+    assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  public void testBindsExpire() {
+    BindCache<String> cache = new BindCache<String>(60, 10);
+    cache.put(DN, PASSWORD, "hdfs", cache.generation(), 0);
+    long ttl = TimeUnit.SECONDS.toNanos(60);
+    assertEquals("hdfs", cache.verify(DN, PASSWORD, ttl - 1));
+    assertNull(cache.verify(DN, PASSWORD, ttl));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testInvalidationForgetsTheBind() {
+    BindCache<String> cache = new BindCache<String>(60, 10);
+    cache.put(DN, PASSWORD, "hdfs", cache.generation(), 0);
+    cache.invalidate(DN);
+    assertNull(cache.verify(DN, PASSWORD, 1));
+  }
+
+  @Test
+  public void testBindAuthenticatedDuringAnInvalidationIsNotCached() {
+    BindCache<String> cache = new BindCache<String>(60, 10);
+    long generation = cache.generation();
+    // The password is modified while the bind reads the old one
+    cache.invalidate(DN);
+    cache.put(DN, PASSWORD, "hdfs", generation, 0);
+    assertNull(cache.verify(DN, PASSWORD, 1));
+  }
+
+  @Test
+  public void testSizeIsBounded() {
+    BindCache<String> cache = new BindCache<String>(60, 2);
+    cache.put("uid=a", PASSWORD, "a", cache.generation(), 0);
+    cache.put("uid=b", PASSWORD, "b", cache.generation(), 0);
+    cache.put("uid=c", PASSWORD, "c", cache.generation(), 0);
+    assertEquals(2, cache.size());
+    assertNull(cache.verify("uid=c", PASSWORD, 1));
+    // Room is made by the expired binds
+    long expired = TimeUnit.SECONDS.toNanos(60);
+    cache.put("uid=c", PASSWORD, "c", cache.generation(), expired);
+    assertEquals("c", cache.verify("uid=c", PASSWORD, expired + 1));
+  }
+
+  @Test
+  public void testDisabledCacheKeepsNothing() {
+    BindCache<String> cache = new BindCache<String>(0, 10);
+    cache.put(DN, PASSWORD, "hdfs", cache.generation(), 0);
+    assertEquals(0, cache.size());
+  }
+
+}
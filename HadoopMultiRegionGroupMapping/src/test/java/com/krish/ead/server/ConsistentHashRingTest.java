@@ -0,0 +1,36 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+
+  @Test
+  public void testEmptyRing() {
+    assertNull(new ConsistentHashRing(Arrays.<String>asList()).ownerOf("NAEAST:ND-POC-ENG"));
+  }
+
+  @Test
+  public void testGroupsAreSpreadAndMoveOnlyFromTheLeavingNode() {
+    ConsistentHashRing three = new ConsistentHashRing(Arrays.asList("ead1", "ead2", "ead3"));
+    ConsistentHashRing two = new ConsistentHashRing(Arrays.asList("ead1", "ead2"));
+    int[] owned = new int[3];
+    for (int i = 0; i < 3000; i++) {
+      String group = "NAEAST:group" + i;
+      String owner = three.ownerOf(group);
+      owned[owner.charAt(3) - '1']++;
+      if (!owner.equals("ead3")) {
+        assertEquals(owner, two.ownerOf(group));
+      }
+    }
+    for (int count : owned) {
+      assertTrue("unbalanced " + Arrays.toString(owned), count > 600);
+    }
+  }
+
+}
@@ -1,13 +1,27 @@
 package com.krish.ead.server;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.krish.directory.service.EadSchemaService;
+import com.krish.directory.service.PosixIdAllocator;
+import com.krish.directory.service.PosixProfile;
 
 public class EadIntegrationTest {
   static EADServer eadServer;
@@ -33,6 +47,144 @@ public class EadIntegrationTest {
     assertTrue(eadSchemaService.checkIfUserMemberOfGroup("krish", "ND-POC-ENG"));
   }
 
+  /**
+   * Add a partition of its own to a test
+   * @return the suffix of the partition
+   */
+  private static String addPartition(String name) throws Exception {
+    String suffix = "dc=" + name + ",dc=jpmis";
+    eadServer.getEADService().addPartition(name, suffix);
+    return suffix;
+  }
+
+  @Test
+  public void testPartition() throws Exception {
+    String suffix = addPartition("other");
+    EadSchemaService otherSchemaService = new EadSchemaService(directoryService, suffix);
+    otherSchemaService.createUser("jim", "jim");
+    otherSchemaService.createGroup("ND-OTHER-ENG");
+    otherSchemaService.addUserToGroup("jim", "ND-OTHER-ENG");
+    assertTrue(otherSchemaService.checkIfUserMemberOfGroup("jim", "ND-OTHER-ENG"));
+    assertFalse(eadSchemaService.checkIfGroupExist("ND-OTHER-ENG"));
+  }
+
+  @Test
+  public void testPosixProfile() throws Exception {
+    String suffix = addPartition("posix");
+    EadSchemaService posixSchemaService = new EadSchemaService(directoryService, suffix);
+    posixSchemaService.createUser("before", "before");
+    posixSchemaService.createGroup("ND-BEFORE-ENG");
+    posixSchemaService.addUserToGroup("before", "ND-BEFORE-ENG");
+
+    posixSchemaService.setPosixProfile(new PosixProfile(new PosixIdAllocator(1000000, 1000),
+        new PosixIdAllocator(2000000, 1000), 100, "/home", "/bin/bash"));
+    assertEquals(2, posixSchemaService.upgradeToPosix());
+    assertEquals(0, posixSchemaService.upgradeToPosix());
+
+    posixSchemaService.createUser("jim", "jim");
+    posixSchemaService.createGroup("ND-POSIX-ENG");
+    posixSchemaService.modifyGroupMembers("ND-POSIX-ENG", Arrays.asList("jim", "before"),
+        Collections.<String>emptyList());
+
+    Entry group = directoryService.getAdminSession().lookup(
+        new Dn(posixSchemaService.groupDn("ND-POSIX-ENG")), "memberUid", "gidNumber");
+    assertTrue(group.get("memberUid").contains("jim", "before"));
+    long gid = Long.parseLong(group.get("gidNumber").getString());
+    assertTrue(gid >= 2000000 && gid < 2001000);
+
+    Entry user = directoryService.getAdminSession().lookup(
+        new Dn(posixSchemaService.userDn("jim")), "uidNumber", "homeDirectory");
+    assertEquals(new PosixIdAllocator(1000000, 1000).hash("jim"),
+        Long.parseLong(user.get("uidNumber").getString()));
+    assertEquals("/home/jim", user.get("homeDirectory").getString());
+
+    Entry upgraded = directoryService.getAdminSession().lookup(
+        new Dn(posixSchemaService.groupDn("ND-BEFORE-ENG")), "memberUid");
+    assertTrue(upgraded.get("memberUid").contains("before"));
+  }
+
+  @Test
+  public void testLargeGroup() throws Exception {
+    String suffix = addPartition("large");
+    EadSchemaService largeSchemaService = new EadSchemaService(directoryService, suffix);
+    largeSchemaService.setLargeGroupThreshold(3);
+    largeSchemaService.createGroup("ND-LARGE-ENG");
+    largeSchemaService.modifyGroupMembers("ND-LARGE-ENG", Arrays.asList("a", "b"),
+        Collections.<String>emptyList());
+    Dn groupDn = new Dn(largeSchemaService.groupDn("ND-LARGE-ENG"));
+    assertFalse(directoryService.getAdminSession().lookup(groupDn, "objectClass")
+        .hasObjectClass(EadSchemaService.LARGE_GROUP_OC));
+
+    largeSchemaService.modifyGroupMembers("ND-LARGE-ENG", Arrays.asList("c"),
+        Collections.<String>emptyList());
+    // Stored without its members
+    Entry group = directoryService.getAdminSession().lookup(groupDn, "objectClass", "member");
+    assertTrue(group.hasObjectClass(EadSchemaService.LARGE_GROUP_OC));
+    assertNull(group.get("member"));
+    LdapNetworkConnection connection = new LdapNetworkConnection("localhost", 10389);
+    try {
+      connection.bind("uid=admin,ou=system", "krish");
+      group = connection.lookup(groupDn, "member");
+      assertTrue(group.get("member").contains(largeSchemaService.userDn("a"),
+          largeSchemaService.userDn("b"), largeSchemaService.userDn("c")));
+      // Read to tell the large groups, not returned
+      assertNull(group.get("objectClass"));
+      // As nslcd and SSSD ask, the membership entries being hidden
+      EntryCursor cursor = connection.search(suffix, "(objectClass=*)", SearchScope.SUBTREE,
+          "member");
+      int groups = 0;
+      while (cursor.next()) {
+        Entry entry = cursor.get();
+        String dn = entry.getDn().getName().toLowerCase();
+        assertFalse(dn.startsWith("uid="));
+        assertNull(entry.get("objectClass"));
+        if (dn.startsWith("cn=nd-large-eng,")) {
+          groups++;
+          assertEquals(3, entry.get("member").size());
+        }
+      }
+      cursor.close();
+      assertEquals(1, groups);
+    } finally {
+      connection.close();
+    }
+    assertTrue(directoryService.getAdminSession()
+        .exists(new Dn(largeSchemaService.membershipDn("c", "ND-LARGE-ENG"))));
+
+    largeSchemaService.modifyGroupMembers("ND-LARGE-ENG", Collections.<String>emptyList(),
+        Arrays.asList("b"));
+    List<String> members = largeSchemaService.getGroupMembers("ND-LARGE-ENG");
+    Collections.sort(members);
+    assertEquals(Arrays.asList("a", "c"), members);
+  }
+
+  @Test
+  public void testQueryStatsByFilterShape() throws Exception {
+    QueryStats stats = eadServer.getEADService().getQueryStats();
+    String shape = "(&(objectclass=?)(uid=?))";
+    long before = stats.getSearches(shape);
+    LdapNetworkConnection connection = new LdapNetworkConnection("localhost", 10389);
+    try {
+      connection.bind("uid=admin,ou=system", "krish");
+      for (String uid : new String[] { "krishdey", "nobody" }) {
+        EntryCursor cursor = connection.search(EadSchemaService.JPMIS_SUFFIX,
+            "(&(uid=" + uid + ")(objectClass=person))", SearchScope.SUBTREE, "uid");
+        while (cursor.next()) {
+          cursor.get();
+        }
+        cursor.close();
+      }
+    } finally {
+      connection.close();
+    }
+    // Recorded once the handler returns, which may be after the client read the results
+    long deadline = System.currentTimeMillis() + 5000;
+    while (stats.getSearches(shape) < before + 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(before + 2, stats.getSearches(shape));
+  }
+
   @AfterClass
   public static void tearDown() {
     eadServer.stop();
@@ -0,0 +1,34 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.junit.Test;
+
+public class FilterShapeTest {
+
+  private static String shape(String filter) throws Exception {
+    return FilterShape.of(FilterParser.parse(filter));
+  }
+
+  @Test
+  public void testValuesAreReplaced() throws Exception {
+    assertEquals("(&(objectclass=?)(samaccountname=?))",
+        shape("(&(objectClass=user)(sAMAccountName=krish))"));
+    assertEquals(shape("(&(objectClass=user)(sAMAccountName=krish))"),
+        shape("(&(sAMAccountName=jim)(objectclass=group))"));
+  }
+
+  @Test
+  public void testOperators() throws Exception {
+    assertEquals("(|(cn=*)(!(uid=?)))", shape("(|(!(uid=krish))(cn=*))"));
+    assertEquals("(cn=?*?*?)", shape("(cn=kr*sh*dey)"));
+    assertEquals("(cn=*?)", shape("(cn=*dey)"));
+    assertEquals("(uidnumber>=?)", shape("(uidNumber>=1000)"));
+    assertEquals("(uidnumber<=?)", shape("(uidNumber<=1000)"));
+    assertEquals("(cn~=?)", shape("(cn~=krish)"));
+    assertEquals("(member:dn:1.2.840.113556.1.4.1941:=?)",
+        shape("(member:dn:1.2.840.113556.1.4.1941:=cn=ND-DEY-ENG)"));
+  }
+
+}
@@ -0,0 +1,78 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.krish.directory.service.GroupAccessTracker;
+import com.krish.security.hadoop.impl.MultiRegionGroups;
+
+public class GroupMappingSchedulerTest {
+
+  private MultiRegionGroups provider(long interval, long jitter, long maxBackoff) {
+    MultiRegionGroups provider = new MultiRegionGroups();
+    provider.setProviderName("NAEAST");
+    provider.setSyncInterval(interval);
+    provider.setSyncJitter(jitter);
+    provider.setMaxBackoff(maxBackoff);
+    return provider;
+  }
+
+  @Test
+  public void testBackoffDoublesUpToMax() {
+    MultiRegionGroups provider = provider(1000, 0, 10000);
+    assertEquals(1000, GroupMappingScheduler.nextDelay(provider, 0));
+    assertEquals(2000, GroupMappingScheduler.nextDelay(provider, 1));
+    assertEquals(8000, GroupMappingScheduler.nextDelay(provider, 3));
+    assertEquals(10000, GroupMappingScheduler.nextDelay(provider, 4));
+    assertEquals(10000, GroupMappingScheduler.nextDelay(provider, 100));
+  }
+
+  @Test
+  public void testJitterIsBounded() {
+    MultiRegionGroups provider = provider(1000, 50, 10000);
+    for (int i = 0; i < 100; i++) {
+      long jitter = GroupMappingScheduler.jitter(provider);
+      assertTrue(jitter >= 0 && jitter <= 50);
+    }
+    assertEquals(0, GroupMappingScheduler.jitter(provider(1000, 0, 10000)));
+  }
+
+  @Test
+  public void testOnlyQueriedGroupsAreRefreshedBetweenFullResyncs() {
+    MultiRegionGroups provider = provider(1000, 0, 10000);
+    provider.setColdSyncInterval(5000);
+    provider.setFullSyncInterval(60000);
+    provider.setHotThreshold(10);
+    provider.setGroups(Arrays.asList("HOT", "COLD", "UNQUERIED", "NEW"));
+
+    GroupAccessTracker tracker = new GroupAccessTracker();
+    tracker.recordAccess("hot");
+    tracker.recordAccess("cold");
+
+    long now = 100000;
+    Map<String, Long> lastSynced = new HashMap<String, Long>();
+    lastSynced.put("HOT", now - 2000);
+    lastSynced.put("COLD", now - 6000);
+    lastSynced.put("UNQUERIED", now - 6000);
+
+    // Never synced groups come first, then the queried ones
+    List<String> due =
+        GroupMappingScheduler.selectDueGroups(provider, tracker, lastSynced, false, now);
+    assertEquals(Arrays.asList("NEW", "COLD"), due);
+
+    due = GroupMappingScheduler.selectDueGroups(provider, tracker, lastSynced, true, now);
+    assertEquals(4, due.size());
+
+    provider.setSyncBudget(2);
+    due = GroupMappingScheduler.selectDueGroups(provider, tracker, lastSynced, true, now);
+    assertEquals(2, due.size());
+    assertEquals("NEW", due.get(0));
+  }
+}
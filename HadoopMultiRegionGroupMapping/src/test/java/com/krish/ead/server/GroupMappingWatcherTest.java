@@ -0,0 +1,88 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GroupMappingWatcherTest {
+
+  private File dir;
+  private File file;
+  private GroupMappingWatcher watcher;
+  private final Semaphore changes = new Semaphore(0);
+  private final AtomicInteger failures = new AtomicInteger();
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("ead-watch").toFile();
+    file = new File(dir, "hadoop-group-mapping.xml");
+    write(file, "<configuration/>");
+    watcher = new GroupMappingWatcher(file, 100, new GroupMappingWatcher.Listener() {
+      @Override
+      public void changed() throws Exception {
+        if (failures.getAndDecrement() > 0) {
+          throw new Exception("Reload failed");
+        }
+        changes.release();
+      }
+    });
+    watcher.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    watcher.close();
+    for (File written : dir.listFiles()) {
+      written.delete();
+    }
+    dir.delete();
+  }
+
+  private static void write(File file, String content) throws Exception {
+    Files.write(file.toPath(), content.getBytes("UTF-8"));
+  }
+
+  @Test
+  public void testOnlyChangedContentIsTold() throws Exception {
+    write(file, "<configuration/>");
+    assertFalse(changes.tryAcquire(1, TimeUnit.SECONDS));
+
+    write(file, "<configuration><property/></configuration>");
+    assertTrue(changes.tryAcquire(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testReplacedFileIsTold() throws Exception {
+    File written = new File(dir, "hadoop-group-mapping.xml.tmp");
+    write(written, "<configuration><property/></configuration>");
+    Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    assertTrue(changes.tryAcquire(5, TimeUnit.SECONDS));
+    // Told once for the writes of the change
+    assertFalse(changes.tryAcquire(500, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testFailedReloadIsRetried() throws Exception {
+    failures.set(2);
+    write(file, "<configuration><property/></configuration>");
+    // Applied without the file being written again
+    assertTrue(changes.tryAcquire(5, TimeUnit.SECONDS));
+    assertFalse(changes.tryAcquire(1, TimeUnit.SECONDS));
+
+    // Applied, the same content is not a change anymore
+    write(file, "<configuration><property/></configuration>");
+    assertFalse(changes.tryAcquire(1, TimeUnit.SECONDS));
+  }
+
+}
@@ -0,0 +1,79 @@
+package com.krish.ead.server;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.server.core.api.InstanceLayout;
+
+import com.krish.directory.service.EadSchemaService;
+
+/**
+ * Measures adding the members of a group one at a time, up to 1k, 10k and 100k members,
+ * with the members kept in the member attribute of the group and with the members kept
+ * as membership entries. At every size the cost of adding and removing one more member is
+ * averaged over a few adds and removes.
+ *
+ * Usage: LargeGroupBenchmark [seconds per storage]
+ *
+ * @author krishdey
+ *
+ */
+public class LargeGroupBenchmark {
+
+  private static final int PORT = 10989;
+
+  private static final int[] SIZES = { 1000, 10000, 100000 };
+
+  private static final int PROBES = 100;
+
+  private static final String GROUP = "ND-LARGE-ENG";
+
+  public static void main(String[] args) throws Exception {
+    long budget = (args.length > 0 ? Long.parseLong(args[0]) : 600) * 1000;
+    // Never converted, then converted from the first member
+    run("member attribute", 0, budget);
+    run("membership entries", 1, budget);
+  }
+
+  private static void run(String storage, int threshold, long budget) throws Exception {
+    EmbeddedADSVerM23 ads = new EmbeddedADSVerM23();
+    ads.startServer(new InstanceLayout("/tmp/krish-large-group-bench"), PORT);
+    try {
+      EadSchemaService schema = new EadSchemaService(ads.getDirectoryService());
+      schema.setLargeGroupThreshold(threshold);
+      schema.createGroup(GROUP);
+      List<String> none = Collections.<String>emptyList();
+      long start = System.currentTimeMillis();
+      int members = 0;
+      for (int size : SIZES) {
+        while (members < size) {
+          schema.modifyGroupMembers(GROUP, Collections.singletonList("user" + members), none);
+          members++;
+          if (System.currentTimeMillis() - start > budget) {
+            System.out.println(storage + ": stopped at " + members + " members after "
+                + budget / 1000 + " s");
+            return;
+          }
+        }
+        long added = System.currentTimeMillis() - start;
+        long addNanos = 0;
+        long removeNanos = 0;
+        for (int i = 0; i < PROBES; i++) {
+          List<String> probe = Collections.singletonList("probe" + i);
+          long t0 = System.nanoTime();
+          schema.modifyGroupMembers(GROUP, probe, none);
+          long t1 = System.nanoTime();
+          schema.modifyGroupMembers(GROUP, none, probe);
+          removeNanos += System.nanoTime() - t1;
+          addNanos += t1 - t0;
+        }
+        System.out.println(storage + ", " + size + " members: filled in " + added + " ms, "
+            + addNanos / PROBES / 1000 + " us per add, " + removeNanos / PROBES / 1000
+            + " us per remove, " + schema.getGroupMembers(GROUP).size() + " members read");
+      }
+    } finally {
+      ads.stopServer();
+    }
+  }
+
+}
@@ -0,0 +1,90 @@
+package com.krish.ead.server;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.krish.directory.service.MembershipSnapshot;
+
+/**
+ * Measures the latency and the allocations of the lookups of the groups of a user in a
+ * membership snapshot. Every user is in a few random groups. The allocations are the bytes
+ * allocated by the benchmark thread, as counted by the JVM.
+ *
+ * Usage: MembershipSnapshotBenchmark [users] [groups] [groups per user]
+ *
+ * @author krishdey
+ *
+ */
+public class MembershipSnapshotBenchmark {
+
+  private static final int LOOKUPS = 5000000;
+
+  public static void main(String[] args) throws Exception {
+    int users = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int groups = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int perUser = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    Random random = new Random(42);
+    String[] names = new String[users];
+    Map<String, List<String>> members = new HashMap<String, List<String>>();
+    for (int u = 0; u < users; u++) {
+      names[u] = "user" + u;
+      for (int i = 0; i < perUser; i++) {
+        String group = "ND-GROUP-" + random.nextInt(groups);
+        List<String> groupMembers = members.get(group);
+        if (groupMembers == null) {
+          groupMembers = new ArrayList<String>();
+          members.put(group, groupMembers);
+        }
+        groupMembers.add(names[u]);
+      }
+    }
+
+    File file = File.createTempFile("membership", ".snapshot");
+    try {
+      long start = System.currentTimeMillis();
+      MembershipSnapshot.write(file, members);
+      System.out.println("Wrote " + file.length() + " bytes for " + users + " users in "
+          + (System.currentTimeMillis() - start) + " ms");
+      MembershipSnapshot snapshot = MembershipSnapshot.open(file);
+
+      for (int round = 0; round < 3; round++) {
+        long allocated = allocatedBytes();
+        start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+          int user = snapshot.indexOfUser(names[i % users]);
+          int count = snapshot.getGroupCount(user);
+          for (int g = 0; g < count; g++) {
+            sum += snapshot.getGroup(user, g);
+          }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("In place: " + (elapsed / LOOKUPS) + " ns/lookup, "
+            + ((allocatedBytes() - allocated) / LOOKUPS) + " bytes/lookup (" + sum + ")");
+
+        allocated = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+          sum += snapshot.getGroups(names[i % users]).size();
+        }
+        elapsed = System.nanoTime() - start;
+        System.out.println("getGroups: " + (elapsed / LOOKUPS) + " ns/lookup, "
+            + ((allocatedBytes() - allocated) / LOOKUPS) + " bytes/lookup (" + sum + ")");
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+}
@@ -0,0 +1,141 @@
+package com.krish.ead.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import com.krish.directory.service.DefaultGroupMappingService;
+import com.krish.directory.service.EadSchemaService;
+import com.krish.directory.service.GroupMappingServiceProvider;
+import com.krish.security.hadoop.impl.GroupsMappingBuilder;
+import com.krish.security.hadoop.impl.MultiRegionGroups;
+
+/**
+ * Measures the write throughput of concurrent provider syncs into the jpmis partition,
+ * through {@link DefaultGroupMappingService#doSchemaUpdate(MultiRegionGroups)} as the
+ * scheduler runs them: the memberships are merged, reconciled and written by the writer
+ * threads. Every run syncs new groups of new users from 1, 2, 4... providers at once.
+ *
+ * Usage: PartitionWriteBenchmark [providers] [groups per provider] [members per group]
+ * [writer threads]
+ *
+ * @author krishdey
+ *
+ */
+public class PartitionWriteBenchmark {
+
+  /** Members of every group returned by the synthetic providers */
+  static volatile int members;
+
+  public static void main(String[] args) throws Exception {
+    int providers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int groups = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    members = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    int threads = args.length > 3 ? Integer.parseInt(args[3])
+        : GroupsMappingBuilder.WRITER_THREADS_DEFAULT;
+
+    EmbeddedADSVerM23 ads = new EmbeddedADSVerM23();
+    ads.startServer(new InstanceLayout("/tmp/krish-bench"), 10789);
+    try {
+      for (int count = 1; count <= providers; count *= 2) {
+        DefaultGroupMappingService service = new DefaultGroupMappingService();
+        service.setEadSchemaService(new EadSchemaService(ads.getDirectoryService()));
+        service.buildGroupMapping(writeGroupMapping("run" + count, count, groups, threads));
+        try {
+          long elapsed = run(service);
+          long memberships = (long) count * groups * members;
+          System.out.println(count + " providers, " + threads + " writer threads: "
+              + memberships + " memberships in " + elapsed + " ms, "
+              + (memberships * 1000 / Math.max(1, elapsed)) + " memberships/s");
+        } finally {
+          service.close();
+        }
+      }
+    } finally {
+      ads.stopServer();
+    }
+  }
+
+  /**
+   * Group mapping file of providers with groups of their own, fetched from
+   * {@link SyntheticProvider}
+   */
+  private static Path writeGroupMapping(String run, int providers, int groups, int threads)
+      throws IOException {
+    Configuration conf = new Configuration(false);
+    conf.setInt(GroupsMappingBuilder.WRITER_THREADS_KEY, threads);
+    String[] names = new String[providers];
+    for (int i = 0; i < providers; i++) {
+      names[i] = "BENCH" + i;
+      String prefix = GroupsMappingBuilder.MAPPING_PROVIDER_CONFIG_PREFIX + "." + names[i];
+      conf.set(prefix, SyntheticProvider.class.getName());
+      String[] groupNames = new String[groups];
+      for (int g = 0; g < groups; g++) {
+        groupNames[g] = run + "-" + names[i] + "-group" + g;
+      }
+      conf.setStrings(prefix + ".ldap.groups", groupNames);
+    }
+    conf.setStrings(GroupsMappingBuilder.MAPPING_PROVIDERS_CONFIG_KEY, names);
+
+    File file = File.createTempFile("partition-write-benchmark", ".xml");
+    file.deleteOnExit();
+    OutputStream out = new FileOutputStream(file);
+    try {
+      conf.writeXml(out);
+    } finally {
+      out.close();
+    }
+    return new Path(file.getAbsolutePath());
+  }
+
+  /**
+   * Every provider syncs its groups in its own thread
+   * @return the elapsed time in milliseconds
+   */
+  private static long run(final DefaultGroupMappingService service) throws Exception {
+    List<MultiRegionGroups> providers = service.getProviders();
+    ExecutorService executor = Executors.newFixedThreadPool(providers.size());
+    long start = System.currentTimeMillis();
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (final MultiRegionGroups provider : providers) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          service.doSchemaUpdate(provider);
+          return null;
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    return System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Returns {@link #members} users of its own for every group
+   */
+  public static class SyntheticProvider implements GroupMappingServiceProvider {
+    @Override
+    public List<String> getUsers(String group) {
+      List<String> users = new ArrayList<String>(members);
+      for (int u = 0; u < members; u++) {
+        users.add(group + "-user" + u);
+      }
+      return users;
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class QueryStatsTest {
+
+  private static QueryStats.Search search(String shape) {
+    return new QueryStats.Search(shape, "dc=jpmis,dc=com", "SUBTREE", "10.0.0.1", null);
+  }
+
+  @Test
+  public void testShapesAreBounded() {
+    QueryStats stats = new QueryStats(2, 0, 10);
+    for (String shape : new String[] { "(uid=?)", "(cn=?)", "(gidnumber=?)", "(uid=?)" }) {
+      stats.record(search(shape), 1000, 0);
+    }
+    assertEquals(2, stats.getSearches("(uid=?)"));
+    assertEquals(1, stats.getSearches("(cn=?)"));
+    assertEquals(0, stats.getSearches("(gidnumber=?)"));
+    assertEquals(1, stats.getSearches(QueryStats.OTHER_SHAPES));
+    assertEquals(0, stats.getSlowSearches());
+  }
+
+  @Test
+  public void testReportPutsTheCostliestShapeFirst() {
+    QueryStats stats = new QueryStats(10, 0, 10);
+    for (int i = 0; i < 10; i++) {
+      stats.record(search("(uid=?)"), TimeUnit.MICROSECONDS.toNanos(300), 0);
+    }
+    QueryStats.Search scan = search("(description=*?*)");
+    for (int i = 0; i < 5; i++) {
+      scan.entryReturned();
+    }
+    stats.record(scan, TimeUnit.MILLISECONDS.toNanos(700), 0);
+    String[] report = stats.report();
+    assertEquals(2, report.length);
+    assertTrue(report[0], report[0].startsWith("(description=*?*) count 1"));
+    assertTrue(report[0], report[0].contains("p99 1000 ms"));
+    assertTrue(report[0], report[0].contains("entries mean 5 max 5"));
+    assertTrue(report[1], report[1].contains("p50 1 ms"));
+    assertTrue(report[1], report[1].contains("[<1ms:10]"));
+  }
+
+  @Test
+  public void testSlowSearchLogIsRateLimited() {
+    QueryStats stats = new QueryStats(10, 100, 2);
+    long slow = TimeUnit.MILLISECONDS.toNanos(150);
+    for (int i = 0; i < 5; i++) {
+      stats.record(search("(uid=?)"), slow, 1000);
+    }
+    stats.record(search("(uid=?)"), TimeUnit.MILLISECONDS.toNanos(50), 1000);
+    assertEquals(5, stats.getSlowSearches());
+    assertEquals(2, stats.getSlowSearchesLogged());
+    // The next second logs again
+    stats.record(search("(uid=?)"), slow, 2000);
+    assertEquals(3, stats.getSlowSearchesLogged());
+  }
+
+  @Test
+  public void testOnlyTheFirstSearchIsClaimed() {
+    QueryStats.Search search = search("(uid=?)");
+    QueryStats.setCurrent(search);
+    try {
+      assertTrue(QueryStats.current().claim());
+      assertFalse(QueryStats.current().claim());
+    } finally {
+      QueryStats.setCurrent(null);
+    }
+    assertNull(QueryStats.current());
+  }
+
+}
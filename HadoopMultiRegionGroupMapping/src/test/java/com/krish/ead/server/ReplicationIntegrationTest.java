@@ -0,0 +1,58 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.krish.directory.service.EadSchemaService;
+
+public class ReplicationIntegrationTest {
+  static EmbeddedADSVerM23 primary;
+  static EmbeddedADSVerM23 replica;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    primary = new EmbeddedADSVerM23();
+    primary.setReplicaId(1);
+    primary.setReplicationHeartbeat(true);
+    primary.startServer(new InstanceLayout("/tmp/krish-primary"), 10489);
+
+    replica = new EmbeddedADSVerM23();
+    replica.setSyncRole(SyncRole.REPLICA);
+    replica.setReplicaId(2);
+    replica.setPrimary("localhost", 10489);
+    replica.setReplicationCredentials("uid=admin,ou=system", "krish".getBytes());
+    replica.startServer(new InstanceLayout("/tmp/krish-replica"), 10589);
+  }
+
+  @Test
+  public void testGroupsReachTheReplica() throws Exception {
+    EadSchemaService primarySchema = new EadSchemaService(primary.getDirectoryService());
+    primarySchema.createUser("chris", "chris");
+    primarySchema.createGroup("ND-REPL-ENG");
+    primarySchema.addUserToGroup("chris", "ND-REPL-ENG");
+
+    EadSchemaService replicaSchema = new EadSchemaService(replica.getDirectoryService());
+    long deadline = System.currentTimeMillis() + 30000;
+    while (!replicaSchema.checkIfGroupExist("ND-REPL-ENG")
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(200);
+    }
+    assertTrue(replicaSchema.checkIfGroupExist("ND-REPL-ENG"));
+
+    while (replica.getHeartbeat().getLag() < 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(200);
+    }
+    assertTrue(((Long) replica.getMetrics().getValue("ReplicationLagMillis")) >= 0);
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    replica.stopServer();
+    primary.stopServer();
+  }
+
+}
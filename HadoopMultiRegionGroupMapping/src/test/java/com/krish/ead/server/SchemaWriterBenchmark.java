@@ -0,0 +1,65 @@
+package com.krish.ead.server;
+
+import org.apache.directory.server.core.api.InstanceLayout;
+
+import com.krish.directory.service.EadSchemaService;
+import com.krish.directory.service.SchemaWriter;
+
+/**
+ * Measures the write throughput of the reconciliation against the number of writer
+ * threads. Every run writes new users into a few groups, the users being created and
+ * their memberOf set on the stripes of their Dn.
+ *
+ * Usage: SchemaWriterBenchmark [groups] [users per group]
+ *
+ * @author krishdey
+ *
+ */
+public class SchemaWriterBenchmark {
+
+  private static final int[] THREADS = { 0, 1, 2, 4, 8 };
+
+  public static void main(String[] args) throws Exception {
+    int groups = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int users = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+    EmbeddedADSVerM23 ads = new EmbeddedADSVerM23();
+    ads.startServer(new InstanceLayout("/tmp/krish-bench"), 10789);
+    try {
+      EadSchemaService target = new EadSchemaService(ads.getDirectoryService());
+      for (int threads : THREADS) {
+        SchemaWriter writer = new SchemaWriter(threads, 1000);
+        long start = System.currentTimeMillis();
+        SchemaWriter.Batch batch = writer.newBatch();
+        for (int g = 0; g < groups; g++) {
+          final String group = "bench-" + threads + "-group" + g;
+          target.createGroup(group);
+          for (int u = 0; u < users; u++) {
+            submitUser(batch, target, "bench-" + threads + "-user" + g + "-" + u, group);
+          }
+        }
+        if (!batch.await()) {
+          System.out.println("Some writes failed with " + threads + " threads");
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        long writes = (long) groups * users * 2;
+        System.out.println(threads + " writer threads: " + writes + " writes in " + elapsed
+            + " ms, " + (writes * 1000 / elapsed) + " writes/s");
+      }
+    } finally {
+      ads.stopServer();
+    }
+  }
+
+  private static void submitUser(SchemaWriter.Batch batch, final EadSchemaService target,
+      final String user, final String group) throws InterruptedException {
+    batch.submit(target.userDn(user), new SchemaWriter.WriteOp() {
+      @Override
+      public void write() throws Exception {
+        target.createUser(user, "password");
+        target.addMemberOf(user, group);
+      }
+    });
+  }
+
+}
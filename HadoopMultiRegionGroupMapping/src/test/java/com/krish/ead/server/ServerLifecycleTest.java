@@ -0,0 +1,57 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ServerLifecycleTest {
+
+  @Test
+  public void testPrimaryStates() {
+    ServerLifecycle lifecycle = new ServerLifecycle();
+    EADMetrics metrics = new EADMetrics();
+    lifecycle.register(metrics);
+    assertEquals(ServerLifecycle.State.STARTING, lifecycle.getState());
+
+    lifecycle.listening();
+    // The providers are not known yet
+    assertEquals(ServerLifecycle.State.SERVING_STALE, lifecycle.getState());
+    lifecycle.expect(Arrays.asList("NA", "EMEA"));
+    lifecycle.synced("NA");
+    assertEquals(ServerLifecycle.State.SERVING_STALE, lifecycle.getState());
+    lifecycle.synced("EMEA");
+    assertEquals(ServerLifecycle.State.SYNCED, lifecycle.getState());
+    assertEquals("SYNCED", metrics.getValue("ServerState"));
+
+    lifecycle.failed("NA");
+    assertEquals(ServerLifecycle.State.DEGRADED, lifecycle.getState());
+    assertEquals(1, metrics.getValue("ProvidersFailing"));
+    lifecycle.synced("NA");
+    assertEquals(ServerLifecycle.State.SYNCED, lifecycle.getState());
+  }
+
+  @Test
+  public void testFailureBeforeFirstSync() {
+    ServerLifecycle lifecycle = new ServerLifecycle();
+    lifecycle.failed("NA");
+    // Not listening yet
+    assertEquals(ServerLifecycle.State.STARTING, lifecycle.getState());
+    lifecycle.listening();
+    lifecycle.expect(Arrays.asList("NA", "EMEA"));
+    assertEquals(ServerLifecycle.State.DEGRADED, lifecycle.getState());
+    lifecycle.synced("NA");
+    assertEquals(ServerLifecycle.State.SERVING_STALE, lifecycle.getState());
+  }
+
+  @Test
+  public void testReplica() {
+    ServerLifecycle lifecycle = new ServerLifecycle();
+    lifecycle.listening();
+    lifecycle.expect(Collections.<String>emptyList());
+    assertEquals(ServerLifecycle.State.SYNCED, lifecycle.getState());
+  }
+
+}
@@ -0,0 +1,80 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class StartupPipelineTest {
+
+  @Test
+  public void testDependenciesAndDurations() throws Exception {
+    EADMetrics metrics = new EADMetrics();
+    StartupPipeline startup = new StartupPipeline("Test", metrics);
+    final List<String> order = new CopyOnWriteArrayList<String>();
+    final CountDownLatch both = new CountDownLatch(2);
+    StartupPipeline.Phase concurrent = new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        both.countDown();
+        // Only returns if the other phase runs at the same time
+        assertTrue(both.await(5, TimeUnit.SECONDS));
+        order.add("concurrent");
+      }
+    };
+    Future<?> first = startup.submit("First", concurrent);
+    Future<?> second = startup.submit("Second", concurrent);
+    startup.submit("Last", new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        order.add("last");
+      }
+    }, first, second);
+    startup.finish();
+
+    assertEquals(3, order.size());
+    assertEquals("last", order.get(2));
+    assertEquals(3, startup.getDurations().size());
+    assertNotNull(metrics.getValue("StartupFirstMillis"));
+    assertNotNull(metrics.getValue("StartupLastMillis"));
+    assertNotNull(metrics.getValue("StartupTestMillis"));
+  }
+
+  @Test
+  public void testFailurePropagates() throws Exception {
+    EADMetrics metrics = new EADMetrics();
+    StartupPipeline startup = new StartupPipeline("Test", metrics);
+    final List<String> order = new CopyOnWriteArrayList<String>();
+    Future<?> failing = startup.submit("Failing", new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        throw new IOException("broken");
+      }
+    });
+    startup.submit("Dependent", new StartupPipeline.Phase() {
+      @Override
+      public void run() throws Exception {
+        order.add("dependent");
+      }
+    }, failing);
+    try {
+      startup.finish();
+      fail("The failure of a phase is not reported");
+    } catch (IOException e) {
+      assertEquals("broken", e.getMessage());
+    }
+    // The phase depending on the failed one never ran
+    assertTrue(order.isEmpty());
+    assertTrue(startup.getDurations().isEmpty());
+  }
+
+}
@@ -0,0 +1,292 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.krish.directory.service.DefaultGroupMappingService;
+import com.krish.directory.service.GroupMembership;
+import com.krish.security.hadoop.impl.MultiRegionGroups;
+
+public class SyncCoordinatorTest {
+
+  private TestingServer zookeeper;
+  private List<CuratorFramework> clients = new ArrayList<CuratorFramework>();
+  private List<SyncCoordinator> coordinators = new ArrayList<SyncCoordinator>();
+
+  @Before
+  public void setUp() throws Exception {
+    zookeeper = new TestingServer();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (SyncCoordinator coordinator : coordinators) {
+      coordinator.close();
+    }
+    for (CuratorFramework client : clients) {
+      client.close();
+    }
+    zookeeper.close();
+  }
+
+  private SyncCoordinator join(String nodeId, SyncCoordinator.Mode mode,
+      DefaultGroupMappingService service) throws Exception {
+    CuratorFramework client =
+        CuratorFrameworkFactory.newClient(zookeeper.getConnectString(), new RetryOneTime(100));
+    client.start();
+    clients.add(client);
+    SyncCoordinator coordinator = new SyncCoordinator(client, "/ead", nodeId, mode, service);
+    coordinator.start();
+    coordinators.add(coordinator);
+    return coordinator;
+  }
+
+  private static void waitFor(Condition condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.holds() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+  }
+
+  private interface Condition {
+    boolean holds();
+  }
+
+  @Test
+  public void testSingleLeader() throws Exception {
+    final SyncCoordinator ead1 =
+        join("ead1", SyncCoordinator.Mode.LEADER, new RecordingGroupMappingService());
+    final SyncCoordinator ead2 =
+        join("ead2", SyncCoordinator.Mode.LEADER, new RecordingGroupMappingService());
+    waitFor(new Condition() {
+      @Override
+      public boolean holds() {
+        return ead1.owns("NAEAST", "ND-POC-ENG") || ead2.owns("NAEAST", "ND-POC-ENG");
+      }
+    });
+    assertTrue(ead1.owns("NAEAST", "ND-POC-ENG") ^ ead2.owns("NAEAST", "ND-POC-ENG"));
+  }
+
+  @Test
+  public void testPartitionsAndRebalances() throws Exception {
+    final SyncCoordinator ead1 =
+        join("ead1", SyncCoordinator.Mode.PARTITIONED, new RecordingGroupMappingService());
+    final SyncCoordinator ead2 =
+        join("ead2", SyncCoordinator.Mode.PARTITIONED, new RecordingGroupMappingService());
+    final List<String> groups = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      groups.add("group" + i);
+    }
+    waitFor(new Condition() {
+      @Override
+      public boolean holds() {
+        return countOwned(ead1, groups) + countOwned(ead2, groups) == groups.size();
+      }
+    });
+    assertEquals(groups.size(), countOwned(ead1, groups) + countOwned(ead2, groups));
+    assertTrue(countOwned(ead1, groups) > 0 && countOwned(ead2, groups) > 0);
+
+    coordinators.remove(ead2);
+    ead2.close();
+    waitFor(new Condition() {
+      @Override
+      public boolean holds() {
+        return countOwned(ead1, groups) == groups.size();
+      }
+    });
+    assertEquals(groups.size(), countOwned(ead1, groups));
+  }
+
+  @Test
+  public void testPublishedMembershipIsAppliedByTheOtherServers() throws Exception {
+    RecordingGroupMappingService service1 = new RecordingGroupMappingService();
+    final RecordingGroupMappingService service2 = new RecordingGroupMappingService();
+    SyncCoordinator ead1 = join("ead1", SyncCoordinator.Mode.LEADER, service1);
+    join("ead2", SyncCoordinator.Mode.LEADER, service2);
+
+    ead1.membershipFetched("NAEAST",
+        GroupMembership.of("ND-POC-ENG", Arrays.asList("krish", "jim")));
+    waitFor(new Condition() {
+      @Override
+      public boolean holds() {
+        return !service2.applied.isEmpty();
+      }
+    });
+    assertEquals(Arrays.asList("krish", "jim"), service2.applied.get(0).getUsers());
+    assertFalse(service1.applied.size() > 0);
+  }
+
+  @Test
+  public void testForgottenMembershipsAreNotAppliedByJoiningServers() throws Exception {
+    SyncCoordinator ead1 =
+        join("ead1", SyncCoordinator.Mode.LEADER, new RecordingGroupMappingService());
+    ead1.membershipFetched("NAEAST", GroupMembership.of("ND-POC-ENG", Arrays.asList("krish")));
+    ead1.membershipFetched("NAEAST", GroupMembership.of("ND-DEY-ENG", Arrays.asList("jim")));
+    ead1.forgetGroups("NAEAST", Arrays.asList("ND-DEY-ENG"));
+
+    final RecordingGroupMappingService service2 = new RecordingGroupMappingService();
+    join("ead2", SyncCoordinator.Mode.LEADER, service2);
+    waitFor(new Condition() {
+      @Override
+      public boolean holds() {
+        return !service2.applied.isEmpty();
+      }
+    });
+    Thread.sleep(500);
+    assertEquals(1, service2.applied.size());
+    assertEquals("ND-POC-ENG", service2.applied.get(0).getGroup());
+
+    ead1.forgetProvider("NAEAST");
+    final RecordingGroupMappingService service3 = new RecordingGroupMappingService();
+    join("ead3", SyncCoordinator.Mode.LEADER, service3);
+    Thread.sleep(1000);
+    assertTrue(service3.applied.isEmpty());
+  }
+
+  @Test
+  public void testRebalanceDuringASyncIsSyncedRightAway() throws Exception {
+    final BlockingGroupMappingService service = new BlockingGroupMappingService();
+    final SyncCoordinator ead1 = join("ead1", SyncCoordinator.Mode.PARTITIONED, service);
+    final SyncCoordinator ead2 = join("ead2", SyncCoordinator.Mode.PARTITIONED,
+        new RecordingGroupMappingService());
+    final List<String> groups = service.provider.getGroups();
+    waitFor(new Condition() {
+      @Override
+      public boolean holds() {
+        return countOwned(ead1, groups) + countOwned(ead2, groups) == groups.size()
+            && countOwned(ead2, groups) > 0;
+      }
+    });
+    assertTrue(countOwned(ead1, groups) < groups.size());
+
+    GroupMappingScheduler scheduler = new GroupMappingScheduler(service, null);
+    scheduler.setCoordinator(ead1);
+    scheduler.start();
+    try {
+      assertTrue(service.syncing.await(10, TimeUnit.SECONDS));
+      // ead1 gets the groups of ead2 while its first sync runs
+      coordinators.remove(ead2);
+      ead2.close();
+      waitFor(new Condition() {
+        @Override
+        public boolean holds() {
+          return countOwned(ead1, groups) == groups.size();
+        }
+      });
+      service.release.countDown();
+
+      waitFor(new Condition() {
+        @Override
+        public boolean holds() {
+          return service.getSynced().containsAll(groups);
+        }
+      });
+      // Without waiting for the sync interval of an hour
+      assertTrue(service.getSynced().containsAll(groups));
+    } finally {
+      service.release.countDown();
+      scheduler.stop();
+    }
+  }
+
+  private static int countOwned(SyncCoordinator coordinator, List<String> groups) {
+    int owned = 0;
+    for (String group : groups) {
+      if (coordinator.owns("NAEAST", group)) {
+        owned++;
+      }
+    }
+    return owned;
+  }
+
+  /**
+   * Group mapping service with a NAEAST provider synced every hour, whose first sync waits
+   * to be released
+   */
+  private static class BlockingGroupMappingService extends DefaultGroupMappingService {
+    final MultiRegionGroups provider = new MultiRegionGroups();
+    final CountDownLatch syncing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    private final Set<String> synced = new HashSet<String>();
+
+    BlockingGroupMappingService() {
+      List<String> groups = new ArrayList<String>();
+      for (int i = 0; i < 20; i++) {
+        groups.add("group" + i);
+      }
+      provider.setProviderName("NAEAST");
+      provider.setGroups(groups);
+      provider.setSyncInterval(3600 * 1000);
+      provider.setFullSyncInterval(3600 * 1000);
+    }
+
+    @Override
+    public List<MultiRegionGroups> getProviders() {
+      return Arrays.asList(provider);
+    }
+
+    @Override
+    public Collection<String> doSchemaUpdate(MultiRegionGroups groupProvider,
+        Collection<String> groups) {
+      syncing.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (this) {
+        synced.addAll(groups);
+      }
+      return groups;
+    }
+
+    synchronized Set<String> getSynced() {
+      return new HashSet<String>(synced);
+    }
+
+    @Override
+    public void publishSnapshot() {
+    }
+  }
+
+  /**
+   * Group mapping service with a single NAEAST provider, recording the applied memberships
+   */
+  private static class RecordingGroupMappingService extends DefaultGroupMappingService {
+    final List<GroupMembership> applied = new ArrayList<GroupMembership>();
+
+    @Override
+    public List<MultiRegionGroups> getProviders() {
+      MultiRegionGroups provider = new MultiRegionGroups();
+      provider.setProviderName("NAEAST");
+      provider.setGroups(Arrays.asList("ND-POC-ENG"));
+      return Arrays.asList(provider);
+    }
+
+    @Override
+    public synchronized boolean applyMembership(String providerName,
+        GroupMembership membership) {
+      applied.add(membership);
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SyntheticDirectoryTest {
+
+  @Test
+  public void testBothSidesOfTheMemberships() {
+    SyntheticDirectory directory = SyntheticDirectory.parse("users=7, groups=5, members=3");
+    Set<String> fromGroups = new HashSet<String>();
+    for (int group = 0; group < directory.getGroups(); group++) {
+      int[] members = directory.membersOf(group);
+      assertEquals(3, members.length);
+      for (int user : members) {
+        assertTrue(fromGroups.add(user + "/" + group));
+      }
+    }
+    Set<String> fromUsers = new HashSet<String>();
+    for (int user = 0; user < directory.getUsers(); user++) {
+      int[] groups = directory.groupsOf(user);
+      int[] sorted = groups.clone();
+      Arrays.sort(sorted);
+      assertTrue(Arrays.equals(sorted, groups));
+      for (int group : groups) {
+        assertTrue(fromUsers.add(user + "/" + group));
+      }
+    }
+    assertEquals(fromGroups, fromUsers);
+  }
+
+  @Test
+  public void testGroupsOfAllUsers() {
+    SyntheticDirectory directory = new SyntheticDirectory(4, 3, 10);
+    // Capped to the users
+    assertEquals(4, directory.getMembers());
+    assertTrue(Arrays.equals(new int[] { 0, 1, 2 }, directory.groupsOf(3)));
+    assertEquals("user3", directory.userName(3));
+    assertEquals("group2", directory.groupName(2));
+  }
+
+  @Test
+  public void testSortedNames() {
+    SyntheticDirectory directory = new SyntheticDirectory(1000, 1, 1);
+    assertEquals("user007", directory.userName(7));
+    assertTrue(directory.userName(99).compareTo(directory.userName(100)) < 0);
+  }
+
+}
@@ -0,0 +1,248 @@
+package com.krish.ead.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.StartTlsRequest;
+import javax.naming.ldap.StartTlsResponse;
+import javax.net.SocketFactory;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.directory.server.core.api.InstanceLayout;
+
+import com.krish.directory.service.EadSchemaService;
+
+/**
+ * Measures the search throughput of the LDAP listener under a storm of short lived
+ * connections, the way group lookups arrive on job submission, for every transport
+ * setting changed alone from the ApacheDS defaults.
+ *
+ * Usage: TransportBenchmark [clients] [seconds per setting]
+ *
+ * @author krishdey
+ *
+ */
+public class TransportBenchmark {
+
+  private static final int PORT = 10789;
+
+  private static final int LDAPS_PORT = 10790;
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    Map<String, Properties> runs = new LinkedHashMap<String, Properties>();
+    runs.put("apacheds defaults", settings(null, null));
+    runs.put("io threads " + 2 * cores,
+        settings(TransportSettings.IO_THREADS, Integer.toString(2 * cores)));
+    runs.put("worker threads 64", settings(TransportSettings.WORKER_THREADS, "64"));
+    runs.put("backlog 1024", settings(TransportSettings.BACKLOG, "1024"));
+    runs.put("max pdu 64k", settings(TransportSettings.MAX_PDU_SIZE, "65536"));
+    runs.put("keepalive off", settings(TransportSettings.TCP_KEEPALIVE, "false"));
+    runs.put("tcp buffers 256k", settings(TransportSettings.TCP_RECEIVE_BUFFER, "262144"));
+    runs.get("tcp buffers 256k").setProperty(TransportSettings.TCP_SEND_BUFFER, "262144");
+    runs.put("ldaps", settings(TransportSettings.LDAPS_PORT, Integer.toString(LDAPS_PORT)));
+    runs.put("starttls", settings(TransportSettings.START_TLS, "true"));
+
+    for (Map.Entry<String, Properties> run : runs.entrySet()) {
+      String url = run.getKey().equals("ldaps") ? "ldaps://localhost:" + LDAPS_PORT
+          : "ldap://localhost:" + PORT;
+      boolean startTls = run.getKey().equals("starttls");
+      EmbeddedADSVerM23 ads = new EmbeddedADSVerM23();
+      ads.setTransportSettings(new TransportSettings(run.getValue()));
+      ads.startServer(new InstanceLayout("/tmp/krish-transport-bench"), PORT);
+      try {
+        EadSchemaService schema = new EadSchemaService(ads.getDirectoryService());
+        schema.createUser("bench", "bench");
+        schema.createGroup("ND-BENCH-ENG");
+        schema.addUserToGroup("bench", "ND-BENCH-ENG");
+        String filter = "(&(objectClass=group)(member=" + schema.userDn("bench") + "))";
+        report(run.getKey(), storm(url, startTls, filter, clients, seconds * 1000L), seconds);
+      } finally {
+        ads.stopServer();
+      }
+    }
+  }
+
+  /**
+   * @return ApacheDS defaults, with the given setting changed
+   */
+  private static Properties settings(String name, String value) {
+    Properties properties = new Properties();
+    properties.setProperty(TransportSettings.IO_THREADS, "3");
+    properties.setProperty(TransportSettings.WORKER_THREADS, "0");
+    properties.setProperty(TransportSettings.BACKLOG, "50");
+    if (name != null) {
+      properties.setProperty(name, value);
+    }
+    return properties;
+  }
+
+  /**
+   * Every client connects, looks up the groups of a user and disconnects, in a loop
+   * @return the searches done and failed
+   */
+  private static long[] storm(final String url, final boolean startTls, final String filter,
+      int clients, final long duration) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    final long end = System.currentTimeMillis() + duration;
+    List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+    for (int i = 0; i < clients; i++) {
+      futures.add(executor.submit(new Callable<long[]>() {
+        @Override
+        public long[] call() {
+          long[] counts = new long[2];
+          while (System.currentTimeMillis() < end) {
+            try {
+              search(url, startTls, filter);
+              counts[0]++;
+            } catch (Exception e) {
+              counts[1]++;
+            }
+          }
+          return counts;
+        }
+      }));
+    }
+    long[] total = new long[2];
+    for (Future<long[]> future : futures) {
+      long[] counts = future.get();
+      total[0] += counts[0];
+      total[1] += counts[1];
+    }
+    executor.shutdown();
+    return total;
+  }
+
+  private static void search(String url, boolean startTls, String filter) throws Exception {
+    Hashtable<String, String> env = new Hashtable<String, String>();
+    env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+    env.put(Context.PROVIDER_URL, url);
+    if (url.startsWith("ldaps")) {
+      env.put("java.naming.ldap.factory.socket", TrustAllSocketFactory.class.getName());
+    }
+    LdapContext context = new InitialLdapContext(env, null);
+    StartTlsResponse tls = null;
+    try {
+      if (startTls) {
+        tls = (StartTlsResponse) context.extendedOperation(new StartTlsRequest());
+        tls.setHostnameVerifier(new HostnameVerifier() {
+          @Override
+          public boolean verify(String hostname, SSLSession session) {
+            return true;
+          }
+        });
+        tls.negotiate(TrustAllSocketFactory.FACTORY);
+      }
+      // Binds on the next operation, over TLS once negotiated
+      context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+      context.addToEnvironment(Context.SECURITY_PRINCIPAL, "uid=admin,ou=system");
+      context.addToEnvironment(Context.SECURITY_CREDENTIALS, "krish");
+      SearchControls controls = new SearchControls();
+      controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+      NamingEnumeration<?> results =
+          context.search(EadSchemaService.JPMIS_SUFFIX, filter, controls);
+      while (results.hasMore()) {
+        results.next();
+      }
+    } finally {
+      if (tls != null) {
+        tls.close();
+      }
+      context.close();
+    }
+  }
+
+  private static void report(String setting, long[] counts, int seconds) {
+    System.out.println(setting + ": " + counts[0] + " searches, " + counts[0] / seconds
+        + " searches/s, " + counts[1] + " failed");
+  }
+
+  /**
+   * Accepts the self signed certificate of the server, and keeps a single SSL context so
+   * that the sessions are resumed across the connections
+   */
+  public static class TrustAllSocketFactory extends SocketFactory {
+    private static final SSLSocketFactory FACTORY;
+
+    static {
+      try {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[] { new X509TrustManager() {
+          @Override
+          public void checkClientTrusted(X509Certificate[] chain, String authType) {
+          }
+
+          @Override
+          public void checkServerTrusted(X509Certificate[] chain, String authType) {
+          }
+
+          @Override
+          public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+          }
+        } }, new SecureRandom());
+        FACTORY = context.getSocketFactory();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    public static SocketFactory getDefault() {
+      return new TrustAllSocketFactory();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+      return FACTORY.createSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+      return FACTORY.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+        throws IOException {
+      return FACTORY.createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+      return FACTORY.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+        int localPort) throws IOException {
+      return FACTORY.createSocket(address, port, localAddress, localPort);
+    }
+  }
+
+}
@@ -0,0 +1,53 @@
+package com.krish.ead.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class TransportSettingsTest {
+
+  @Test
+  public void testDefaults() {
+    TransportSettings settings = new TransportSettings(new Properties());
+    assertEquals(Runtime.getRuntime().availableProcessors(), settings.getIoThreads());
+    assertEquals(TransportSettings.WORKER_THREADS_DEFAULT, settings.getWorkerThreads());
+    assertEquals(TransportSettings.BACKLOG_DEFAULT, settings.getBacklog());
+    assertTrue(settings.isTcpKeepAlive());
+    assertEquals(0, settings.getLdapsPort());
+    assertFalse(settings.isStartTls());
+    assertNull(settings.getTlsKeystore());
+  }
+
+  @Test
+  public void testWorkersFollowTheIoThreadsWhenUnset() {
+    Properties properties = new Properties();
+    properties.setProperty(TransportSettings.IO_THREADS, "6");
+    properties.setProperty(TransportSettings.WORKER_THREADS, "0");
+    properties.setProperty(TransportSettings.BACKLOG, " 256 ");
+    properties.setProperty(TransportSettings.TLS_KEYSTORE, "");
+    TransportSettings settings = new TransportSettings(properties);
+    assertEquals(6, settings.getWorkerThreads());
+    assertEquals(256, settings.getBacklog());
+    assertNull(settings.getTlsKeystore());
+  }
+
+  @Test
+  public void testSystemPropertiesOverrideTheFile() {
+    System.setProperty(TransportSettings.BACKLOG, "4096");
+    System.setProperty(TransportSettings.LDAPS_PORT, "");
+    try {
+      TransportSettings settings = TransportSettings.load();
+      assertEquals(4096, settings.getBacklog());
+      assertEquals(0, settings.getLdapsPort());
+    } finally {
+      System.clearProperty(TransportSettings.BACKLOG);
+      System.clearProperty(TransportSettings.LDAPS_PORT);
+    }
+  }
+
+}
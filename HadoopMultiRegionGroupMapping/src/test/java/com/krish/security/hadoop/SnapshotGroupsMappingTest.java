@@ -0,0 +1,56 @@
+package com.krish.security.hadoop;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.krish.directory.service.MembershipSnapshot;
+import com.krish.security.hadoop.impl.GroupsMappingBuilder;
+import com.krish.security.hadoop.impl.SnapshotGroupsMapping;
+
+public class SnapshotGroupsMappingTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("snapshot-mapping").toFile();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void testReloadsReplacedSnapshot() throws Exception {
+    File file = new File(dir, "groups.snapshot");
+    MembershipSnapshot.write(file,
+        Collections.singletonMap("ND-POC-ENG", Arrays.asList("krish")));
+
+    Configuration conf = new Configuration(false);
+    conf.set(GroupsMappingBuilder.SNAPSHOT_FILE_KEY, file.getPath());
+    conf.setLong(GroupsMappingBuilder.SNAPSHOT_RELOAD_INTERVAL_KEY, 60 * 1000);
+    SnapshotGroupsMapping mapping = new SnapshotGroupsMapping();
+    mapping.setConf(conf);
+    assertEquals(Arrays.asList("ND-POC-ENG"), mapping.getGroups("krish"));
+
+    MembershipSnapshot.write(file,
+        Collections.singletonMap("ND-DEY-ENG", Arrays.asList("krish", "jim")));
+    // Not checked again before the reload interval
+    assertEquals(Arrays.asList("ND-POC-ENG"), mapping.getGroups("krish"));
+    mapping.cacheGroupsRefresh();
+    assertEquals(Arrays.asList("ND-DEY-ENG"), mapping.getGroups("krish"));
+    assertEquals(Arrays.asList("ND-DEY-ENG"), mapping.getGroups("jim"));
+  }
+
+}
@@ -0,0 +1,218 @@
+package com.krish.security.hadoop.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+
+import com.krish.directory.service.EadSchemaService;
+import com.krish.directory.service.GroupMappingServiceProvider;
+import com.krish.directory.service.GroupMembership;
+import com.krish.ead.server.EmbeddedADSVerM23;
+import com.krish.ead.server.SyntheticDirectory;
+
+/**
+ * Measures the groups fetched per second by the JNDI provider, which waits for every
+ * search before sending the next one, and by the pipelined asynchronous provider, through
+ * a proxy adding a fixed latency each way between the providers and a local server, the
+ * way a remote region is reached.
+ *
+ * Usage: AsyncLdapBenchmark [latency ms] [groups] [members per group]
+ *
+ * @author krishdey
+ *
+ */
+public class AsyncLdapBenchmark {
+
+  private static final int PORT = 10889;
+
+  private static final int PROXY_PORT = 10890;
+
+  private static final int CYCLES = 3;
+
+  public static void main(String[] args) throws Exception {
+    int latency = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int groups = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    int members = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+    SyntheticDirectory directory = new SyntheticDirectory(groups * members / 4, groups, members);
+
+    EmbeddedADSVerM23 ads = new EmbeddedADSVerM23();
+    ads.startServer(new InstanceLayout("/tmp/krish-async-bench"), PORT);
+    LatencyProxy proxy = new LatencyProxy(PROXY_PORT, PORT, latency);
+    try {
+      EadSchemaService schema = new EadSchemaService(ads.getDirectoryService());
+      List<String> names = new ArrayList<String>();
+      for (int user = 0; user < directory.getUsers(); user++) {
+        schema.createUser(directory.userName(user), "bench");
+      }
+      for (int group = 0; group < directory.getGroups(); group++) {
+        String name = directory.groupName(group);
+        List<String> uids = new ArrayList<String>();
+        for (int user : directory.membersOf(group)) {
+          uids.add(directory.userName(user));
+        }
+        schema.createGroup(name);
+        schema.modifyGroupMembers(name, uids, Collections.<String>emptyList());
+        names.add(name);
+      }
+      proxy.start();
+
+      Configuration conf = new Configuration(false);
+      conf.set(GroupsMappingBuilder.MAPPING_PROVIDER_CONFIG_PREFIX, "BENCH");
+      conf.set(LdapGroupsMapping.LDAP_URL_KEY, "ldap://localhost:" + PROXY_PORT);
+      conf.set(LdapGroupsMapping.BASE_DN_KEY, EadSchemaService.JPMIS_SUFFIX);
+      conf.set(LdapGroupsMapping.BIND_USER_KEY, "uid=admin,ou=system");
+      conf.set(LdapGroupsMapping.BIND_PASSWORD_KEY, "krish");
+
+      for (int cycle = 0; cycle < CYCLES; cycle++) {
+        run("jndi", new LdapGroupsMapping(), conf, names, members);
+        for (int window : new int[] { 1, 8, 32, 128 }) {
+          Configuration asyncConf = new Configuration(conf);
+          asyncConf.setInt(AsyncLdapGroupsMapping.ASYNC_WINDOW_KEY, window);
+          run("async window " + window, new AsyncLdapGroupsMapping(), asyncConf, names,
+              members);
+        }
+      }
+    } finally {
+      proxy.close();
+      ads.stopServer();
+    }
+  }
+
+  private static void run(String name, GroupMappingServiceProvider provider,
+      Configuration conf, List<String> groups, final int members) {
+    ((Configurable) provider).setConf(conf);
+    final int[] counts = new int[2];
+    long start = System.nanoTime();
+    provider.getMemberships(groups, new GroupMappingServiceProvider.MembershipCallback() {
+      @Override
+      public boolean beforeRequest(String group) {
+        return true;
+      }
+
+      @Override
+      public void fetched(GroupMembership membership) {
+        if (membership.getMembers().size() == members) {
+          counts[0]++;
+        } else {
+          counts[1]++;
+        }
+      }
+
+      @Override
+      public void failed(String group, IOException e) {
+        counts[1]++;
+      }
+    });
+    long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+    System.out.println(name + ": " + counts[0] + " groups in " + elapsed + " ms, "
+        + counts[0] * 1000L / elapsed + " groups/s, " + counts[1] + " failed");
+  }
+
+  /**
+   * Forwards the connections to the server, holding every chunk read for the latency
+   * before writing it, so that the chunks in flight are delayed together as on a long link
+   */
+  static class LatencyProxy extends Thread {
+    private final ServerSocket serverSocket;
+    private final int targetPort;
+    private final long latency;
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    LatencyProxy(int port, int targetPort, long latency) throws IOException {
+      super("latency-proxy");
+      setDaemon(true);
+      this.serverSocket = new ServerSocket();
+      serverSocket.setReuseAddress(true);
+      serverSocket.bind(new InetSocketAddress("localhost", port));
+      this.targetPort = targetPort;
+      this.latency = latency;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Socket client = serverSocket.accept();
+          Socket server = new Socket("localhost", targetPort);
+          client.setTcpNoDelay(true);
+          server.setTcpNoDelay(true);
+          sockets.add(client);
+          sockets.add(server);
+          pipe(client.getInputStream(), server.getOutputStream());
+          pipe(server.getInputStream(), client.getOutputStream());
+        }
+      } catch (IOException e) {
+        // Closed
+      }
+    }
+
+    private void pipe(final InputStream in, final OutputStream out) {
+      final BlockingQueue<Object[]> chunks = new LinkedBlockingQueue<Object[]>();
+      Thread reader = new Thread("latency-proxy-reader") {
+        @Override
+        public void run() {
+          byte[] buffer = new byte[1 << 16];
+          try {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+              chunks.put(new Object[] { System.currentTimeMillis() + latency,
+                  Arrays.copyOf(buffer, read) });
+            }
+          } catch (Exception e) {
+            // Closed
+          }
+          chunks.add(new Object[] { 0L, null });
+        }
+      };
+      Thread writer = new Thread("latency-proxy-writer") {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              Object[] chunk = chunks.take();
+              if (chunk[1] == null) {
+                break;
+              }
+              long wait = (Long) chunk[0] - System.currentTimeMillis();
+              if (wait > 0) {
+                Thread.sleep(wait);
+              }
+              out.write((byte[]) chunk[1]);
+              out.flush();
+            }
+            out.close();
+          } catch (Exception e) {
+            // Closed
+          }
+        }
+      };
+      reader.setDaemon(true);
+      writer.setDaemon(true);
+      reader.start();
+      writer.start();
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+      synchronized (sockets) {
+        for (Socket socket : sockets) {
+          socket.close();
+        }
+      }
+    }
+  }
+
+}
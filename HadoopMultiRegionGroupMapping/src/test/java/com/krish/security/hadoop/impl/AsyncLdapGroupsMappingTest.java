@@ -0,0 +1,219 @@
+package com.krish.security.hadoop.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.krish.directory.service.EadSchemaService;
+import com.krish.directory.service.GroupMappingServiceProvider;
+import com.krish.directory.service.GroupMembership;
+import com.krish.ead.server.EmbeddedADSVerM23;
+
+/**
+ * The asynchronous provider against the JNDI one, both reading the embedded server
+ *
+ * @author krishdey
+ */
+public class AsyncLdapGroupsMappingTest {
+
+  private static final int PORT = 10891;
+
+  private static final int PROXY_PORT = 10892;
+
+  private static final List<String> GROUPS =
+      Arrays.asList("ND-ASYNC-ONE", "ND-ASYNC-FEW", "ND-ASYNC-MANY");
+
+  static EmbeddedADSVerM23 ads;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    ads = new EmbeddedADSVerM23();
+    ads.startServer(new InstanceLayout("/tmp/krish-async-test"), PORT);
+    EadSchemaService schema = new EadSchemaService(ads.getDirectoryService());
+    // Shared by all the groups
+    schema.createUser("async-shared", "async-shared");
+    int[] sizes = { 1, 5, 120 };
+    for (int i = 0; i < GROUPS.size(); i++) {
+      List<String> uids = new ArrayList<String>();
+      for (int user = 0; user < sizes[i]; user++) {
+        String uid = "async" + i + "-" + user;
+        schema.createUser(uid, uid);
+        uids.add(uid);
+      }
+      uids.add("async-shared");
+      schema.createGroup(GROUPS.get(i));
+      schema.modifyGroupMembers(GROUPS.get(i), uids, Collections.<String>emptyList());
+    }
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    ads.stopServer();
+  }
+
+  private static Configuration conf(int port) {
+    Configuration conf = new Configuration(false);
+    conf.set(GroupsMappingBuilder.MAPPING_PROVIDER_CONFIG_PREFIX, "ASYNC");
+    conf.set(LdapGroupsMapping.LDAP_URL_KEY, "ldap://localhost:" + port);
+    conf.set(LdapGroupsMapping.BASE_DN_KEY, EadSchemaService.JPMIS_SUFFIX);
+    conf.set(LdapGroupsMapping.BIND_USER_KEY, "uid=admin,ou=system");
+    conf.set(LdapGroupsMapping.BIND_PASSWORD_KEY, "krish");
+    return conf;
+  }
+
+  private static void assertSameMembership(GroupMembership expected, GroupMembership actual) {
+    assertEquals(expected.getGroup(), actual.getGroup());
+    assertEquals(expected.isFound(), actual.isFound());
+    assertEquals(new TreeSet<String>(expected.getUsers()),
+        new TreeSet<String>(actual.getUsers()));
+    assertEquals(expected.getUsers().size(), actual.getUsers().size());
+    assertEquals(expected.getDigest(), actual.getDigest());
+  }
+
+  /**
+   * Fetch the groups in a batch, by group, failures included
+   */
+  private static Map<String, Object> fetch(GroupMappingServiceProvider provider,
+      List<String> groups) {
+    final Map<String, Object> fetched = new HashMap<String, Object>();
+    provider.getMemberships(groups, new GroupMappingServiceProvider.MembershipCallback() {
+      @Override
+      public boolean beforeRequest(String group) {
+        return true;
+      }
+
+      @Override
+      public void fetched(GroupMembership membership) {
+        fetched.put(membership.getGroup(), membership);
+      }
+
+      @Override
+      public void failed(String group, IOException e) {
+        fetched.put(group, e);
+      }
+    });
+    return fetched;
+  }
+
+  @Test
+  public void testSameMembersAsJndi() throws Exception {
+    LdapGroupsMapping jndi = new LdapGroupsMapping();
+    jndi.setConf(conf(PORT));
+    AsyncLdapGroupsMapping async = new AsyncLdapGroupsMapping();
+    async.setConf(conf(PORT));
+    try {
+      for (String group : GROUPS) {
+        GroupMembership expected = jndi.getMembership(group);
+        assertTrue(expected.isFound());
+        assertSameMembership(expected, async.getMembership(group));
+      }
+
+      // Pipelined over the connections
+      Map<String, Object> fetched = fetch(async, GROUPS);
+      assertEquals(GROUPS.size(), fetched.size());
+      for (String group : GROUPS) {
+        assertSameMembership(jndi.getMembership(group), (GroupMembership) fetched.get(group));
+      }
+    } finally {
+      jndi.close();
+      async.close();
+    }
+  }
+
+  @Test
+  public void testMissingGroup() throws Exception {
+    LdapGroupsMapping jndi = new LdapGroupsMapping();
+    jndi.setConf(conf(PORT));
+    AsyncLdapGroupsMapping async = new AsyncLdapGroupsMapping();
+    async.setConf(conf(PORT));
+    try {
+      GroupMembership expected = jndi.getMembership("ND-ASYNC-MISSING");
+      assertFalse(expected.isFound());
+      assertTrue(expected.getUsers().isEmpty());
+      assertSameMembership(expected, async.getMembership("ND-ASYNC-MISSING"));
+
+      // A missing group in a batch does not hold the others
+      List<String> groups = Arrays.asList("ND-ASYNC-ONE", "ND-ASYNC-MISSING", "ND-ASYNC-MANY");
+      Map<String, Object> fetched = fetch(async, groups);
+      assertFalse(((GroupMembership) fetched.get("ND-ASYNC-MISSING")).isFound());
+      assertSameMembership(jndi.getMembership("ND-ASYNC-MANY"),
+          (GroupMembership) fetched.get("ND-ASYNC-MANY"));
+    } finally {
+      jndi.close();
+      async.close();
+    }
+  }
+
+  @Test
+  public void testReadTimeoutFailsTheSearchesInFlightOnTheConnection() throws Exception {
+    int readTimeout = 1000;
+    AsyncLdapBenchmark.LatencyProxy proxy =
+        new AsyncLdapBenchmark.LatencyProxy(PROXY_PORT, PORT, readTimeout * 2);
+    proxy.start();
+    Configuration conf = conf(PROXY_PORT);
+    conf.setInt(LdapGroupsMapping.READ_TIMEOUT, readTimeout);
+    conf.setInt(LdapGroupsMapping.CONNECTION_TIMEOUT, readTimeout * 10);
+    conf.setInt(AsyncLdapGroupsMapping.ASYNC_CONNECTIONS_KEY, 1);
+    AsyncLdapGroupsMapping async = new AsyncLdapGroupsMapping();
+    async.setConf(conf);
+    try {
+      final List<Long> failedAt = new ArrayList<Long>();
+      final List<String> messages = new ArrayList<String>();
+      long start = System.currentTimeMillis();
+      async.getMemberships(GROUPS, new GroupMappingServiceProvider.MembershipCallback() {
+        @Override
+        public boolean beforeRequest(String group) {
+          return true;
+        }
+
+        @Override
+        public void fetched(GroupMembership membership) {
+          messages.add("fetched " + membership.getGroup());
+        }
+
+        @Override
+        public void failed(String group, IOException e) {
+          failedAt.add(System.currentTimeMillis());
+          messages.add(e.getMessage());
+        }
+      });
+
+      assertEquals(messages.toString(), GROUPS.size(), failedAt.size());
+      assertTrue(messages.get(0), messages.get(0).startsWith("No response for group"));
+      for (String message : messages.subList(1, messages.size())) {
+        assertTrue(message, message.contains("closed before group"));
+      }
+      // The searches left on the closed connection do not wait for their own timeout
+      long last = failedAt.get(failedAt.size() - 1);
+      assertTrue("failed " + (last - failedAt.get(0)) + " ms after the first",
+          last - failedAt.get(0) < readTimeout);
+      assertTrue(last - start < readTimeout * 10);
+    } finally {
+      async.close();
+      proxy.close();
+    }
+
+    // Another connection is opened for the next sync
+    async.setConf(conf(PORT));
+    try {
+      assertTrue(async.getMembership("ND-ASYNC-FEW").isFound());
+    } finally {
+      async.close();
+    }
+  }
+}
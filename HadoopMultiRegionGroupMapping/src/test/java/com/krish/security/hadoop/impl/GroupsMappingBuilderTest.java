@@ -0,0 +1,105 @@
+package com.krish.security.hadoop.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class GroupsMappingBuilderTest {
+
+  private static final String PROVIDER = GroupsMappingBuilder.MAPPING_PROVIDER_CONFIG_PREFIX;
+
+  private static Configuration conf(String... providers) {
+    Configuration conf = new Configuration(false);
+    conf.setStrings(GroupsMappingBuilder.MAPPING_PROVIDERS_CONFIG_KEY, providers);
+    for (String provider : providers) {
+      conf.set(PROVIDER + "." + provider + ".ldap.url", "ldap://" + provider + ":389");
+      conf.set(PROVIDER + "." + provider + ".ldap.groups", "ND-POC-ENG");
+    }
+    return conf;
+  }
+
+  private static Map<String, MultiRegionGroups> byName(GroupsMappingBuilder builder) {
+    Map<String, MultiRegionGroups> providers = new HashMap<String, MultiRegionGroups>();
+    for (MultiRegionGroups provider : builder.getProvidersList()) {
+      providers.put(provider.getProviderName(), provider);
+    }
+    return providers;
+  }
+
+  @Test
+  public void testUnchangedProvidersKeepTheirInstance() throws Exception {
+    GroupsMappingBuilder builder = new GroupsMappingBuilder();
+    builder.buildCompositeGroupMappingProviders(conf("NAEAST", "EMEA"));
+    Map<String, MultiRegionGroups> before = byName(builder);
+
+    Configuration conf = conf("NAEAST", "EMEA");
+    conf.set(PROVIDER + ".NAEAST.ldap.groups", "ND-POC-ENG,ND-DEY-ENG");
+    conf.setLong(PROVIDER + ".NAEAST" + GroupsMappingBuilder.SYNC_INTERVAL_KEY, 30000);
+    conf.set(PROVIDER + ".EMEA.ldap.url", "ldap://emea2:389");
+    GroupsMappingBuilder.Reload reload = builder.reloadCompositeGroupMappingProviders(conf);
+    Map<String, MultiRegionGroups> after = byName(builder);
+
+    // The groups and the schedule are not settings of the provider instance
+    assertSame(before.get("NAEAST").getGroupServiceProvider(),
+        after.get("NAEAST").getGroupServiceProvider());
+    assertSame(before.get("NAEAST").getCircuitBreaker(),
+        after.get("NAEAST").getCircuitBreaker());
+    assertEquals(30000, after.get("NAEAST").getSyncInterval());
+    assertNotSame(before.get("EMEA").getGroupServiceProvider(),
+        after.get("EMEA").getGroupServiceProvider());
+    assertEquals(Arrays.asList("EMEA"), reload.getRebuilt());
+    assertTrue(reload.getAdded().isEmpty());
+    assertEquals(Collections.singletonMap("NAEAST", Arrays.asList("ND-DEY-ENG")),
+        reload.getAddedGroups());
+    assertTrue(reload.getRemovedGroups().isEmpty());
+  }
+
+  @Test
+  public void testProvidersAndGroupsAddedAndRemoved() throws Exception {
+    GroupsMappingBuilder builder = new GroupsMappingBuilder();
+    Configuration conf = conf("NAEAST", "EMEA");
+    conf.set(PROVIDER + ".NAEAST.ldap.groups", "ND-POC-ENG,ND-DEY-ENG");
+    builder.buildCompositeGroupMappingProviders(conf);
+
+    GroupsMappingBuilder.Reload reload =
+        builder.reloadCompositeGroupMappingProviders(conf("NAEAST", "APAC"));
+    assertEquals(Arrays.asList("APAC"), reload.getAdded());
+    assertEquals(Arrays.asList("EMEA"), reload.getRemoved());
+    assertEquals(Collections.singletonMap("APAC", Arrays.asList("ND-POC-ENG")),
+        reload.getAddedGroups());
+    assertEquals(Arrays.asList("ND-DEY-ENG"), reload.getRemovedGroups().get("NAEAST"));
+    assertEquals(Arrays.asList("ND-POC-ENG"), reload.getRemovedGroups().get("EMEA"));
+    assertEquals(2, builder.getProvidersList().size());
+
+    assertTrue(builder.reloadCompositeGroupMappingProviders(conf("NAEAST", "APAC")).isEmpty());
+  }
+
+  @Test
+  public void testFailedReloadKeepsTheProviders() throws Exception {
+    GroupsMappingBuilder builder = new GroupsMappingBuilder();
+    builder.buildCompositeGroupMappingProviders(conf("NAEAST"));
+    MultiRegionGroups before = builder.getProvidersList().get(0);
+
+    Configuration conf = conf("NAEAST", "EMEA");
+    conf.set(PROVIDER + ".EMEA", "com.krish.NoSuchMapping");
+    try {
+      builder.reloadCompositeGroupMappingProviders(conf);
+      fail("EMEA has no class");
+    } catch (RuntimeException e) {
+      // Expected
+    }
+    assertEquals(Arrays.asList(before), builder.getProvidersList());
+    assertTrue(builder.reloadCompositeGroupMappingProviders(conf("NAEAST")).isEmpty());
+  }
+
+}
@@ -0,0 +1,102 @@
+package com.krish.security.hadoop.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+import com.krish.directory.service.GroupMembershipMerger;
+import com.krish.directory.service.MemberSet;
+import com.krish.directory.service.MembershipDigest;
+import com.krish.directory.service.NameDictionary;
+
+/**
+ * Measures the bytes allocated by a sync cycle to turn the member Dns returned by the
+ * providers into the member lists kept for the merge, with the String lists the cycle
+ * used to build and with the interned member sets. The member Dns are built beforehand,
+ * as JNDI hands them out in both cases.
+ *
+ * Usage: MembershipPipelineBenchmark [regions] [groups] [members per group] [users]
+ *
+ * @author krishdey
+ *
+ */
+public class MembershipPipelineBenchmark {
+
+  private static final int CYCLES = 5;
+
+  public static void main(String[] args) throws Exception {
+    int regions = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+    int groups = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+    int members = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    int users = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+
+    Random random = new Random(42);
+    String[][] memberDns = new String[regions * groups][members];
+    for (String[] group : memberDns) {
+      for (int m = 0; m < members; m++) {
+        group[m] = "CN=user" + random.nextInt(users) + ",OU=Users,OU=JPMIS,DC=NAEAST,DC=AD,"
+            + "DC=JPMORGANCHASE,DC=com";
+      }
+    }
+
+    for (int cycle = 0; cycle < CYCLES; cycle++) {
+      Map<Integer, String[]> retained = new HashMap<Integer, String[]>();
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      for (int g = 0; g < memberDns.length; g++) {
+        retained.put(g, GroupMembershipMerger.sorted(stringList(memberDns[g])));
+      }
+      report("String lists", cycle, allocated, start);
+
+      Map<Integer, MemberSet> interned = new HashMap<Integer, MemberSet>();
+      MemberSet.Builder builder = new MemberSet.Builder(NameDictionary.users());
+      allocated = allocatedBytes();
+      start = System.nanoTime();
+      for (int g = 0; g < memberDns.length; g++) {
+        for (String dn : memberDns[g]) {
+          NestedGroupExpander.addCnOf(dn, builder);
+        }
+        interned.put(g, builder.build("group" + g, true).getMembers());
+      }
+      report("Member sets", cycle, allocated, start);
+    }
+  }
+
+  /**
+   * The members of a group as the sync cycle used to collect them
+   */
+  private static List<String> stringList(String[] memberDns) throws Exception {
+    List<String> users = new ArrayList<String>();
+    MembershipDigest digest = new MembershipDigest();
+    for (String memberDn : memberDns) {
+      for (Rdn rdn : new LdapName(memberDn).getRdns()) {
+        if (rdn.getType().equalsIgnoreCase("cn")) {
+          String user = rdn.getValue().toString();
+          users.add(user);
+          digest.add(user);
+          break;
+        }
+      }
+    }
+    digest.getDigest();
+    return users;
+  }
+
+  private static void report(String pipeline, int cycle, long allocated, long start) {
+    System.out.println("Cycle " + cycle + ", " + pipeline + ": "
+        + (allocatedBytes() - allocated) / (1024 * 1024) + " MB allocated in "
+        + (System.nanoTime() - start) / 1000000 + " ms");
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+}
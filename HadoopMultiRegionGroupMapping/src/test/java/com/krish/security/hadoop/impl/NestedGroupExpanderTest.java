@@ -0,0 +1,317 @@
+package com.krish.security.hadoop.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Expansion of the nested groups by {@link LdapGroupsMapping}, level by level with the
+ * {@link NestedGroupExpander} or in chain, against a stub directory
+ *
+ * @author krishdey
+ */
+public class NestedGroupExpanderTest {
+
+  private static final String IN_CHAIN = "memberOf:1.2.840.113556.1.4.1941:=";
+
+  private StubDirectory directory;
+
+  @Before
+  public void setUp() {
+    directory = new StubDirectory();
+  }
+
+  private static String group(String cn) {
+    return "cn=" + cn + ",ou=groups,dc=test";
+  }
+
+  private static String user(String cn) {
+    return "cn=" + cn + ",ou=users,dc=test";
+  }
+
+  private LdapGroupsMapping mapping(int levels, boolean inChain) {
+    final DirContext ctx = directory.context();
+    LdapGroupsMapping mapping = new LdapGroupsMapping() {
+      @Override
+      DirContext getDirContext() {
+        return ctx;
+      }
+    };
+    Configuration conf = new Configuration(false);
+    conf.set(LdapGroupsMapping.LDAP_URL_KEY, "ldap://stub:389");
+    conf.set(LdapGroupsMapping.BASE_DN_KEY, "dc=test");
+    conf.setInt(LdapGroupsMapping.GROUP_HIERARCHY_LEVELS_KEY, levels);
+    conf.setBoolean(LdapGroupsMapping.GROUP_HIERARCHY_IN_CHAIN_KEY, inChain);
+    mapping.setConf(conf);
+    return mapping;
+  }
+
+  private static Set<String> usersOf(LdapGroupsMapping mapping, String group) throws Exception {
+    return new TreeSet<String>(mapping.doGetUsersOfGroup(group).getUsers());
+  }
+
+  private static Set<String> set(String... values) {
+    return new TreeSet<String>(Arrays.asList(values));
+  }
+
+  @Test
+  public void testTwoGroupCycle() throws Exception {
+    directory.add("A", user("u1"), group("B"));
+    directory.add("B", user("u2"), group("A"));
+
+    LdapGroupsMapping mapping = mapping(5, false);
+    assertEquals(set("u1", "u2"), usersOf(mapping, "A"));
+    assertEquals(set("u1", "u2"), usersOf(mapping, "B"));
+  }
+
+  @Test
+  public void testChainDeeperThanTheLevels() throws Exception {
+    directory.add("A", user("uA"), group("B"));
+    directory.add("B", user("uB"), group("C"));
+    directory.add("C", user("uC"), group("D"));
+    directory.add("D", user("uD"));
+
+    assertEquals(set("uA", "uB", "uC"), usersOf(mapping(2, false), "A"));
+    assertEquals(set("uA", "uB", "uC", "uD"), usersOf(mapping(3, false), "A"));
+    // Without levels the subgroup is taken as a member
+    assertEquals(set("uA", "B"), usersOf(mapping(0, false), "A"));
+  }
+
+  @Test
+  public void testGroupUnderTwoParentsIsExpandedOnce() throws Exception {
+    directory.add("A", group("P1"), group("P2"));
+    directory.add("P1", group("S"), user("u1"));
+    directory.add("P2", group("S"), user("u2"));
+    directory.add("S", user("u3"));
+
+    assertEquals(set("u1", "u2", "u3"), usersOf(mapping(5, false), "A"));
+    assertEquals(1, directory.searchesFor("S"));
+  }
+
+  @Test
+  public void testUserDirectAndNested() throws Exception {
+    directory.add("A", user("u1"), group("B"));
+    directory.add("B", user("u1"), user("u2"));
+
+    List<String> users = mapping(5, false).doGetUsersOfGroup("A").getUsers();
+    assertEquals(2, users.size());
+    assertEquals(set("u1", "u2"), new TreeSet<String>(users));
+  }
+
+  @Test
+  public void testMembersAreClassifiedInBatches() throws Exception {
+    int count = NestedGroupExpander.BATCH_SIZE * 2 + 10;
+    String[] members = new String[count + 1];
+    Set<String> expected = new TreeSet<String>();
+    for (int i = 0; i < count; i++) {
+      members[i] = user("u" + i);
+      expected.add("u" + i);
+    }
+    // Not a cn, known to be a user without a search
+    members[count] = "uid=jdoe,ou=users,dc=test";
+    directory.add("A", members);
+
+    Set<String> users = usersOf(mapping(1, false), "A");
+    assertEquals(count, users.size());
+    assertEquals(expected, users);
+    // The group itself and three batches of members
+    assertEquals(4, directory.searches.size());
+    assertEquals(0, directory.searchesFor("jdoe"));
+  }
+
+  @Test
+  public void testSubgroupsAreMemoizedUntilTheNextSync() throws Exception {
+    directory.add("A", user("u1"), group("S"));
+    directory.add("B", user("u2"), group("S"));
+    directory.add("S", user("u3"));
+
+    LdapGroupsMapping mapping = mapping(5, false);
+    assertEquals(set("u1", "u3"), usersOf(mapping, "A"));
+    assertEquals(set("u2", "u3"), usersOf(mapping, "B"));
+    assertEquals(1, directory.searchesFor("S"));
+    assertEquals(1, directory.searchesFor("u3"));
+
+    // A new sync sees the changes of the subgroups
+    directory.add("S", user("u3"), user("u4"));
+    mapping.beginSync();
+    assertEquals(set("u1", "u3", "u4"), usersOf(mapping, "A"));
+    assertEquals(2, directory.searchesFor("S"));
+  }
+
+  @Test
+  public void testInChain() throws Exception {
+    directory.add("A", user("u1"), group("B"), group("C"));
+    directory.add("B", user("u2"), group("A"), group("C"));
+    directory.add("C", user("u1"), user("u3"));
+
+    LdapGroupsMapping mapping = mapping(1, true);
+    assertEquals(set("u1", "u2", "u3"), usersOf(mapping, "A"));
+    // One search for the group, one for its members, whatever the depth
+    assertEquals(2, directory.searches.size());
+    assertTrue(directory.searches.get(1).filter.contains(IN_CHAIN));
+    assertEquals(group("A"), directory.searches.get(1).args[0]);
+
+    assertFalse(mapping.doGetUsersOfGroup("missing").isFound());
+  }
+
+  private static class Search {
+    final String filter;
+    final Object[] args;
+
+    Search(String filter, Object[] args) {
+      this.filter = filter;
+      this.args = args;
+    }
+  }
+
+  /**
+   * Directory of groups by cn, any other Dn is a user. Answers the group searches by cn and
+   * the in chain searches of the users of a group
+   */
+  private static class StubDirectory implements InvocationHandler {
+    private final Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+    private final List<Search> searches = new ArrayList<Search>();
+
+    void add(String cn, String... members) {
+      groups.put(cn, Arrays.asList(members));
+    }
+
+    DirContext context() {
+      return (DirContext) Proxy.newProxyInstance(DirContext.class.getClassLoader(),
+          new Class<?>[] { DirContext.class }, this);
+    }
+
+    int searchesFor(String cn) {
+      int count = 0;
+      for (Search search : searches) {
+        if (Arrays.asList(search.args).contains(cn)) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] params) {
+      if (method.getName().equals("close")) {
+        return null;
+      }
+      if (!method.getName().equals("search") || params.length != 4
+          || !(params[1] instanceof String)) {
+        throw new UnsupportedOperationException(method.toString());
+      }
+      String filter = (String) params[1];
+      Object[] args = (Object[]) params[2];
+      SearchControls controls = (SearchControls) params[3];
+      searches.add(new Search(filter, args));
+
+      List<SearchResult> results = new ArrayList<SearchResult>();
+      if (filter.contains(IN_CHAIN)) {
+        for (String dn : usersInChain((String) args[0])) {
+          results.add(result(dn, Collections.<String> emptyList(), controls));
+        }
+      } else {
+        Set<Object> cns = new HashSet<Object>(Arrays.asList(args));
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+          if (cns.contains(group.getKey())) {
+            results.add(result(group(group.getKey()), group.getValue(), controls));
+          }
+        }
+      }
+      return new Results(results);
+    }
+
+    private Collection<String> usersInChain(String groupDn) {
+      Set<String> users = new TreeSet<String>();
+      Set<String> visited = new HashSet<String>();
+      List<String> level = Collections.singletonList(groupDn);
+      while (!level.isEmpty()) {
+        List<String> next = new ArrayList<String>();
+        for (String dn : level) {
+          List<String> members = groups.get(NestedGroupExpander.cnOf(dn));
+          if (!dn.equals(group(NestedGroupExpander.cnOf(dn))) || members == null) {
+            users.add(dn);
+          } else if (visited.add(dn)) {
+            next.addAll(members);
+          }
+        }
+        level = next;
+      }
+      return users;
+    }
+
+    private static SearchResult result(String dn, List<String> members,
+        SearchControls controls) {
+      BasicAttributes attrs = new BasicAttributes(true);
+      String[] returning = controls.getReturningAttributes();
+      if (returning != null && returning.length > 0 && !members.isEmpty()) {
+        BasicAttribute member = new BasicAttribute(returning[0]);
+        for (String memberDn : members) {
+          member.add(memberDn);
+        }
+        attrs.put(member);
+      }
+      SearchResult sr = new SearchResult(dn, null, attrs, false);
+      sr.setNameInNamespace(dn);
+      return sr;
+    }
+  }
+
+  private static class Results implements NamingEnumeration<SearchResult> {
+    private final Iterator<SearchResult> it;
+
+    Results(List<SearchResult> results) {
+      this.it = results.iterator();
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return it.hasNext();
+    }
+
+    @Override
+    public SearchResult nextElement() {
+      return it.next();
+    }
+
+    @Override
+    public boolean hasMore() {
+      return it.hasNext();
+    }
+
+    @Override
+    public SearchResult next() {
+      return it.next();
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}